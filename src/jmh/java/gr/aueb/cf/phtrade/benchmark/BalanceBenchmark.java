@@ -0,0 +1,73 @@
+package gr.aueb.cf.phtrade.benchmark;
+
+import gr.aueb.cf.phtrade.core.exceptions.EntityNotFoundException;
+import gr.aueb.cf.phtrade.dao.PharmacyDAOImpl;
+import gr.aueb.cf.phtrade.dao.TradeRecordDAOImpl;
+import gr.aueb.cf.phtrade.dao.UserDAOImpl;
+import gr.aueb.cf.phtrade.dto.BalanceDTO;
+import gr.aueb.cf.phtrade.dto.TradeRecordReadOnlyDTO;
+import gr.aueb.cf.phtrade.service.PharmacyServiceImpl;
+import gr.aueb.cf.phtrade.service.TradeRecordServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The balance methods of {@link TradeRecordServiceImpl} end to end, against
+ * the seeded in-memory database. {@code partners} is the number of contacts of
+ * the hub pharmacy, each with {@code tradesPerPartner} trades.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BalanceBenchmark {
+
+    @Param({"20"})
+    private int partners;
+
+    @Param({"50"})
+    private int tradesPerPartner;
+
+    private BenchmarkDatabase database;
+    private TradeRecordServiceImpl tradeRecordService;
+    private PharmacyServiceImpl pharmacyService;
+
+    @Setup
+    public void setUp() {
+        database = BenchmarkDatabase.start(partners, tradesPerPartner);
+        PharmacyDAOImpl pharmacyDAO = new PharmacyDAOImpl();
+        UserDAOImpl userDAO = new UserDAOImpl();
+        tradeRecordService = new TradeRecordServiceImpl(new TradeRecordDAOImpl(), pharmacyDAO, userDAO);
+        pharmacyService = new PharmacyServiceImpl(pharmacyDAO, userDAO, tradeRecordService);
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.stop();
+    }
+
+    @Benchmark
+    public Double calculateBalance() throws EntityNotFoundException {
+        return tradeRecordService.calculateBalanceBetweenPharmacies(database.hubId(), database.partnerId(0));
+    }
+
+    @Benchmark
+    public Integer tradeCount() throws EntityNotFoundException {
+        return tradeRecordService.getTradeCountBetweenPharmacies(database.hubId(), database.partnerId(0));
+    }
+
+    @Benchmark
+    public List<TradeRecordReadOnlyDTO> recentTrades() throws EntityNotFoundException {
+        return tradeRecordService.getRecentTradesBetweenPharmacies(database.hubId(), database.partnerId(0), 5);
+    }
+
+    // One balance, count and recent trades lookup per contact of the hub
+    @Benchmark
+    public List<BalanceDTO> balanceList() throws EntityNotFoundException {
+        return pharmacyService.getBalanceList(database.hubId(), "");
+    }
+}
@@ -0,0 +1,118 @@
+package gr.aueb.cf.phtrade.benchmark;
+
+import gr.aueb.cf.phtrade.core.enums.RoleType;
+import gr.aueb.cf.phtrade.model.Pharmacy;
+import gr.aueb.cf.phtrade.model.PharmacyContact;
+import gr.aueb.cf.phtrade.model.TradeRecord;
+import gr.aueb.cf.phtrade.model.User;
+import gr.aueb.cf.phtrade.security.SecUtil;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import jakarta.persistence.EntityManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * In-memory H2 (MySQL mode) in place of the MySQL of persistence.xml, seeded
+ * with one hub pharmacy that trades with all the others.
+ */
+public class BenchmarkDatabase {
+
+    // Hashed once, BCrypt per seeded user would dominate the setup
+    private static final String PASSWORD_HASH = SecUtil.hashPassword("benchmark");
+
+    private final List<Long> pharmacyIds = new ArrayList<>();
+
+    public static Map<String, Object> h2Properties() {
+        return Map.of(
+                "hibernate.hikari.dataSourceClassName", "org.h2.jdbcx.JdbcDataSource",
+                "hibernate.hikari.dataSource.url",
+                "jdbc:h2:mem:phtrade;MODE=MySQL;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE",
+                "hibernate.hikari.dataSource.user", "sa",
+                "hibernate.hikari.dataSource.password", "",
+                "hibernate.hikari.minimumIdle", "2",
+                "hibernate.hbm2ddl.auto", "create-drop",
+                "hibernate.generate_statistics", "false");
+    }
+
+    public static BenchmarkDatabase start(int partners, int tradesPerPartner) {
+        JPAHelper.setPropertyOverrides(h2Properties());
+        BenchmarkDatabase database = new BenchmarkDatabase();
+        database.seed(partners, tradesPerPartner);
+        return database;
+    }
+
+    public Long hubId() {
+        return pharmacyIds.get(0);
+    }
+
+    public Long partnerId(int index) {
+        return pharmacyIds.get(1 + index % (pharmacyIds.size() - 1));
+    }
+
+    public void stop() {
+        JPAHelper.closeEMF();
+    }
+
+    private void seed(int partners, int tradesPerPartner) {
+        Random random = new Random(42);
+        try {
+            JPAHelper.beginTransaction();
+            EntityManager em = JPAHelper.getEntityManager();
+
+            User hubUser = user("hub", RoleType.PHARMACY_USER);
+            em.persist(hubUser);
+            Pharmacy hub = Pharmacy.builder().name("Hub Pharmacy").user(hubUser).build();
+            em.persist(hub);
+            pharmacyIds.add(hub.getId());
+
+            for (int i = 0; i < partners; i++) {
+                User partnerUser = user("partner" + i, RoleType.PHARMACY_USER);
+                em.persist(partnerUser);
+                Pharmacy partner = Pharmacy.builder().name("Partner " + i).user(partnerUser).build();
+                em.persist(partner);
+                pharmacyIds.add(partner.getId());
+
+                em.persist(PharmacyContact.builder()
+                        .user(hubUser)
+                        .pharmacy(partner)
+                        .contactName("Contact " + i)
+                        .build());
+
+                for (int t = 0; t < tradesPerPartner; t++) {
+                    boolean hubGives = random.nextBoolean();
+                    em.persist(TradeRecord.builder()
+                            .description("Trade " + t)
+                            .amount(1 + random.nextInt(500) + random.nextInt(100) / 100.0)
+                            .giver(hubGives ? hub : partner)
+                            .receiver(hubGives ? partner : hub)
+                            .recorder(hubGives ? hubUser : partnerUser)
+                            .lastModifiedBy(hubGives ? hubUser : partnerUser)
+                            .transactionDate(LocalDateTime.now().minusDays(random.nextInt(365)))
+                            .build());
+                }
+                if (i % 10 == 9) {
+                    em.flush();
+                    em.clear();
+                    hub = em.find(Pharmacy.class, hub.getId());
+                    hubUser = em.find(User.class, hubUser.getId());
+                }
+            }
+            JPAHelper.commitTransaction();
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    private static User user(String username, RoleType roleType) {
+        return User.builder()
+                .username(username)
+                .password(PASSWORD_HASH)
+                .email(username + "@phtrade.gr")
+                .roleType(roleType)
+                .build();
+    }
+}
@@ -0,0 +1,80 @@
+package gr.aueb.cf.phtrade.benchmark;
+
+import gr.aueb.cf.phtrade.dao.TradeRecordDAOImpl;
+import gr.aueb.cf.phtrade.model.TradeRecord;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicate construction of {@code AbstractDAO} for the criteria the trade
+ * record filters send. Only the criteria tree is built, nothing is executed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CriteriaBenchmark {
+
+    private EntityManager em;
+    private CriteriaBuilder builder;
+    private ExposedDAO dao;
+    private Map<String, Object> filters;
+
+    @Setup
+    public void setUp() {
+        JPAHelper.setPropertyOverrides(BenchmarkDatabase.h2Properties());
+        em = JPAHelper.getEntityManagerFactory().createEntityManager();
+        builder = em.getCriteriaBuilder();
+        dao = new ExposedDAO();
+        filters = Map.of(
+                "giver.id", 1L,
+                "receiver.id", List.of(2L, 3L, 4L),
+                "transactionDate", Map.of("from", LocalDateTime.now().minusMonths(1), "to", LocalDateTime.now()),
+                "description", "Trade%",
+                "deletedByGiver", false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        em.close();
+        JPAHelper.closeEMF();
+    }
+
+    @Benchmark
+    public List<Predicate> predicates() {
+        CriteriaQuery<TradeRecord> query = builder.createQuery(TradeRecord.class);
+        Root<TradeRecord> root = query.from(TradeRecord.class);
+        return dao.predicates(builder, root, filters);
+    }
+
+    @Benchmark
+    public Path<?> resolveNestedPath() {
+        CriteriaQuery<TradeRecord> query = builder.createQuery(TradeRecord.class);
+        Root<TradeRecord> root = query.from(TradeRecord.class);
+        return dao.path(root, "giver.user.username");
+    }
+
+    private static class ExposedDAO extends TradeRecordDAOImpl {
+
+        List<Predicate> predicates(CriteriaBuilder builder, Root<TradeRecord> root, Map<String, Object> criteria) {
+            return getPredicatesList(builder, root, criteria);
+        }
+
+        Path<?> path(Root<TradeRecord> root, String expression) {
+            return resolvePath(root, expression);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package gr.aueb.cf.phtrade.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gr.aueb.cf.phtrade.config.JacksonConfig;
+import gr.aueb.cf.phtrade.dto.BalanceDTO;
+import gr.aueb.cf.phtrade.dto.PaginatedResult;
+import gr.aueb.cf.phtrade.dto.TradeRecordReadOnlyDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Serialization with the ObjectMapper Jersey gets from {@link JacksonConfig}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private List<BalanceDTO> balanceList;
+    private PaginatedResult<TradeRecordReadOnlyDTO> page;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new JacksonConfig().getContext(ObjectMapper.class);
+        List<TradeRecordReadOnlyDTO> records = IntStream.range(0, 20)
+                .mapToObj(i -> new TradeRecordReadOnlyDTO((long) i, "Trade " + i, 10.5 * i,
+                        1L, "Giver", 2L, "Receiver", "giver", "giver", LocalDateTime.now(), false, false))
+                .collect(Collectors.toList());
+        balanceList = IntStream.range(0, 20)
+                .mapToObj(i -> new BalanceDTO("Contact " + i, "Pharmacy " + i, 100.0 - i,
+                        records.subList(0, 5), 42))
+                .collect(Collectors.toList());
+        page = new PaginatedResult<>(records, 0, 20, 50, 1000);
+    }
+
+    @Benchmark
+    public byte[] balanceList() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(balanceList);
+    }
+
+    @Benchmark
+    public byte[] paginatedRecords() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+}
@@ -0,0 +1,45 @@
+package gr.aueb.cf.phtrade.benchmark;
+
+import gr.aueb.cf.phtrade.core.enums.RoleType;
+import gr.aueb.cf.phtrade.model.User;
+import gr.aueb.cf.phtrade.security.JwtService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtBenchmark {
+
+    private JwtService jwtService;
+    private User user;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtService = new JwtService();
+        user = User.builder().id(1L).username("pharmacist").roleType(RoleType.PHARMACY_USER).build();
+        token = jwtService.generateToken(user.getUsername(), user.getRoleType().name());
+    }
+
+    @Benchmark
+    public String generate() {
+        return jwtService.generateToken(user.getUsername(), user.getRoleType().name());
+    }
+
+    @Benchmark
+    public String extractSubject() {
+        return jwtService.extractSubject(token);
+    }
+
+    // What JwtAuthenticationFilter does per request: subject lookup plus validation
+    @Benchmark
+    public boolean verify() {
+        jwtService.extractSubject(token);
+        return jwtService.isTokenValid(token, user);
+    }
+}
@@ -0,0 +1,68 @@
+package gr.aueb.cf.phtrade.benchmark;
+
+import gr.aueb.cf.phtrade.core.enums.RoleType;
+import gr.aueb.cf.phtrade.dto.PharmacyReadOnlyDTO;
+import gr.aueb.cf.phtrade.dto.TradeRecordReadOnlyDTO;
+import gr.aueb.cf.phtrade.mapper.Mapper;
+import gr.aueb.cf.phtrade.model.Pharmacy;
+import gr.aueb.cf.phtrade.model.TradeRecord;
+import gr.aueb.cf.phtrade.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    private Pharmacy giver;
+    private TradeRecord record;
+    private List<TradeRecord> page;
+
+    @Setup
+    public void setUp() {
+        User user = User.builder().id(1L).username("giver").email("giver@phtrade.gr")
+                .roleType(RoleType.PHARMACY_USER).build();
+        giver = Pharmacy.builder().id(1L).name("Giver").user(user).build();
+        giver.setCreatedAt(LocalDateTime.now());
+        Pharmacy receiver = Pharmacy.builder().id(2L).name("Receiver").user(user).build();
+        page = IntStream.range(0, 20)
+                .mapToObj(i -> TradeRecord.builder()
+                        .id((long) i)
+                        .description("Trade " + i)
+                        .amount(10.5 * i)
+                        .giver(giver)
+                        .receiver(receiver)
+                        .recorder(user)
+                        .lastModifiedBy(user)
+                        .transactionDate(LocalDateTime.now())
+                        .build())
+                .collect(Collectors.toList());
+        record = page.get(0);
+    }
+
+    @Benchmark
+    public TradeRecordReadOnlyDTO tradeRecord() {
+        return Mapper.mapToTradeRecordReadOnlyDTO(record);
+    }
+
+    @Benchmark
+    public List<TradeRecordReadOnlyDTO> tradeRecordPage() {
+        return page.stream()
+                .map(Mapper::mapToTradeRecordReadOnlyDTO)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public PharmacyReadOnlyDTO pharmacy() {
+        return Mapper.mapToPharmacyReadOnlyDTO(giver);
+    }
+}
@@ -0,0 +1,39 @@
+package gr.aueb.cf.phtrade.benchmark;
+
+import gr.aueb.cf.phtrade.dto.TradeRecordInsertDTO;
+import gr.aueb.cf.phtrade.validator.ValidatorUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidatorBenchmark {
+
+    private TradeRecordInsertDTO valid;
+    private TradeRecordInsertDTO invalid;
+
+    @Setup
+    public void setUp() {
+        valid = new TradeRecordInsertDTO("Depon 500mg", 42.5,
+                LocalDateTime.now().minusDays(1), 1L, 2L, 1L);
+        invalid = new TradeRecordInsertDTO("", -1.0,
+                LocalDateTime.now().plusDays(1), 1L, 2L, 1L);
+    }
+
+    @Benchmark
+    public List<String> validDTO() {
+        return ValidatorUtil.validateDTO(valid);
+    }
+
+    @Benchmark
+    public List<String> invalidDTO() {
+        return ValidatorUtil.validateDTO(invalid);
+    }
+}
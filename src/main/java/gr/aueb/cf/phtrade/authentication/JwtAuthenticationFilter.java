@@ -1,11 +1,14 @@
 package gr.aueb.cf.phtrade.authentication;
 
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotAuthorizedException;
+import gr.aueb.cf.phtrade.core.timing.RequestTimings;
 import gr.aueb.cf.phtrade.dao.IUserDAO;
 import gr.aueb.cf.phtrade.model.User;
 import gr.aueb.cf.phtrade.security.CustomSecurityContext;
 import gr.aueb.cf.phtrade.security.JwtService;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
 import jakarta.annotation.Priority;
+import jakarta.enterprise.context.Dependent;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.NotAuthorizedException;
 import jakarta.ws.rs.Priorities;
@@ -22,8 +25,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Optional;
 
 @Provider
+@Dependent
 @Priority(Priorities.AUTHENTICATION)
 @RequiredArgsConstructor(onConstructor = @__(@Inject))
 public class JwtAuthenticationFilter implements ContainerRequestFilter {
@@ -41,12 +46,21 @@ public class JwtAuthenticationFilter implements ContainerRequestFilter {
 
         UriInfo uriInfo = requestContext.getUriInfo();
 
+        // Filters run on the container thread, also in virtual mode where the
+        // resource method runs elsewhere: a unit of work still bound here was
+        // leaked by an earlier request and would serve it stale entities
+        if (JPAHelper.isBound()) {
+            LOGGER.error("Persistence context leaked into request {}, closing it", uriInfo.getPath());
+            JPAHelper.closeEntityManager();
+        }
+
         // if we have /api/auth/register
         // getPath() will return auth/register
         String path = uriInfo.getPath();
         if (isPublicPath(path)) {
             return;
         }
+        long authStart = RequestTimings.start();
         try {
             String authorizationHeader = requestContext.getHeaderString(HttpHeaders.AUTHORIZATION);
             if (authorizationHeader == null || !authorizationHeader.startsWith("Bearer ")) {
@@ -75,7 +89,7 @@ public class JwtAuthenticationFilter implements ContainerRequestFilter {
             }
 
             if (securityContext == null || securityContext.getUserPrincipal() == null) {
-                User user = userDAO.getByUsername(username)
+                User user = findUser(username)
                         .orElseThrow(() -> {
                             LOGGER.warn("User not found {}", username);
                             return new EntityNotAuthorizedException("User", "Invalid credentials");
@@ -90,12 +104,30 @@ public class JwtAuthenticationFilter implements ContainerRequestFilter {
             }
         } catch (EntityNotAuthorizedException e) {
             LOGGER.warn("JWT validation failed", e);
+        } finally {
+            RequestTimings.stop(RequestTimings.Phase.AUTH, authStart);
+        }
+    }
+
+    // Its own unit of work: the request may end without reaching a service
+    // (a 401, a 429, /metrics), which would leave the entity manager and its
+    // cached user bound to the pooled thread for the next request
+    private Optional<User> findUser(String username) {
+        try {
+            JPAHelper.beginTransaction();
+            Optional<User> user = userDAO.getByUsername(username);
+            JPAHelper.commitTransaction();
+            return user;
+        } finally {
+            JPAHelper.closeEntityManager();
         }
     }
 
     //Τα register και log in θελω να ειναι public, γι αυτο μπαινουν εδω. (να
     // μην χρειαζεται log in)
     private boolean isPublicPath(String path) {
-        return path.equals("auth/register") || path.equals("auth/login");
+        return path.equals("auth/register") || path.equals("auth/login")
+                // /metrics checks its own token, see MetricsRestController
+                || path.startsWith("health/") || path.equals("metrics");
     }
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+package gr.aueb.cf.phtrade.authentication;
+
+import gr.aueb.cf.phtrade.core.ratelimit.ClientAddressListener;
+import gr.aueb.cf.phtrade.core.ratelimit.RateLimited;
+import gr.aueb.cf.phtrade.core.ratelimit.TokenBucket;
+import gr.aueb.cf.phtrade.core.ratelimit.TokenBucketStore;
+import gr.aueb.cf.phtrade.core.services.ErrorResponseCache;
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.ext.Provider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiting per authenticated user and per remote IP.
+ * Runs right after {@link JwtAuthenticationFilter} so the user principal
+ * is already known. Limits come from {@link RateLimited} on the resource
+ * method or class.
+ */
+@Provider
+@Priority(Priorities.AUTHENTICATION + 10)
+public class RateLimitFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitFilter.class);
+
+    private static final String LIMIT_HEADER = "RateLimit-Limit";
+    private static final String REMAINING_HEADER = "RateLimit-Remaining";
+    private static final String RESET_HEADER = "RateLimit-Reset";
+    private static final String STATE_PROPERTY = RateLimitFilter.class.getName() + ".state";
+
+    private static final long DEFAULT_CAPACITY = 120;
+    private static final long DEFAULT_PERIOD_SECONDS = 60;
+    // Turned off by the load harness, which sends everything from one IP
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("phtrade.ratelimit.enabled", "true"));
+
+    private static final TokenBucketStore BUCKETS = new TokenBucketStore(64, 100_000);
+
+    @Context
+    ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        Method method = resourceInfo.getResourceMethod();
+        if (!ENABLED || method == null) {
+            return;
+        }
+
+        RateLimited limit = method.getAnnotation(RateLimited.class);
+        if (limit == null) {
+            limit = resourceInfo.getResourceClass().getAnnotation(RateLimited.class);
+        }
+        long capacity = limit != null ? limit.capacity() : DEFAULT_CAPACITY;
+        long periodNanos = TimeUnit.SECONDS.toNanos(limit != null ? limit.periodSeconds() : DEFAULT_PERIOD_SECONDS);
+        String scope = resourceInfo.getResourceClass().getSimpleName() + "#" + capacity + "/" + periodNanos;
+        long now = System.nanoTime();
+
+        // The tighter of the two buckets decides
+        TokenBucket bucket = null;
+        long remaining = Long.MAX_VALUE;
+
+        SecurityContext securityContext = requestContext.getSecurityContext();
+        if (securityContext != null && securityContext.getUserPrincipal() != null) {
+            TokenBucket userBucket = BUCKETS.bucketFor("u:" + securityContext.getUserPrincipal().getName()
+                    + "|" + scope, capacity, periodNanos, now);
+            remaining = userBucket.tryAcquire(now);
+            bucket = userBucket;
+        }
+
+        String ip = (String) requestContext.getProperty(ClientAddressListener.ATTRIBUTE);
+        if (ip != null && remaining >= 0) {
+            TokenBucket ipBucket = BUCKETS.bucketFor("ip:" + ip + "|" + scope, capacity, periodNanos, now);
+            long ipRemaining = ipBucket.tryAcquire(now);
+            if (ipRemaining < remaining) {
+                remaining = ipRemaining;
+                bucket = ipBucket;
+            }
+        }
+
+        if (bucket == null) {
+            return;
+        }
+
+        if (remaining < 0) {
+            long retryAfter = toSeconds(bucket.nanosUntilToken(now));
+            LOGGER.warn("Rate limit exceeded for {} on {}", ip, requestContext.getUriInfo().getPath());
+            requestContext.abortWith(Response.status(Response.Status.TOO_MANY_REQUESTS)
+                    .entity(ErrorResponseCache.body("TooManyRequests", "Rate limit exceeded, retry in "
+                            + retryAfter + " seconds"))
+                    .type(MediaType.APPLICATION_JSON)
+                    .header(LIMIT_HEADER, capacity)
+                    .header(REMAINING_HEADER, 0)
+                    .header(RESET_HEADER, retryAfter)
+                    .header("Retry-After", retryAfter)
+                    .build());
+            return;
+        }
+
+        requestContext.setProperty(STATE_PROPERTY,
+                new long[] {capacity, remaining, toSeconds(bucket.nanosUntilFull(now))});
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+            throws IOException {
+        Object state = requestContext.getProperty(STATE_PROPERTY);
+        if (!(state instanceof long[] values)) {
+            return;
+        }
+        MultivaluedMap<String, Object> headers = responseContext.getHeaders();
+        headers.putSingle(LIMIT_HEADER, values[0]);
+        headers.putSingle(REMAINING_HEADER, values[1]);
+        headers.putSingle(RESET_HEADER, values[2]);
+    }
+
+    private static long toSeconds(long nanos) {
+        return (nanos + 999_999_999L) / 1_000_000_000L;
+    }
+}
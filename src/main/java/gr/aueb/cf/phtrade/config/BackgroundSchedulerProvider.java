@@ -0,0 +1,38 @@
+package gr.aueb.cf.phtrade.config;
+
+import org.glassfish.jersey.server.BackgroundScheduler;
+import org.glassfish.jersey.spi.ScheduledExecutorServiceProvider;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Jersey's background scheduler, which runs tasks submitted for immediate
+ * execution on the {@link ManagedAsyncExecutorProvider} executor.
+ * jersey-cdi2-se resolves qualified executors by type only, so Jersey may get
+ * this scheduler where it asks for the managed async executor. With Jersey's
+ * default scheduler every managed async resource method then ran on its
+ * single thread.
+ * <p>
+ * Registered by {@link VirtualExecutionFeature} in {@link ExecutionMode#VIRTUAL}
+ * mode only, otherwise the scheduler of the container is left alone.
+ */
+@BackgroundScheduler
+public class BackgroundSchedulerProvider implements ScheduledExecutorServiceProvider {
+
+    @Override
+    public ScheduledExecutorService getExecutorService() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "phtrade-background-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new ContextPropagatingScheduledExecutorService(ManagedAsyncExecutorProvider.shared(), scheduler);
+    }
+
+    @Override
+    public void dispose(ExecutorService executorService) {
+        executorService.shutdown();
+    }
+}
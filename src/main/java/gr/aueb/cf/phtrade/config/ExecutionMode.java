@@ -0,0 +1,20 @@
+package gr.aueb.cf.phtrade.config;
+
+/**
+ * How resource methods are executed, chosen with the
+ * {@code phtrade.execution.mode} system property.
+ * <ul>
+ *     <li>{@code container} (default): on the servlet container request thread.</li>
+ *     <li>{@code virtual}: handed off to a virtual thread per request (Java 21+),
+ *     falling back to a bounded platform pool on older runtimes.</li>
+ * </ul>
+ */
+public enum ExecutionMode {
+    CONTAINER,
+    VIRTUAL;
+
+    public static ExecutionMode current() {
+        String mode = System.getProperty("phtrade.execution.mode", "container");
+        return "virtual".equalsIgnoreCase(mode) ? VIRTUAL : CONTAINER;
+    }
+}
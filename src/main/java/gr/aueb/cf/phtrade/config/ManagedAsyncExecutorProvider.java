@@ -0,0 +1,70 @@
+package gr.aueb.cf.phtrade.config;
+
+import jakarta.ws.rs.ext.Provider;
+import org.glassfish.jersey.server.ManagedAsyncExecutor;
+import org.glassfish.jersey.spi.ExecutorServiceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for managed async resource methods.
+ * On Java 21+ every request gets its own virtual thread, so a request
+ * blocked in JDBC does not hold a platform thread. Database concurrency
+ * itself is bounded by the permits in {@code JPAHelper}.
+ * Jersey looks the executor up by its qualifier, which jersey-cdi2-se
+ * ignores, see {@link BackgroundSchedulerProvider}.
+ * The lookup is reflective because the build still targets Java 17.
+ */
+@Provider
+@ManagedAsyncExecutor
+public class ManagedAsyncExecutorProvider implements ExecutorServiceProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManagedAsyncExecutorProvider.class);
+    private static final int FALLBACK_POOL_SIZE = Integer.getInteger("phtrade.execution.poolSize", 200);
+
+    private static ExecutorService executor;
+
+    @Override
+    public ExecutorService getExecutorService() {
+        return shared();
+    }
+
+    /**
+     * The executor of resource methods, also used by
+     * {@link BackgroundSchedulerProvider} for tasks that run right away.
+     */
+    static synchronized ExecutorService shared() {
+        if (executor == null || executor.isShutdown()) {
+            executor = create();
+        }
+        return executor;
+    }
+
+    private static ExecutorService create() {
+        try {
+            ExecutorService virtual = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            LOGGER.info("Resource methods run on virtual threads");
+            return new ContextPropagatingExecutorService(virtual);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads are not available on Java {}, using a pool of {} platform threads",
+                    Runtime.version().feature(), FALLBACK_POOL_SIZE);
+            AtomicInteger counter = new AtomicInteger();
+            return new ContextPropagatingExecutorService(Executors.newFixedThreadPool(FALLBACK_POOL_SIZE, r -> {
+                Thread thread = new Thread(r, "phtrade-async-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
+    }
+
+    @Override
+    public void dispose(ExecutorService executorService) {
+        executorService.shutdown();
+    }
+}
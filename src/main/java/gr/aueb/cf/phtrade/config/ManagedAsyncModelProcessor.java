@@ -0,0 +1,52 @@
+package gr.aueb.cf.phtrade.config;
+
+import jakarta.ws.rs.core.Configuration;
+import jakarta.ws.rs.ext.Provider;
+import org.glassfish.jersey.server.model.ModelProcessor;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.model.ResourceModel;
+
+/**
+ * In {@link ExecutionMode#VIRTUAL} mode marks every resource method as
+ * managed async, so Jersey suspends the container thread and runs the
+ * method on the {@link ManagedAsyncExecutorProvider} executor.
+ * Methods that already manage their own async response (suspended or SSE)
+ * are left as they are.
+ */
+@Provider
+public class ManagedAsyncModelProcessor implements ModelProcessor {
+
+    @Override
+    public ResourceModel processResourceModel(ResourceModel resourceModel, Configuration configuration) {
+        if (ExecutionMode.current() != ExecutionMode.VIRTUAL) {
+            return resourceModel;
+        }
+        ResourceModel.Builder builder = new ResourceModel.Builder(false);
+        for (Resource resource : resourceModel.getResources()) {
+            builder.addResource(toManagedAsync(resource));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public ResourceModel processSubResource(ResourceModel subResourceModel, Configuration configuration) {
+        return subResourceModel;
+    }
+
+    private Resource toManagedAsync(Resource resource) {
+        if (resource.isExtended()) {
+            return resource;
+        }
+        Resource.Builder builder = Resource.builder(resource);
+        for (ResourceMethod method : resource.getResourceMethods()) {
+            if (!method.isSuspendDeclared() && !method.isSse() && !method.isManagedAsyncDeclared()) {
+                builder.updateMethod(method).managedAsync();
+            }
+        }
+        for (Resource child : resource.getChildResources()) {
+            builder.replaceChildResource(child, toManagedAsync(child));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,22 @@
+package gr.aueb.cf.phtrade.config;
+
+import jakarta.ws.rs.core.Feature;
+import jakarta.ws.rs.core.FeatureContext;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * The providers that only belong to {@link ExecutionMode#VIRTUAL} mode. In
+ * container mode nothing is registered, Jersey keeps its own scheduler.
+ */
+@Provider
+public class VirtualExecutionFeature implements Feature {
+
+    @Override
+    public boolean configure(FeatureContext context) {
+        if (ExecutionMode.current() != ExecutionMode.VIRTUAL) {
+            return false;
+        }
+        context.register(BackgroundSchedulerProvider.class);
+        return true;
+    }
+}
@@ -0,0 +1,342 @@
+package gr.aueb.cf.phtrade.core.changes;
+
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
+import gr.aueb.cf.phtrade.model.ChangeSequence;
+import gr.aueb.cf.phtrade.model.ChangeTombstone;
+import gr.aueb.cf.phtrade.model.ChangeTracked;
+import gr.aueb.cf.phtrade.model.Pharmacy;
+import gr.aueb.cf.phtrade.model.PharmacyContact;
+import gr.aueb.cf.phtrade.model.TradeRecord;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import gr.aueb.cf.phtrade.service.util.ShardRouter;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.PersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Change sequences of trade records, pharmacies and contacts, for the delta
+ * sync endpoints ({@code GET /records/changes} and the like).
+ * <p>
+ * The services register the entities they create, update or delete. When the
+ * unit of work commits, {@link JPAHelper} calls {@link #stamp()}: each changed
+ * entity gets the next value of the {@code change_sequences} row of its type
+ * in {@code change_seq}, and each deleted one a row in
+ * {@code change_tombstones}. The sequence row stays locked until the commit,
+ * so a reader never sees a change before an older one of the same type and a
+ * client that asks for everything after the last sequence it saw misses
+ * nothing. With sharding every shard has its own sequences for its records.
+ * <p>
+ * Rows written before change sequences existed are numbered in the background
+ * at startup.
+ */
+public final class ChangeFeed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeFeed.class);
+
+    private static final List<Class<? extends ChangeTracked>> TYPES =
+            List.of(TradeRecord.class, Pharmacy.class, PharmacyContact.class);
+    // Sorts after the shards, the main database commits last
+    private static final int MAIN_DATABASE = Integer.MAX_VALUE;
+    private static final int BACKFILL_CHUNK = 5_000;
+
+    // Changes of the unit of work running on this thread, true for a deletion
+    private static final ThreadLocal<Map<Change, Boolean>> PENDING = new ThreadLocal<>();
+
+    private static ExecutorService backfill;
+
+    private ChangeFeed() {
+
+    }
+
+    public static void changed(Class<? extends ChangeTracked> type, Long id) {
+        register(type, id, false);
+    }
+
+    public static void deleted(Class<? extends ChangeTracked> type, Long id) {
+        register(type, id, true);
+    }
+
+    /**
+     * Numbers the changes registered by the unit of work. Called by
+     * {@link JPAHelper#commitTransaction()} right before the commit, so the
+     * sequence rows are locked as briefly as possible.
+     *
+     * @return the shards with changes of the unit of work
+     */
+    public static Set<Integer> stamp() {
+        Map<Change, Boolean> pending = PENDING.get();
+        if (pending == null || pending.isEmpty()) {
+            return Set.of();
+        }
+        PENDING.remove();
+
+        // Sequences are locked in one order, database then type, so two
+        // units of work cannot wait for each other
+        Map<Integer, Map<String, List<Map.Entry<Change, Boolean>>>> byDatabase = new TreeMap<>();
+        for (Map.Entry<Change, Boolean> entry : pending.entrySet()) {
+            Change change = entry.getKey();
+            byDatabase.computeIfAbsent(database(change.type(), change.id()), database -> new TreeMap<>())
+                    .computeIfAbsent(change.type().getSimpleName(), type -> new ArrayList<>())
+                    .add(entry);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        byDatabase.forEach((database, byType) -> {
+            EntityManager em = database == MAIN_DATABASE
+                    ? JPAHelper.getEntityManager()
+                    : JPAHelper.getShardEntityManager(database);
+            byType.forEach((type, changes) -> {
+                long sequence = allocate(em, type, changes.size());
+                for (Map.Entry<Change, Boolean> entry : changes) {
+                    Change change = entry.getKey();
+                    if (entry.getValue()) {
+                        em.persist(ChangeTombstone.builder()
+                                .entityType(type)
+                                .entityId(change.id())
+                                .changeSeq(sequence)
+                                .deletedAt(now)
+                                .build());
+                    } else {
+                        ChangeTracked entity = em.find(change.type(), change.id());
+                        if (entity != null) {
+                            entity.setChangeSeq(sequence);
+                        }
+                    }
+                    sequence++;
+                }
+            });
+        });
+        Set<Integer> shards = new TreeSet<>(byDatabase.keySet());
+        shards.remove(MAIN_DATABASE);
+        return shards;
+    }
+
+    /**
+     * Forgets the changes of a unit of work that ends without commit.
+     */
+    public static void discard() {
+        PENDING.remove();
+    }
+
+    /**
+     * The page of a change feed after {@code since}: the changed entities and
+     * the ids of the deleted ones, at most {@code limit} in total, in the order
+     * of their changes.
+     *
+     * @param changedSince up to {@code limit + 1} entities with a change
+     *                     sequence above {@code since}, in sequence order
+     */
+    public static <T extends ChangeTracked> Page<T> page(EntityManager em, Class<T> type, long since, int limit,
+                                                         List<T> changedSince) {
+        List<ChangeTombstone> tombstones = em.createQuery("select t from ChangeTombstone t "
+                        + "where t.entityType = :type and t.changeSeq > :since order by t.changeSeq",
+                        ChangeTombstone.class)
+                .setParameter("type", type.getSimpleName())
+                .setParameter("since", since)
+                .setMaxResults(limit + 1)
+                .getResultList();
+
+        List<T> changed = new ArrayList<>();
+        List<Long> deleted = new ArrayList<>();
+        long last = since;
+        int c = 0;
+        int t = 0;
+        while (changed.size() + deleted.size() < limit
+                && (c < changedSince.size() || t < tombstones.size())) {
+            if (t == tombstones.size() || (c < changedSince.size()
+                    && changedSince.get(c).getChangeSeq() < tombstones.get(t).getChangeSeq())) {
+                T entity = changedSince.get(c++);
+                changed.add(entity);
+                last = entity.getChangeSeq();
+            } else {
+                ChangeTombstone tombstone = tombstones.get(t++);
+                deleted.add(tombstone.getEntityId());
+                last = tombstone.getChangeSeq();
+            }
+        }
+        return new Page<>(changed, deleted, last, c < changedSince.size() || t < tombstones.size());
+    }
+
+    /**
+     * The last sequences a client has seen, one per database. A missing or
+     * blank token starts from the beginning.
+     */
+    public static long[] parseToken(String token, int databases) throws EntityInvalidArgumentException {
+        long[] sequences = new long[databases];
+        if (token == null || token.isBlank()) {
+            return sequences;
+        }
+        String[] parts = token.split("\\.", -1);
+        if (parts.length != databases) {
+            throw new EntityInvalidArgumentException("ChangeToken", "Invalid change token " + token);
+        }
+        try {
+            for (int i = 0; i < databases; i++) {
+                sequences[i] = Long.parseLong(parts[i]);
+                if (sequences[i] < 0) {
+                    throw new NumberFormatException();
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new EntityInvalidArgumentException("ChangeToken", "Invalid change token " + token);
+        }
+        return sequences;
+    }
+
+    public static String formatToken(long[] sequences) {
+        StringJoiner token = new StringJoiner(".");
+        for (long sequence : sequences) {
+            token.add(Long.toString(sequence));
+        }
+        return token.toString();
+    }
+
+    /**
+     * Creates the missing sequence rows, so units of work do not race to
+     * insert them, and numbers the rows without a change sequence in the
+     * background.
+     */
+    public static synchronized void start() {
+        if (backfill != null) {
+            return;
+        }
+        Map<Class<? extends ChangeTracked>, List<EntityManagerFactory>> databases = new LinkedHashMap<>();
+        for (Class<? extends ChangeTracked> type : TYPES) {
+            List<EntityManagerFactory> factories = type == TradeRecord.class
+                    ? JPAHelper.getTradeRecordEntityManagerFactories()
+                    : List.of(JPAHelper.getEntityManagerFactory());
+            for (EntityManagerFactory emf : factories) {
+                createSequence(emf, type.getSimpleName());
+            }
+            databases.put(type, factories);
+        }
+        backfill = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "phtrade-changes");
+            thread.setDaemon(true);
+            return thread;
+        });
+        backfill.execute(() -> databases.forEach((type, factories) -> {
+            for (EntityManagerFactory emf : factories) {
+                try {
+                    backfill(emf, type.getSimpleName());
+                } catch (RuntimeException e) {
+                    LOGGER.error("Numbering the {} rows failed, retried at the next start", type.getSimpleName(), e);
+                }
+            }
+        }));
+    }
+
+    public static synchronized void stop() {
+        if (backfill != null) {
+            backfill.shutdownNow();
+            backfill = null;
+        }
+    }
+
+    private static void register(Class<? extends ChangeTracked> type, Long id, boolean deleted) {
+        Map<Change, Boolean> pending = PENDING.get();
+        if (pending == null) {
+            pending = new LinkedHashMap<>();
+            PENDING.set(pending);
+        }
+        pending.merge(new Change(type, id), deleted, Boolean::logicalOr);
+    }
+
+    private static int database(Class<? extends ChangeTracked> type, long id) {
+        return type == TradeRecord.class && ShardRouter.isEnabled() ? ShardRouter.shardForId(id) : MAIN_DATABASE;
+    }
+
+    // The first of count new sequence values, the row is locked until the commit
+    private static long allocate(EntityManager em, String name, int count) {
+        ChangeSequence sequence = em.find(ChangeSequence.class, name, LockModeType.PESSIMISTIC_WRITE);
+        if (sequence == null) {
+            // Only before start() has run
+            sequence = new ChangeSequence(name, 0);
+            em.persist(sequence);
+        }
+        long first = sequence.getLastValue() + 1;
+        sequence.setLastValue(sequence.getLastValue() + count);
+        return first;
+    }
+
+    private static void createSequence(EntityManagerFactory emf, String name) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            if (em.find(ChangeSequence.class, name) == null) {
+                em.persist(new ChangeSequence(name, 0));
+            }
+            em.getTransaction().commit();
+        } catch (PersistenceException e) {
+            // Created by another instance in the meantime
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Numbers the rows without a change sequence, a range of ids at a time.
+     * A row gets its sequence from its id and the first value allocated for
+     * the range, so one statement numbers the whole range.
+     */
+    private static void backfill(EntityManagerFactory emf, String entity) {
+        EntityManager em = emf.createEntityManager();
+        long numbered = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                em.getTransaction().begin();
+                try {
+                    long base = allocate(em, entity, BACKFILL_CHUNK);
+                    Long first = em.createQuery("select min(e.id) from " + entity + " e where e.changeSeq is null",
+                            Long.class).getSingleResult();
+                    if (first == null) {
+                        // Nothing left, the allocation is not kept
+                        em.getTransaction().rollback();
+                        break;
+                    }
+                    numbered += em.createQuery("update " + entity + " e set e.changeSeq = :base + e.id "
+                                    + "where e.changeSeq is null and e.id between :first and :last")
+                            .setParameter("base", base - first)
+                            .setParameter("first", first)
+                            .setParameter("last", first + BACKFILL_CHUNK - 1)
+                            .executeUpdate();
+                    em.getTransaction().commit();
+                } catch (RuntimeException e) {
+                    if (em.getTransaction().isActive()) {
+                        em.getTransaction().rollback();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            em.close();
+        }
+        if (numbered > 0) {
+            LOGGER.info("Numbered {} {} rows for the change feed", numbered, entity);
+        }
+    }
+
+    public record Page<T>(List<T> changed, List<Long> deleted, long last, boolean more) {
+    }
+
+    private record Change(Class<? extends ChangeTracked> type, long id) {
+    }
+}
@@ -0,0 +1,7 @@
+package gr.aueb.cf.phtrade.core.enums;
+
+public enum ChangeType {
+    CREATED,
+    UPDATED,
+    DELETED
+}
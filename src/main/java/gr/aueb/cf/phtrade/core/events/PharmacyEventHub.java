@@ -0,0 +1,368 @@
+package gr.aueb.cf.phtrade.core.events;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gr.aueb.cf.phtrade.core.outbox.DomainEvent;
+import gr.aueb.cf.phtrade.core.outbox.Outbox;
+import gr.aueb.cf.phtrade.core.outbox.OutboxProjector;
+import gr.aueb.cf.phtrade.core.outbox.ReadModel;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory fan-out of trade activity to the Server-Sent Events subscribers
+ * of each pharmacy ({@code GET /pharmacies/{id}/events}).
+ * <p>
+ * The hub is a read model of the outbox that is not durable: every instance
+ * sends the trade events committed while it runs to its own subscribers. A
+ * created, updated or deleted trade becomes a {@code trade-created},
+ * {@code trade-updated} or {@code trade-deleted} event for both pharmacies,
+ * followed by a {@code balance} event per counterparty whose balance moved.
+ * <p>
+ * Events are queued per subscriber and written by a small sender pool, so a
+ * slow connection never holds up the projector or the other subscribers. A
+ * subscriber whose queue of {@code phtrade.sse.bufferSize} events is full is
+ * dropped; its client reconnects and reloads what it shows.
+ */
+public final class PharmacyEventHub {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PharmacyEventHub.class);
+
+    private static final int BUFFER_SIZE = Math.max(1, Integer.getInteger("phtrade.sse.bufferSize", 256));
+    private static final int MAX_SUBSCRIBERS = Math.max(1, Integer.getInteger("phtrade.sse.maxSubscribers", 10_000));
+    private static final int SENDER_THREADS = Math.max(1, Integer.getInteger("phtrade.sse.senderThreads", 4));
+    private static final long HEARTBEAT_SECONDS = Math.max(1, Long.getLong("phtrade.sse.heartbeatSeconds", 20L));
+
+    private static final Message HEARTBEAT = new Message(null, null, null);
+
+    private static final Map<Long, Set<Subscriber>> SUBSCRIBERS = new ConcurrentHashMap<>();
+    private static final AtomicInteger SUBSCRIBER_COUNT = new AtomicInteger();
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private static final ReadModel READ_MODEL = new ReadModel() {
+        @Override
+        public String name() {
+            return "pharmacy-event-hub";
+        }
+
+        @Override
+        public void apply(List<DomainEvent> events) {
+            for (DomainEvent event : events) {
+                if (Outbox.TRADE_RECORD.equals(event.aggregateType()) && !SUBSCRIBERS.isEmpty()) {
+                    publish(event);
+                }
+            }
+        }
+
+        @Override
+        public boolean durable() {
+            return false;
+        }
+    };
+
+    private static boolean registered;
+    private static ExecutorService senders;
+    private static ScheduledExecutorService heartbeats;
+
+    private PharmacyEventHub() {
+
+    }
+
+    public static synchronized void start() {
+        if (senders != null) {
+            return;
+        }
+        if (!registered) {
+            OutboxProjector.register(READ_MODEL);
+            registered = true;
+        }
+        AtomicInteger threads = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(SENDER_THREADS, r -> {
+            Thread thread = new Thread(r, "phtrade-sse-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "phtrade-sse-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Keeps proxies from closing idle streams and finds the closed ones
+        heartbeats.scheduleWithFixedDelay(() -> SUBSCRIBERS.values()
+                        .forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.offer(HEARTBEAT))),
+                HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Whether there are events to stream: the hub is fed by the outbox, with
+     * the outbox off nothing would ever be sent.
+     */
+    public static boolean isEnabled() {
+        return Outbox.isEnabled();
+    }
+
+    public static synchronized void stop() {
+        if (senders == null) {
+            return;
+        }
+        heartbeats.shutdownNow();
+        senders.shutdownNow();
+        heartbeats = null;
+        senders = null;
+        SUBSCRIBERS.values().forEach(subscribers -> new ArrayList<>(subscribers).forEach(Subscriber::close));
+    }
+
+    /**
+     * Starts streaming the trade activity of a pharmacy to the sink.
+     *
+     * @return false when the instance has {@code phtrade.sse.maxSubscribers}
+     * subscribers or the hub is not running, the sink is left untouched
+     */
+    public static boolean subscribe(long pharmacyId, SseEventSink sink, Sse sse) {
+        ExecutorService executor = senders;
+        if (executor == null) {
+            return false;
+        }
+        if (SUBSCRIBER_COUNT.incrementAndGet() > MAX_SUBSCRIBERS) {
+            SUBSCRIBER_COUNT.decrementAndGet();
+            return false;
+        }
+        Subscriber subscriber = new Subscriber(pharmacyId, sink, sse, executor);
+        // Added under the lock of the entry, so a closing subscriber cannot
+        // remove the set in between
+        SUBSCRIBERS.compute(pharmacyId, (id, subscribers) -> {
+            Set<Subscriber> set = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            set.add(subscriber);
+            return set;
+        });
+        // Sends the headers now, so the client knows it is connected
+        subscriber.offer(HEARTBEAT);
+        return true;
+    }
+
+    public static int getSubscriberCount() {
+        return SUBSCRIBER_COUNT.get();
+    }
+
+    public static long getDroppedCount() {
+        return DROPPED.get();
+    }
+
+    private static void publish(DomainEvent event) {
+        JsonNode before = present(event.before());
+        JsonNode after = present(event.after());
+        JsonNode record = after != null ? after : before;
+        if (record == null) {
+            return;
+        }
+        String id = Long.toString(event.sequence());
+        Message trade = new Message(id, "trade-" + event.changeType().name().toLowerCase(Locale.ROOT),
+                record.toString());
+
+        Set<Long> pharmacies = new LinkedHashSet<>();
+        for (JsonNode state : new JsonNode[]{before, after}) {
+            if (state != null) {
+                addId(pharmacies, state.get("giverId"));
+                addId(pharmacies, state.get("receiverId"));
+            }
+        }
+        for (long pharmacy : pharmacies) {
+            Set<Subscriber> subscribers = SUBSCRIBERS.get(pharmacy);
+            if (subscribers == null || subscribers.isEmpty()) {
+                continue;
+            }
+            List<Message> messages = new ArrayList<>();
+            messages.add(trade);
+            balanceDeltas(pharmacy, before, after).forEach((counterparty, delta) -> {
+                ObjectNode data = JsonNodeFactory.instance.objectNode();
+                data.put("counterpartyId", counterparty);
+                data.put("counterpartyName", counterpartyName(counterparty, before, after));
+                data.put("delta", delta);
+                messages.add(new Message(id, "balance", data.toString()));
+            });
+            for (Subscriber subscriber : subscribers) {
+                for (Message message : messages) {
+                    if (!subscriber.offer(message)) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * How the balance of the pharmacy with each counterparty changes. As in
+     * {@code calculateBalanceBetweenPharmacies} a balance is what the pharmacy
+     * received minus what it gave, deletion flags left aside.
+     */
+    private static Map<Long, Double> balanceDeltas(long pharmacy, JsonNode before, JsonNode after) {
+        Map<Long, Double> deltas = new LinkedHashMap<>();
+        addContribution(deltas, pharmacy, before, -1);
+        addContribution(deltas, pharmacy, after, 1);
+        deltas.values().removeIf(delta -> delta == 0.0);
+        return deltas;
+    }
+
+    private static void addContribution(Map<Long, Double> deltas, long pharmacy, JsonNode record, int sign) {
+        if (record == null || !record.hasNonNull("amount")) {
+            return;
+        }
+        double amount = record.get("amount").asDouble();
+        long giver = record.path("giverId").asLong(0);
+        long receiver = record.path("receiverId").asLong(0);
+        if (receiver == pharmacy && giver != 0) {
+            deltas.merge(giver, sign * amount, Double::sum);
+        } else if (giver == pharmacy && receiver != 0) {
+            deltas.merge(receiver, -sign * amount, Double::sum);
+        }
+    }
+
+    private static String counterpartyName(long counterparty, JsonNode before, JsonNode after) {
+        for (JsonNode record : new JsonNode[]{after, before}) {
+            if (record != null) {
+                if (record.path("giverId").asLong(0) == counterparty) {
+                    return record.path("giverName").asText(null);
+                }
+                if (record.path("receiverId").asLong(0) == counterparty) {
+                    return record.path("receiverName").asText(null);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static JsonNode present(JsonNode node) {
+        return node == null || node.isNull() ? null : node;
+    }
+
+    private static void addId(Set<Long> ids, JsonNode id) {
+        if (id != null && id.canConvertToLong()) {
+            ids.add(id.asLong());
+        }
+    }
+
+    // No name and no data is a heartbeat comment
+    private record Message(String id, String name, String data) {
+    }
+
+    private static final class Subscriber {
+
+        private final long pharmacyId;
+        private final SseEventSink sink;
+        private final Sse sse;
+        private final ExecutorService executor;
+        private final BlockingQueue<Message> queue = new ArrayBlockingQueue<>(BUFFER_SIZE);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Subscriber(long pharmacyId, SseEventSink sink, Sse sse, ExecutorService executor) {
+            this.pharmacyId = pharmacyId;
+            this.sink = sink;
+            this.sse = sse;
+            this.executor = executor;
+        }
+
+        /**
+         * @return false when the subscriber is gone, dropped now or before
+         */
+        boolean offer(Message message) {
+            if (closed.get()) {
+                return false;
+            }
+            if (!queue.offer(message)) {
+                DROPPED.incrementAndGet();
+                LOGGER.info("Dropping slow event subscriber of pharmacy {}", pharmacyId);
+                close();
+                return false;
+            }
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RuntimeException e) {
+                    close();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void drain() {
+            try {
+                Message message;
+                while (!closed.get() && (message = queue.poll()) != null) {
+                    if (sink.isClosed()) {
+                        close();
+                        return;
+                    }
+                    sink.send(toEvent(message)).whenComplete((result, failure) -> {
+                        if (failure != null) {
+                            close();
+                        }
+                    });
+                }
+            } catch (RuntimeException e) {
+                close();
+            } finally {
+                draining.set(false);
+                // An offer may have come in after the last poll
+                if (!closed.get() && !queue.isEmpty() && draining.compareAndSet(false, true)) {
+                    executor.execute(this::drain);
+                }
+            }
+        }
+
+        private OutboundSseEvent toEvent(Message message) {
+            if (message == HEARTBEAT) {
+                return sse.newEventBuilder().comment("").build();
+            }
+            return sse.newEventBuilder()
+                    .id(message.id())
+                    .name(message.name())
+                    .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                    .data(String.class, message.data())
+                    .build();
+        }
+
+        private void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            // The set of the last subscriber of a pharmacy goes with it
+            SUBSCRIBERS.computeIfPresent(pharmacyId, (id, subscribers) -> {
+                if (subscribers.remove(this)) {
+                    SUBSCRIBER_COUNT.decrementAndGet();
+                }
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+            queue.clear();
+            try {
+                sink.close();
+            } catch (RuntimeException e) {
+                LOGGER.debug("Closing the event stream of pharmacy {} failed", pharmacyId, e);
+            }
+        }
+    }
+}
@@ -2,7 +2,8 @@ package gr.aueb.cf.phtrade.core.exceptions;
 
 public class AppServerException extends EntityGenericException {
 
+    // Unexpected failures, keep the trace
     public AppServerException(String code, String message) {
-        super(code, message);
+        super(code, message, true);
     }
-}
\ No newline at end of file
+}
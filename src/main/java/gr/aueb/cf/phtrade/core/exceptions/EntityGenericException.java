@@ -2,12 +2,24 @@ package gr.aueb.cf.phtrade.core.exceptions;
 
 import lombok.Getter;
 
+/**
+ * Base of the domain exceptions. They are thrown on ordinary paths (missing
+ * entity, bad token, ...), so by default they do not capture a stack trace.
+ * Start with {@code -Dphtrade.exceptions.stackTraces=true} to get traces back
+ * while debugging.
+ */
 @Getter
 public abstract class EntityGenericException extends Exception {
+    private static final boolean STACK_TRACES = Boolean.getBoolean("phtrade.exceptions.stackTraces");
+
     private final String code;
 
     public EntityGenericException(String code, String message) {
-        super(message);
+        this(code, message, STACK_TRACES);
+    }
+
+    protected EntityGenericException(String code, String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
         this.code = code;
     }
 }
@@ -0,0 +1,434 @@
+package gr.aueb.cf.phtrade.core.idempotency;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gr.aueb.cf.phtrade.config.JacksonConfig;
+import gr.aueb.cf.phtrade.core.exceptions.EntityAlreadyExistsException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityGenericException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
+import gr.aueb.cf.phtrade.model.IdempotencyKey;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import gr.aueb.cf.phtrade.service.util.PartialCommitException;
+import gr.aueb.cf.phtrade.service.util.ShardCommitLog;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.PersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs a request sent with an {@code Idempotency-Key} header once, a retry
+ * with the same key gets the original response (see {@code POST /records}).
+ * <p>
+ * The key is claimed in {@code idempotency_keys} before the request runs. The
+ * service stores the response with {@link #completed} in the unit of work
+ * that creates the resource, so the resource and its response commit together.
+ * Each claim gets a new token and the response is stored only under the token
+ * of the request that claimed the key, so a request whose claim was taken
+ * over fails instead of overwriting the response of the one that took it.
+ * A duplicate running on the same instance waits for the first request, one
+ * on another instance polls the claim, for up to
+ * {@code phtrade.idempotency.waitMillis}. A failed request gives its claim
+ * back, so the client can retry it; a claim without a response older than
+ * {@code phtrade.idempotency.claimTimeoutMillis} belongs to a request that
+ * died and is taken over. A request whose trade record committed on its shard
+ * but not on the main database keeps its claim, the response is replayed by
+ * {@code ShardCommitLog}.
+ * <p>
+ * Keys are scoped by the authenticated caller, a request without one cannot
+ * send a key.
+ * <p>
+ * Responses are kept for {@code phtrade.idempotency.ttlHours}, the last
+ * {@code phtrade.idempotency.cacheSize} also in memory until they expire.
+ */
+public final class IdempotencyKeys {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdempotencyKeys.class);
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final long TTL_HOURS = Math.max(1, Long.getLong("phtrade.idempotency.ttlHours", 24L));
+    private static final int CACHE_SIZE = Math.max(16, Integer.getInteger("phtrade.idempotency.cacheSize", 10_000));
+    private static final long WAIT_MILLIS = Math.max(100, Long.getLong("phtrade.idempotency.waitMillis", 10_000L));
+    private static final long CLAIM_TIMEOUT_MILLIS =
+            Math.max(WAIT_MILLIS, Long.getLong("phtrade.idempotency.claimTimeoutMillis", 60_000L));
+    private static final long POLL_MILLIS = 50;
+    private static final long PURGE_MINUTES = 10;
+    private static final int MAX_KEY_LENGTH = 255;
+
+    // The bytes Jersey would write, see ErrorResponseCache
+    private static final ObjectMapper MAPPER = new JacksonConfig().getContext(ObjectMapper.class);
+
+    // The last responses, least recently used evicted first
+    private static final Map<String, Outcome> OUTCOMES = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Outcome> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    // The requests running on this instance, by scoped key
+    private static final Map<String, Running> RUNNING = new ConcurrentHashMap<>();
+    // The key claimed by the request running on this thread and its response
+    private static final ThreadLocal<Claim> CLAIM = new ThreadLocal<>();
+    private static final ThreadLocal<Outcome> COMPLETED = new ThreadLocal<>();
+
+    private static ScheduledExecutorService purger;
+
+    private IdempotencyKeys() {
+
+    }
+
+    /**
+     * Runs the request unless a request with the same key has run, or is
+     * running, and returns its response.
+     *
+     * @param scope   the authenticated caller, keys of different users never
+     *                match; null for an anonymous request
+     * @param request the body, a key reused with another body is rejected
+     * @param call    creates the resource through a service that calls
+     *                {@link #completed}
+     * @throws EntityInvalidArgumentException for an invalid key, a key sent
+     *                                        without a caller or a key reused
+     *                                        with another body
+     * @throws EntityAlreadyExistsException   while the first request is still
+     *                                        running after the wait
+     */
+    public static Outcome execute(String scope, String key, Object request, Call call) throws EntityGenericException {
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new EntityInvalidArgumentException("IdempotencyKey",
+                    HEADER + " must have 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        // Anonymous callers would all share one scope and replay each other's responses
+        if (scope == null || scope.isBlank()) {
+            throw new EntityInvalidArgumentException("IdempotencyKey",
+                    HEADER + " can only be sent by an authenticated caller");
+        }
+        String scopedKey = scope + ":" + key;
+        String requestHash = hash(request);
+
+        Outcome outcome = cached(scopedKey);
+        if (outcome != null) {
+            return replay(outcome, requestHash);
+        }
+        Running mine = new Running(requestHash, new CompletableFuture<>());
+        Running running = RUNNING.putIfAbsent(scopedKey, mine);
+        if (running != null) {
+            return await(running, requestHash);
+        }
+        try {
+            Claim claim = new Claim(scopedKey, UUID.randomUUID().toString(), requestHash,
+                    LocalDateTime.now().plusHours(TTL_HOURS));
+            outcome = claim(claim);
+            if (outcome != null) {
+                outcome = replay(outcome, requestHash);
+            } else {
+                outcome = run(claim, call);
+            }
+            remember(scopedKey, outcome);
+            mine.outcome().complete(outcome);
+            return outcome;
+        } catch (EntityGenericException | RuntimeException e) {
+            mine.outcome().completeExceptionally(e);
+            throw e;
+        } finally {
+            RUNNING.remove(scopedKey, mine);
+        }
+    }
+
+    /**
+     * Stores the response of the request running on this thread in the
+     * current unit of work. Does nothing for a request without a key.
+     *
+     * @throws IllegalStateException when the claim was taken over, the unit of
+     *                               work must not commit
+     */
+    public static void completed(Long resourceId, Object response) {
+        Claim claim = CLAIM.get();
+        if (claim == null) {
+            return;
+        }
+        String body;
+        try {
+            body = MAPPER.writeValueAsString(response);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Response of " + claim.scopedKey() + " cannot be stored", e);
+        }
+        int updated = JPAHelper.getEntityManager()
+                .createQuery("update IdempotencyKey k set k.resourceId = :resourceId, k.response = :response "
+                        + "where k.scopedKey = :key and k.claimToken = :token and k.response is null")
+                .setParameter("resourceId", resourceId)
+                .setParameter("response", body)
+                .setParameter("key", claim.scopedKey())
+                .setParameter("token", claim.token())
+                .executeUpdate();
+        if (updated == 0) {
+            throw new IllegalStateException("Idempotency key " + claim.scopedKey() + " lost its claim");
+        }
+        ShardCommitLog.idempotencyResponse(IdempotencyKey.builder()
+                .scopedKey(claim.scopedKey())
+                .claimToken(claim.token())
+                .requestHash(claim.requestHash())
+                .resourceId(resourceId)
+                .response(body)
+                .createdAt(LocalDateTime.now())
+                .expiresAt(claim.expiresAt())
+                .build());
+        COMPLETED.set(new Outcome(claim.requestHash(), resourceId, body, claim.expiresAt(), false));
+    }
+
+    public static synchronized void start() {
+        if (purger != null) {
+            return;
+        }
+        purger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "phtrade-idempotency");
+            thread.setDaemon(true);
+            return thread;
+        });
+        purger.scheduleWithFixedDelay(IdempotencyKeys::purge, PURGE_MINUTES, PURGE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public static synchronized void stop() {
+        if (purger != null) {
+            purger.shutdownNow();
+            purger = null;
+        }
+    }
+
+    private static Outcome run(Claim claim, Call call) throws EntityGenericException {
+        CLAIM.set(claim);
+        try {
+            call.run();
+            Outcome outcome = COMPLETED.get();
+            if (outcome == null) {
+                throw new IllegalStateException("The request of " + claim.scopedKey() + " stored no response");
+            }
+            return outcome;
+        } catch (EntityGenericException | RuntimeException e) {
+            // After a partial commit the resource exists, its response is replayed
+            if (!(e instanceof PartialCommitException)) {
+                release(claim);
+            }
+            throw e;
+        } finally {
+            CLAIM.remove();
+            COMPLETED.remove();
+        }
+    }
+
+    private static Outcome await(Running running, String requestHash) throws EntityGenericException {
+        if (!running.requestHash().equals(requestHash)) {
+            throw reused();
+        }
+        try {
+            return running.outcome().get(WAIT_MILLIS, TimeUnit.MILLISECONDS).asReplay();
+        } catch (ExecutionException e) {
+            // The failure of the first request, which did not keep its claim
+            if (e.getCause() instanceof EntityGenericException cause) {
+                throw cause;
+            }
+            throw (RuntimeException) e.getCause();
+        } catch (TimeoutException e) {
+            throw stillRunning();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw stillRunning();
+        }
+    }
+
+    /**
+     * Claims the key, or waits for the request of another instance that has
+     * claimed it.
+     *
+     * @return the stored response, null when the key was claimed
+     */
+    private static Outcome claim(Claim mine) throws EntityGenericException {
+        String scopedKey = mine.scopedKey();
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (true) {
+            try {
+                JPAHelper.beginTransaction();
+                EntityManager em = JPAHelper.getEntityManager();
+                LocalDateTime now = LocalDateTime.now();
+                IdempotencyKey claim = em.find(IdempotencyKey.class, scopedKey, LockModeType.PESSIMISTIC_WRITE);
+                Outcome outcome = null;
+                boolean claimed = true;
+                if (claim == null) {
+                    em.persist(new IdempotencyKey(scopedKey, mine.token(), mine.requestHash(), null, null, now,
+                            mine.expiresAt()));
+                } else if (claim.getExpiresAt().isBefore(now) || (claim.getResponse() == null
+                        && claim.getCreatedAt().isBefore(now.minusNanos(CLAIM_TIMEOUT_MILLIS * 1_000_000)))) {
+                    LOGGER.warn("Idempotency key {} taken over, its request did not complete", scopedKey);
+                    // The old request can no longer store its response
+                    claim.setClaimToken(mine.token());
+                    claim.setRequestHash(mine.requestHash());
+                    claim.setResourceId(null);
+                    claim.setResponse(null);
+                    claim.setCreatedAt(now);
+                    claim.setExpiresAt(mine.expiresAt());
+                } else if (claim.getResponse() != null) {
+                    outcome = new Outcome(claim.getRequestHash(), claim.getResourceId(), claim.getResponse(),
+                            claim.getExpiresAt(), true);
+                    claimed = false;
+                } else {
+                    claimed = false;
+                }
+                JPAHelper.commitTransaction();
+                if (claimed || outcome != null) {
+                    return outcome;
+                }
+            } catch (PersistenceException e) {
+                // Claimed by another instance in the meantime
+                if (JPAHelper.getEntityManager().getTransaction().isActive()) {
+                    JPAHelper.rollbackTransaction();
+                }
+            } finally {
+                JPAHelper.closeEntityManager();
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw stillRunning();
+            }
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw stillRunning();
+            }
+        }
+    }
+
+    // A failed request leaves nothing to replay, the key can be used again
+    // unless another request has taken it over
+    private static void release(Claim claim) {
+        String scopedKey = claim.scopedKey();
+        try {
+            JPAHelper.beginTransaction();
+            JPAHelper.getEntityManager()
+                    .createQuery("delete from IdempotencyKey k "
+                            + "where k.scopedKey = :key and k.claimToken = :token and k.response is null")
+                    .setParameter("key", scopedKey)
+                    .setParameter("token", claim.token())
+                    .executeUpdate();
+            JPAHelper.commitTransaction();
+        } catch (RuntimeException e) {
+            if (JPAHelper.getEntityManager().getTransaction().isActive()) {
+                JPAHelper.rollbackTransaction();
+            }
+            LOGGER.warn("Idempotency key {} not released, it is taken over after the claim timeout", scopedKey, e);
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    private static void purge() {
+        try {
+            JPAHelper.beginTransaction();
+            int deleted = JPAHelper.getEntityManager()
+                    .createQuery("delete from IdempotencyKey k where k.expiresAt < :now")
+                    .setParameter("now", LocalDateTime.now())
+                    .executeUpdate();
+            JPAHelper.commitTransaction();
+            if (deleted > 0) {
+                LOGGER.info("Purged {} expired idempotency keys", deleted);
+            }
+        } catch (RuntimeException e) {
+            if (JPAHelper.getEntityManager().getTransaction().isActive()) {
+                JPAHelper.rollbackTransaction();
+            }
+            LOGGER.warn("Idempotency key purge failed", e);
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    // An expired response is a miss, the key may be claimed again like in the table
+    private static Outcome cached(String scopedKey) {
+        synchronized (OUTCOMES) {
+            Outcome outcome = OUTCOMES.get(scopedKey);
+            if (outcome != null && outcome.expiresAt().isBefore(LocalDateTime.now())) {
+                OUTCOMES.remove(scopedKey);
+                return null;
+            }
+            return outcome;
+        }
+    }
+
+    private static void remember(String scopedKey, Outcome outcome) {
+        synchronized (OUTCOMES) {
+            OUTCOMES.put(scopedKey, outcome.asReplay());
+        }
+    }
+
+    private static Outcome replay(Outcome outcome, String requestHash) throws EntityInvalidArgumentException {
+        if (!outcome.requestHash().equals(requestHash)) {
+            throw reused();
+        }
+        return outcome.asReplay();
+    }
+
+    private static String hash(Object request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(MAPPER.writeValueAsString(request)
+                    .getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("Request cannot be hashed", e);
+        }
+    }
+
+    private static EntityInvalidArgumentException reused() {
+        return new EntityInvalidArgumentException("IdempotencyKey",
+                HEADER + " was already used for a different request");
+    }
+
+    private static EntityAlreadyExistsException stillRunning() {
+        return new EntityAlreadyExistsException("IdempotencyKey",
+                "A request with this " + HEADER + " is still running, retry later");
+    }
+
+    /**
+     * Creates a resource, see {@link #execute}.
+     */
+    @FunctionalInterface
+    public interface Call {
+        void run() throws EntityGenericException;
+    }
+
+    /**
+     * The response of a request: the id of the resource it created and the
+     * serialized body.
+     *
+     * @param expiresAt when the key stops replaying the response
+     * @param replayed  whether the response is the one of an earlier request
+     */
+    public record Outcome(String requestHash, Long resourceId, String response, LocalDateTime expiresAt,
+                          boolean replayed) {
+
+        Outcome asReplay() {
+            return replayed ? this : new Outcome(requestHash, resourceId, response, expiresAt, true);
+        }
+    }
+
+    private record Running(String requestHash, CompletableFuture<Outcome> outcome) {
+    }
+
+    private record Claim(String scopedKey, String token, String requestHash, LocalDateTime expiresAt) {
+    }
+}
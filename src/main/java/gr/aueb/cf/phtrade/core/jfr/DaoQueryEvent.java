@@ -0,0 +1,29 @@
+package gr.aueb.cf.phtrade.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gr.aueb.cf.phtrade.DaoQuery")
+@Label("DAO Query")
+@Category({"PhTrade", "Persistence"})
+@Description("Query executed through a DAO")
+@StackTrace(false)
+public class DaoQueryEvent extends Event {
+
+    @Label("Entity")
+    public String entity;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Criteria")
+    @Description("Criteria keys and the kind of condition, without the values")
+    public String criteria;
+
+    @Label("Rows")
+    public int rows;
+}
@@ -0,0 +1,17 @@
+package gr.aueb.cf.phtrade.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gr.aueb.cf.phtrade.JwtParse")
+@Label("JWT Parse")
+@Category({"PhTrade", "Security"})
+@StackTrace(false)
+public class JwtParseEvent extends Event {
+
+    @Label("Valid")
+    public boolean valid;
+}
@@ -0,0 +1,20 @@
+package gr.aueb.cf.phtrade.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gr.aueb.cf.phtrade.PasswordCheck")
+@Label("BCrypt")
+@Category({"PhTrade", "Security"})
+@StackTrace(false)
+public class PasswordCheckEvent extends Event {
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Matched")
+    public boolean matched;
+}
@@ -0,0 +1,70 @@
+package gr.aueb.cf.phtrade.core.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * Controls the on-demand flight recording started from the admin endpoints.
+ * Only one recording is kept at a time; a new start replaces the previous one.
+ */
+public class RecordingManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordingManager.class);
+    private static final Duration MAX_AGE = Duration.ofMinutes(Long.getLong("phtrade.jfr.maxAgeMinutes", 30));
+
+    private static Recording recording;
+
+    private RecordingManager() {
+
+    }
+
+    /**
+     * Starts a recording with one of the JDK settings ("default" or "profile").
+     * The phtrade events are enabled by default in both.
+     */
+    public static synchronized String start(String settings) throws IOException, ParseException {
+        if (recording != null) {
+            recording.close();
+        }
+        Recording newRecording = new Recording(Configuration.getConfiguration(settings));
+        newRecording.setName("phtrade-" + settings);
+        newRecording.setMaxAge(MAX_AGE);
+        newRecording.setToDisk(true);
+        newRecording.start();
+        recording = newRecording;
+        LOGGER.info("Flight recording {} started with {} settings", newRecording.getId(), settings);
+        return newRecording.getName();
+    }
+
+    public static synchronized boolean stop() {
+        if (recording == null || recording.getState() != RecordingState.RUNNING) {
+            return false;
+        }
+        recording.stop();
+        LOGGER.info("Flight recording {} stopped", recording.getId());
+        return true;
+    }
+
+    /**
+     * Writes the current recording to a temporary file. The recording keeps
+     * running if it was running. Returns null when nothing was recorded.
+     */
+    public static synchronized Path dump() throws IOException {
+        if (recording == null || recording.getState() == RecordingState.NEW
+                || recording.getState() == RecordingState.CLOSED) {
+            return null;
+        }
+        Path file = Files.createTempFile("phtrade-", ".jfr");
+        recording.dump(file);
+        return file;
+    }
+}
@@ -0,0 +1,25 @@
+package gr.aueb.cf.phtrade.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("gr.aueb.cf.phtrade.Transaction")
+@Label("Transaction")
+@Category({"PhTrade", "Persistence"})
+@Description("Service unit of work from beginTransaction to commit or rollback")
+@StackTrace(false)
+public class TransactionEvent extends Event {
+
+    @Label("Outcome")
+    public String outcome;
+
+    @Label("Permit Wait")
+    @Description("Time spent waiting for a database access permit")
+    @Timespan(Timespan.NANOSECONDS)
+    public long permitWait;
+}
@@ -0,0 +1,128 @@
+package gr.aueb.cf.phtrade.core.lifecycle;
+
+import gr.aueb.cf.phtrade.core.changes.ChangeFeed;
+import gr.aueb.cf.phtrade.core.events.PharmacyEventHub;
+import gr.aueb.cf.phtrade.core.idempotency.IdempotencyKeys;
+import gr.aueb.cf.phtrade.core.outbox.OutboxProjector;
+import gr.aueb.cf.phtrade.core.partitioning.TradeRecordPartitions;
+import gr.aueb.cf.phtrade.core.segments.TradeSegments;
+import gr.aueb.cf.phtrade.service.IPharmacyContactService;
+import gr.aueb.cf.phtrade.service.IPharmacyService;
+import gr.aueb.cf.phtrade.service.ITradeRecordService;
+import gr.aueb.cf.phtrade.service.IUserService;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import gr.aueb.cf.phtrade.service.util.ShardCommitLog;
+import jakarta.enterprise.context.Dependent;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.ws.rs.ext.Provider;
+import lombok.RequiredArgsConstructor;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the instance up once Jersey is initialized: builds the
+ * EntityManagerFactory, opens the whole connection pool, brings the
+ * trade_records partitions up to date, maps the trade segments, starts the
+ * shard commit log sweep and the outbox projector, runs the warm-up and only then flips {@link ReadinessState}. This runs on a background
+ * thread so the container finishes deploying while the instance reports
+ * not ready.
+ */
+@Provider
+@Dependent
+@RequiredArgsConstructor(onConstructor = @__(@Inject))
+public class ApplicationBootstrap implements ApplicationEventListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApplicationBootstrap.class);
+    private static final String POOL_SIZE_PROPERTY = "hibernate.hikari.maximumPoolSize";
+
+    private final ITradeRecordService tradeRecordService;
+    private final IPharmacyService pharmacyService;
+    private final IUserService userService;
+    private final IPharmacyContactService contactService;
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+        switch (event.getType()) {
+            case INITIALIZATION_FINISHED -> {
+                Thread bootstrap = new Thread(this::bootstrap, "phtrade-bootstrap");
+                bootstrap.setDaemon(true);
+                bootstrap.start();
+            }
+            case DESTROY_FINISHED -> {
+                ReadinessState.markNotReady();
+                OutboxProjector.stop();
+                IdempotencyKeys.stop();
+                PharmacyEventHub.stop();
+                ChangeFeed.stop();
+                ShardCommitLog.stop();
+                TradeSegments.stop();
+                TradeRecordPartitions.stop();
+                JPAHelper.closeEMF();
+            }
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return null;
+    }
+
+    private void bootstrap() {
+        long start = System.nanoTime();
+        try {
+            EntityManagerFactory emf = JPAHelper.getEntityManagerFactory();
+            LOGGER.info("EntityManagerFactory ready in {} ms", (System.nanoTime() - start) / 1_000_000);
+
+            prefillPool(emf);
+            TradeRecordPartitions.start();
+            TradeSegments.start();
+            ChangeFeed.start();
+            ShardCommitLog.start();
+            PharmacyEventHub.start();
+            IdempotencyKeys.start();
+            OutboxProjector.start();
+            new WarmUpRunner(tradeRecordService, pharmacyService, userService, contactService).run();
+
+            ReadinessState.markReady();
+            LOGGER.info("Instance ready {} ms after bootstrap start", (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            ReadinessState.markFailed();
+            LOGGER.error("Bootstrap failed, instance stays not ready", e);
+        }
+    }
+
+    // Holding maximumPoolSize connections at once forces Hikari to open all
+    // of them now instead of on the first burst of requests.
+    private void prefillPool(EntityManagerFactory emf) {
+        Object configured = emf.getProperties().get(POOL_SIZE_PROPERTY);
+        int poolSize = configured != null ? Integer.parseInt(configured.toString()) : 10;
+        List<EntityManager> held = new ArrayList<>(poolSize);
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                EntityManager em = emf.createEntityManager();
+                held.add(em);
+                em.getTransaction().begin();
+                em.createNativeQuery("SELECT 1").getSingleResult();
+            }
+            LOGGER.info("Connection pool prefilled with {} connections", poolSize);
+        } finally {
+            for (EntityManager em : held) {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+                em.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package gr.aueb.cf.phtrade.core.lifecycle;
+
+/**
+ * Readiness of this instance to take traffic. Set by {@link ApplicationBootstrap}
+ * once the persistence layer is up and the warm-up has finished.
+ */
+public class ReadinessState {
+
+    private static volatile boolean ready = false;
+    private static volatile long readySinceMillis = 0L;
+    private static volatile boolean failed = false;
+
+    private ReadinessState() {
+
+    }
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return true when the bootstrap gave up, the instance will not become
+     * ready without a restart
+     */
+    public static boolean hasFailed() {
+        return failed;
+    }
+
+    public static long getReadySinceMillis() {
+        return readySinceMillis;
+    }
+
+    static void markReady() {
+        readySinceMillis = System.currentTimeMillis();
+        ready = true;
+    }
+
+    static void markNotReady() {
+        ready = false;
+    }
+
+    static void markFailed() {
+        failed = true;
+    }
+}
@@ -0,0 +1,126 @@
+package gr.aueb.cf.phtrade.core.lifecycle;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gr.aueb.cf.phtrade.config.JacksonConfig;
+import gr.aueb.cf.phtrade.dto.PaginatedResult;
+import gr.aueb.cf.phtrade.dto.TradeRecordInsertDTO;
+import gr.aueb.cf.phtrade.dto.TradeRecordReadOnlyDTO;
+import gr.aueb.cf.phtrade.service.IPharmacyContactService;
+import gr.aueb.cf.phtrade.service.IPharmacyService;
+import gr.aueb.cf.phtrade.service.ITradeRecordService;
+import gr.aueb.cf.phtrade.service.IUserService;
+import gr.aueb.cf.phtrade.validator.ValidatorUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Runs a script of read-only, representative service calls so the JIT compiles
+ * the hot paths (criteria building, Hibernate loading, mapping, validation,
+ * JSON) before the instance reports ready.
+ *
+ * The script is a properties file, {@code warmup.properties} on the classpath
+ * unless {@code phtrade.warmup.config} points to a file:
+ * <pre>
+ * warmup.enabled=true
+ * warmup.iterations=200
+ * warmup.steps=records.paginated,pharmacies.paginated,...
+ * </pre>
+ */
+public class WarmUpRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmUpRunner.class);
+
+    private final Map<String, Runnable> steps = new LinkedHashMap<>();
+
+    public WarmUpRunner(ITradeRecordService tradeRecordService,
+                        IPharmacyService pharmacyService,
+                        IUserService userService,
+                        IPharmacyContactService contactService) {
+        ObjectMapper objectMapper = new JacksonConfig().getContext(ObjectMapper.class);
+        Map<String, Object> noCriteria = Collections.emptyMap();
+
+        steps.put("records.paginated",
+                () -> tradeRecordService.getTradeRecordsByCriteriaPaginated(noCriteria, 0, 10, List.of()));
+        steps.put("records.count",
+                () -> tradeRecordService.getTradeRecordsCountByCriteria(noCriteria));
+        steps.put("pharmacies.paginated",
+                () -> pharmacyService.getPharmaciesByCriteriaPaginated(noCriteria, 0, 10, List.of()));
+        steps.put("users.paginated",
+                () -> userService.getUsersByCriteriaPaginated(noCriteria, 0, 10, List.of()));
+        steps.put("contacts.paginated",
+                () -> contactService.getContactsByCriteriaPaginated(noCriteria, 0, 10, List.of()));
+        steps.put("validator.tradeRecord",
+                () -> ValidatorUtil.validateDTO(new TradeRecordInsertDTO("warm-up", 10.0,
+                        LocalDateTime.now().minusDays(1), 1L, 2L, 1L)));
+        steps.put("json.paginated", () -> {
+            try {
+                List<TradeRecordReadOnlyDTO> data = tradeRecordService
+                        .getTradeRecordsByCriteriaPaginated(noCriteria, 0, 10, List.of());
+                objectMapper.writeValueAsBytes(new PaginatedResult<>(data, 0, 10, 1, data.size()));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public void run() {
+        Properties config = loadConfig();
+        if (!Boolean.parseBoolean(config.getProperty("warmup.enabled", "true"))) {
+            LOGGER.info("Warm-up disabled");
+            return;
+        }
+        int iterations = Integer.parseInt(config.getProperty("warmup.iterations", "200").trim());
+        List<String> stepNames = new ArrayList<>();
+        for (String name : config.getProperty("warmup.steps", String.join(",", steps.keySet())).split(",")) {
+            if (!name.isBlank()) {
+                stepNames.add(name.trim());
+            }
+        }
+
+        long start = System.nanoTime();
+        for (String name : stepNames) {
+            Runnable step = steps.get(name);
+            if (step == null) {
+                LOGGER.warn("Unknown warm-up step {}", name);
+                continue;
+            }
+            try {
+                for (int i = 0; i < iterations; i++) {
+                    step.run();
+                }
+            } catch (RuntimeException e) {
+                // A failing step must not keep the instance from starting
+                LOGGER.warn("Warm-up step {} failed: {}", name, e.getMessage());
+            }
+        }
+        LOGGER.info("Warm-up of {} steps x {} iterations finished in {} ms", stepNames.size(), iterations,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private Properties loadConfig() {
+        Properties properties = new Properties();
+        String file = System.getProperty("phtrade.warmup.config");
+        try (InputStream in = file != null
+                ? Files.newInputStream(Path.of(file))
+                : WarmUpRunner.class.getClassLoader().getResourceAsStream("warmup.properties")) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Warm-up config could not be read, using defaults", e);
+        }
+        return properties;
+    }
+}
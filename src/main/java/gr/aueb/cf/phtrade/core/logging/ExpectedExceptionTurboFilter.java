@@ -0,0 +1,86 @@
+package gr.aueb.cf.phtrade.core.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import gr.aueb.cf.phtrade.core.exceptions.AppServerException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityGenericException;
+import org.slf4j.Marker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples log events that carry an expected domain exception, e.g. a missing
+ * pharmacy or an invalid token. Per logger, exception type and code only the first
+ * {@code permitsPerWindow} events of each window are logged. The first event of
+ * the next window reports how many were dropped.
+ * {@link AppServerException} is never sampled.
+ */
+public class ExpectedExceptionTurboFilter extends TurboFilter {
+
+    private static final int MAX_KEYS = 10_000;
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+    private int permitsPerWindow = 5;
+    private long windowNanos = TimeUnit.SECONDS.toNanos(60);
+
+    public void setPermitsPerWindow(int permitsPerWindow) {
+        this.permitsPerWindow = permitsPerWindow;
+    }
+
+    public void setWindowSeconds(long windowSeconds) {
+        this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format,
+                              Object[] params, Throwable t) {
+        if (!(t instanceof EntityGenericException) || t instanceof AppServerException) {
+            return FilterReply.NEUTRAL;
+        }
+        if (!level.isGreaterOrEqual(logger.getEffectiveLevel())) {
+            return FilterReply.NEUTRAL;
+        }
+        if (windows.size() > MAX_KEYS) {
+            windows.clear();
+        }
+        String key = logger.getName() + '|' + t.getClass().getName() + '|'
+                + ((EntityGenericException) t).getCode();
+        Window window = windows.computeIfAbsent(key, k -> new Window(System.nanoTime()));
+
+        long now = System.nanoTime();
+        int dropped = 0;
+        synchronized (window) {
+            if (now - window.startedAt >= windowNanos) {
+                dropped = window.dropped;
+                window.dropped = 0;
+                window.startedAt = now;
+                window.logged = 0;
+            }
+            if (window.logged >= permitsPerWindow) {
+                window.dropped++;
+                return FilterReply.DENY;
+            }
+            window.logged++;
+        }
+        if (dropped > 0) {
+            // No throwable attached, so this does not come back through the sampling
+            logger.warn("{} repeated {} ({}) events were not logged in the last window",
+                    dropped, t.getClass().getSimpleName(), ((EntityGenericException) t).getCode());
+        }
+        return FilterReply.NEUTRAL;
+    }
+
+    private static final class Window {
+        private long startedAt;
+        private int logged;
+        private int dropped;
+
+        private Window(long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package gr.aueb.cf.phtrade.core.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import gr.aueb.cf.phtrade.dto.LoggerLevelDTO;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and changes logback levels at runtime, e.g. {@code org.hibernate.SQL}
+ * to DEBUG to see the statements of a misbehaving instance.
+ */
+public class LogLevels {
+
+    public static final String INHERIT = "INHERIT";
+
+    private LogLevels() {
+
+    }
+
+    public static LoggerLevelDTO get(String name) {
+        return toDTO(context().getLogger(name));
+    }
+
+    /**
+     * Sets the level of a logger. {@code "INHERIT"} clears the configured level,
+     * so the logger follows its parent again.
+     *
+     * @throws IllegalArgumentException for unknown levels, or when clearing the root level
+     */
+    public static LoggerLevelDTO set(String name, String level) {
+        Logger logger = context().getLogger(name);
+        if (INHERIT.equalsIgnoreCase(level)) {
+            if (Logger.ROOT_LOGGER_NAME.equalsIgnoreCase(logger.getName())) {
+                throw new IllegalArgumentException("The root logger must have a level");
+            }
+            logger.setLevel(null);
+        } else {
+            Level parsed = Level.toLevel(level, null);
+            if (parsed == null) {
+                throw new IllegalArgumentException("Unknown level " + level);
+            }
+            logger.setLevel(parsed);
+        }
+        return toDTO(logger);
+    }
+
+    private static LoggerLevelDTO toDTO(Logger logger) {
+        Level configured = logger.getLevel();
+        return new LoggerLevelDTO(logger.getName(),
+                configured != null ? configured.toString() : null,
+                logger.getEffectiveLevel().toString());
+    }
+
+    private static LoggerContext context() {
+        return (LoggerContext) LoggerFactory.getILoggerFactory();
+    }
+}
@@ -0,0 +1,63 @@
+package gr.aueb.cf.phtrade.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed, roughly logarithmic bucket bounds.
+ * Buckets are {@link LongAdder}s, so recording is a binary search plus a
+ * striped increment: no locks and no allocation on the request path.
+ */
+public class LatencyHistogram {
+
+    // Upper bounds in milliseconds, in the 1-2.5-5 series used by Prometheus clients
+    static final double[] BOUNDS_MILLIS = {
+            0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000
+    };
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS_MILLIS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            BOUNDS_NANOS[i] = (long) (BOUNDS_MILLIS[i] * TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int low = 0;
+        int high = BOUNDS_NANOS.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BOUNDS_NANOS[mid] < nanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        buckets[low].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Non cumulative bucket counts, the last one is the +Inf bucket.
+     */
+    long[] snapshot() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    long getSumNanos() {
+        return sumNanos.sum();
+    }
+}
@@ -0,0 +1,41 @@
+package gr.aueb.cf.phtrade.core.metrics;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Records count, status class and latency of every request against the
+ * metrics of the matched resource method. Runs first on the way in and
+ * last on the way out, so authentication and rate limiting are included.
+ */
+@Provider
+@Priority(Priorities.AUTHENTICATION - 100)
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String START_PROPERTY = MetricsFilter.class.getName() + ".start";
+
+    @Context
+    ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        requestContext.setProperty(START_PROPERTY, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Object start = requestContext.getProperty(START_PROPERTY);
+        if (start == null) {
+            return;
+        }
+        MetricsRegistry.forMethod(resourceInfo.getResourceMethod())
+                .record(responseContext.getStatus(), System.nanoTime() - (Long) start);
+    }
+}
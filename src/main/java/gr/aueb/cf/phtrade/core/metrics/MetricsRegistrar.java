@@ -0,0 +1,42 @@
+package gr.aueb.cf.phtrade.core.metrics;
+
+import jakarta.ws.rs.ext.Provider;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+/**
+ * Registers the metrics of every resource method when Jersey has built
+ * the resource model, so the request path never creates metric objects.
+ */
+@Provider
+public class MetricsRegistrar implements ApplicationEventListener {
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+        if (event.getType() == ApplicationEvent.Type.INITIALIZATION_FINISHED) {
+            for (Resource resource : event.getResourceModel().getResources()) {
+                register(resource);
+            }
+        }
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return null;
+    }
+
+    private void register(Resource resource) {
+        for (ResourceMethod method : resource.getAllMethods()) {
+            if (method.getInvocable() != null && method.getInvocable().getDefinitionMethod() != null) {
+                MetricsRegistry.register(method.getInvocable().getDefinitionMethod(), method.getHttpMethod());
+            }
+        }
+        for (Resource child : resource.getChildResources()) {
+            register(child);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package gr.aueb.cf.phtrade.core.metrics;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the pre-registered {@link ResourceMetrics} of every resource method.
+ * Registration happens once when the resource model is built, lookups on the
+ * request path are plain map reads.
+ */
+public class MetricsRegistry {
+
+    private static final Map<Method, ResourceMetrics> RESOURCES = new ConcurrentHashMap<>();
+    private static final ResourceMetrics UNMATCHED = new ResourceMetrics("unmatched", "");
+
+    private MetricsRegistry() {
+
+    }
+
+    public static void register(Method method, String httpMethod) {
+        RESOURCES.computeIfAbsent(method, m -> new ResourceMetrics(
+                m.getDeclaringClass().getSimpleName() + "." + m.getName(), httpMethod));
+    }
+
+    public static ResourceMetrics forMethod(Method method) {
+        if (method == null) {
+            return UNMATCHED;
+        }
+        ResourceMetrics metrics = RESOURCES.get(method);
+        return metrics != null ? metrics : UNMATCHED;
+    }
+
+    static Collection<ResourceMetrics> all() {
+        return RESOURCES.values();
+    }
+
+    static ResourceMetrics unmatched() {
+        return UNMATCHED;
+    }
+}
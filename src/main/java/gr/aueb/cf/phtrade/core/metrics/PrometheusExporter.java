@@ -0,0 +1,176 @@
+package gr.aueb.cf.phtrade.core.metrics;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renders all metrics in the Prometheus text exposition format (0.0.4).
+ * Runs only when /metrics is scraped, so it may allocate freely.
+ */
+public class PrometheusExporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrometheusExporter.class);
+
+    private PrometheusExporter() {
+
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        writeResourceMetrics(out);
+        writePoolMetrics(out);
+        writeHibernateMetrics(out);
+        writeJvmMetrics(out);
+        return out.toString();
+    }
+
+    // Every family is written as a whole, right after its HELP and TYPE lines,
+    // as the exposition format requires
+    private static void writeResourceMetrics(StringBuilder out) {
+        List<ResourceMetrics> resources = new ArrayList<>(MetricsRegistry.all());
+        resources.add(MetricsRegistry.unmatched());
+
+        header(out, "phtrade_http_requests_total", "counter", "Requests per resource method");
+        for (ResourceMetrics metrics : resources) {
+            sample(out, "phtrade_http_requests_total{" + labels(metrics) + "}", metrics.getRequests().sum());
+        }
+
+        header(out, "phtrade_http_errors_total", "counter", "4xx and 5xx responses per resource method");
+        for (ResourceMetrics metrics : resources) {
+            String labels = labels(metrics);
+            sample(out, "phtrade_http_errors_total{" + labels + ",class=\"4xx\"}", metrics.getClientErrors().sum());
+            sample(out, "phtrade_http_errors_total{" + labels + ",class=\"5xx\"}", metrics.getServerErrors().sum());
+        }
+
+        header(out, "phtrade_http_request_duration_seconds", "histogram", "Request latency per resource method");
+        for (ResourceMetrics metrics : resources) {
+            writeLatency(out, metrics);
+        }
+    }
+
+    private static void writeLatency(StringBuilder out, ResourceMetrics metrics) {
+        String labels = labels(metrics);
+        long[] counts = metrics.getLatency().snapshot();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            String le = i < LatencyHistogram.BOUNDS_MILLIS.length
+                    ? format(LatencyHistogram.BOUNDS_MILLIS[i] / 1000.0)
+                    : "+Inf";
+            sample(out, "phtrade_http_request_duration_seconds_bucket{" + labels + ",le=\"" + le + "\"}", cumulative);
+        }
+        sample(out, "phtrade_http_request_duration_seconds_count{" + labels + "}", cumulative);
+        out.append("phtrade_http_request_duration_seconds_sum{").append(labels).append("} ")
+                .append(format(metrics.getLatency().getSumNanos() / 1e9)).append('\n');
+    }
+
+    private static String labels(ResourceMetrics metrics) {
+        return "resource=\"" + metrics.getResource() + "\",method=\"" + metrics.getHttpMethod() + "\"";
+    }
+
+    private static void writePoolMetrics(StringBuilder out) {
+        HikariPoolMXBean pool = findPool();
+        if (pool == null) {
+            return;
+        }
+        gauge(out, "phtrade_db_pool_active_connections", "Connections in use", pool.getActiveConnections());
+        gauge(out, "phtrade_db_pool_idle_connections", "Idle connections", pool.getIdleConnections());
+        gauge(out, "phtrade_db_pool_total_connections", "Open connections", pool.getTotalConnections());
+        gauge(out, "phtrade_db_pool_waiting_threads", "Threads waiting for a connection",
+                pool.getThreadsAwaitingConnection());
+    }
+
+    private static void writeHibernateMetrics(StringBuilder out) {
+        Statistics stats = JPAHelper.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        if (!stats.isStatisticsEnabled()) {
+            return;
+        }
+        counter(out, "phtrade_hibernate_queries_total", "Executed queries", stats.getQueryExecutionCount());
+        counter(out, "phtrade_hibernate_statements_prepared_total", "Prepared JDBC statements",
+                stats.getPrepareStatementCount());
+        counter(out, "phtrade_hibernate_flushes_total", "Session flushes", stats.getFlushCount());
+        counter(out, "phtrade_hibernate_entity_loads_total", "Loaded entities", stats.getEntityLoadCount());
+        counter(out, "phtrade_hibernate_second_level_cache_hits_total", "Second level cache hits",
+                stats.getSecondLevelCacheHitCount());
+        counter(out, "phtrade_hibernate_second_level_cache_misses_total", "Second level cache misses",
+                stats.getSecondLevelCacheMissCount());
+        counter(out, "phtrade_hibernate_transactions_total", "Completed transactions", stats.getTransactionCount());
+    }
+
+    private static void writeJvmMetrics(StringBuilder out) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        header(out, "jvm_memory_used_bytes", "gauge", "Used memory");
+        sample(out, "jvm_memory_used_bytes{area=\"heap\"}", heap.getUsed());
+        sample(out, "jvm_memory_used_bytes{area=\"nonheap\"}", nonHeap.getUsed());
+        header(out, "jvm_memory_committed_bytes", "gauge", "Committed memory");
+        sample(out, "jvm_memory_committed_bytes{area=\"heap\"}", heap.getCommitted());
+        sample(out, "jvm_memory_committed_bytes{area=\"nonheap\"}", nonHeap.getCommitted());
+        gauge(out, "jvm_memory_heap_max_bytes", "Max heap", heap.getMax());
+
+        header(out, "jvm_gc_collections_total", "counter", "GC collections per collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(out, "jvm_gc_collections_total{gc=\"" + gc.getName() + "\"}", gc.getCollectionCount());
+        }
+        header(out, "jvm_gc_collection_seconds_total", "counter", "Time spent in GC per collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            out.append("jvm_gc_collection_seconds_total{gc=\"").append(gc.getName()).append("\"} ")
+                    .append(format(gc.getCollectionTime() / 1000.0)).append('\n');
+        }
+        gauge(out, "jvm_threads_live", "Live threads", ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    private static HikariPoolMXBean findPool() {
+        try {
+            ConnectionProvider provider = JPAHelper.getEntityManagerFactory()
+                    .unwrap(SessionFactoryImplementor.class)
+                    .getServiceRegistry()
+                    .getService(ConnectionProvider.class);
+            if (provider != null && provider.isUnwrappableAs(DataSource.class)
+                    && provider.unwrap(DataSource.class) instanceof HikariDataSource hikari) {
+                return hikari.getHikariPoolMXBean();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Connection pool metrics not available: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, "gauge", help);
+        sample(out, name, value);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        sample(out, name, value);
+    }
+
+    private static void sample(StringBuilder out, String series, long value) {
+        out.append(series).append(' ').append(value).append('\n');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%s", value);
+    }
+}
@@ -0,0 +1,34 @@
+package gr.aueb.cf.phtrade.core.metrics;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency of one resource method.
+ */
+@Getter
+public class ResourceMetrics {
+
+    private final String resource;
+    private final String httpMethod;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public ResourceMetrics(String resource, String httpMethod) {
+        this.resource = resource;
+        this.httpMethod = httpMethod;
+    }
+
+    public void record(int status, long nanos) {
+        requests.increment();
+        if (status >= 500) {
+            serverErrors.increment();
+        } else if (status >= 400) {
+            clientErrors.increment();
+        }
+        latency.record(nanos);
+    }
+}
@@ -0,0 +1,22 @@
+package gr.aueb.cf.phtrade.core.outbox;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import gr.aueb.cf.phtrade.core.enums.ChangeType;
+
+import java.time.LocalDateTime;
+
+/**
+ * An outbox event as handed to a {@link ReadModel}. {@code before} and
+ * {@code after} are the read-only DTO of the entity, a JSON null for a created
+ * or deleted entity. {@code eventId} is unique, so a read model can drop an
+ * event delivered twice.
+ */
+public record DomainEvent(long sequence,
+                          String eventId,
+                          String aggregateType,
+                          long aggregateId,
+                          ChangeType changeType,
+                          JsonNode before,
+                          JsonNode after,
+                          LocalDateTime createdAt) {
+}
@@ -0,0 +1,61 @@
+package gr.aueb.cf.phtrade.core.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import gr.aueb.cf.phtrade.config.JacksonConfig;
+import gr.aueb.cf.phtrade.core.enums.ChangeType;
+import gr.aueb.cf.phtrade.model.OutboxEvent;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import gr.aueb.cf.phtrade.service.util.ShardCommitLog;
+
+/**
+ * Writes domain events to the {@code outbox_events} table. Called by the
+ * services inside their transaction, so an event is stored exactly when its
+ * change commits. {@code -Dphtrade.outbox.enabled=false} stops writing events.
+ * <p>
+ * With sharding the events of trade records are written to the main database,
+ * which commits after the shards, and are logged on the shards in case that
+ * commit fails (see {@link ShardCommitLog}).
+ */
+public final class Outbox {
+
+    public static final String TRADE_RECORD = "TradeRecord";
+    public static final String PHARMACY = "Pharmacy";
+    public static final String CONTACT = "Contact";
+
+    // The mapper of the REST output, so a payload holds the DTO as clients see it
+    static final ObjectMapper MAPPER = new JacksonConfig().getContext(ObjectMapper.class);
+
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("phtrade.outbox.enabled", "true"));
+
+    private Outbox() {
+
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @param before the read-only DTO before the change, null for a created entity
+     * @param after  the read-only DTO after the change, null for a deleted entity
+     */
+    public static void publish(String aggregateType, Long aggregateId, ChangeType changeType,
+                               Object before, Object after) {
+        if (!ENABLED) {
+            return;
+        }
+        ObjectNode payload = MAPPER.createObjectNode();
+        payload.set("before", MAPPER.valueToTree(before));
+        payload.set("after", MAPPER.valueToTree(after));
+        OutboxEvent event = OutboxEvent.builder()
+                .aggregateType(aggregateType)
+                .aggregateId(aggregateId)
+                .changeType(changeType)
+                .payload(payload.toString())
+                .build();
+        JPAHelper.getEntityManager().persist(event);
+        ShardCommitLog.outboxEvent(event);
+    }
+}
@@ -0,0 +1,224 @@
+package gr.aueb.cf.phtrade.core.outbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import gr.aueb.cf.phtrade.model.OutboxCheckpoint;
+import gr.aueb.cf.phtrade.model.OutboxEvent;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the events of {@link Outbox} to the registered {@link ReadModel}s on a
+ * background thread, so read models never add work to the write transactions.
+ * <p>
+ * Every {@code phtrade.outbox.pollMillis} each read model gets the events after
+ * its checkpoint, in batches of {@code phtrade.outbox.batchSize}, until it has
+ * caught up. The checkpoint only moves when a batch was applied. Durable
+ * checkpoints are rows of {@code outbox_checkpoints}, locked while their batch
+ * runs, so instances sharing the database apply a batch once.
+ * <p>
+ * Ids are handed out at insert and become visible at commit, so a younger
+ * transaction can show an event before an older one. A read model stops at a
+ * missing id until the event after it is {@code phtrade.outbox.gapTimeoutMillis}
+ * old, then takes the id for a rolled back transaction. Events applied by every
+ * durable read model are deleted after {@code phtrade.outbox.retentionHours}.
+ */
+public final class OutboxProjector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboxProjector.class);
+
+    private static final long POLL_MILLIS = Math.max(10, Long.getLong("phtrade.outbox.pollMillis", 200L));
+    private static final int BATCH_SIZE = Math.max(1, Integer.getInteger("phtrade.outbox.batchSize", 500));
+    private static final long GAP_TIMEOUT_MILLIS =
+            Math.max(0, Long.getLong("phtrade.outbox.gapTimeoutMillis", 5_000L));
+    private static final long RETENTION_HOURS = Math.max(1, Long.getLong("phtrade.outbox.retentionHours", 24L));
+    private static final long PURGE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private static final List<ReadModel> READ_MODELS = new CopyOnWriteArrayList<>();
+    // Checkpoints of the read models that are not durable
+    private static final Map<String, Long> MEMORY_CHECKPOINTS = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService scheduler;
+    private static long lastPurge = System.nanoTime();
+
+    private OutboxProjector() {
+
+    }
+
+    /**
+     * Adds a read model. It gets its first batch on the next poll.
+     */
+    public static synchronized void register(ReadModel readModel) {
+        for (ReadModel registered : READ_MODELS) {
+            if (registered.name().equals(readModel.name())) {
+                throw new IllegalArgumentException("Read model " + readModel.name() + " is already registered");
+            }
+        }
+        READ_MODELS.add(readModel);
+    }
+
+    public static synchronized void start() {
+        if (!Outbox.isEnabled() || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "phtrade-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(OutboxProjector::poll, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    // An exception escaping a scheduled task would cancel the polling
+    private static void poll() {
+        try {
+            boolean behind;
+            do {
+                behind = false;
+                for (ReadModel readModel : READ_MODELS) {
+                    behind |= project(readModel);
+                }
+            } while (behind && !Thread.currentThread().isInterrupted());
+            if (System.nanoTime() - lastPurge > PURGE_INTERVAL_NANOS) {
+                lastPurge = System.nanoTime();
+                purge();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Outbox poll failed", e);
+        }
+    }
+
+    /**
+     * Applies the next batch of a read model.
+     *
+     * @return whether the batch was full, so more events may be waiting
+     */
+    private static boolean project(ReadModel readModel) {
+        String name = readModel.name();
+        JPAHelper.beginTransaction();
+        try {
+            EntityManager em = JPAHelper.getEntityManager();
+            OutboxCheckpoint checkpoint = null;
+            long after;
+            if (readModel.durable()) {
+                checkpoint = em.find(OutboxCheckpoint.class, name, LockModeType.PESSIMISTIC_WRITE);
+                if (checkpoint == null) {
+                    checkpoint = new OutboxCheckpoint(name, 0, LocalDateTime.now());
+                    em.persist(checkpoint);
+                }
+                after = checkpoint.getLastEventId();
+            } else {
+                after = MEMORY_CHECKPOINTS.computeIfAbsent(name, key -> em.createQuery(
+                        "select coalesce(max(e.id), 0) from OutboxEvent e", Long.class).getSingleResult());
+            }
+
+            List<OutboxEvent> events = em.createQuery(
+                            "select e from OutboxEvent e where e.id > :after order by e.id", OutboxEvent.class)
+                    .setParameter("after", after)
+                    .setMaxResults(BATCH_SIZE)
+                    .getResultList();
+            List<DomainEvent> ready = ready(events, after);
+            if (ready.isEmpty()) {
+                JPAHelper.commitTransaction();
+                return false;
+            }
+
+            readModel.apply(ready);
+            long last = ready.get(ready.size() - 1).sequence();
+            if (checkpoint != null) {
+                checkpoint.setLastEventId(last);
+                checkpoint.setUpdatedAt(LocalDateTime.now());
+            }
+            JPAHelper.commitTransaction();
+            if (checkpoint == null) {
+                MEMORY_CHECKPOINTS.put(name, last);
+            }
+            return ready.size() == BATCH_SIZE;
+        } catch (Exception e) {
+            if (JPAHelper.getEntityManager().getTransaction().isActive()) {
+                JPAHelper.rollbackTransaction();
+            }
+            LOGGER.warn("Read model {} failed, the batch is retried on the next poll", name, e);
+            return false;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    // The events up to the first missing id still worth waiting for
+    private static List<DomainEvent> ready(List<OutboxEvent> events, long after) throws JsonProcessingException {
+        LocalDateTime gapDeadline = LocalDateTime.now().minus(GAP_TIMEOUT_MILLIS, ChronoUnit.MILLIS);
+        List<DomainEvent> ready = new ArrayList<>(events.size());
+        long expected = after + 1;
+        for (OutboxEvent event : events) {
+            if (event.getId() != expected && event.getCreatedAt().isAfter(gapDeadline)) {
+                break;
+            }
+            JsonNode payload = Outbox.MAPPER.readTree(event.getPayload());
+            ready.add(new DomainEvent(event.getId(), event.getUuid(), event.getAggregateType(),
+                    event.getAggregateId(), event.getChangeType(),
+                    payload.get("before"), payload.get("after"), event.getCreatedAt()));
+            expected = event.getId() + 1;
+        }
+        return ready;
+    }
+
+    private static void purge() {
+        List<String> durable = new ArrayList<>();
+        for (ReadModel readModel : READ_MODELS) {
+            if (readModel.durable()) {
+                durable.add(readModel.name());
+            }
+        }
+        JPAHelper.beginTransaction();
+        try {
+            EntityManager em = JPAHelper.getEntityManager();
+            Query delete;
+            if (durable.isEmpty()) {
+                delete = em.createQuery("delete from OutboxEvent e where e.createdAt < :before");
+            } else {
+                Long applied = em.createQuery("select min(c.lastEventId) from OutboxCheckpoint c "
+                                + "where c.readModel in :names", Long.class)
+                        .setParameter("names", durable)
+                        .getSingleResult();
+                delete = em.createQuery("delete from OutboxEvent e where e.createdAt < :before and e.id <= :applied")
+                        .setParameter("applied", applied == null ? 0L : applied);
+            }
+            int deleted = delete.setParameter("before", LocalDateTime.now().minusHours(RETENTION_HOURS))
+                    .executeUpdate();
+            JPAHelper.commitTransaction();
+            if (deleted > 0) {
+                LOGGER.info("Purged {} outbox events", deleted);
+            }
+        } catch (RuntimeException e) {
+            if (JPAHelper.getEntityManager().getTransaction().isActive()) {
+                JPAHelper.rollbackTransaction();
+            }
+            LOGGER.warn("Outbox purge failed", e);
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package gr.aueb.cf.phtrade.core.outbox;
+
+import java.util.List;
+
+/**
+ * A view kept up to date from the outbox by {@link OutboxProjector}.
+ * <p>
+ * Events arrive in order and at least once: a batch whose {@link #apply}
+ * throws is delivered again. A durable read model runs inside a transaction of
+ * {@code JPAHelper}, together with the update of its checkpoint, so the writes
+ * it makes through the DAOs commit with the checkpoint. A read model that is
+ * not durable, e.g. one kept in memory, gets the events written after the
+ * instance started and its checkpoint is not stored.
+ */
+public interface ReadModel {
+
+    /**
+     * Unique, it keys the checkpoint (at most 64 characters).
+     */
+    String name();
+
+    void apply(List<DomainEvent> events) throws Exception;
+
+    default boolean durable() {
+        return true;
+    }
+}
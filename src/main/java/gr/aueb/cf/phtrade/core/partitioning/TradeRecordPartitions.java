@@ -0,0 +1,383 @@
+package gr.aueb.cf.phtrade.core.partitioning;
+
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monthly range partitioning of {@code trade_records} on {@code transaction_date}
+ * (MySQL), turned on with {@code -Dphtrade.partitions.enabled=true}.
+ * <p>
+ * At startup the table is created partitioned, or an existing table is
+ * converted once. A maintenance run, at startup and then every
+ * {@code phtrade.partitions.maintenanceIntervalHours}, keeps
+ * {@code phtrade.partitions.monthsAhead} empty partitions ahead of the current
+ * month. It also moves the partitions older than
+ * {@code phtrade.partitions.archiveAfterMonths} to {@code trade_records_archive}.
+ * With sharding each shard is maintained on its own.
+ */
+public final class TradeRecordPartitions {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TradeRecordPartitions.class);
+
+    static final String TABLE = "trade_records";
+    static final String ARCHIVE_TABLE = "trade_records_archive";
+
+    private static final boolean ENABLED = Boolean.getBoolean("phtrade.partitions.enabled");
+    private static final int MONTHS_AHEAD = Math.max(1, Integer.getInteger("phtrade.partitions.monthsAhead", 3));
+    private static final int ARCHIVE_AFTER_MONTHS =
+            Math.max(1, Integer.getInteger("phtrade.partitions.archiveAfterMonths", 12));
+    private static final long INTERVAL_HOURS =
+            Math.max(1, Long.getLong("phtrade.partitions.maintenanceIntervalHours", 24L));
+
+    // Only one instance maintains a database at a time
+    private static final String LOCK_NAME = "phtrade.trade_records.partitions";
+    private static final String FUTURE_PARTITION = "p_future";
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    private static final DateTimeFormatter BOUND = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final String COLUMNS = "id, amount, created_at, deleted_by_giver, deleted_by_receiver, "
+            + "description, transaction_date, updated_at, uuid, giver_id, last_modified_by, receiver_id, recorder_id";
+
+    private static final String COLUMN_DEFINITIONS = """
+            amount FLOAT(53) NOT NULL,
+            created_at DATETIME(6) NOT NULL,
+            deleted_by_giver BIT NOT NULL,
+            deleted_by_receiver BIT NOT NULL,
+            description VARCHAR(255) NOT NULL,
+            transaction_date DATETIME(6) NOT NULL,
+            updated_at DATETIME(6),
+            uuid VARCHAR(36) NOT NULL,
+            giver_id BIGINT,
+            last_modified_by BIGINT,
+            receiver_id BIGINT,
+            recorder_id BIGINT,
+            """;
+
+    private static ScheduledExecutorService scheduler;
+
+    private TradeRecordPartitions() {
+
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Records dated before this may have been moved to the archive table.
+     */
+    public static LocalDateTime archiveCutoff() {
+        return YearMonth.now().minusMonths(ARCHIVE_AFTER_MONTHS).atDay(1).atStartOfDay();
+    }
+
+    /**
+     * Brings every database holding trade records up to date and schedules the
+     * periodic maintenance. Fails when the first run fails, so a table that
+     * cannot be partitioned keeps the instance from reporting ready.
+     */
+    public static synchronized void start() {
+        if (!ENABLED || scheduler != null) {
+            return;
+        }
+        List<EntityManagerFactory> databases = JPAHelper.getTradeRecordEntityManagerFactories();
+        for (EntityManagerFactory database : databases) {
+            maintain(database);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "phtrade-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            for (EntityManagerFactory database : databases) {
+                try {
+                    maintain(database);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Partition maintenance failed, retrying in {} h", INTERVAL_HOURS, e);
+                }
+            }
+        }, INTERVAL_HOURS, INTERVAL_HOURS, TimeUnit.HOURS);
+    }
+
+    public static synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private static void maintain(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.unwrap(Session.class).doWork(connection -> {
+                if (!lock(connection)) {
+                    LOGGER.info("Partition maintenance is running elsewhere, skipped");
+                    return;
+                }
+                try {
+                    maintain(connection);
+                } finally {
+                    unlock(connection);
+                }
+            });
+        } finally {
+            em.close();
+        }
+    }
+
+    private static void maintain(Connection connection) throws SQLException {
+        List<String> partitions = partitionNames(connection);
+        if (partitions.isEmpty()) {
+            createTable(connection);
+        } else if (partitions.get(0) == null) {
+            convertTable(connection);
+        }
+        addChangeSequence(connection);
+        addDateIndex(connection);
+        execute(connection, "CREATE TABLE IF NOT EXISTS " + ARCHIVE_TABLE + " (\n"
+                + "id BIGINT NOT NULL,\n"
+                + COLUMN_DEFINITIONS
+                + "PRIMARY KEY (id),\n"
+                + "KEY idx_trade_records_archive_pair (giver_id, receiver_id, transaction_date),\n"
+                + "KEY idx_trade_records_archive_receiver (receiver_id, giver_id),\n"
+                + "KEY idx_trade_records_archive_date (transaction_date))");
+        addFuturePartitions(connection);
+        archiveOldPartitions(connection);
+    }
+
+    private static void createTable(Connection connection) throws SQLException {
+        YearMonth current = YearMonth.now();
+        execute(connection, "CREATE TABLE " + TABLE + " (\n"
+                + "id BIGINT NOT NULL AUTO_INCREMENT,\n"
+                + COLUMN_DEFINITIONS
+                + "change_seq BIGINT,\n"
+                + indexDefinitions()
+                + ") " + partitionClause(current, current.plusMonths(MONTHS_AHEAD)));
+        LOGGER.info("Created {} partitioned by month", TABLE);
+    }
+
+    /**
+     * Every unique key of a partitioned table must contain the partitioning
+     * column and InnoDB has no foreign keys on partitioned tables. So the
+     * primary key becomes (id, transaction_date), uuid keeps a plain index and
+     * the foreign keys to pharmacies and users are dropped. This rebuilds the
+     * table once.
+     */
+    private static void convertTable(Connection connection) throws SQLException {
+        LOGGER.warn("Converting {} to monthly partitions, the table is rebuilt", TABLE);
+        for (String foreignKey : constraintNames(connection, "FOREIGN KEY")) {
+            execute(connection, "ALTER TABLE " + TABLE + " DROP FOREIGN KEY `" + foreignKey + "`");
+        }
+        StringJoiner alter = new StringJoiner(", ", "ALTER TABLE " + TABLE + " ", "");
+        for (String uniqueKey : constraintNames(connection, "UNIQUE")) {
+            alter.add("DROP INDEX `" + uniqueKey + "`");
+        }
+        alter.add("ADD KEY idx_trade_records_uuid (uuid)");
+        alter.add("DROP PRIMARY KEY, ADD PRIMARY KEY (id, transaction_date)");
+        execute(connection, alter.toString());
+
+        YearMonth first = YearMonth.now();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MIN(transaction_date) FROM " + TABLE)) {
+            Timestamp oldest = rs.next() ? rs.getTimestamp(1) : null;
+            if (oldest != null) {
+                first = YearMonth.from(oldest.toLocalDateTime());
+            }
+        }
+        execute(connection, "ALTER TABLE " + TABLE + " "
+                + partitionClause(first, YearMonth.now().plusMonths(MONTHS_AHEAD)));
+        LOGGER.info("Converted {} to monthly partitions from {}", TABLE, first);
+    }
+
+    // The table is left out of hbm2ddl, so the change feed column is added here.
+    // The archive has none, archived records are no longer part of the feed
+    private static void addChangeSequence(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM information_schema.COLUMNS "
+                        + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = 'change_seq'")) {
+            statement.setString(1, TABLE);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+        execute(connection, "ALTER TABLE " + TABLE
+                + " ADD COLUMN change_seq BIGINT, ADD KEY idx_trade_records_change_seq (change_seq)");
+        LOGGER.info("Added change_seq to {}", TABLE);
+    }
+
+    // Newest first pages read this index backwards and stop after the page,
+    // instead of sorting the matches of every partition
+    private static void addDateIndex(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM information_schema.STATISTICS "
+                        + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = 'idx_trade_records_date'")) {
+            statement.setString(1, TABLE);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+        execute(connection, "ALTER TABLE " + TABLE + " ADD KEY idx_trade_records_date (transaction_date)");
+        LOGGER.info("Added idx_trade_records_date to {}", TABLE);
+    }
+
+    private static void addFuturePartitions(Connection connection) throws SQLException {
+        YearMonth last = lastMonth(partitionNames(connection));
+        YearMonth target = YearMonth.now().plusMonths(MONTHS_AHEAD);
+        if (last == null || !last.isBefore(target)) {
+            return;
+        }
+        StringJoiner partitions = new StringJoiner(", ", "(", ")");
+        for (YearMonth month = last.plusMonths(1); !month.isAfter(target); month = month.plusMonths(1)) {
+            partitions.add(partition(month));
+        }
+        partitions.add("PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN (MAXVALUE)");
+        execute(connection, "ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + FUTURE_PARTITION
+                + " INTO " + partitions);
+        LOGGER.info("Added {} partitions up to {}", TABLE, target);
+    }
+
+    /**
+     * Copies each old partition to the archive and drops it. The copy ignores
+     * rows already archived, so a run that stopped halfway is finished by the next.
+     */
+    private static void archiveOldPartitions(Connection connection) throws SQLException {
+        YearMonth cutoff = YearMonth.from(archiveCutoff());
+        for (String partition : partitionNames(connection)) {
+            YearMonth month = month(partition);
+            if (month == null || !month.isBefore(cutoff)) {
+                continue;
+            }
+            int archived;
+            try (Statement statement = connection.createStatement()) {
+                archived = statement.executeUpdate("INSERT IGNORE INTO " + ARCHIVE_TABLE + " (" + COLUMNS + ") "
+                        + "SELECT " + COLUMNS + " FROM " + TABLE + " PARTITION (" + partition + ")");
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            execute(connection, "ALTER TABLE " + TABLE + " DROP PARTITION " + partition);
+            LOGGER.info("Archived partition {} of {} ({} records)", partition, TABLE, archived);
+        }
+    }
+
+    private static String indexDefinitions() {
+        return "PRIMARY KEY (id, transaction_date),\n"
+                + "KEY idx_trade_records_uuid (uuid),\n"
+                + "KEY idx_trade_records_pair (giver_id, receiver_id, transaction_date),\n"
+                + "KEY idx_trade_records_receiver (receiver_id, giver_id),\n"
+                + "KEY idx_trade_records_change_seq (change_seq),\n"
+                + "KEY idx_trade_records_date (transaction_date)\n";
+    }
+
+    // RANGE COLUMNS on the plain column: a range on transaction_date prunes
+    private static String partitionClause(YearMonth first, YearMonth last) {
+        StringJoiner partitions = new StringJoiner(",\n", "PARTITION BY RANGE COLUMNS (transaction_date) (\n", ")");
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            partitions.add(partition(month));
+        }
+        partitions.add("PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN (MAXVALUE)");
+        return partitions.toString();
+    }
+
+    private static String partition(YearMonth month) {
+        return "PARTITION " + month.format(PARTITION_NAME) + " VALUES LESS THAN ('"
+                + month.plusMonths(1).atDay(1).atStartOfDay().format(BOUND) + "')";
+    }
+
+    // Empty when the table does not exist, a single null for a table without partitions
+    private static List<String> partitionNames(Connection connection) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT PARTITION_NAME FROM information_schema.PARTITIONS "
+                        + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? ORDER BY PARTITION_ORDINAL_POSITION")) {
+            statement.setString(1, TABLE);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static List<String> constraintNames(Connection connection, String type) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT CONSTRAINT_NAME FROM information_schema.TABLE_CONSTRAINTS "
+                        + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND CONSTRAINT_TYPE = ?")) {
+            statement.setString(1, TABLE);
+            statement.setString(2, type);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static YearMonth lastMonth(List<String> partitions) {
+        YearMonth last = null;
+        for (String partition : partitions) {
+            YearMonth month = month(partition);
+            if (month != null && (last == null || month.isAfter(last))) {
+                last = month;
+            }
+        }
+        return last;
+    }
+
+    // The month of a monthly partition, null for p_future
+    private static YearMonth month(String partition) {
+        if (partition == null || !partition.matches("p\\d{6}")) {
+            return null;
+        }
+        return YearMonth.parse(partition, PARTITION_NAME);
+    }
+
+    private static boolean lock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT GET_LOCK(?, 0)")) {
+            statement.setString(1, LOCK_NAME);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static void unlock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.executeQuery().close();
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
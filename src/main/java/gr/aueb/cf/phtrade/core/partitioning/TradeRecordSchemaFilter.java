@@ -0,0 +1,62 @@
+package gr.aueb.cf.phtrade.core.partitioning;
+
+import org.hibernate.boot.model.relational.Namespace;
+import org.hibernate.boot.model.relational.Sequence;
+import org.hibernate.mapping.Table;
+import org.hibernate.tool.schema.spi.SchemaFilter;
+import org.hibernate.tool.schema.spi.SchemaFilterProvider;
+
+/**
+ * Keeps hbm2ddl away from the tables managed by {@link TradeRecordPartitions}:
+ * the archive table always, and {@code trade_records} while partitioning is on,
+ * since hbm2ddl would try to add back the foreign keys and the unique uuid key
+ * a partitioned table cannot have. Registered in persistence.xml.
+ */
+public class TradeRecordSchemaFilter implements SchemaFilterProvider {
+
+    private static final SchemaFilter FILTER = new SchemaFilter() {
+        @Override
+        public boolean includeNamespace(Namespace namespace) {
+            return true;
+        }
+
+        @Override
+        public boolean includeTable(Table table) {
+            String name = table.getName();
+            if (TradeRecordPartitions.ARCHIVE_TABLE.equalsIgnoreCase(name)) {
+                return false;
+            }
+            return !(TradeRecordPartitions.isEnabled() && TradeRecordPartitions.TABLE.equalsIgnoreCase(name));
+        }
+
+        @Override
+        public boolean includeSequence(Sequence sequence) {
+            return true;
+        }
+    };
+
+    @Override
+    public SchemaFilter getCreateFilter() {
+        return FILTER;
+    }
+
+    @Override
+    public SchemaFilter getDropFilter() {
+        return FILTER;
+    }
+
+    @Override
+    public SchemaFilter getTruncatorFilter() {
+        return FILTER;
+    }
+
+    @Override
+    public SchemaFilter getMigrateFilter() {
+        return FILTER;
+    }
+
+    @Override
+    public SchemaFilter getValidateFilter() {
+        return FILTER;
+    }
+}
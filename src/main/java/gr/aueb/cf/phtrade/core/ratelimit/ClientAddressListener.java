@@ -0,0 +1,23 @@
+package gr.aueb.cf.phtrade.core.ratelimit;
+
+import jakarta.servlet.ServletRequestEvent;
+import jakarta.servlet.ServletRequestListener;
+import jakarta.servlet.annotation.WebListener;
+
+/**
+ * Copies the remote address of every servlet request into a request attribute,
+ * where JAX-RS filters can read it as a {@code ContainerRequestContext} property.
+ * Injecting {@code HttpServletRequest} with {@code @Context} does not work
+ * with jersey-cdi2-se: the servlet binder is registered twice and the lookup
+ * is ambiguous.
+ */
+@WebListener
+public class ClientAddressListener implements ServletRequestListener {
+
+    public static final String ATTRIBUTE = ClientAddressListener.class.getName() + ".remoteAddr";
+
+    @Override
+    public void requestInitialized(ServletRequestEvent event) {
+        event.getServletRequest().setAttribute(ATTRIBUTE, event.getServletRequest().getRemoteAddr());
+    }
+}
@@ -0,0 +1,25 @@
+package gr.aueb.cf.phtrade.core.ratelimit;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Rate limit applied by {@link gr.aueb.cf.phtrade.authentication.RateLimitFilter}
+ * to a resource class or a single resource method. A method annotation
+ * overrides the class annotation. Resources without the annotation use
+ * the defaults.
+ *
+ * Limits are per client key (authenticated user and remote IP are
+ * checked separately), so {@code capacity} requests may burst and then
+ * {@code capacity} requests are allowed every {@code periodSeconds}.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimited {
+
+    long capacity() default 120;
+
+    long periodSeconds() default 60;
+}
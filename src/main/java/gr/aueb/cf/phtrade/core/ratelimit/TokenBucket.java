@@ -0,0 +1,78 @@
+package gr.aueb.cf.phtrade.core.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket.
+ * Instead of a token counter plus a refill timestamp the bucket keeps a
+ * single "theoretical arrival time" (GCRA). Refill is lazy: it is
+ * computed from the clock on every acquire, so idle buckets cost nothing
+ * and a single CAS is enough to take a token.
+ */
+public class TokenBucket {
+
+    private final long capacity;
+    private final long intervalNanos;   // time to refill one token
+    private final long burstNanos;      // time to refill the whole bucket
+    private final AtomicLong arrivalTime;
+    private volatile long lastAccessNanos;
+
+    public TokenBucket(long capacity, long periodNanos, long nowNanos) {
+        this.capacity = capacity;
+        this.intervalNanos = Math.max(1, periodNanos / capacity);
+        this.burstNanos = intervalNanos * capacity;
+        this.arrivalTime = new AtomicLong(nowNanos);
+        this.lastAccessNanos = nowNanos;
+    }
+
+    /**
+     * Tries to take one token.
+     *
+     * @return  the tokens left after the call, or -1 if the bucket is empty.
+     */
+    public long tryAcquire(long nowNanos) {
+        lastAccessNanos = nowNanos;
+        while (true) {
+            long current = arrivalTime.get();
+            long next = Math.max(current, nowNanos) + intervalNanos;
+            long used = next - nowNanos;
+            if (used > burstNanos) {
+                return -1;
+            }
+            if (arrivalTime.compareAndSet(current, next)) {
+                return (burstNanos - used) / intervalNanos;
+            }
+        }
+    }
+
+    /**
+     * Nanos until at least one token is available again.
+     */
+    public long nanosUntilToken(long nowNanos) {
+        long wait = arrivalTime.get() + intervalNanos - burstNanos - nowNanos;
+        return Math.max(0, wait);
+    }
+
+    /**
+     * Nanos until the bucket is full again.
+     */
+    public long nanosUntilFull(long nowNanos) {
+        return Math.max(0, arrivalTime.get() - nowNanos);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getLastAccessNanos() {
+        return lastAccessNanos;
+    }
+
+    /**
+     * A bucket that is full again and has not been touched can be dropped,
+     * a new one would behave exactly the same.
+     */
+    public boolean isIdle(long nowNanos, long idleNanos) {
+        return nanosUntilFull(nowNanos) == 0 && nowNanos - lastAccessNanos > idleNanos;
+    }
+}
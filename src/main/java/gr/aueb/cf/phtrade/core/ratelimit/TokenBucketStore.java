@@ -0,0 +1,116 @@
+package gr.aueb.cf.phtrade.core.ratelimit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Striped store of token buckets keyed by client key (user or IP) and limit.
+ * Every stripe is an independent map with its own size bound, so eviction
+ * of idle buckets only touches one stripe and never blocks the others. A
+ * stripe full of buckets that are still refilling, e.g. under a flood of
+ * distinct keys, does not grow: its least recently used buckets make room.
+ */
+public class TokenBucketStore {
+
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final int maxPerStripe;
+
+    public TokenBucketStore(int stripeCount, int maxBuckets) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new Stripe[size];
+        this.mask = size - 1;
+        this.maxPerStripe = Math.max(16, maxBuckets / size);
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public TokenBucket bucketFor(String key, long capacity, long periodNanos, long nowNanos) {
+        Stripe stripe = stripes[spread(key.hashCode()) & mask];
+        TokenBucket bucket = stripe.buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (stripe.size.get() >= maxPerStripe) {
+            stripe.evict(nowNanos, maxPerStripe);
+        }
+        TokenBucket created = new TokenBucket(capacity, periodNanos, nowNanos);
+        TokenBucket existing = stripe.buckets.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        stripe.size.incrementAndGet();
+        return created;
+    }
+
+    public int size() {
+        int total = 0;
+        for (Stripe stripe : stripes) {
+            total += stripe.size.get();
+        }
+        return total;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static class Stripe {
+        private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        // Drops idle buckets first, then buckets that are already full again
+        // until half of the stripe is free. Only when every bucket is still
+        // refilling, the least recently used quarter goes: a new bucket starts
+        // full and resets the limit of its client, which hurts the clients
+        // seen last the least.
+        private void evict(long nowNanos, int max) {
+            removeIf(nowNanos, IDLE_NANOS, 0);
+            if (size.get() >= max) {
+                removeIf(nowNanos, 0, max / 2);
+            }
+            if (size.get() >= max) {
+                removeLeastRecentlyUsed(max - max / 4);
+            }
+        }
+
+        private void removeIf(long nowNanos, long idleNanos, int keep) {
+            Iterator<Map.Entry<String, TokenBucket>> it = buckets.entrySet().iterator();
+            while (size.get() > keep && it.hasNext()) {
+                Map.Entry<String, TokenBucket> entry = it.next();
+                // Another thread may have dropped the bucket already
+                if (entry.getValue().isIdle(nowNanos, idleNanos)
+                        && buckets.remove(entry.getKey(), entry.getValue())) {
+                    size.decrementAndGet();
+                }
+            }
+        }
+
+        private void removeLeastRecentlyUsed(int keep) {
+            // The access times are read once, they keep changing during the sort
+            List<Candidate> candidates = new ArrayList<>(size.get());
+            buckets.forEach((key, bucket) -> candidates.add(new Candidate(key, bucket, bucket.getLastAccessNanos())));
+            candidates.sort(Comparator.comparingLong(Candidate::lastAccessNanos));
+            for (Candidate candidate : candidates) {
+                if (size.get() <= keep) {
+                    return;
+                }
+                if (buckets.remove(candidate.key(), candidate.bucket())) {
+                    size.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private record Candidate(String key, TokenBucket bucket, long lastAccessNanos) {
+    }
+}
@@ -0,0 +1,174 @@
+package gr.aueb.cf.phtrade.core.segments;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * The criteria maps of {@code AbstractDAO}, evaluated on segment rows with the
+ * same meaning: a List is IN, a Map is a from/to range, "isNull" and
+ * "isNotNull" test for null, a String is a case insensitive equality or a LIKE
+ * when it contains {@code %}, anything else is an equality. The date range, the
+ * id and the pharmacies of the criteria are kept apart to skip whole segments.
+ */
+final class SegmentQuery {
+
+    private static final Map<String, Function<TradeSegmentRow, Object>> FIELDS = Map.ofEntries(
+            Map.entry("id", TradeSegmentRow::id),
+            Map.entry("description", TradeSegmentRow::description),
+            Map.entry("amount", TradeSegmentRow::amount),
+            Map.entry("giver.id", TradeSegmentRow::giverId),
+            Map.entry("receiver.id", TradeSegmentRow::receiverId),
+            Map.entry("recorder.id", TradeSegmentRow::recorderId),
+            Map.entry("lastModifiedBy.id", TradeSegmentRow::lastModifiedById),
+            Map.entry("deletedByGiver", TradeSegmentRow::deletedByGiver),
+            Map.entry("deletedByReceiver", TradeSegmentRow::deletedByReceiver),
+            Map.entry("transactionDate", TradeSegmentRow::transactionDate),
+            Map.entry("createdAt", TradeSegmentRow::createdAt),
+            Map.entry("updatedAt", TradeSegmentRow::updatedAt),
+            Map.entry("uuid", TradeSegmentRow::uuid));
+
+    private final List<Predicate<TradeSegmentRow>> predicates = new ArrayList<>();
+    private final List<Long> pharmacies = new ArrayList<>();
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private Long id;
+
+    private SegmentQuery() {
+
+    }
+
+    /**
+     * @throws IllegalArgumentException when the criteria use a field segments
+     *                                  do not keep, e.g. {@code giver.name}
+     */
+    static SegmentQuery of(Map<String, Object> criteria) {
+        SegmentQuery query = new SegmentQuery();
+        for (Map.Entry<String, Object> entry : criteria.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            Function<TradeSegmentRow, Object> field = FIELDS.get(key);
+            if (field == null) {
+                throw new IllegalArgumentException("Archived trade segments cannot be queried by " + key);
+            }
+            if (value instanceof List<?> values) {
+                query.predicates.add(row -> values.stream().anyMatch(v -> same(field.apply(row), v)));
+            } else if (value instanceof Map<?, ?> range) {
+                Object lower = range.get("from");
+                Object upper = range.get("to");
+                // A null never matches a range, as in SQL
+                if (lower instanceof Comparable) {
+                    query.predicates.add(row -> {
+                        Object actual = field.apply(row);
+                        return actual != null && compare(actual, lower) >= 0;
+                    });
+                }
+                if (upper instanceof Comparable) {
+                    query.predicates.add(row -> {
+                        Object actual = field.apply(row);
+                        return actual != null && compare(actual, upper) <= 0;
+                    });
+                }
+                if ("transactionDate".equals(key)) {
+                    query.from = lower instanceof LocalDateTime date ? date : null;
+                    query.to = upper instanceof LocalDateTime date ? date : null;
+                }
+            } else if ("isNull".equals(value)) {
+                query.predicates.add(row -> field.apply(row) == null);
+            } else if ("isNotNull".equals(value)) {
+                query.predicates.add(row -> field.apply(row) != null);
+            } else if (value instanceof String text) {
+                Pattern pattern = like(text.toLowerCase(Locale.ROOT));
+                query.predicates.add(row -> {
+                    Object actual = field.apply(row);
+                    return actual != null && pattern.matcher(actual.toString().toLowerCase(Locale.ROOT)).matches();
+                });
+            } else {
+                query.predicates.add(row -> same(field.apply(row), value));
+                if ("transactionDate".equals(key) && value instanceof LocalDateTime date) {
+                    query.from = date;
+                    query.to = date;
+                } else if ("id".equals(key) && value instanceof Number number) {
+                    query.id = number.longValue();
+                } else if (("giver.id".equals(key) || "receiver.id".equals(key)) && value instanceof Number number) {
+                    query.pharmacies.add(number.longValue());
+                }
+            }
+        }
+        return query;
+    }
+
+    boolean isEmpty() {
+        return predicates.isEmpty();
+    }
+
+    boolean matches(TradeSegmentRow row) {
+        for (Predicate<TradeSegmentRow> predicate : predicates) {
+            if (!predicate.test(row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Bounds of transactionDate, null when open
+    LocalDateTime from() {
+        return from;
+    }
+
+    LocalDateTime to() {
+        return to;
+    }
+
+    Long id() {
+        return id;
+    }
+
+    // Pharmacies every match trades with, as giver or receiver
+    List<Long> pharmacies() {
+        return pharmacies;
+    }
+
+    private static boolean same(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number e) {
+            return isIntegral(a) && isIntegral(e)
+                    ? a.longValue() == e.longValue()
+                    : Double.compare(a.doubleValue(), e.doubleValue()) == 0;
+        }
+        return Objects.equals(actual, expected);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object actual, Object bound) {
+        if (actual instanceof Number a && bound instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue());
+        }
+        return ((Comparable) actual).compareTo(bound);
+    }
+
+    private static boolean isIntegral(Number number) {
+        return !(number instanceof Double || number instanceof Float);
+    }
+
+    // SQL LIKE: % is any run of characters, _ is one character
+    private static Pattern like(String pattern) {
+        if (pattern.indexOf('%') < 0) {
+            return Pattern.compile(Pattern.quote(pattern), Pattern.DOTALL);
+        }
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            switch (c) {
+                case '%' -> regex.append(".*");
+                case '_' -> regex.append('.');
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
@@ -0,0 +1,334 @@
+package gr.aueb.cf.phtrade.core.segments;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A read-only, memory-mapped segment file written by {@link TradeSegmentWriter}.
+ * <p>
+ * Layout: a fixed header (row count, date and id bounds, pharmacy index
+ * position), a directory with the position of every column, the columns each
+ * deflate-compressed on their own, and an uncompressed pharmacy index. The
+ * index maps every pharmacy id, sorted, to the rows where it is giver or
+ * receiver, and is searched in place on the mapping.
+ * <p>
+ * The header and the index decide whether a query can match at all. Columns
+ * are only inflated when it can, and the decoded rows are kept softly so the
+ * garbage collector can take them back under memory pressure.
+ */
+final class TradeSegment {
+
+    static final int MAGIC = 0x50485453; // "PHTS"
+    static final int VERSION = 1;
+
+    // Header: magic, version, rows, columns, min/max date, min/max id,
+    // index offset, pharmacies in the index, postings in the index
+    static final int HEADER_SIZE = 64;
+    // Directory entry: offset, compressed length, raw length
+    static final int DIRECTORY_ENTRY_SIZE = 16;
+
+    // Columns in file order. Longs hold dates as epoch microseconds (UTC) and
+    // references as ids, 0 for null. id and transactionDate are delta-encoded
+    static final int ID = 0;
+    static final int TRANSACTION_DATE = 1;
+    static final int CREATED_AT = 2;
+    static final int UPDATED_AT = 3;
+    static final int AMOUNT = 4;
+    static final int GIVER = 5;
+    static final int RECEIVER = 6;
+    static final int RECORDER = 7;
+    static final int LAST_MODIFIED_BY = 8;
+    static final int FLAGS = 9;
+    static final int DESCRIPTION = 10;
+    static final int UUID = 11;
+    static final int COLUMN_COUNT = 12;
+
+    static final long NULL_TIME = Long.MIN_VALUE;
+    static final int DELETED_BY_GIVER = 1;
+    static final int DELETED_BY_RECEIVER = 2;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int rowCount;
+    private final LocalDateTime minDate;
+    private final LocalDateTime maxDate;
+    private final long minId;
+    private final long maxId;
+    private final int indexOffset;
+    private final int pharmacyCount;
+
+    private volatile SoftReference<List<TradeSegmentRow>> rows = new SoftReference<>(null);
+
+    private TradeSegment(Path path, MappedByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a trade segment");
+        }
+        if (buffer.getInt(4) != VERSION || buffer.getInt(12) != COLUMN_COUNT) {
+            throw new IOException(path + " has an unsupported segment version " + buffer.getInt(4));
+        }
+        this.path = path;
+        this.buffer = buffer;
+        this.rowCount = buffer.getInt(8);
+        this.minDate = toTime(buffer.getLong(16));
+        this.maxDate = toTime(buffer.getLong(24));
+        this.minId = buffer.getLong(32);
+        this.maxId = buffer.getLong(40);
+        this.indexOffset = (int) buffer.getLong(48);
+        this.pharmacyCount = buffer.getInt(56);
+    }
+
+    /**
+     * Maps a segment file. The mapping stays valid after the channel is closed
+     * and is released when the segment is garbage collected.
+     */
+    static TradeSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new TradeSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int rowCount() {
+        return rowCount;
+    }
+
+    LocalDateTime minDate() {
+        return minDate;
+    }
+
+    LocalDateTime maxDate() {
+        return maxDate;
+    }
+
+    /**
+     * False when the bounds or the pharmacy index rule every row out.
+     */
+    boolean mayMatch(SegmentQuery query) {
+        if (rowCount == 0) {
+            return false;
+        }
+        if ((query.from() != null && query.from().isAfter(maxDate))
+                || (query.to() != null && query.to().isBefore(minDate))) {
+            return false;
+        }
+        if (query.id() != null && (query.id() < minId || query.id() > maxId)) {
+            return false;
+        }
+        for (long pharmacy : query.pharmacies()) {
+            if (indexOf(pharmacy) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    List<TradeSegmentRow> find(SegmentQuery query) {
+        List<TradeSegmentRow> matches = new ArrayList<>();
+        forEachMatch(query, matches::add);
+        return matches;
+    }
+
+    /**
+     * The first {@code limit} matches in the given order. Only that many rows
+     * are held while the matches are scanned, none of them is sorted in full.
+     */
+    List<TradeSegmentRow> first(SegmentQuery query, Comparator<TradeSegmentRow> order, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        // The last row of the order on top, replaced by any match before it
+        PriorityQueue<TradeSegmentRow> kept = new PriorityQueue<>(order.reversed());
+        forEachMatch(query, row -> {
+            if (kept.size() < limit) {
+                kept.add(row);
+            } else if (order.compare(row, kept.peek()) < 0) {
+                kept.poll();
+                kept.add(row);
+            }
+        });
+        List<TradeSegmentRow> rows = new ArrayList<>(kept);
+        rows.sort(order);
+        return rows;
+    }
+
+    private void forEachMatch(SegmentQuery query, Consumer<TradeSegmentRow> action) {
+        if (!mayMatch(query)) {
+            return;
+        }
+        List<TradeSegmentRow> all = rows();
+        if (query.pharmacies().isEmpty()) {
+            for (TradeSegmentRow row : all) {
+                if (query.matches(row)) {
+                    action.accept(row);
+                }
+            }
+            return;
+        }
+        // Only the rows of one pharmacy of the query are candidates
+        int pharmacy = indexOf(query.pharmacies().get(0));
+        int starts = indexOffset + Long.BYTES * pharmacyCount;
+        int postings = starts + Integer.BYTES * (pharmacyCount + 1);
+        int end = buffer.getInt(starts + Integer.BYTES * (pharmacy + 1));
+        for (int p = buffer.getInt(starts + Integer.BYTES * pharmacy); p < end; p++) {
+            TradeSegmentRow row = all.get(buffer.getInt(postings + Integer.BYTES * p));
+            if (query.matches(row)) {
+                action.accept(row);
+            }
+        }
+    }
+
+    long count(SegmentQuery query) {
+        if (query.isEmpty()) {
+            return rowCount;
+        }
+        return find(query).size();
+    }
+
+    /**
+     * Only the id column, to tell which records a segment already holds.
+     */
+    long[] ids() {
+        List<TradeSegmentRow> cached = rows.get();
+        if (cached != null) {
+            return cached.stream().mapToLong(TradeSegmentRow::id).toArray();
+        }
+        return longs(ID, true);
+    }
+
+    // Binary search of the sorted pharmacy ids at the start of the index
+    private int indexOf(long pharmacy) {
+        int low = 0;
+        int high = pharmacyCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long id = buffer.getLong(indexOffset + Long.BYTES * mid);
+            if (id < pharmacy) {
+                low = mid + 1;
+            } else if (id > pharmacy) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private List<TradeSegmentRow> rows() {
+        List<TradeSegmentRow> cached = rows.get();
+        if (cached != null) {
+            return cached;
+        }
+        long[] ids = longs(ID, true);
+        long[] dates = longs(TRANSACTION_DATE, true);
+        long[] created = longs(CREATED_AT, false);
+        long[] updated = longs(UPDATED_AT, false);
+        long[] amounts = longs(AMOUNT, false);
+        long[] givers = longs(GIVER, false);
+        long[] receivers = longs(RECEIVER, false);
+        long[] recorders = longs(RECORDER, false);
+        long[] modifiers = longs(LAST_MODIFIED_BY, false);
+        byte[] flags = inflate(FLAGS);
+        String[] descriptions = strings(DESCRIPTION);
+        String[] uuids = strings(UUID);
+
+        List<TradeSegmentRow> decoded = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            decoded.add(new TradeSegmentRow(ids[i], descriptions[i], Double.longBitsToDouble(amounts[i]),
+                    toReference(givers[i]), toReference(receivers[i]),
+                    toReference(recorders[i]), toReference(modifiers[i]),
+                    (flags[i] & DELETED_BY_GIVER) != 0, (flags[i] & DELETED_BY_RECEIVER) != 0,
+                    toTime(dates[i]), toTime(created[i]), toTime(updated[i]), uuids[i]));
+        }
+        decoded = Collections.unmodifiableList(decoded);
+        rows = new SoftReference<>(decoded);
+        return decoded;
+    }
+
+    private long[] longs(int column, boolean delta) {
+        ByteBuffer raw = ByteBuffer.wrap(inflate(column));
+        long[] values = new long[rowCount];
+        long previous = 0;
+        for (int i = 0; i < rowCount; i++) {
+            long value = raw.getLong();
+            values[i] = delta ? previous + value : value;
+            previous = values[i];
+        }
+        return values;
+    }
+
+    private String[] strings(int column) {
+        ByteBuffer raw = ByteBuffer.wrap(inflate(column));
+        String[] values = new String[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            int length = raw.getInt();
+            if (length >= 0) {
+                values[i] = new String(raw.array(), raw.position(), length, StandardCharsets.UTF_8);
+                raw.position(raw.position() + length);
+            }
+        }
+        return values;
+    }
+
+    // Inflates straight from the mapping, without copying the compressed bytes
+    private byte[] inflate(int column) {
+        int entry = HEADER_SIZE + DIRECTORY_ENTRY_SIZE * column;
+        int offset = (int) buffer.getLong(entry);
+        int compressedLength = buffer.getInt(entry + 8);
+        byte[] raw = new byte[buffer.getInt(entry + 12)];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer.slice(offset, compressedLength));
+            int read = 0;
+            while (read < raw.length) {
+                int inflated = inflater.inflate(raw, read, raw.length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Truncated column " + column + " in " + path);
+                }
+                read += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt column " + column + " in " + path, e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    static long toMicros(LocalDateTime time) {
+        if (time == null) {
+            return NULL_TIME;
+        }
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1_000;
+    }
+
+    static LocalDateTime toTime(long micros) {
+        if (micros == NULL_TIME) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+
+    private static Long toReference(long id) {
+        return id == 0 ? null : id;
+    }
+}
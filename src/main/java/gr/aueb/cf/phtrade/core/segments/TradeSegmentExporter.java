@@ -0,0 +1,204 @@
+package gr.aueb.cf.phtrade.core.segments;
+
+import gr.aueb.cf.phtrade.core.partitioning.TradeRecordPartitions;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import gr.aueb.cf.phtrade.service.util.ShardRouter;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves the trade records dated before the export cutoff out of the database,
+ * month by month, into segment files named
+ * {@code trades-<yyyyMM>-<database>-<n>.seg}. The archive table of
+ * {@link TradeRecordPartitions} is exported too.
+ * <p>
+ * A segment is written before its records are deleted. A run that stops in
+ * between leaves records that are both in a segment and in the database; the
+ * next run does not write them again and only deletes them. A file lock in the
+ * directory keeps two instances sharing it from exporting at the same time.
+ */
+final class TradeSegmentExporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TradeSegmentExporter.class);
+
+    private static final String LOCK_FILE = ".export.lock";
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+    // Older than any MySQL DATETIME
+    private static final LocalDateTime BEGINNING = LocalDateTime.of(1000, 1, 1, 0, 0);
+
+    private static final int READ_CHUNK = 5_000;
+    private static final int DELETE_BATCH = 1_000;
+    // Bounds the rows held in memory while a segment is built
+    private static final int MAX_ROWS = Math.max(READ_CHUNK, Integer.getInteger("phtrade.segments.maxRows", 1_000_000));
+
+    private static final String ROW = "select t.id, t.description, t.amount, t.giver.id, t.receiver.id, t.recorder.id, "
+            + "t.lastModifiedBy.id, t.deletedByGiver, t.deletedByReceiver, t.transactionDate, t.createdAt, "
+            + "t.updatedAt, t.uuid from %s t "
+            + "where t.transactionDate >= :from and t.transactionDate < :to and t.id > :after order by t.id";
+
+    private TradeSegmentExporter() {
+
+    }
+
+    static void exportAll(Path directory, LocalDateTime cutoff) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                LOGGER.info("Trade segment export is running elsewhere, skipped");
+                return;
+            }
+            List<EntityManagerFactory> databases = JPAHelper.getTradeRecordEntityManagerFactories();
+            for (int i = 0; i < databases.size(); i++) {
+                export(databases.get(i), ShardRouter.isEnabled() ? "shard" + i : "main", directory, cutoff);
+            }
+        }
+    }
+
+    private static void export(EntityManagerFactory emf, String database, Path directory, LocalDateTime cutoff)
+            throws IOException {
+        EntityManager em = emf.createEntityManager();
+        try {
+            LocalDateTime from = BEGINNING;
+            LocalDateTime oldest;
+            while ((oldest = oldest(em, from, cutoff)) != null) {
+                YearMonth month = YearMonth.from(oldest);
+                exportMonth(em, database, directory, month);
+                from = month.plusMonths(1).atDay(1).atStartOfDay();
+            }
+        } finally {
+            em.close();
+        }
+    }
+
+    private static void exportMonth(EntityManager em, String database, Path directory, YearMonth month)
+            throws IOException {
+        String prefix = "trades-" + month.format(MONTH) + "-" + database + "-";
+        long[] exported = TradeSegments.exportedIds(prefix);
+        LocalDateTime from = month.atDay(1).atStartOfDay();
+        LocalDateTime to = month.plusMonths(1).atDay(1).atStartOfDay();
+
+        for (String entity : entities()) {
+            String table = "ArchivedTradeRecord".equals(entity) ? "trade_records_archive" : "trade_records";
+            List<TradeSegmentRow> rows = new ArrayList<>();
+            List<Long> ids = new ArrayList<>();
+            long after = 0;
+            List<Object[]> chunk;
+            do {
+                chunk = em.createQuery(String.format(ROW, entity), Object[].class)
+                        .setParameter("from", from)
+                        .setParameter("to", to)
+                        .setParameter("after", after)
+                        .setMaxResults(READ_CHUNK)
+                        .getResultList();
+                for (Object[] values : chunk) {
+                    TradeSegmentRow row = toRow(values);
+                    after = row.id();
+                    ids.add(row.id());
+                    if (Arrays.binarySearch(exported, row.id()) < 0) {
+                        rows.add(row);
+                    }
+                }
+                // ids holds the rows already exported too, it is bounded the same way
+                if (ids.size() >= MAX_ROWS || (chunk.size() < READ_CHUNK && !ids.isEmpty())) {
+                    if (!rows.isEmpty()) {
+                        Path file = directory.resolve(prefix + nextSequence(directory, prefix) + TradeSegments.EXTENSION);
+                        TradeSegmentWriter.write(file, rows);
+                        TradeSegments.refresh();
+                        LOGGER.info("Exported {} trade records to {}", rows.size(), file.getFileName());
+                    }
+                    delete(em, table, ids);
+                    rows.clear();
+                    ids.clear();
+                }
+            } while (chunk.size() == READ_CHUNK);
+        }
+    }
+
+    private static List<String> entities() {
+        return TradeRecordPartitions.isEnabled()
+                ? List.of("TradeRecord", "ArchivedTradeRecord")
+                : List.of("TradeRecord");
+    }
+
+    private static LocalDateTime oldest(EntityManager em, LocalDateTime from, LocalDateTime cutoff) {
+        LocalDateTime oldest = null;
+        for (String entity : entities()) {
+            LocalDateTime date = em.createQuery("select min(t.transactionDate) from " + entity + " t "
+                            + "where t.transactionDate >= :from and t.transactionDate < :cutoff", LocalDateTime.class)
+                    .setParameter("from", from)
+                    .setParameter("cutoff", cutoff)
+                    .getSingleResult();
+            if (date != null && (oldest == null || date.isBefore(oldest))) {
+                oldest = date;
+            }
+        }
+        return oldest;
+    }
+
+    private static void delete(EntityManager em, String table, List<Long> ids) {
+        for (int i = 0; i < ids.size(); i += DELETE_BATCH) {
+            List<Long> batch = ids.subList(i, Math.min(i + DELETE_BATCH, ids.size()));
+            em.getTransaction().begin();
+            try {
+                em.createNativeQuery("DELETE FROM " + table + " WHERE id IN (:ids)")
+                        .setParameter("ids", batch)
+                        .executeUpdate();
+                em.getTransaction().commit();
+            } catch (RuntimeException e) {
+                em.getTransaction().rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static int nextSequence(Path directory, String prefix) throws IOException {
+        int next = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + TradeSegments.EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    int sequence = Integer.parseInt(
+                            name.substring(prefix.length(), name.length() - TradeSegments.EXTENSION.length()));
+                    next = Math.max(next, sequence + 1);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return next;
+    }
+
+    private static TradeSegmentRow toRow(Object[] values) {
+        return new TradeSegmentRow(
+                (Long) values[0],
+                (String) values[1],
+                (Double) values[2],
+                (Long) values[3],
+                (Long) values[4],
+                (Long) values[5],
+                (Long) values[6],
+                (Boolean) values[7],
+                (Boolean) values[8],
+                (LocalDateTime) values[9],
+                (LocalDateTime) values[10],
+                (LocalDateTime) values[11],
+                (String) values[12]);
+    }
+}
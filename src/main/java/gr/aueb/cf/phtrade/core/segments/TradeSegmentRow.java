@@ -0,0 +1,22 @@
+package gr.aueb.cf.phtrade.core.segments;
+
+import java.time.LocalDateTime;
+
+/**
+ * One trade record as stored in a segment file. References are kept as ids,
+ * a null id means the reference was null.
+ */
+public record TradeSegmentRow(long id,
+                              String description,
+                              double amount,
+                              Long giverId,
+                              Long receiverId,
+                              Long recorderId,
+                              Long lastModifiedById,
+                              boolean deletedByGiver,
+                              boolean deletedByReceiver,
+                              LocalDateTime transactionDate,
+                              LocalDateTime createdAt,
+                              LocalDateTime updatedAt,
+                              String uuid) {
+}
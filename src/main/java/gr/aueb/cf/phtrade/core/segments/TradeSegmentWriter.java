@@ -0,0 +1,189 @@
+package gr.aueb.cf.phtrade.core.segments;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.zip.Deflater;
+
+import static gr.aueb.cf.phtrade.core.segments.TradeSegment.*;
+
+/**
+ * Writes rows to a new segment file in the layout read by {@link TradeSegment}.
+ * The file is written under a temporary name and moved into place, so readers
+ * never see a partial segment.
+ */
+final class TradeSegmentWriter {
+
+    // The file is read through int offsets
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private TradeSegmentWriter() {
+
+    }
+
+    static void write(Path file, List<TradeSegmentRow> unsorted) throws IOException {
+        // In date order the delta-encoded dates and ids stay small
+        List<TradeSegmentRow> rows = new ArrayList<>(unsorted);
+        rows.sort(Comparator.comparing(TradeSegmentRow::transactionDate).thenComparingLong(TradeSegmentRow::id));
+        int count = rows.size();
+
+        byte[][] columns = new byte[COLUMN_COUNT][];
+        columns[ID] = longs(rows, TradeSegmentRow::id, true);
+        columns[TRANSACTION_DATE] = longs(rows, row -> toMicros(row.transactionDate()), true);
+        columns[CREATED_AT] = longs(rows, row -> toMicros(row.createdAt()), false);
+        columns[UPDATED_AT] = longs(rows, row -> toMicros(row.updatedAt()), false);
+        columns[AMOUNT] = longs(rows, row -> Double.doubleToLongBits(row.amount()), false);
+        columns[GIVER] = longs(rows, row -> reference(row.giverId()), false);
+        columns[RECEIVER] = longs(rows, row -> reference(row.receiverId()), false);
+        columns[RECORDER] = longs(rows, row -> reference(row.recorderId()), false);
+        columns[LAST_MODIFIED_BY] = longs(rows, row -> reference(row.lastModifiedById()), false);
+        columns[FLAGS] = new byte[count];
+        for (int i = 0; i < count; i++) {
+            TradeSegmentRow row = rows.get(i);
+            columns[FLAGS][i] = (byte) ((row.deletedByGiver() ? DELETED_BY_GIVER : 0)
+                    | (row.deletedByReceiver() ? DELETED_BY_RECEIVER : 0));
+        }
+        columns[DESCRIPTION] = strings(rows, TradeSegmentRow::description);
+        columns[UUID] = strings(rows, TradeSegmentRow::uuid);
+
+        byte[][] compressed = new byte[COLUMN_COUNT][];
+        long offset = HEADER_SIZE + (long) DIRECTORY_ENTRY_SIZE * COLUMN_COUNT;
+        ByteBuffer directory = ByteBuffer.allocate(DIRECTORY_ENTRY_SIZE * COLUMN_COUNT);
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            compressed[column] = deflate(columns[column]);
+            directory.putLong(offset).putInt(compressed[column].length).putInt(columns[column].length);
+            offset += compressed[column].length;
+        }
+
+        ByteBuffer index = index(rows);
+        if (offset + index.capacity() > MAX_SIZE) {
+            throw new IOException("Segment " + file + " would exceed " + MAX_SIZE + " bytes");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(count)
+                .putInt(COLUMN_COUNT)
+                .putLong(count == 0 ? NULL_TIME : toMicros(rows.get(0).transactionDate()))
+                .putLong(count == 0 ? NULL_TIME : toMicros(rows.get(count - 1).transactionDate()))
+                .putLong(rows.stream().mapToLong(TradeSegmentRow::id).min().orElse(0))
+                .putLong(rows.stream().mapToLong(TradeSegmentRow::id).max().orElse(0))
+                .putLong(offset)
+                .putInt(index.getInt(0))
+                .putInt(index.getInt(4));
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header.flip());
+            writeFully(channel, directory.flip());
+            for (byte[] column : compressed) {
+                writeFully(channel, ByteBuffer.wrap(column));
+            }
+            writeFully(channel, index.position(8));
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Pharmacy ids sorted, then where the postings of each start (one extra
+     * entry for the end), then the postings: row numbers, ascending per
+     * pharmacy. The first 8 bytes carry the two counts for the header and are
+     * not written.
+     */
+    private static ByteBuffer index(List<TradeSegmentRow> rows) {
+        Map<Long, List<Integer>> postings = new TreeMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            TradeSegmentRow row = rows.get(i);
+            if (row.giverId() != null) {
+                postings.computeIfAbsent(row.giverId(), id -> new ArrayList<>()).add(i);
+            }
+            if (row.receiverId() != null && !row.receiverId().equals(row.giverId())) {
+                postings.computeIfAbsent(row.receiverId(), id -> new ArrayList<>()).add(i);
+            }
+        }
+        int postingCount = postings.values().stream().mapToInt(List::size).sum();
+        ByteBuffer index = ByteBuffer.allocate(8 + Long.BYTES * postings.size()
+                + Integer.BYTES * (postings.size() + 1) + Integer.BYTES * postingCount);
+        index.putInt(postings.size()).putInt(postingCount);
+        postings.keySet().forEach(index::putLong);
+        int start = 0;
+        for (List<Integer> rowNumbers : postings.values()) {
+            index.putInt(start);
+            start += rowNumbers.size();
+        }
+        index.putInt(start);
+        postings.values().forEach(rowNumbers -> rowNumbers.forEach(index::putInt));
+        return index.flip();
+    }
+
+    private static byte[] longs(List<TradeSegmentRow> rows, ToLongFunction<TradeSegmentRow> column, boolean delta) {
+        ByteBuffer raw = ByteBuffer.allocate(Long.BYTES * rows.size());
+        long previous = 0;
+        for (TradeSegmentRow row : rows) {
+            long value = column.applyAsLong(row);
+            raw.putLong(delta ? value - previous : value);
+            previous = value;
+        }
+        return raw.array();
+    }
+
+    // Length-prefixed UTF-8, -1 for null
+    private static byte[] strings(List<TradeSegmentRow> rows, Function<TradeSegmentRow, String> column) {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        for (TradeSegmentRow row : rows) {
+            String value = column.apply(row);
+            byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+            raw.write(length.clear().putInt(bytes == null ? -1 : bytes.length).array(), 0, Integer.BYTES);
+            if (bytes != null) {
+                raw.write(bytes, 0, bytes.length);
+            }
+        }
+        return raw.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] chunk = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                compressed.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static long reference(Long id) {
+        return id == null ? 0 : id;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package gr.aueb.cf.phtrade.core.segments;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closed periods of trade records kept as compressed, column-oriented segment
+ * files in {@code phtrade.segments.dir} instead of the database. Unset, the
+ * default, turns segments off.
+ * <p>
+ * An export run, at startup and then every
+ * {@code phtrade.segments.exportIntervalHours}, moves the records older than
+ * {@code phtrade.segments.exportAfterMonths} out of the database into one or
+ * more segments per month (see {@link TradeSegmentExporter}). Instances started
+ * with {@code -Dphtrade.segments.export=false} only read the segments.
+ * <p>
+ * The segments found in the directory are memory-mapped once and the directory
+ * is listed again when its modification time changes.
+ */
+public final class TradeSegments {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TradeSegments.class);
+
+    static final String EXTENSION = ".seg";
+
+    private static final String DIRECTORY = System.getProperty("phtrade.segments.dir", "");
+    private static final int EXPORT_AFTER_MONTHS =
+            Math.max(1, Integer.getInteger("phtrade.segments.exportAfterMonths", 24));
+    private static final boolean EXPORT =
+            Boolean.parseBoolean(System.getProperty("phtrade.segments.export", "true"));
+    private static final long INTERVAL_HOURS =
+            Math.max(1, Long.getLong("phtrade.segments.exportIntervalHours", 24L));
+
+    private static volatile List<TradeSegment> segments = List.of();
+    private static volatile FileTime listed;
+    private static ScheduledExecutorService scheduler;
+
+    private TradeSegments() {
+
+    }
+
+    public static boolean isEnabled() {
+        return !DIRECTORY.isBlank();
+    }
+
+    /**
+     * Records dated before this are moved to segments by the next export run.
+     */
+    public static LocalDateTime exportCutoff() {
+        return YearMonth.now().minusMonths(EXPORT_AFTER_MONTHS).atDay(1).atStartOfDay();
+    }
+
+    /**
+     * Whether a query on records dated between {@code from} and {@code to},
+     * both included and either open when null, could find records in the
+     * segments.
+     */
+    public static boolean holdRecordsIn(LocalDateTime from, LocalDateTime to) {
+        if (!isEnabled()) {
+            return false;
+        }
+        for (TradeSegment segment : segments()) {
+            if (segment.rowCount() > 0
+                    && (from == null || !segment.maxDate().isBefore(from))
+                    && (to == null || !segment.minDate().isAfter(to))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The segment records matching the criteria of {@code AbstractDAO}, in no
+     * particular order.
+     *
+     * @throws IllegalArgumentException when the criteria use a field segments do not keep
+     */
+    public static List<TradeSegmentRow> find(Map<String, Object> criteria) {
+        SegmentQuery query = SegmentQuery.of(criteria);
+        List<TradeSegmentRow> rows = new ArrayList<>();
+        for (TradeSegment segment : segments()) {
+            rows.addAll(segment.find(query));
+        }
+        return rows;
+    }
+
+    /**
+     * The first {@code limit} segment records matching the criteria, in the
+     * given order. Each segment hands over at most {@code limit} rows, so a
+     * page costs a scan of the matches but never a sort of all of them.
+     *
+     * @throws IllegalArgumentException when the criteria use a field segments do not keep
+     */
+    public static List<TradeSegmentRow> first(Map<String, Object> criteria, Comparator<TradeSegmentRow> order,
+                                              int limit) {
+        SegmentQuery query = SegmentQuery.of(criteria);
+        List<TradeSegmentRow> rows = new ArrayList<>();
+        for (TradeSegment segment : segments()) {
+            rows.addAll(segment.first(query, order, limit));
+        }
+        rows.sort(order);
+        return rows.size() > limit ? new ArrayList<>(rows.subList(0, limit)) : rows;
+    }
+
+    public static long count(Map<String, Object> criteria) {
+        SegmentQuery query = SegmentQuery.of(criteria);
+        long count = 0;
+        for (TradeSegment segment : segments()) {
+            count += segment.count(query);
+        }
+        return count;
+    }
+
+    /**
+     * Maps the segments already in the directory and, unless this instance
+     * only reads them, schedules the export. Fails when the directory cannot be
+     * created, so the instance does not report ready without its history.
+     */
+    public static synchronized void start() {
+        if (!isEnabled() || scheduler != null) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the segment directory " + DIRECTORY, e);
+        }
+        refresh();
+        LOGGER.info("{} trade segments in {}", segments.size(), directory());
+        if (!EXPORT) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "phtrade-segments");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The first run can take long on a database with years of history, it
+        // does not hold up readiness
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                TradeSegmentExporter.exportAll(directory(), exportCutoff());
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Trade segment export failed, retrying in {} h", INTERVAL_HOURS, e);
+            }
+        }, 0, INTERVAL_HOURS, TimeUnit.HOURS);
+    }
+
+    public static synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    static Path directory() {
+        return Paths.get(DIRECTORY);
+    }
+
+    /**
+     * The ids of the newest segment of one database and month, sorted. An
+     * export deletes the records of a segment before it writes the next one,
+     * so only the newest can still have records in the database, and at most
+     * {@code phtrade.segments.maxRows} ids are held.
+     */
+    static long[] exportedIds(String prefix) {
+        TradeSegment newest = null;
+        int newestSequence = -1;
+        for (TradeSegment segment : segments()) {
+            String name = segment.path().getFileName().toString();
+            if (name.startsWith(prefix)) {
+                try {
+                    int sequence = Integer.parseInt(name.substring(prefix.length(), name.length() - EXTENSION.length()));
+                    if (sequence > newestSequence) {
+                        newest = segment;
+                        newestSequence = sequence;
+                    }
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        if (newest == null) {
+            return new long[0];
+        }
+        long[] ids = newest.ids();
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    static List<TradeSegment> segments() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(directory());
+            if (!modified.equals(listed)) {
+                refresh();
+            }
+        } catch (NoSuchFileException e) {
+            return List.of();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot check the segment directory {}", directory(), e);
+        }
+        return segments;
+    }
+
+    /**
+     * Lists the directory again. Segments already mapped are kept, a file that
+     * cannot be read is logged and left out.
+     */
+    static synchronized void refresh() {
+        Map<Path, TradeSegment> mapped = new HashMap<>();
+        for (TradeSegment segment : segments) {
+            mapped.put(segment.path(), segment);
+        }
+        List<TradeSegment> found = new ArrayList<>();
+        try {
+            FileTime modified = Files.getLastModifiedTime(directory());
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory(), "*" + EXTENSION)) {
+                for (Path file : files) {
+                    TradeSegment segment = mapped.get(file);
+                    if (segment == null) {
+                        try {
+                            segment = TradeSegment.open(file);
+                        } catch (IOException e) {
+                            LOGGER.warn("Skipping unreadable trade segment {}", file, e);
+                            continue;
+                        }
+                    }
+                    found.add(segment);
+                }
+            }
+            found.sort(Comparator.comparing(segment -> segment.path().getFileName().toString()));
+            segments = List.copyOf(found);
+            listed = modified;
+        } catch (NoSuchFileException e) {
+            segments = List.of();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot list the segment directory {}", directory(), e);
+        }
+    }
+}
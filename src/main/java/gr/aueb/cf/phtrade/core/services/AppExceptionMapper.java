@@ -2,7 +2,6 @@ package gr.aueb.cf.phtrade.core.services;
 
 
 import gr.aueb.cf.phtrade.core.exceptions.*;
-import gr.aueb.cf.phtrade.dto.ResponseMessageDTO;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.ext.ExceptionMapper;
@@ -28,7 +27,7 @@ public class AppExceptionMapper implements ExceptionMapper<EntityGenericExceptio
         }
 
         return Response.status(status)
-                .entity(new ResponseMessageDTO(exception.getCode(), exception.getMessage()))
+                .entity(ErrorResponseCache.body(exception.getCode(), exception.getMessage()))
                 .type(MediaType.APPLICATION_JSON)
                 .build();
     }
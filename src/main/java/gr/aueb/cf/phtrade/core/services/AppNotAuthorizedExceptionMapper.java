@@ -1,7 +1,6 @@
 package gr.aueb.cf.phtrade.core.services;
 
 
-import gr.aueb.cf.phtrade.dto.ResponseMessageDTO;
 import jakarta.ws.rs.NotAuthorizedException;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
@@ -17,7 +16,7 @@ public class AppNotAuthorizedExceptionMapper implements ExceptionMapper<NotAutho
         Response.Status status = Response.Status.UNAUTHORIZED;
 
         return Response.status(status)
-                .entity(new ResponseMessageDTO("UserNotAuthorized", exception.getMessage()))
+                .entity(ErrorResponseCache.body("UserNotAuthorized", exception.getMessage()))
                 .type(MediaType.APPLICATION_JSON)
                 .build();
     }
@@ -0,0 +1,59 @@
+package gr.aueb.cf.phtrade.core.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gr.aueb.cf.phtrade.config.JacksonConfig;
+import gr.aueb.cf.phtrade.dto.ResponseMessageDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serialized {@link ResponseMessageDTO} bodies of error responses. Most errors
+ * repeat the same code and message ("UserNotAuthorized", "Invalid token"), so
+ * a flood of 401s or 404s reuses the same bytes instead of serializing every time.
+ * The last {@code MAX_ENTRIES} bodies are kept, least recently used evicted
+ * first: one-off messages with ids or user input age out again instead of
+ * filling the cache for good.
+ */
+public class ErrorResponseCache {
+
+    private static final int MAX_ENTRIES = 256;
+    private static final ObjectMapper MAPPER = new JacksonConfig().getContext(ObjectMapper.class);
+    private static final Map<ResponseMessageDTO, byte[]> BODIES = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ResponseMessageDTO, byte[]> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private ErrorResponseCache() {
+
+    }
+
+    public static byte[] body(String code, String message) {
+        ResponseMessageDTO dto = new ResponseMessageDTO(code, message);
+        byte[] body;
+        synchronized (BODIES) {
+            body = BODIES.get(dto);
+        }
+        if (body != null) {
+            return body;
+        }
+        body = serialize(dto);
+        synchronized (BODIES) {
+            BODIES.put(dto, body);
+        }
+        return body;
+    }
+
+    private static byte[] serialize(ResponseMessageDTO dto) {
+        try {
+            return MAPPER.writeValueAsBytes(dto);
+        } catch (JsonProcessingException e) {
+            // Two strings, can not fail in practice
+            return ("{\"code\":\"" + dto.code() + "\"}").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package gr.aueb.cf.phtrade.core.timing;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Time spent per phase by the current request.
+ * The layers call {@link #start()} and {@link #stop(Phase, long)} around their
+ * work; when no request is bound to the thread (warm-up, jobs) both are no-ops.
+ * The request itself carries the timings as a property, the thread binding
+ * follows it through {@link #propagate(Runnable)} when a resource method runs
+ * on another thread.
+ */
+public class RequestTimings {
+
+    public enum Phase {
+        AUTH("auth"),
+        VALIDATION("validation"),
+        DB("db"),
+        MAPPING("mapping"),
+        SERIALIZATION("serialization");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private String httpMethod;
+    private String path;
+    private int status;
+    private volatile Thread owner;
+
+    RequestTimings(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    public static long start() {
+        return CURRENT.get() != null ? System.nanoTime() : 0L;
+    }
+
+    public static void stop(Phase phase, long startedAt) {
+        if (startedAt == 0L) {
+            return;
+        }
+        RequestTimings timings = CURRENT.get();
+        if (timings != null) {
+            timings.phaseNanos[phase.ordinal()] += System.nanoTime() - startedAt;
+        }
+    }
+
+    /**
+     * Carries the timings of the submitting thread over to the thread that
+     * runs the task, e.g. when a resource method is handed to the async executor.
+     * The container thread that bound the timings in {@link ServerTimingFilter}
+     * hands them over: it leaves the request, so it drops its binding.
+     */
+    public static Runnable propagate(Runnable task) {
+        RequestTimings timings = CURRENT.get();
+        if (timings == null) {
+            return task;
+        }
+        if (timings.owner == Thread.currentThread()) {
+            timings.owner = null;
+            CURRENT.remove();
+        }
+        return () -> {
+            RequestTimings previous = CURRENT.get();
+            CURRENT.set(timings);
+            try {
+                task.run();
+            } finally {
+                if (previous != null) {
+                    CURRENT.set(previous);
+                } else {
+                    CURRENT.remove();
+                }
+            }
+        };
+    }
+
+    public static Executor propagating(Executor executor) {
+        return task -> executor.execute(propagate(task));
+    }
+
+    static void bind(RequestTimings timings) {
+        CURRENT.set(timings);
+    }
+
+    // Bound by the thread that received the request, until it hands it over
+    static void bindOwned(RequestTimings timings) {
+        timings.owner = Thread.currentThread();
+        CURRENT.set(timings);
+    }
+
+    static void unbind() {
+        CURRENT.remove();
+    }
+
+    void describe(String httpMethod, String path, int status) {
+        this.httpMethod = httpMethod;
+        this.path = path;
+        this.status = status;
+    }
+
+    String getHttpMethod() {
+        return httpMethod;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+}
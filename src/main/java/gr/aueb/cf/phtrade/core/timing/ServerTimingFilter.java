@@ -0,0 +1,76 @@
+package gr.aueb.cf.phtrade.core.timing;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.ext.Provider;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+
+import java.io.IOException;
+
+/**
+ * Binds {@link RequestTimings} to the request and reports them in a
+ * {@code Server-Timing} header. Serialization happens after the headers are
+ * final, so it only shows up in the slow request samples.
+ */
+@Provider
+@Priority(Priorities.AUTHENTICATION - 200)
+public class ServerTimingFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    private static final String TIMINGS_PROPERTY = ServerTimingFilter.class.getName() + ".timings";
+    private static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        RequestTimings timings = new RequestTimings(System.nanoTime());
+        requestContext.setProperty(TIMINGS_PROPERTY, timings);
+        RequestTimings.bindOwned(timings);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Object property = requestContext.getProperty(TIMINGS_PROPERTY);
+        if (!(property instanceof RequestTimings timings)) {
+            return;
+        }
+        StringBuilder header = new StringBuilder(96);
+        for (RequestTimings.Phase phase : RequestTimings.Phase.values()) {
+            long nanos = timings.getPhaseNanos(phase);
+            if (phase != RequestTimings.Phase.SERIALIZATION && nanos > 0) {
+                header.append(phase.getMetricName()).append(";dur=")
+                        .append(SlowRequestLog.toMillis(nanos)).append(", ");
+            }
+        }
+        header.append("app;dur=").append(SlowRequestLog.toMillis(timings.elapsedNanos()));
+        responseContext.getHeaders().putSingle(SERVER_TIMING_HEADER, header.toString());
+
+        timings.describe(requestContext.getMethod(), requestContext.getUriInfo().getPath(),
+                responseContext.getStatus());
+        if (!responseContext.hasEntity()) {
+            RequestTimings.unbind();
+            SlowRequestLog.offer(timings);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        Object property = context.getProperty(TIMINGS_PROPERTY);
+        if (!(property instanceof RequestTimings timings)) {
+            context.proceed();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            context.proceed();
+        } finally {
+            RequestTimings.bind(timings);
+            RequestTimings.stop(RequestTimings.Phase.SERIALIZATION, start);
+            RequestTimings.unbind();
+            SlowRequestLog.offer(timings);
+        }
+    }
+}
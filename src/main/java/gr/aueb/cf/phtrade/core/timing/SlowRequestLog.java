@@ -0,0 +1,64 @@
+package gr.aueb.cf.phtrade.core.timing;
+
+import gr.aueb.cf.phtrade.dto.SlowRequestDTO;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size ring buffer with the most recent requests slower than
+ * {@code phtrade.timing.slowThresholdMillis} (default 500).
+ */
+public class SlowRequestLog {
+
+    private static final int CAPACITY = 256;
+    private static final long THRESHOLD_NANOS =
+            Long.getLong("phtrade.timing.slowThresholdMillis", 500L) * 1_000_000L;
+
+    private static final AtomicReferenceArray<SlowRequestDTO> SAMPLES = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong NEXT = new AtomicLong();
+
+    private SlowRequestLog() {
+
+    }
+
+    static void offer(RequestTimings timings) {
+        long total = timings.elapsedNanos();
+        if (total < THRESHOLD_NANOS) {
+            return;
+        }
+        Map<String, Double> phases = new LinkedHashMap<>();
+        for (RequestTimings.Phase phase : RequestTimings.Phase.values()) {
+            phases.put(phase.getMetricName(), toMillis(timings.getPhaseNanos(phase)));
+        }
+        SlowRequestDTO sample = new SlowRequestDTO(Instant.now().toString(), timings.getHttpMethod(),
+                timings.getPath(), timings.getStatus(),
+                toMillis(total), phases);
+        SAMPLES.set((int) (NEXT.getAndIncrement() % CAPACITY), sample);
+    }
+
+    /**
+     * The buffered samples, slowest first.
+     */
+    public static List<SlowRequestDTO> snapshot() {
+        List<SlowRequestDTO> samples = new ArrayList<>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            SlowRequestDTO sample = SAMPLES.get(i);
+            if (sample != null) {
+                samples.add(sample);
+            }
+        }
+        samples.sort(Comparator.comparingDouble(SlowRequestDTO::totalMillis).reversed());
+        return samples;
+    }
+
+    static double toMillis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+}
@@ -1,17 +1,29 @@
 package gr.aueb.cf.phtrade.dao;
 
+import gr.aueb.cf.phtrade.core.jfr.DaoQueryEvent;
+import gr.aueb.cf.phtrade.core.timing.RequestTimings;
 import gr.aueb.cf.phtrade.model.IdentifiableEntity;
 import gr.aueb.cf.phtrade.service.util.JPAHelper;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
 import jakarta.persistence.TypedQuery;
 import jakarta.persistence.criteria.*;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
 
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 public class AbstractDAO<T extends IdentifiableEntity> implements IGenericDAO<T> {
 
+    // Ids per IN list of a multi-load
+    private static final int MULTI_LOAD_CHUNK = 500;
+
     private Class<T> persistenceClass;
+    private Set<String> sortableAttributes = Set.of("id");
+    private List<SortOrder> defaultSort = List.of(SortOrder.asc("id"));
 
     public AbstractDAO() {
 
@@ -25,6 +37,25 @@ public class AbstractDAO<T extends IdentifiableEntity> implements IGenericDAO<T>
         this.persistenceClass = persistenceClass;
     }
 
+    @Override
+    public Set<String> getSortableAttributes() {
+        return sortableAttributes;
+    }
+
+    /**
+     * Only attributes with an index that reads the rows in their order, the id
+     * is always sortable.
+     */
+    public void setSortableAttributes(String... attributes) {
+        Set<String> sortable = new HashSet<>(Arrays.asList(attributes));
+        sortable.add("id");
+        this.sortableAttributes = Set.copyOf(sortable);
+    }
+
+    public void setDefaultSort(SortOrder... defaultSort) {
+        this.defaultSort = List.of(defaultSort);
+    }
+
     @Override
     public Optional<T> insert(T t) {
         EntityManager em = getEntityManager();
@@ -50,25 +81,128 @@ public class AbstractDAO<T extends IdentifiableEntity> implements IGenericDAO<T>
 
     @Override
     public Optional<T> getById(Object id) {
-        EntityManager em = getEntityManager();
-        return Optional.ofNullable(em.find(persistenceClass,id));
+        return getById(getEntityManager(), id);
+    }
+
+    @Override
+    public List<Optional<T>> getByIds(List<Long> ids) {
+        Map<Long, T> loaded = getByIds(getEntityManager(), new LinkedHashSet<>(ids));
+        List<Optional<T>> entities = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            entities.add(Optional.ofNullable(loaded.get(id)));
+        }
+        return entities;
     }
 
     @Override
     public long count() {
-        EntityManager em = getEntityManager();
+        return count(getEntityManager());
+    }
+
+    @Override
+    public long getCountByCriteria(Map<String, Object> criteria) {
+        return getCountByCriteria(getEntityManager(), criteria);
+    }
+
+
+    @Override
+    public Optional<T> findByField(String fieldName, Object value) {
+        return findByField(getEntityManager(), fieldName, value);
+    }
+
+    @Override
+    public List<T> getAll() {
+        return getByCriteria(getPersistenceClass(), Collections.emptyMap());
+    }
+
+    @Override
+    public List<T> getByCriteria(Map<String, Object> criteria) {
+        return getByCriteria(getPersistenceClass(), criteria);
+    }
+
+    @Override
+    public List<T> getByCriteria(Class<T> clazz, Map<String, Object> criteria) {
+        return getByCriteria(getEntityManager(), clazz, criteria);
+    }
+
+    @Override
+    public List<T> getByCriteriaPaginated(Class<T> clazz, Map<String, Object> criteria, Integer page, Integer size) {
+        return getByCriteriaPaginated(clazz, criteria, page, size, Collections.emptyList());
+    }
+
+    @Override
+    public List<T> getByCriteriaPaginated(Class<T> clazz, Map<String, Object> criteria, Integer page, Integer size,
+                                          List<SortOrder> sort) {
+        return getByCriteriaPaginated(getEntityManager(), clazz, criteria, page, size, sort);
+    }
+
+    @Override
+    public List<Map<String, Object>> getFieldsByCriteriaPaginated(Map<String, Object> criteria,
+                                                                  List<String> attributes,
+                                                                  Integer page, Integer size) {
+        return getFieldsByCriteriaPaginated(criteria, attributes, page, size, Collections.emptyList());
+    }
+
+    @Override
+    public List<Map<String, Object>> getFieldsByCriteriaPaginated(Map<String, Object> criteria,
+                                                                  List<String> attributes,
+                                                                  Integer page, Integer size,
+                                                                  List<SortOrder> sort) {
+        return getFieldsByCriteriaPaginated(getEntityManager(), criteria, attributes, page, size, sort);
+    }
+
+    /**
+     * The entities with a change sequence above {@code since}, in sequence
+     * order. Only for entities listed by a change feed, see {@code ChangeFeed}.
+     */
+    public List<T> getChangedSince(long since, int limit) {
+        return getChangedSince(getEntityManager(), since, limit, null);
+    }
+
+    // The queries below take the entity manager, so a subclass can run them
+    // against another database, e.g. a trade record shard
+
+    protected Optional<T> getById(EntityManager em, Object id) {
+        return Optional.ofNullable(timed("getById", () -> em.find(persistenceClass, id)));
+    }
+
+    /**
+     * Loads the entities of distinct ids with one query per
+     * {@value #MULTI_LOAD_CHUNK} ids. Entities already in the persistence
+     * context, or in a second-level cache when one is configured, are not
+     * queried again.
+     */
+    protected Map<Long, T> getByIds(EntityManager em, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<T> entities = timed("getByIds", () -> em.unwrap(Session.class)
+                .byMultipleIds(persistenceClass)
+                .with(CacheMode.NORMAL)
+                .enableSessionCheck(true)
+                .withBatchSize(MULTI_LOAD_CHUNK)
+                .multiLoad(new ArrayList<>(ids)));
+        Map<Long, T> byId = new HashMap<>();
+        for (T entity : entities) {
+            // null for the ids without an entity
+            if (entity != null) {
+                byId.put(entity.getId(), entity);
+            }
+        }
+        return byId;
+    }
+
+    protected long count(EntityManager em) {
         CriteriaBuilder builder = em.getCriteriaBuilder();
         CriteriaQuery<Long> countQuery = builder.createQuery(Long.class);
         Root<T> entityRoot = countQuery.from(persistenceClass);
 
         countQuery.select(builder.count(entityRoot));
 
-        return em.createQuery(countQuery).getSingleResult();
+        return timed("count", () -> em.createQuery(countQuery).getSingleResult());
     }
 
-    @Override
-    public long getCountByCriteria(Map<String, Object> criteria) {
-        EntityManager em = getEntityManager();
+    protected long getCountByCriteria(EntityManager em, Map<String, Object> criteria) {
         CriteriaBuilder builder = em.getCriteriaBuilder();
         CriteriaQuery<Long> countQuery = builder.createQuery(Long.class);
         Root<T> entityRoot = countQuery.from(persistenceClass);
@@ -78,14 +212,11 @@ public class AbstractDAO<T extends IdentifiableEntity> implements IGenericDAO<T>
                 .where(predicates.toArray(new Predicate[0]));
 
 
-        return em.createQuery(countQuery)
-                .getSingleResult();
+        return timed("getCountByCriteria", criteria, () -> em.createQuery(countQuery).getSingleResult());
     }
 
 
-    @Override
-    public Optional<T> findByField(String fieldName, Object value) {
-        EntityManager em = getEntityManager();
+    protected Optional<T> findByField(EntityManager em, String fieldName, Object value) {
         CriteriaBuilder cb = em.getCriteriaBuilder();
         CriteriaQuery<T> query = cb.createQuery(persistenceClass);
         Root<T> root = query.from(persistenceClass);
@@ -95,22 +226,10 @@ public class AbstractDAO<T extends IdentifiableEntity> implements IGenericDAO<T>
                 .where(cb.equal(root.get(fieldName), value));
 
         TypedQuery<T> typedQuery = em.createQuery(query);
-        return typedQuery.getResultList().stream().findFirst();
+        return timed("findByField", Collections.singletonMap(fieldName, value), typedQuery::getResultList).stream().findFirst();
     }
 
-    @Override
-    public List<T> getAll() {
-        return getByCriteria(getPersistenceClass(), Collections.emptyMap());
-    }
-
-    @Override
-    public List<T> getByCriteria(Map<String, Object> criteria) {
-        return getByCriteria(getPersistenceClass(), criteria);
-    }
-
-    @Override
-    public List<T> getByCriteria(Class<T> clazz, Map<String, Object> criteria) {
-        EntityManager em = getEntityManager();
+    protected List<T> getByCriteria(EntityManager em, Class<T> clazz, Map<String, Object> criteria) {
         CriteriaBuilder builder = em.getCriteriaBuilder();
         CriteriaQuery<T> selectQuery = builder.createQuery(clazz);
         Root<T> entityRoot = selectQuery.from(clazz);
@@ -118,19 +237,20 @@ public class AbstractDAO<T extends IdentifiableEntity> implements IGenericDAO<T>
         List<Predicate> predicates = getPredicatesList(builder, entityRoot, criteria);
         selectQuery.select(entityRoot).where(predicates.toArray(new Predicate[0]));
 
-        return em.createQuery(selectQuery).getResultList();
+        return timed("getByCriteria", criteria, () -> em.createQuery(selectQuery).getResultList());
     }
 
-    @Override
-    public List<T> getByCriteriaPaginated(Class<T> clazz, Map<String, Object> criteria, Integer page, Integer size) {
-        EntityManager em = getEntityManager();
+    protected List<T> getByCriteriaPaginated(EntityManager em, Class<T> clazz, Map<String, Object> criteria,
+                                             Integer page, Integer size, List<SortOrder> sort) {
         CriteriaBuilder builder = em.getCriteriaBuilder();
         CriteriaQuery<T> selectQuery = builder.createQuery(clazz);
         Root<T> entityRoot = selectQuery.from(clazz);
 
-        // Build predicates
+        // Build predicates, the order makes the pages deterministic
         List<Predicate> predicates = getPredicatesList(builder, entityRoot, criteria);
-        selectQuery.select(entityRoot).where(predicates.toArray(new Predicate[0]));
+        selectQuery.select(entityRoot)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(orderBy(builder, entityRoot, sortOrder(sort)));
 
         // Create query and apply pagination
         TypedQuery<T> query = em.createQuery(selectQuery);
@@ -139,15 +259,101 @@ public class AbstractDAO<T extends IdentifiableEntity> implements IGenericDAO<T>
             query.setFirstResult(page * size);      // skip
             query.setMaxResults(size);
         }
-        return query.getResultList();
+        return timed("getByCriteriaPaginated", criteria, query::getResultList);
+    }
+
+
+
+    protected List<Map<String, Object>> getFieldsByCriteriaPaginated(EntityManager em, Map<String, Object> criteria,
+                                                                     List<String> attributes,
+                                                                     Integer page, Integer size,
+                                                                     List<SortOrder> sort) {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<Tuple> selectQuery = builder.createTupleQuery();
+        Root<T> entityRoot = selectQuery.from(persistenceClass);
+
+        List<Predicate> predicates = getPredicatesList(builder, entityRoot, criteria);
+        selectQuery.multiselect(selections(entityRoot, attributes))
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(orderBy(builder, entityRoot, sortOrder(sort)));
+
+        TypedQuery<Tuple> query = em.createQuery(selectQuery);
+        if (page != null && size != null) {
+            query.setFirstResult(page * size);
+            query.setMaxResults(size);
+        }
+        return toRows(attributes, timed("getFieldsByCriteriaPaginated", criteria, query::getResultList));
+    }
+
+    /**
+     * The order a page is read in: the given keys, or the default sort without
+     * any, followed by the id when it is not one of them.
+     *
+     * @throws IllegalArgumentException for an attribute that is not sortable
+     */
+    protected List<SortOrder> sortOrder(List<SortOrder> sort) {
+        List<SortOrder> order = new ArrayList<>(sort == null || sort.isEmpty() ? defaultSort : sort);
+        for (SortOrder key : order) {
+            if (!sortableAttributes.contains(key.attribute())) {
+                throw new IllegalArgumentException(persistenceClass.getSimpleName() + " attribute "
+                        + key.attribute() + " has no index to sort by");
+            }
+        }
+        if (order.stream().noneMatch(key -> "id".equals(key.attribute()))) {
+            order.add(new SortOrder("id", order.get(order.size() - 1).ascending()));
+        }
+        return order;
     }
 
+    protected List<T> getChangedSince(EntityManager em, long since, int limit,
+                                      BiFunction<CriteriaBuilder, Root<T>, Predicate> filter) {
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<T> selectQuery = builder.createQuery(persistenceClass);
+        Root<T> entityRoot = selectQuery.from(persistenceClass);
 
+        Path<Long> changeSeq = entityRoot.get("changeSeq");
+        Predicate after = builder.greaterThan(changeSeq, since);
+        selectQuery.select(entityRoot)
+                .where(filter == null ? after : builder.and(after, filter.apply(builder, entityRoot)))
+                .orderBy(builder.asc(changeSeq));
+
+        TypedQuery<T> query = em.createQuery(selectQuery).setMaxResults(limit);
+        return timed("getChangedSince", query::getResultList);
+    }
 
     public EntityManager getEntityManager() {
         return JPAHelper.getEntityManager();
     }
 
+    protected <R> R timed(String operation, Supplier<R> query) {
+        return timed(operation, Collections.emptyMap(), query);
+    }
+
+    /**
+     * Runs a query, counting its time towards the "db" entry of the Server-Timing
+     * header and emitting a {@link DaoQueryEvent} when a flight recording is running.
+     */
+    protected <R> R timed(String operation, Map<String, Object> criteria, Supplier<R> query) {
+        DaoQueryEvent event = new DaoQueryEvent();
+        event.begin();
+        long start = RequestTimings.start();
+        R result = null;
+        try {
+            result = query.get();
+            return result;
+        } finally {
+            RequestTimings.stop(RequestTimings.Phase.DB, start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.entity = persistenceClass.getSimpleName();
+                event.operation = operation;
+                event.criteria = describeCriteria(criteria);
+                event.rows = countRows(result);
+                event.commit();
+            }
+        }
+    }
+
 
     @SuppressWarnings("unchecked")
     protected List<Predicate> getPredicatesList(CriteriaBuilder builder, Root<T> entityRoot, Map<String, Object> criteria) {
@@ -165,18 +371,19 @@ public class AbstractDAO<T extends IdentifiableEntity> implements IGenericDAO<T>
                 }
                 predicates.add(inClause);
             } else if (value instanceof Map) {
-                // For 'BETWEEN' condition
+                // For 'BETWEEN' condition, or '>=' / '<=' when only one end is given.
+                // The column is compared as is, so a range on a partitioning
+                // column (trade_records.transaction_date) prunes partitions
                 Map<String, Object> mapValue = (Map<String, Object>) value;
-                if (mapValue.containsKey("from") && mapValue.containsKey("to")) {
-                    Object from = mapValue.get("from");
-                    Object to = mapValue.get("to");
-
-                    if (from instanceof Comparable && to instanceof Comparable) {
-                        Expression<? extends Comparable<Object>> path =
-                                (Expression<? extends Comparable<Object>>) resolvePath(entityRoot, key);
-
-                        predicates.add(builder.between(path, (Comparable<Object>) from, (Comparable<Object>) to));
-                    }
+                Object from = mapValue.get("from");
+                Object to = mapValue.get("to");
+                Expression<Comparable<Object>> path = (Expression<Comparable<Object>>) resolvePath(entityRoot, key);
+                if (from instanceof Comparable && to instanceof Comparable) {
+                    predicates.add(builder.between(path, (Comparable<Object>) from, (Comparable<Object>) to));
+                } else if (from instanceof Comparable) {
+                    predicates.add(builder.greaterThanOrEqualTo(path, (Comparable<Object>) from));
+                } else if (to instanceof Comparable) {
+                    predicates.add(builder.lessThanOrEqualTo(path, (Comparable<Object>) to));
                 }
             } else if ("isNull".equals(value)) {
                 // For 'IS NULL' condition
@@ -206,6 +413,52 @@ public class AbstractDAO<T extends IdentifiableEntity> implements IGenericDAO<T>
         return predicates;
     }
 
+    // An attribute of an association is read through a left join, so a null
+    // association gives a null value instead of dropping the row. Its id is
+    // the foreign key column and needs no join.
+    private List<Selection<?>> selections(Root<T> root, List<String> attributes) {
+        Map<String, Join<?, ?>> joins = new HashMap<>();
+        List<Selection<?>> selections = new ArrayList<>(attributes.size());
+        for (String attribute : attributes) {
+            String[] fields = attribute.split("\\.");
+            if (fields.length == 1 || "id".equals(fields[fields.length - 1])) {
+                selections.add(resolvePath(root, attribute));
+                continue;
+            }
+            From<?, ?> from = root;
+            StringBuilder joined = new StringBuilder();
+            for (int i = 0; i < fields.length - 1; i++) {
+                joined.append(fields[i]).append('.');
+                From<?, ?> parent = from;
+                String field = fields[i];
+                from = joins.computeIfAbsent(joined.toString(), key -> parent.join(field, JoinType.LEFT));
+            }
+            selections.add(from.get(fields[fields.length - 1]));
+        }
+        return selections;
+    }
+
+    private static List<Map<String, Object>> toRows(List<String> attributes, List<Tuple> tuples) {
+        List<Map<String, Object>> rows = new ArrayList<>(tuples.size());
+        for (Tuple tuple : tuples) {
+            Map<String, Object> row = new HashMap<>();
+            for (int i = 0; i < attributes.size(); i++) {
+                row.put(attributes.get(i), tuple.get(i));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private List<Order> orderBy(CriteriaBuilder builder, Root<T> root, List<SortOrder> sort) {
+        List<Order> order = new ArrayList<>(sort.size());
+        for (SortOrder key : sort) {
+            Path<?> path = resolvePath(root, key.attribute());
+            order.add(key.ascending() ? builder.asc(path) : builder.desc(path));
+        }
+        return order;
+    }
+
     protected Path<?> resolvePath(Root<T> root, String expression) {
         String[] fields = expression.split("\\.");
         Path<?> path = root.get(fields[0]);
@@ -216,6 +469,34 @@ public class AbstractDAO<T extends IdentifiableEntity> implements IGenericDAO<T>
     }
 
 
+    // Only the shape of the criteria, values are left out of recordings
+    private static String describeCriteria(Map<String, Object> criteria) {
+        StringJoiner shape = new StringJoiner(",");
+        new TreeMap<>(criteria).forEach((key, value) -> {
+            String kind;
+            if (value instanceof List) {
+                kind = "in";
+            } else if (value instanceof Map) {
+                kind = "between";
+            } else if ("isNull".equals(value) || "isNotNull".equals(value)) {
+                kind = (String) value;
+            } else if (value instanceof String && ((String) value).contains("%")) {
+                kind = "like";
+            } else {
+                kind = "eq";
+            }
+            shape.add(key + ":" + kind);
+        });
+        return shape.toString();
+    }
+
+    private static int countRows(Object result) {
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        return result == null ? 0 : 1;
+    }
+
     protected String buildParameterAlias(String alias) {
         return alias.replaceAll("\\.", "");
     }
@@ -3,6 +3,7 @@ package gr.aueb.cf.phtrade.dao;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public interface IGenericDAO<T> {
     Optional<T> insert(T t);
@@ -11,9 +12,44 @@ public interface IGenericDAO<T> {
     long count();
     long getCountByCriteria(Map<String , Object> criteria);
     Optional<T> getById(Object id);
+
+    /**
+     * The entities of the given ids, in the same order, empty where no entity
+     * has the id. A repeated id yields the same entity each time.
+     */
+    List<Optional<T>> getByIds(List<Long> ids);
     Optional<T> findByField(String fieldName, Object value);
     List<T> getAll();
     List<T> getByCriteria(Map<String , Object> criteria);
     List<T> getByCriteria(Class<T> clazz, Map<String , Object> criteria);
     List<T> getByCriteriaPaginated(Class<T> clazz, Map<String , Object> criteria, Integer page, Integer size);
+
+    /**
+     * A page in the given order, sorted by the database. The id is added as
+     * the last key when missing, so pages never overlap. Without sort keys the
+     * default order of the DAO is used.
+     *
+     * @throws IllegalArgumentException for an attribute outside of
+     *                                  {@link #getSortableAttributes()}
+     */
+    List<T> getByCriteriaPaginated(Class<T> clazz, Map<String , Object> criteria, Integer page, Integer size,
+                                   List<SortOrder> sort);
+
+    /**
+     * The attributes a page can be sorted by: those with an index that reads
+     * the rows in order, so the database stops after the page instead of
+     * sorting every match.
+     */
+    Set<String> getSortableAttributes();
+
+    /**
+     * Like {@link #getByCriteriaPaginated}, selecting only the given attributes
+     * (e.g. "amount", "giver.id"). Each row maps the attributes to their values.
+     * Without page and size every match is returned.
+     */
+    List<Map<String, Object>> getFieldsByCriteriaPaginated(Map<String, Object> criteria, List<String> attributes,
+                                                           Integer page, Integer size);
+
+    List<Map<String, Object>> getFieldsByCriteriaPaginated(Map<String, Object> criteria, List<String> attributes,
+                                                           Integer page, Integer size, List<SortOrder> sort);
 }
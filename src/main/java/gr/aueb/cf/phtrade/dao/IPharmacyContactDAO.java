@@ -2,7 +2,14 @@ package gr.aueb.cf.phtrade.dao;
 
 import gr.aueb.cf.phtrade.model.PharmacyContact;
 
+import java.util.List;
+
 public interface IPharmacyContactDAO extends IGenericDAO<PharmacyContact>{
 
     boolean existsByUserAndPharmacy(Long userId, Long pharmacyId);
+
+    /**
+     * Contacts with a change sequence above {@code since}, in sequence order.
+     */
+    List<PharmacyContact> getChangedSince(long since, int limit);
 }
@@ -2,6 +2,7 @@ package gr.aueb.cf.phtrade.dao;
 
 import gr.aueb.cf.phtrade.model.Pharmacy;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface IPharmacyDAO extends IGenericDAO<Pharmacy> {
@@ -13,4 +14,8 @@ public interface IPharmacyDAO extends IGenericDAO<Pharmacy> {
 
     boolean existsByName(String name);
 
+    /**
+     * Pharmacies with a change sequence above {@code since}, in sequence order.
+     */
+    List<Pharmacy> getChangedSince(long since, int limit);
 }
@@ -2,5 +2,20 @@ package gr.aueb.cf.phtrade.dao;
 
 import gr.aueb.cf.phtrade.model.TradeRecord;
 
+import java.util.List;
+import java.util.Map;
+
 public interface ITradeRecordDAO extends IGenericDAO<TradeRecord>{
+
+    /**
+     * The databases holding trade records: the shards, or only the main one.
+     * Each has its own change sequences.
+     */
+    int getDatabaseCount();
+
+    /**
+     * The records of a database with a change sequence above {@code since},
+     * in sequence order, optionally only those of one pharmacy.
+     */
+    List<TradeRecord> getChangedSince(int database, long since, Long pharmacyId, int limit);
 }
@@ -12,6 +12,8 @@ public class PharmacyContactDAOImpl extends AbstractDAO<PharmacyContact> impleme
 
     public PharmacyContactDAOImpl() {
         this.setPersistenceClass(PharmacyContact.class);
+        // Read in order through the idx_pharmacy_contacts_name
+        this.setSortableAttributes("contactName");
     }
 
     @Override
@@ -29,6 +31,6 @@ public class PharmacyContactDAOImpl extends AbstractDAO<PharmacyContact> impleme
                 )
         );
 
-        return em.createQuery(query).getSingleResult() > 0;
+        return timed("existsByUserAndPharmacy", () -> em.createQuery(query).getSingleResult()) > 0;
     }
 }
@@ -15,6 +15,8 @@ import java.util.Optional;
 public class PharmacyDAOImpl extends AbstractDAO<Pharmacy> implements IPharmacyDAO{
     public PharmacyDAOImpl() {
         this.setPersistenceClass(Pharmacy.class);
+        // Read in order through the unique key
+        this.setSortableAttributes("name");
     }
 
     public Optional<Pharmacy> getByIdWithRelations(Long id,
@@ -37,7 +39,7 @@ public class PharmacyDAOImpl extends AbstractDAO<Pharmacy> implements IPharmacyD
         }
         query.where(cb.equal(root.get("id"), id));
         try{
-            Pharmacy pharmacy = em.createQuery(query).getSingleResult();
+            Pharmacy pharmacy = timed("getByIdWithRelations", () -> em.createQuery(query).getSingleResult());
             return Optional.ofNullable(pharmacy);
         } catch (NoResultException e){
             return Optional.empty();
@@ -53,7 +55,7 @@ public class PharmacyDAOImpl extends AbstractDAO<Pharmacy> implements IPharmacyD
                 .where(cb.equal(pharmacyRoot.get("name"),name));
 
         boolean result =
-                getEntityManager().createQuery(query).getSingleResult() > 0;
+                timed("existsByName", () -> getEntityManager().createQuery(query).getSingleResult()) > 0;
 
         return result;
     }
@@ -0,0 +1,16 @@
+package gr.aueb.cf.phtrade.dao;
+
+/**
+ * One key of the ORDER BY of a page: an entity attribute (e.g.
+ * "transactionDate") and its direction.
+ */
+public record SortOrder(String attribute, boolean ascending) {
+
+    public static SortOrder asc(String attribute) {
+        return new SortOrder(attribute, true);
+    }
+
+    public static SortOrder desc(String attribute) {
+        return new SortOrder(attribute, false);
+    }
+}
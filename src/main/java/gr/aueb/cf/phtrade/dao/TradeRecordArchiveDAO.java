@@ -0,0 +1,14 @@
+package gr.aueb.cf.phtrade.dao;
+
+import gr.aueb.cf.phtrade.model.ArchivedTradeRecord;
+
+/**
+ * Reads {@code trade_records_archive} for {@link TradeRecordDAOImpl}, which
+ * decides when a query reaches back far enough to need it.
+ */
+class TradeRecordArchiveDAO extends AbstractDAO<ArchivedTradeRecord> {
+
+    TradeRecordArchiveDAO() {
+        this.setPersistenceClass(ArchivedTradeRecord.class);
+    }
+}
@@ -1,12 +1,501 @@
 package gr.aueb.cf.phtrade.dao;
 
+import gr.aueb.cf.phtrade.core.partitioning.TradeRecordPartitions;
+import gr.aueb.cf.phtrade.core.segments.TradeSegmentRow;
+import gr.aueb.cf.phtrade.core.segments.TradeSegments;
+import gr.aueb.cf.phtrade.model.ArchivedTradeRecord;
+import gr.aueb.cf.phtrade.model.IdentifiableEntity;
 import gr.aueb.cf.phtrade.model.TradeRecord;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import gr.aueb.cf.phtrade.service.util.ShardRouter;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.EntityManager;
 
+import java.lang.reflect.Field;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Trade records, spread over the shards of {@link ShardRouter} when sharding
+ * is on. Queries that fix the pharmacy pair or the id go to one shard, the
+ * others go to every shard and the results are merged newest first.
+ * <p>
+ * With {@link TradeRecordPartitions} on, old records are in an archive table.
+ * Lists and counts skip it only for a transactionDate range starting at or
+ * after the archive cutoff. Archived records can be read but not changed.
+ * <p>
+ * With {@link TradeSegments} on, the oldest records are in segment files, read
+ * once for all shards. Lists and counts skip them only for a transactionDate
+ * range that no segment overlaps.
+ * <p>
+ * The pharmacies and users of a record read from a shard are replaced by
+ * references of the main entity manager, so they load from the main database.
+ */
 @ApplicationScoped
 public class TradeRecordDAOImpl extends AbstractDAO<TradeRecord> implements ITradeRecordDAO {
 
+    // The id breaks ties between trades of the same instant, so pages are stable
+    private static final Comparator<TradeRecord> NEWEST_FIRST =
+            Comparator.comparing(TradeRecord::getTransactionDate)
+                    .thenComparing(TradeRecord::getId)
+                    .reversed();
+
+    // The sort keys, read from a segment row without restoring the record.
+    // Every key has an index in the main database, the shards and the archive
+    private static final Map<String, Function<TradeSegmentRow, Object>> SORT_KEYS = Map.of(
+            "id", TradeSegmentRow::id,
+            "transactionDate", TradeSegmentRow::transactionDate);
+
+    // The attributes a projection can select, read from a record restored from a segment
+    private static final Map<String, Function<TradeRecord, Object>> ATTRIBUTES = Map.ofEntries(
+            Map.entry("id", TradeRecord::getId),
+            Map.entry("description", TradeRecord::getDescription),
+            Map.entry("amount", TradeRecord::getAmount),
+            Map.entry("giver.id", record -> idOf(record.getGiver())),
+            Map.entry("receiver.id", record -> idOf(record.getReceiver())),
+            Map.entry("recorder.id", record -> idOf(record.getRecorder())),
+            Map.entry("lastModifiedBy.id", record -> idOf(record.getLastModifiedBy())),
+            Map.entry("transactionDate", TradeRecord::getTransactionDate),
+            Map.entry("deletedByGiver", TradeRecord::isDeletedByGiver),
+            Map.entry("deletedByReceiver", TradeRecord::isDeletedByReceiver));
+
+    private static final String[] REFERENCES = {"giver", "receiver", "recorder", "lastModifiedBy"};
+    private static final Field[] RECORD_REFERENCES = referenceFields(TradeRecord.class);
+    private static final Field[] ARCHIVE_REFERENCES = referenceFields(ArchivedTradeRecord.class);
+
+    private final TradeRecordArchiveDAO archiveDAO = new TradeRecordArchiveDAO();
+
     public TradeRecordDAOImpl(){
         this.setPersistenceClass(TradeRecord.class);
+        this.setSortableAttributes(SORT_KEYS.keySet().toArray(new String[0]));
+        this.setDefaultSort(SortOrder.desc("transactionDate"), SortOrder.desc("id"));
+        archiveDAO.setSortableAttributes(SORT_KEYS.keySet().toArray(new String[0]));
+    }
+
+    @Override
+    public Optional<TradeRecord> insert(TradeRecord record) {
+        if (!ShardRouter.isEnabled()) {
+            return super.insert(record);
+        }
+        int shard = ShardRouter.shardForPair(record.getGiver().getId(), record.getReceiver().getId());
+        JPAHelper.getShardEntityManager(shard).persist(record);
+        return Optional.of(record);
+    }
+
+    @Override
+    public Optional<TradeRecord> update(TradeRecord record) {
+        if (!ShardRouter.isEnabled()) {
+            return super.update(record);
+        }
+        JPAHelper.getShardEntityManager(ShardRouter.shardForId(record.getId())).merge(record);
+        return Optional.of(record);
+    }
+
+    @Override
+    public void delete(Object id) {
+        if (!ShardRouter.isEnabled()) {
+            super.delete(id);
+            return;
+        }
+        EntityManager em = JPAHelper.getShardEntityManager(ShardRouter.shardForId(toLong(id)));
+        super.getById(em, id).ifPresent(em::remove);
+    }
+
+    @Override
+    public Optional<TradeRecord> getById(Object id) {
+        if (!ShardRouter.isEnabled()) {
+            return super.getById(id);
+        }
+        EntityManager em = JPAHelper.getShardEntityManager(ShardRouter.shardForId(toLong(id)));
+        return super.getById(em, id).map(record -> rebind(em, record));
+    }
+
+    // The ids are grouped by shard, one multi-load per shard
+    @Override
+    public List<Optional<TradeRecord>> getByIds(List<Long> ids) {
+        if (!ShardRouter.isEnabled()) {
+            return super.getByIds(ids);
+        }
+        Map<Integer, Set<Long>> byShard = new TreeMap<>();
+        for (Long id : ids) {
+            byShard.computeIfAbsent(ShardRouter.shardForId(id), shard -> new LinkedHashSet<>()).add(id);
+        }
+        Map<Long, TradeRecord> loaded = new HashMap<>();
+        byShard.forEach((shard, shardIds) -> {
+            EntityManager em = JPAHelper.getShardEntityManager(shard);
+            super.getByIds(em, shardIds).forEach((id, record) -> loaded.put(id, rebind(em, record)));
+        });
+        List<Optional<TradeRecord>> records = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            records.add(Optional.ofNullable(loaded.get(id)));
+        }
+        return records;
+    }
+
+    @Override
+    public long count() {
+        return getCountByCriteria(Collections.emptyMap());
+    }
+
+    @Override
+    public long getCountByCriteria(Map<String, Object> criteria) {
+        boolean archive = needsArchive(criteria);
+        long count = 0;
+        for (EntityManager em : databasesFor(criteria)) {
+            count += super.getCountByCriteria(em, criteria);
+            if (archive) {
+                count += archiveDAO.getCountByCriteria(em, criteria);
+            }
+        }
+        if (needsSegments(criteria)) {
+            count += TradeSegments.count(criteria);
+        }
+        return count;
+    }
+
+    @Override
+    public Optional<TradeRecord> findByField(String fieldName, Object value) {
+        if (!ShardRouter.isEnabled()) {
+            return super.findByField(fieldName, value);
+        }
+        for (EntityManager em : databasesFor(Collections.singletonMap(fieldName, value))) {
+            Optional<TradeRecord> record = super.findByField(em, fieldName, value);
+            if (record.isPresent()) {
+                return record.map(r -> rebind(em, r));
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public List<TradeRecord> getByCriteria(Class<TradeRecord> clazz, Map<String, Object> criteria) {
+        boolean archive = needsArchive(criteria);
+        boolean segments = needsSegments(criteria);
+        if (!ShardRouter.isEnabled() && !archive && !segments) {
+            return super.getByCriteria(clazz, criteria);
+        }
+        return collect(clazz, criteria, archive, segments);
+    }
+
+    private List<TradeRecord> collect(Class<TradeRecord> clazz, Map<String, Object> criteria,
+                                      boolean archive, boolean segments) {
+        List<TradeRecord> records = new ArrayList<>();
+        for (EntityManager em : databasesFor(criteria)) {
+            for (TradeRecord record : super.getByCriteria(em, clazz, criteria)) {
+                records.add(rebind(em, record));
+            }
+            if (archive) {
+                for (ArchivedTradeRecord archived : archiveDAO.getByCriteria(em, ArchivedTradeRecord.class, criteria)) {
+                    records.add(restore(archived));
+                }
+            }
+        }
+        if (segments) {
+            for (TradeSegmentRow row : TradeSegments.find(criteria)) {
+                records.add(restore(row));
+            }
+        }
+        records.sort(NEWEST_FIRST);
+        return records;
+    }
+
+    @Override
+    public List<TradeRecord> getByCriteriaPaginated(Class<TradeRecord> clazz, Map<String, Object> criteria,
+                                                    Integer page, Integer size, List<SortOrder> sort) {
+        List<SortOrder> order = sortOrder(sort);
+        boolean archive = needsArchive(criteria);
+        boolean segments = needsSegments(criteria);
+        List<EntityManager> databases = databasesFor(criteria);
+        if (databases.size() == 1 && !archive && !segments) {
+            EntityManager em = databases.get(0);
+            List<TradeRecord> records = new ArrayList<>();
+            for (TradeRecord record : super.getByCriteriaPaginated(em, clazz, criteria, page, size, order)) {
+                records.add(rebind(em, record));
+            }
+            return records;
+        }
+        if (page == null || size == null) {
+            List<TradeRecord> records = getByCriteria(clazz, criteria);
+            records.sort(comparator(order, (record, attribute) -> ATTRIBUTES.get(attribute).apply(record)));
+            return records;
+        }
+
+        // Page p of the merged result is within the first (p + 1) * size
+        // records of every table, in the same order
+        int limit = Math.multiplyExact(Math.addExact(page, 1), size);
+        List<TradeRecord> merged = new ArrayList<>();
+        for (EntityManager em : databases) {
+            for (TradeRecord record : super.getByCriteriaPaginated(em, clazz, criteria, 0, limit, order)) {
+                merged.add(rebind(em, record));
+            }
+            if (archive) {
+                for (ArchivedTradeRecord archived : archiveDAO.getByCriteriaPaginated(em,
+                        ArchivedTradeRecord.class, criteria, 0, limit, order)) {
+                    merged.add(restore(archived));
+                }
+            }
+        }
+        if (segments) {
+            for (TradeSegmentRow row : TradeSegments.first(criteria, segmentOrder(order), limit)) {
+                merged.add(restore(row));
+            }
+        }
+        merged.sort(comparator(order, (record, attribute) -> ATTRIBUTES.get(attribute).apply(record)));
+        int from = Math.min(page * size, merged.size());
+        return new ArrayList<>(merged.subList(from, Math.min(from + size, merged.size())));
+    }
+
+    /**
+     * Only the attributes of the record itself and the ids of its pharmacies
+     * and users can be selected: a shard has no pharmacy or user rows to join.
+     */
+    @Override
+    public List<Map<String, Object>> getFieldsByCriteriaPaginated(Map<String, Object> criteria,
+                                                                  List<String> attributes,
+                                                                  Integer page, Integer size,
+                                                                  List<SortOrder> sort) {
+        for (String attribute : attributes) {
+            if (!ATTRIBUTES.containsKey(attribute)) {
+                throw new IllegalArgumentException("Trade record attribute " + attribute + " cannot be selected");
+            }
+        }
+        List<SortOrder> order = sortOrder(sort);
+        boolean archive = needsArchive(criteria);
+        boolean segments = needsSegments(criteria);
+        List<EntityManager> databases = databasesFor(criteria);
+        if (databases.size() == 1 && !archive && !segments) {
+            return super.getFieldsByCriteriaPaginated(databases.get(0), criteria, attributes, page, size, order);
+        }
+
+        // Merged like getByCriteriaPaginated, the sort keys are selected too
+        List<String> selected = new ArrayList<>(attributes);
+        for (SortOrder key : order) {
+            if (!selected.contains(key.attribute())) {
+                selected.add(key.attribute());
+            }
+        }
+        boolean paged = page != null && size != null;
+        Integer limit = paged ? Math.multiplyExact(Math.addExact(page, 1), size) : null;
+        Integer first = paged ? 0 : null;
+        List<Map<String, Object>> merged = new ArrayList<>();
+        for (EntityManager em : databases) {
+            merged.addAll(super.getFieldsByCriteriaPaginated(em, criteria, selected, first, limit, order));
+            if (archive) {
+                merged.addAll(archiveDAO.getFieldsByCriteriaPaginated(em, criteria, selected, first, limit, order));
+            }
+        }
+        if (segments) {
+            for (TradeSegmentRow row : paged
+                    ? TradeSegments.first(criteria, segmentOrder(order), limit)
+                    : TradeSegments.find(criteria)) {
+                TradeRecord record = restore(row);
+                Map<String, Object> values = new HashMap<>();
+                for (String attribute : selected) {
+                    values.put(attribute, ATTRIBUTES.get(attribute).apply(record));
+                }
+                merged.add(values);
+            }
+        }
+        merged.sort(comparator(order, Map::get));
+        if (!paged) {
+            return merged;
+        }
+        int from = Math.min(page * size, merged.size());
+        return new ArrayList<>(merged.subList(from, Math.min(from + size, merged.size())));
+    }
+
+    @Override
+    public int getDatabaseCount() {
+        return ShardRouter.isEnabled() ? ShardRouter.getShardCount() : 1;
+    }
+
+    @Override
+    public List<TradeRecord> getChangedSince(int database, long since, Long pharmacyId, int limit) {
+        EntityManager em = JPAHelper.getShardEntityManager(database);
+        List<TradeRecord> records = new ArrayList<>();
+        for (TradeRecord record : super.getChangedSince(em, since, limit, pharmacyId == null ? null
+                : (builder, root) -> builder.or(
+                        builder.equal(root.get("giver").get("id"), pharmacyId),
+                        builder.equal(root.get("receiver").get("id"), pharmacyId)))) {
+            records.add(rebind(em, record));
+        }
+        return records;
+    }
+
+    // The main database, or the shards the criteria can match
+    private List<EntityManager> databasesFor(Map<String, Object> criteria) {
+        if (!ShardRouter.isEnabled()) {
+            return List.of(getEntityManager());
+        }
+        OptionalInt pinned = ShardRouter.shardForCriteria(criteria);
+        if (pinned.isPresent()) {
+            return List.of(JPAHelper.getShardEntityManager(pinned.getAsInt()));
+        }
+        List<EntityManager> shards = new ArrayList<>(ShardRouter.getShardCount());
+        for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+            shards.add(JPAHelper.getShardEntityManager(shard));
+        }
+        return shards;
+    }
+
+    private static boolean needsArchive(Map<String, Object> criteria) {
+        return TradeRecordPartitions.isEnabled()
+                && reachesBefore(criteria, TradeRecordPartitions.archiveCutoff());
+    }
+
+    // Archived records are all older than the cutoff. Only a range starting
+    // at or after it cannot match them, an open start reaches them whatever
+    // the end
+    static boolean reachesBefore(Map<String, Object> criteria, LocalDateTime cutoff) {
+        LocalDateTime from = rangeStart(criteria);
+        return from == null || from.isBefore(cutoff);
+    }
+
+    // The segments know their date span, a range is skipped only when it
+    // misses all of them; an open end reaches every segment on that side
+    private static boolean needsSegments(Map<String, Object> criteria) {
+        return TradeSegments.holdRecordsIn(rangeBound(criteria, "from"), rangeBound(criteria, "to"));
+    }
+
+    private static LocalDateTime rangeStart(Map<String, Object> criteria) {
+        return rangeBound(criteria, "from");
+    }
+
+    // One end of the transactionDate range of the criteria, null when open
+    private static LocalDateTime rangeBound(Map<String, Object> criteria, String end) {
+        Object date = criteria.get("transactionDate");
+        if (date instanceof Map<?, ?> range && range.get(end) instanceof LocalDateTime bound) {
+            return bound;
+        }
+        return date instanceof LocalDateTime exact ? exact : null;
+    }
+
+    /**
+     * Detaches a record from its shard and points it to the pharmacies and
+     * users of the main database. The shard has no such rows, its references
+     * could never be loaded. Records of the main database are returned as is.
+     */
+    private TradeRecord rebind(EntityManager em, TradeRecord record) {
+        if (em == getEntityManager()) {
+            return record;
+        }
+        em.detach(record);
+        bindReferences(record, RECORD_REFERENCES, record);
+        return record;
+    }
+
+    // A detached copy, updating it would insert a new record
+    private TradeRecord restore(ArchivedTradeRecord archived) {
+        TradeRecord record = TradeRecord.builder()
+                .id(archived.getId())
+                .description(archived.getDescription())
+                .amount(archived.getAmount())
+                .deletedByGiver(archived.isDeletedByGiver())
+                .deletedByReceiver(archived.isDeletedByReceiver())
+                .transactionDate(archived.getTransactionDate())
+                .build();
+        record.setUuid(archived.getUuid());
+        record.setCreatedAt(archived.getCreatedAt());
+        record.setUpdatedAt(archived.getUpdatedAt());
+        bindReferences(archived, ARCHIVE_REFERENCES, record);
+        return record;
+    }
+
+    // A detached copy as well
+    private TradeRecord restore(TradeSegmentRow row) {
+        TradeRecord record = TradeRecord.builder()
+                .id(row.id())
+                .description(row.description())
+                .amount(row.amount())
+                .deletedByGiver(row.deletedByGiver())
+                .deletedByReceiver(row.deletedByReceiver())
+                .transactionDate(row.transactionDate())
+                .build();
+        record.setUuid(row.uuid());
+        record.setCreatedAt(row.createdAt());
+        record.setUpdatedAt(row.updatedAt());
+        bindReferences(new Long[]{row.giverId(), row.receiverId(), row.recorderId(), row.lastModifiedById()}, record);
+        return record;
+    }
+
+    private void bindReferences(Object source, Field[] sourceFields, TradeRecord target) {
+        Long[] ids = new Long[sourceFields.length];
+        for (int i = 0; i < sourceFields.length; i++) {
+            try {
+                IdentifiableEntity reference = (IdentifiableEntity) sourceFields[i].get(source);
+                ids[i] = reference == null ? null : reference.getId();
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        bindReferences(ids, target);
+    }
+
+    // ids in the order of REFERENCES
+    private void bindReferences(Long[] ids, TradeRecord target) {
+        EntityManager em = getEntityManager();
+        for (int i = 0; i < ids.length; i++) {
+            try {
+                RECORD_REFERENCES[i].set(target,
+                        ids[i] == null ? null : em.getReference(RECORD_REFERENCES[i].getType(), ids[i]));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // The fields are written directly: the enhanced setters keep the inverse
+    // collections in sync, which would load the old pharmacy from the shard
+    private static Field[] referenceFields(Class<?> type) {
+        Field[] fields = new Field[REFERENCES.length];
+        for (int i = 0; i < REFERENCES.length; i++) {
+            try {
+                fields[i] = type.getDeclaredField(REFERENCES[i]);
+            } catch (NoSuchFieldException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+            fields[i].setAccessible(true);
+        }
+        return fields;
+    }
+
+    private static Comparator<TradeSegmentRow> segmentOrder(List<SortOrder> order) {
+        return comparator(order, (row, attribute) -> SORT_KEYS.get(attribute).apply(row));
+    }
+
+    // The order of the database: nulls before any value when ascending
+    @SuppressWarnings("unchecked")
+    private static <E> Comparator<E> comparator(List<SortOrder> order, BiFunction<E, String, Object> value) {
+        Comparator<E> comparator = null;
+        for (SortOrder key : order) {
+            Comparator<E> next = Comparator.comparing(
+                    element -> (Comparable<Object>) value.apply(element, key.attribute()),
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+            if (!key.ascending()) {
+                next = next.reversed();
+            }
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        return comparator;
+    }
+
+    private static Long idOf(IdentifiableEntity entity) {
+        return entity == null ? null : entity.getId();
+    }
+
+    private static long toLong(Object id) {
+        return ((Number) id).longValue();
     }
 }
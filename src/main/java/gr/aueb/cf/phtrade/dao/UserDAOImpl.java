@@ -19,6 +19,8 @@ public class UserDAOImpl extends AbstractDAO<User> implements IUserDAO{
 
     public UserDAOImpl(){
         this.setPersistenceClass(User.class);
+        // Read in order through the unique key
+        this.setSortableAttributes("username");
     }
 
     @Override
@@ -40,7 +42,7 @@ public class UserDAOImpl extends AbstractDAO<User> implements IUserDAO{
 
         query.where(cb.equal(root.get("id"), id));
         try {
-            User user = em.createQuery(query).getSingleResult();
+            User user = timed("getByIdWithRelations", () -> em.createQuery(query).getSingleResult());
             return Optional.ofNullable(user);
         } catch (NoResultException e) {
             return Optional.empty();
@@ -49,7 +51,7 @@ public class UserDAOImpl extends AbstractDAO<User> implements IUserDAO{
 
     @Override
     public Optional<User> getByUsername(String username) {
-        return Optional.empty();
+        return findByField("username", username);
     }
 
     @Override
@@ -84,7 +86,7 @@ public class UserDAOImpl extends AbstractDAO<User> implements IUserDAO{
         query.select(cb.count(root))
                 .where(cb.equal(root.get("username"),username));
 
-        return em.createQuery(query).getSingleResult() > 0;
+        return timed("usernameExists", () -> em.createQuery(query).getSingleResult()) > 0;
     }
 
     @Override
@@ -97,6 +99,6 @@ public class UserDAOImpl extends AbstractDAO<User> implements IUserDAO{
         query.select(cb.count(root))
                 .where(cb.equal(root.get("email"),email));
 
-        return em.createQuery(query).getSingleResult() > 0;
+        return timed("emailExists", () -> em.createQuery(query).getSingleResult()) > 0;
     }
 }
@@ -0,0 +1,17 @@
+package gr.aueb.cf.phtrade.dto;
+
+import java.util.List;
+
+/**
+ * A page of a change feed: the entities created or updated and the ids of
+ * those deleted since the token of the request. {@code token} is passed as
+ * {@code since} to get the next page; {@code hasMore} tells whether one is
+ * waiting already.
+ */
+public record ChangeSetDTO<T>(
+        List<T> changed,
+        List<Long> deleted,
+        String token,
+        boolean hasMore
+) {
+}
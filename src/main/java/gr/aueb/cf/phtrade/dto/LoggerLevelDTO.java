@@ -0,0 +1,7 @@
+package gr.aueb.cf.phtrade.dto;
+
+public record LoggerLevelDTO(
+        String name,
+        String configuredLevel,
+        String effectiveLevel
+) {}
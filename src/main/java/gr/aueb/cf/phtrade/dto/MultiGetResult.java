@@ -0,0 +1,13 @@
+package gr.aueb.cf.phtrade.dto;
+
+import java.util.List;
+
+/**
+ * The entities of a list of ids. {@code data} follows the order of the ids,
+ * with {@code null} where an id was not found; {@code missing} lists those ids.
+ */
+public record MultiGetResult<T>(
+        List<T> data,
+        List<Long> missing
+) {
+}
@@ -0,0 +1,12 @@
+package gr.aueb.cf.phtrade.dto;
+
+import java.util.Map;
+
+public record SlowRequestDTO(
+        String timestamp,
+        String method,
+        String path,
+        int status,
+        double totalMillis,
+        Map<String, Double> phaseMillis
+) {}
@@ -9,7 +9,9 @@ public record TradeRecordReadOnlyDTO(
         Long id,
         String description,
         Double amount,
+        Long giverId,
         String giverName,
+        Long receiverId,
         String receiverName,
         String recorderUsername,
         String lastModifiedByUsername,
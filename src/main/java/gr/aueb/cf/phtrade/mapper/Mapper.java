@@ -1,6 +1,7 @@
 package gr.aueb.cf.phtrade.mapper;
 
 import gr.aueb.cf.phtrade.core.enums.RoleType;
+import gr.aueb.cf.phtrade.core.timing.RequestTimings;
 import gr.aueb.cf.phtrade.dto.*;
 import gr.aueb.cf.phtrade.model.Pharmacy;
 import gr.aueb.cf.phtrade.model.PharmacyContact;
@@ -8,13 +9,64 @@ import gr.aueb.cf.phtrade.model.TradeRecord;
 import gr.aueb.cf.phtrade.model.User;
 
 
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class Mapper {
 
+    // The @JsonFormat of the read-only DTOs
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    // ?fields= : each field of a read-only DTO and the entity attribute it is
+    // read from, in the order of the DTO. The names of a trade record's
+    // pharmacies and users are looked up by id, see mapToTradeRecordFields
+    public static final Map<String, String> TRADE_RECORD_FIELDS = fieldAttributes(
+            "id", "id",
+            "description", "description",
+            "amount", "amount",
+            "giverId", "giver.id",
+            "giverName", "giver.id",
+            "receiverId", "receiver.id",
+            "receiverName", "receiver.id",
+            "recorderUsername", "recorder.id",
+            "lastModifiedByUsername", "lastModifiedBy.id",
+            "transactionDate", "transactionDate",
+            "deletedByGiver", "deletedByGiver",
+            "deletedByReceiver", "deletedByReceiver");
+    public static final Map<String, String> PHARMACY_FIELDS = fieldAttributes(
+            "id", "id",
+            "name", "name",
+            "createdAt", "createdAt",
+            "ownerUsername", "user.username");
+    public static final Map<String, String> USER_FIELDS = fieldAttributes(
+            "id", "id",
+            "username", "username",
+            "password", "password",
+            "email", "email",
+            "role", "roleType");
+    public static final Map<String, String> CONTACT_FIELDS = fieldAttributes(
+            "id", "id",
+            "username", "user.username",
+            "contactName", "contactName",
+            "pharmacyName", "pharmacy.name");
+
+    // ?sort= : the fields a page can be sorted by, only those whose attribute
+    // has an index to read it in order (see IGenericDAO#getSortableAttributes)
+    public static final Map<String, String> TRADE_RECORD_SORTS =
+            sortAttributes(TRADE_RECORD_FIELDS, "id", "transactionDate");
+    public static final Map<String, String> PHARMACY_SORTS = sortAttributes(PHARMACY_FIELDS, "id", "name");
+    public static final Map<String, String> USER_SORTS = sortAttributes(USER_FIELDS, "id", "username");
+    public static final Map<String, String> CONTACT_SORTS = sortAttributes(CONTACT_FIELDS, "id", "contactName");
+
 
     public static Pharmacy mapPharmacyInsertToModel(PharmacyInsertDTO dto){
 
@@ -32,14 +84,17 @@ public class Mapper {
     }
 
     public static PharmacyReadOnlyDTO mapToPharmacyReadOnlyDTO(Pharmacy pharmacy){
-
-        return new PharmacyReadOnlyDTO(
-                pharmacy.getId(),
-                pharmacy.getName(),
-                pharmacy.getCreatedAt(),
-                pharmacy.getUser().getUsername()
-                );
-
+        long start = RequestTimings.start();
+        try {
+            return new PharmacyReadOnlyDTO(
+                    pharmacy.getId(),
+                    pharmacy.getName(),
+                    pharmacy.getCreatedAt(),
+                    pharmacy.getUser().getUsername()
+                    );
+        } finally {
+            RequestTimings.stop(RequestTimings.Phase.MAPPING, start);
+        }
     }
 
     public static List<PharmacyReadOnlyDTO> pharmaciesToReadOnlyDTOs(List<Pharmacy> pharmacies){
@@ -114,12 +169,17 @@ public class Mapper {
 
     // Entity → ReadOnly DTO
     public static ContactReadOnlyDTO mapToPharmacyContactReadOnlyDTO(PharmacyContact pharmacyContact) {
-        return new ContactReadOnlyDTO(
-                pharmacyContact.getId(),
-                pharmacyContact.getUser().getUsername(),
-                pharmacyContact.getContactName(),
-                pharmacyContact.getPharmacy().getName()
-        );
+        long start = RequestTimings.start();
+        try {
+            return new ContactReadOnlyDTO(
+                    pharmacyContact.getId(),
+                    pharmacyContact.getUser().getUsername(),
+                    pharmacyContact.getContactName(),
+                    pharmacyContact.getPharmacy().getName()
+            );
+        } finally {
+            RequestTimings.stop(RequestTimings.Phase.MAPPING, start);
+        }
     }
 
     // List of Entities → List of ReadOnly DTOs
@@ -151,14 +211,18 @@ public class Mapper {
 
     // Entity → ReadOnly DTO
     public static UserReadOnlyDTO mapToUserReadOnlyDTO(User user) {
-
-        return new UserReadOnlyDTO(
-                user.getId(),
-                user.getUsername(),
-                user.getPassword(),
-                user.getEmail(),
-                user.getRoleType().toString()
-        );
+        long start = RequestTimings.start();
+        try {
+            return new UserReadOnlyDTO(
+                    user.getId(),
+                    user.getUsername(),
+                    user.getPassword(),
+                    user.getEmail(),
+                    user.getRoleType().toString()
+            );
+        } finally {
+            RequestTimings.stop(RequestTimings.Phase.MAPPING, start);
+        }
     }
 
     // List of Entities → List of ReadOnly DTOs
@@ -193,19 +257,81 @@ public class Mapper {
 
     // Entity → ReadOnly DTO
     public static TradeRecordReadOnlyDTO mapToTradeRecordReadOnlyDTO(TradeRecord tradeRecord) {
+        long start = RequestTimings.start();
+        try {
+            return new TradeRecordReadOnlyDTO(
+                    tradeRecord.getId(),
+                    tradeRecord.getDescription(),
+                    tradeRecord.getAmount(),
+                    tradeRecord.getGiver().getId(),
+                    tradeRecord.getGiver().getName(),
+                    tradeRecord.getReceiver().getId(),
+                    tradeRecord.getReceiver().getName(),
+                    tradeRecord.getRecorder().getUsername(),
+                    tradeRecord.getLastModifiedBy().getUsername(),
+                    tradeRecord.getTransactionDate(),
+                    tradeRecord.isDeletedByGiver(),
+                    tradeRecord.isDeletedByReceiver()
+            );
+        } finally {
+            RequestTimings.stop(RequestTimings.Phase.MAPPING, start);
+        }
+    }
+
+    // Entities of a multi-get → DTOs in the order of the ids, null for a miss
+    public static <E, D> MultiGetResult<D> mapToMultiGetResult(List<Long> ids, List<Optional<E>> entities,
+                                                               Function<E, D> mapper) {
+        List<D> data = new ArrayList<>(ids.size());
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Optional<E> entity = entities.get(i);
+            data.add(entity.map(mapper).orElse(null));
+            if (entity.isEmpty()) {
+                missing.add(ids.get(i));
+            }
+        }
+        return new MultiGetResult<>(data, missing);
+    }
+
+    // The attributes to select for the given fields of a catalogue
+    public static List<String> attributesOf(Map<String, String> catalogue, List<String> fields) {
+        return fields.stream()
+                .map(catalogue::get)
+                .distinct()
+                .collect(Collectors.toList());
+    }
 
-        return new TradeRecordReadOnlyDTO(
-                tradeRecord.getId(),
-                tradeRecord.getDescription(),
-                tradeRecord.getAmount(),
-                tradeRecord.getGiver().getName(),
-                tradeRecord.getReceiver().getName(),
-                tradeRecord.getRecorder().getUsername(),
-                tradeRecord.getLastModifiedBy().getUsername(),
-                tradeRecord.getTransactionDate(),
-                tradeRecord.isDeletedByGiver(),
-                tradeRecord.isDeletedByReceiver()
-        );
+    // Selected attributes → the given fields, formatted like the read-only DTO
+    public static Map<String, Object> mapToFields(Map<String, Object> row, Map<String, String> catalogue,
+                                                  List<String> fields) {
+        long start = RequestTimings.start();
+        try {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (String field : fields) {
+                Object value = row.get(catalogue.get(field));
+                if (value instanceof LocalDateTime dateTime) {
+                    value = DATE_TIME.format(dateTime);
+                } else if (value instanceof Enum<?>) {
+                    value = value.toString();
+                }
+                values.put(field, value);
+            }
+            return values;
+        } finally {
+            RequestTimings.stop(RequestTimings.Phase.MAPPING, start);
+        }
+    }
+
+    // The name fields hold ids until they are replaced from the given names
+    public static Map<String, Object> mapToTradeRecordFields(Map<String, Object> row, List<String> fields,
+                                                             Map<Long, String> pharmacyNames,
+                                                             Map<Long, String> usernames) {
+        Map<String, Object> values = mapToFields(row, TRADE_RECORD_FIELDS, fields);
+        replaceId(values, "giverName", pharmacyNames);
+        replaceId(values, "receiverName", pharmacyNames);
+        replaceId(values, "recorderUsername", usernames);
+        replaceId(values, "lastModifiedByUsername", usernames);
+        return values;
     }
 
     // List of Entities → List of ReadOnly DTOs
@@ -216,4 +342,25 @@ public class Mapper {
                 .collect(Collectors.toList());
     }
 
+    private static void replaceId(Map<String, Object> values, String field, Map<Long, String> names) {
+        if (values.containsKey(field)) {
+            values.put(field, names.get((Long) values.get(field)));
+        }
+    }
+
+    private static Map<String, String> sortAttributes(Map<String, String> fields, String... names) {
+        Map<String, String> catalogue = new LinkedHashMap<>();
+        for (String name : names) {
+            catalogue.put(name, fields.get(name));
+        }
+        return Collections.unmodifiableMap(catalogue);
+    }
+
+    private static Map<String, String> fieldAttributes(String... pairs) {
+        Map<String, String> catalogue = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            catalogue.put(pairs[i], pairs[i + 1]);
+        }
+        return Collections.unmodifiableMap(catalogue);
+    }
 }
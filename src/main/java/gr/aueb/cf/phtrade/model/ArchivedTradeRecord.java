@@ -0,0 +1,55 @@
+package gr.aueb.cf.phtrade.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import java.time.LocalDateTime;
+
+/**
+ * A trade record moved out of {@code trade_records} by the partition archival
+ * (see {@code TradeRecordPartitions}). Archived records are history: they are
+ * listed and counted with the rest, but never changed.
+ */
+@NoArgsConstructor
+@Getter
+@Immutable
+@Entity
+@Table(name = "trade_records_archive")
+public class ArchivedTradeRecord extends AbstractEntity implements IdentifiableEntity {
+
+    @Id
+    private Long id;
+
+    @Column(name = "description", nullable = false)
+    private String description;
+
+    @Column(name = "amount", nullable = false)
+    private Double amount;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "giver_id")
+    private Pharmacy giver;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "receiver_id")
+    private Pharmacy receiver;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "recorder_id")
+    private User recorder;
+
+    @Column(name = "deleted_by_giver")
+    private boolean deletedByGiver;
+
+    @Column(name = "deleted_by_receiver")
+    private boolean deletedByReceiver;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "last_modified_by")
+    private User lastModifiedBy;
+
+    @Column(name = "transaction_date", nullable = false)
+    private LocalDateTime transactionDate;
+}
@@ -0,0 +1,25 @@
+package gr.aueb.cf.phtrade.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * The last change sequence handed out for an entity type in this database.
+ * The row stays locked from the allocation to the commit, so changes of the
+ * type commit in the order of their sequence.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "change_sequences")
+public class ChangeSequence {
+
+    @Id
+    @Column(name = "name", length = 64)
+    private String name;
+
+    @Column(name = "last_value", nullable = false)
+    private long lastValue;
+}
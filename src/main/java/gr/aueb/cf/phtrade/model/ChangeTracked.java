@@ -0,0 +1,10 @@
+package gr.aueb.cf.phtrade.model;
+
+/**
+ * An entity listed by the change feeds. Its change sequence is set by
+ * {@code ChangeFeed} when a transaction that changed it commits.
+ */
+public interface ChangeTracked extends IdentifiableEntity {
+    Long getChangeSeq();
+    void setChangeSeq(Long changeSeq);
+}
@@ -0,0 +1,47 @@
+package gr.aueb.cf.phtrade.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * A request sent with an {@code Idempotency-Key} header and, once it has
+ * completed, its response, so a retry gets the original response instead of
+ * running again. Without a response the key is claimed by a running request.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@Builder
+@Entity
+@Table(name = "idempotency_keys",
+        indexes = @Index(name = "idx_idempotency_keys_expires", columnList = "expires_at"))
+public class IdempotencyKey {
+
+    // The user and the key sent by the client
+    @Id
+    @Column(name = "scoped_key", length = 320)
+    private String scopedKey;
+
+    // New for every claim, the response is stored only by the request holding it
+    @Column(name = "claim_token", nullable = false, length = 36)
+    private String claimToken;
+
+    // SHA-256 of the request body, a key cannot be reused for another request
+    @Column(name = "request_hash", nullable = false, length = 64)
+    private String requestHash;
+
+    @Column(name = "resource_id")
+    private Long resourceId;
+
+    @Column(name = "response", length = 8000)
+    private String response;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,28 @@
+package gr.aueb.cf.phtrade.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * The last outbox event a read model has applied.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@Entity
+@Table(name = "outbox_checkpoints")
+public class OutboxCheckpoint {
+
+    @Id
+    @Column(name = "read_model", length = 64)
+    private String readModel;
+
+    @Column(name = "last_event_id", nullable = false)
+    private long lastEventId;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,38 @@
+package gr.aueb.cf.phtrade.model;
+
+import gr.aueb.cf.phtrade.core.enums.ChangeType;
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * A change of a trade record, pharmacy or contact, written in the transaction
+ * of the change and read later by {@code OutboxProjector}. The payload is JSON
+ * with the read-only DTO before and after the change.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@Builder
+@Entity
+@Table(name = "outbox_events")
+public class OutboxEvent extends AbstractEntity implements IdentifiableEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "aggregate_type", nullable = false, length = 32)
+    private String aggregateType;
+
+    @Column(name = "aggregate_id", nullable = false)
+    private Long aggregateId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false, length = 16)
+    private ChangeType changeType;
+
+    @Lob
+    @Column(name = "payload", nullable = false)
+    private String payload;
+}
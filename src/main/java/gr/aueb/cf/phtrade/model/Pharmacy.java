@@ -12,8 +12,9 @@ import java.util.Set;
 @Setter
 @Builder
 @Entity
-@Table(name = "pharmacies")
-public class Pharmacy extends AbstractEntity implements IdentifiableEntity{
+@Table(name = "pharmacies",
+        indexes = @Index(name = "idx_pharmacies_change_seq", columnList = "change_seq"))
+public class Pharmacy extends AbstractEntity implements ChangeTracked {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -35,6 +36,10 @@ public class Pharmacy extends AbstractEntity implements IdentifiableEntity{
     @OneToMany(mappedBy = "pharmacy")
     private Set<PharmacyContact> contactReferences = new HashSet<>();
 
+    // Set at commit, see ChangeTracked
+    @Column(name = "change_seq")
+    private Long changeSeq;
+
     public void addRecordGiver(TradeRecord tradeRecord){
         if (recordsGiver == null) recordsGiver = new HashSet<>();
         recordsGiver.add(tradeRecord);
@@ -9,8 +9,12 @@ import lombok.*;
 @Setter
 @Builder
 @Entity
-@Table(name = "pharmacy_contacts")
-public class PharmacyContact extends AbstractEntity implements IdentifiableEntity {
+@Table(name = "pharmacy_contacts",
+        indexes = {
+                @Index(name = "idx_pharmacy_contacts_change_seq", columnList = "change_seq"),
+                @Index(name = "idx_pharmacy_contacts_name", columnList = "contactName")
+        })
+public class PharmacyContact extends AbstractEntity implements ChangeTracked {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -27,4 +31,8 @@ public class PharmacyContact extends AbstractEntity implements IdentifiableEntit
     @Column(nullable = false)
     private String contactName; // User-defined name for this contact
 
+    // Set at commit, see ChangeTracked
+    @Column(name = "change_seq")
+    private Long changeSeq;
+
 }
@@ -0,0 +1,36 @@
+package gr.aueb.cf.phtrade.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * A unit of work that changed trade records on a shard and wrote to the main
+ * database too. On the shard the row holds the main database writes and
+ * commits with the records; on the main database the row, without writes,
+ * commits with them. A shard row without its main row is replayed by
+ * {@code ShardCommitLog}.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@Builder
+@Entity
+@Table(name = "shard_commits",
+        indexes = @Index(name = "idx_shard_commits_created", columnList = "created_at"))
+public class ShardCommit {
+
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    // JSON of the outbox events and the idempotency response, null on the main database
+    @Lob
+    @Column(name = "writes")
+    private String writes;
+}
@@ -13,8 +13,12 @@ import java.time.LocalDateTime;
 @Setter
 @Builder
 @Entity
-@Table(name = "trade_records")
-public class TradeRecord extends AbstractEntity implements IdentifiableEntity {
+@Table(name = "trade_records",
+        indexes = {
+                @Index(name = "idx_trade_records_change_seq", columnList = "change_seq"),
+                @Index(name = "idx_trade_records_date", columnList = "transaction_date")
+        })
+public class TradeRecord extends AbstractEntity implements ChangeTracked {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -53,6 +57,10 @@ public class TradeRecord extends AbstractEntity implements IdentifiableEntity {
     @Column(name = "transaction_date", nullable = false)
     private LocalDateTime transactionDate;
 
+    // Set at commit, see ChangeTracked
+    @Column(name = "change_seq")
+    private Long changeSeq;
+
     @Override
     public String toString() {
         return "TradeRecord{" +
@@ -0,0 +1,152 @@
+package gr.aueb.cf.phtrade.rest;
+
+import gr.aueb.cf.phtrade.core.enums.RoleType;
+import gr.aueb.cf.phtrade.core.exceptions.AppServerException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityNotAuthorizedException;
+import gr.aueb.cf.phtrade.core.jfr.RecordingManager;
+import gr.aueb.cf.phtrade.core.logging.LogLevels;
+import gr.aueb.cf.phtrade.core.timing.SlowRequestLog;
+import gr.aueb.cf.phtrade.dto.LoggerLevelDTO;
+import gr.aueb.cf.phtrade.dto.ResponseMessageDTO;
+import gr.aueb.cf.phtrade.dto.SlowRequestDTO;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.PUT;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Set;
+
+@ApplicationScoped
+@Path("/admin")
+public class AdminRestController {
+
+    private static final Set<String> JFR_SETTINGS = Set.of("default", "profile");
+
+    @GET
+    @Path("/timings/slow")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getSlowRequests(@Context SecurityContext securityContext)
+            throws EntityNotAuthorizedException {
+        requireAdmin(securityContext);
+        List<SlowRequestDTO> samples = SlowRequestLog.snapshot();
+        return Response.status(Response.Status.OK)
+                .entity(samples)
+                .build();
+    }
+
+    @POST
+    @Path("/jfr/start")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response startRecording(@QueryParam("settings") @DefaultValue("default") String settings,
+                                   @Context SecurityContext securityContext)
+            throws EntityNotAuthorizedException, EntityInvalidArgumentException, AppServerException {
+        requireAdmin(securityContext);
+        if (!JFR_SETTINGS.contains(settings)) {
+            throw new EntityInvalidArgumentException("Recording", "Settings must be one of " + JFR_SETTINGS);
+        }
+        try {
+            String name = RecordingManager.start(settings);
+            return Response.status(Response.Status.OK)
+                    .entity(new ResponseMessageDTO("RecordingStarted", name))
+                    .build();
+        } catch (IOException | ParseException e) {
+            throw new AppServerException("Recording", "Could not start recording: " + e.getMessage());
+        }
+    }
+
+    @POST
+    @Path("/jfr/stop")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response stopRecording(@Context SecurityContext securityContext)
+            throws EntityNotAuthorizedException {
+        requireAdmin(securityContext);
+        boolean stopped = RecordingManager.stop();
+        return Response.status(Response.Status.OK)
+                .entity(new ResponseMessageDTO(stopped ? "RecordingStopped" : "NoRecording"))
+                .build();
+    }
+
+    @GET
+    @Path("/jfr/dump")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response dumpRecording(@Context SecurityContext securityContext)
+            throws EntityNotAuthorizedException, AppServerException {
+        requireAdmin(securityContext);
+        java.nio.file.Path file;
+        try {
+            file = RecordingManager.dump();
+        } catch (IOException e) {
+            throw new AppServerException("Recording", "Could not dump recording: " + e.getMessage());
+        }
+        if (file == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(new ResponseMessageDTO("NoRecording", "Start a recording first"))
+                    .build();
+        }
+        StreamingOutput body = output -> {
+            try {
+                Files.copy(file, output);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        };
+        return Response.ok(body)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFileName() + "\"")
+                .build();
+    }
+
+    @GET
+    @Path("/loggers/{name}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getLoggerLevel(@PathParam("name") String name,
+                                   @Context SecurityContext securityContext)
+            throws EntityNotAuthorizedException {
+        requireAdmin(securityContext);
+        return Response.status(Response.Status.OK)
+                .entity(LogLevels.get(name))
+                .build();
+    }
+
+    // e.g. PUT /admin/loggers/org.hibernate.SQL?level=DEBUG to see the SQL statements
+    @PUT
+    @Path("/loggers/{name}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response setLoggerLevel(@PathParam("name") String name,
+                                   @QueryParam("level") @DefaultValue(LogLevels.INHERIT) String level,
+                                   @Context SecurityContext securityContext)
+            throws EntityNotAuthorizedException, EntityInvalidArgumentException {
+        requireAdmin(securityContext);
+        try {
+            LoggerLevelDTO loggerLevel = LogLevels.set(name, level);
+            return Response.status(Response.Status.OK)
+                    .entity(loggerLevel)
+                    .build();
+        } catch (IllegalArgumentException e) {
+            throw new EntityInvalidArgumentException("Logger", e.getMessage());
+        }
+    }
+
+    private void requireAdmin(SecurityContext securityContext) throws EntityNotAuthorizedException {
+        if (securityContext.getUserPrincipal() == null
+                || !securityContext.isUserInRole(RoleType.ADMIN.name())) {
+            throw new EntityNotAuthorizedException("User", "Admin role is required");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package gr.aueb.cf.phtrade.rest;
+
+import gr.aueb.cf.phtrade.authentication.AuthenticationProvider;
+import gr.aueb.cf.phtrade.authentication.AuthenticationResponseDTO;
+import gr.aueb.cf.phtrade.core.exceptions.EntityNotAuthorizedException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityNotFoundException;
+import gr.aueb.cf.phtrade.core.ratelimit.RateLimited;
+import gr.aueb.cf.phtrade.dto.UserLoginDTO;
+import gr.aueb.cf.phtrade.dto.UserReadOnlyDTO;
+import gr.aueb.cf.phtrade.security.JwtService;
+import gr.aueb.cf.phtrade.service.IUserService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+@ApplicationScoped
+@Path("/auth")
+public class AuthRestController {
+
+    private final AuthenticationProvider authenticationProvider;
+    private final JwtService jwtService;
+    private final IUserService userService;
+
+    @Inject
+    public AuthRestController(AuthenticationProvider authenticationProvider, JwtService jwtService,
+                              IUserService userService) {
+        this.authenticationProvider = authenticationProvider;
+        this.jwtService = jwtService;
+        this.userService = userService;
+    }
+
+    // Every call runs BCrypt, a tight limit per client keeps password guessing
+    // and CPU exhaustion expensive
+    @POST
+    @Path("/login")
+    @RateLimited(capacity = 10, periodSeconds = 60)
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response login(UserLoginDTO loginDTO) throws EntityNotAuthorizedException, EntityNotFoundException {
+        if (loginDTO == null || loginDTO.username() == null || loginDTO.password() == null
+                || !authenticationProvider.authenticate(loginDTO)) {
+            throw new EntityNotAuthorizedException("User", "Invalid credentials");
+        }
+
+        UserReadOnlyDTO user = userService.getUserByUsername(loginDTO.username());
+        String token = jwtService.generateToken(user.username(), user.role());
+
+        return Response.status(Response.Status.OK)
+                .entity(new AuthenticationResponseDTO(token))
+                .build();
+    }
+}
@@ -2,6 +2,7 @@ package gr.aueb.cf.phtrade.rest;
 
 
 import gr.aueb.cf.phtrade.core.exceptions.*;
+import gr.aueb.cf.phtrade.dao.SortOrder;
 import gr.aueb.cf.phtrade.dto.*;
 import gr.aueb.cf.phtrade.mapper.Mapper;
 import gr.aueb.cf.phtrade.service.IPharmacyContactService;
@@ -22,6 +23,8 @@ import java.util.Map;
 @Path("/contacts")
 public class ContactRestController {
 
+    private static final int MAX_CHANGES = 1000;
+
     private final IPharmacyContactService contactService;
 
     @Inject
@@ -116,19 +119,36 @@ public class ContactRestController {
                 .build();
     }
 
+    //Delta sync: οτι αλλαξε μετα το token της προηγουμενης κλησης
+    @GET
+    @Path("/changes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public ChangeSetDTO<ContactReadOnlyDTO> getChanges(@QueryParam("since") String since,
+                                       @QueryParam("limit") @DefaultValue("500") Integer limit)
+            throws EntityInvalidArgumentException {
+        if (limit <= 0 || limit > MAX_CHANGES) throw new EntityInvalidArgumentException(
+                "LimitInvalidNumber", "Limit must be between 1 and " + MAX_CHANGES);
+
+        return contactService.getContactChanges(since, limit);
+    }
+
     //Το get All Contacts μπορει να γινει ειτε με pagination, ειτε χωρις
 
     @GET
     @Path("/filtered")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getFiltered(@QueryParam("name") @DefaultValue("") String name){
+    public Response getFiltered(@QueryParam("name") @DefaultValue("") String name,
+                                @QueryParam("fields") String fields) throws EntityInvalidArgumentException {
 
         ContactFiltersDTO filtersDTO = new ContactFiltersDTO(name);
         Map<String, Object> criteria =
                 Mapper.mapContactFiltersToCriteria(filtersDTO);
 
-        List<ContactReadOnlyDTO> readOnlyDTOS =
-                contactService.getContactsByCriteria(criteria);
+        //?fields=id,contactName: μονο αυτα τα πεδια, και στο select και στο JSON
+        List<String> selected = ValidatorUtil.validateFields(fields, Mapper.CONTACT_FIELDS);
+        List<?> readOnlyDTOS = selected == null
+                ? contactService.getContactsByCriteria(criteria)
+                : contactService.getContactFieldsByCriteria(criteria, selected, null, null, List.of());
 
         return Response.status(Response.Status.OK)
                 .entity(readOnlyDTOS)
@@ -137,9 +157,11 @@ public class ContactRestController {
     @GET
     @Path("/paginated")
     @Produces(MediaType.APPLICATION_JSON)
-    public PaginatedResult<ContactReadOnlyDTO> getFilteredPaginated (@QueryParam("name") @DefaultValue("") String name,
+    public PaginatedResult<?> getFilteredPaginated (@QueryParam("name") @DefaultValue("") String name,
                                                                       @QueryParam("page")@DefaultValue("0") Integer page,
-                                                                      @QueryParam("size")@DefaultValue("10") Integer size)
+                                                                      @QueryParam("size")@DefaultValue("10") Integer size,
+                                                                      @QueryParam("fields") String fields,
+                                                                      @QueryParam("sort") String sort)
             throws EntityInvalidArgumentException{
 
         ContactFiltersDTO filtersDTO = new ContactFiltersDTO(name);
@@ -153,8 +175,12 @@ public class ContactRestController {
                 "SizeInvalidNumber", "Invalid size number"
         );
 
-        List<ContactReadOnlyDTO> readOnlyDTOS =
-                contactService.getContactsByCriteriaPaginated(criteria, page, size);
+        List<String> selected = ValidatorUtil.validateFields(fields, Mapper.CONTACT_FIELDS);
+        //?sort=contactName,-id: η ταξινομηση γινεται στη βαση, μονο σε πεδια με index
+        List<SortOrder> order = ValidatorUtil.validateSort(sort, Mapper.CONTACT_SORTS);
+        List<?> readOnlyDTOS = selected == null
+                ? contactService.getContactsByCriteriaPaginated(criteria, page, size, order)
+                : contactService.getContactFieldsByCriteria(criteria, selected, page, size, order);
 
         long totalItems =
                 contactService.getContactsCountByCriteria(criteria);
@@ -0,0 +1,39 @@
+package gr.aueb.cf.phtrade.rest;
+
+import gr.aueb.cf.phtrade.core.lifecycle.ReadinessState;
+import gr.aueb.cf.phtrade.dto.ResponseMessageDTO;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+@ApplicationScoped
+@Path("/health")
+public class HealthRestController {
+
+    @GET
+    @Path("/live")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response live() {
+        return Response.status(Response.Status.OK)
+                .entity(new ResponseMessageDTO("Live"))
+                .build();
+    }
+
+    // Load balancers should only route traffic here after bootstrap and warm-up
+    @GET
+    @Path("/ready")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response ready() {
+        if (!ReadinessState.isReady()) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity(new ResponseMessageDTO("NotReady", "Instance is starting"))
+                    .build();
+        }
+        return Response.status(Response.Status.OK)
+                .entity(new ResponseMessageDTO("Ready"))
+                .build();
+    }
+}
@@ -0,0 +1,47 @@
+package gr.aueb.cf.phtrade.rest;
+
+import gr.aueb.cf.phtrade.core.exceptions.EntityNotAuthorizedException;
+import gr.aueb.cf.phtrade.core.metrics.PrometheusExporter;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Prometheus scrape endpoint. It is excluded from JWT authentication, the
+ * scraper sends {@code phtrade.metrics.token} as a bearer token instead.
+ * Without the property the endpoint is closed.
+ */
+@ApplicationScoped
+@Path("/metrics")
+public class MetricsRestController {
+
+    private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final byte[] expected = expected(System.getProperty("phtrade.metrics.token"));
+
+    @GET
+    @Produces(PROMETHEUS_TEXT)
+    public Response scrape(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization)
+            throws EntityNotAuthorizedException {
+        if (expected == null) {
+            throw new EntityNotAuthorizedException("Metrics", "Metrics are disabled, no metrics token is set");
+        }
+        // Compared in constant time, the time to fail tells nothing about the token
+        if (authorization == null
+                || !MessageDigest.isEqual(expected, authorization.getBytes(StandardCharsets.UTF_8))) {
+            throw new EntityNotAuthorizedException("Metrics", "Invalid metrics token");
+        }
+        return Response.ok(PrometheusExporter.scrape(), PROMETHEUS_TEXT).build();
+    }
+
+    private static byte[] expected(String token) {
+        return token == null || token.isBlank() ? null : ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -1,7 +1,11 @@
 package gr.aueb.cf.phtrade.rest;
 
 
+import gr.aueb.cf.phtrade.core.events.PharmacyEventHub;
 import gr.aueb.cf.phtrade.core.exceptions.*;
+import gr.aueb.cf.phtrade.core.ratelimit.RateLimited;
+import gr.aueb.cf.phtrade.core.services.ErrorResponseCache;
+import gr.aueb.cf.phtrade.dao.SortOrder;
 import gr.aueb.cf.phtrade.dto.*;
 import gr.aueb.cf.phtrade.mapper.Mapper;
 import gr.aueb.cf.phtrade.model.Pharmacy;
@@ -11,9 +15,12 @@ import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.UriInfo;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 import lombok.RequiredArgsConstructor;
 
 import java.net.URI;
@@ -25,6 +32,11 @@ import java.util.regex.Matcher;
 @Path("/pharmacies")
 public class PharmacyRestController {
 
+    private static final int MAX_CHANGES = 1000;
+    private static final int MAX_IDS = 1000;
+    // Subscribers come and go, a free slot is likely within this
+    private static final int EVENTS_RETRY_AFTER_SECONDS = 30;
+
     private final IPharmacyService pharmacyService;
 
     @Inject
@@ -106,6 +118,15 @@ public class PharmacyRestController {
                 .build();
     }
 
+    //Πολλα φαρμακεια με μια κληση: ?ids=1,2,3, με τη σειρα των ids
+    @GET
+    @Path("")
+    @Produces(MediaType.APPLICATION_JSON)
+    public MultiGetResult<PharmacyReadOnlyDTO> getPharmacies(@QueryParam("ids") String ids)
+            throws EntityInvalidArgumentException {
+        return pharmacyService.getPharmaciesByIds(ValidatorUtil.validateIds(ids, MAX_IDS));
+    }
+
     @GET
     @Path("/{pharmacyId}")
     @Produces(MediaType.APPLICATION_JSON)
@@ -118,20 +139,37 @@ public class PharmacyRestController {
                 .build();
     }
 
+    //Delta sync: οτι αλλαξε μετα το token της προηγουμενης κλησης
+    @GET
+    @Path("/changes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public ChangeSetDTO<PharmacyReadOnlyDTO> getChanges(@QueryParam("since") String since,
+                                       @QueryParam("limit") @DefaultValue("500") Integer limit)
+            throws EntityInvalidArgumentException {
+        if (limit <= 0 || limit > MAX_CHANGES) throw new EntityInvalidArgumentException(
+                "LimitInvalidNumber", "Limit must be between 1 and " + MAX_CHANGES);
+
+        return pharmacyService.getPharmacyChanges(since, limit);
+    }
+
     //Το get All Pharmacies μπορει να γινει ειτε με pagination, ειτε χωρις
 
     @GET
     @Path("/filtered")
     @Produces(MediaType.APPLICATION_JSON)
     public Response getFiltered(@QueryParam("name") @DefaultValue("") String name,
-                                @QueryParam("username")@DefaultValue("") String username){
+                                @QueryParam("username")@DefaultValue("") String username,
+                                @QueryParam("fields") String fields) throws EntityInvalidArgumentException {
 
         PharmacyFiltersDTO filtersDTO = new PharmacyFiltersDTO(name, username);
         Map<String, Object> criteria =
                 Mapper.mapPharmacyFiltersToCriteria(filtersDTO);
 
-        List<PharmacyReadOnlyDTO> readOnlyDTOS =
-                pharmacyService.getPharmaciesByCriteria(criteria);
+        //?fields=id,name: μονο αυτα τα πεδια, και στο select και στο JSON
+        List<String> selected = ValidatorUtil.validateFields(fields, Mapper.PHARMACY_FIELDS);
+        List<?> readOnlyDTOS = selected == null
+                ? pharmacyService.getPharmaciesByCriteria(criteria)
+                : pharmacyService.getPharmacyFieldsByCriteria(criteria, selected, null, null, List.of());
         return Response.status(Response.Status.OK)
                 .entity(readOnlyDTOS)
                 .build();
@@ -139,10 +177,12 @@ public class PharmacyRestController {
     @GET
     @Path("/paginated")
     @Produces(MediaType.APPLICATION_JSON)
-    public PaginatedResult<PharmacyReadOnlyDTO> getFilteredPaginated (@QueryParam("name") @DefaultValue("") String name,
+    public PaginatedResult<?> getFilteredPaginated (@QueryParam("name") @DefaultValue("") String name,
                                                                       @QueryParam("username")@DefaultValue("") String username,
                                                                       @QueryParam("page")@DefaultValue("0") Integer page,
-                                                                      @QueryParam("size")@DefaultValue("10") Integer size)
+                                                                      @QueryParam("size")@DefaultValue("10") Integer size,
+                                                                      @QueryParam("fields") String fields,
+                                                                      @QueryParam("sort") String sort)
     throws EntityInvalidArgumentException{
 
         PharmacyFiltersDTO filtersDTO = new PharmacyFiltersDTO(name, username);
@@ -156,8 +196,12 @@ public class PharmacyRestController {
                 "SizeInvalidNumber", "Invalid size number"
         );
 
-        List<PharmacyReadOnlyDTO> readOnlyDTOS =
-                pharmacyService.getPharmaciesByCriteriaPaginated(criteria, page, size);
+        List<String> selected = ValidatorUtil.validateFields(fields, Mapper.PHARMACY_FIELDS);
+        //?sort=-name,id: η ταξινομηση γινεται στη βαση, μονο σε πεδια με index
+        List<SortOrder> order = ValidatorUtil.validateSort(sort, Mapper.PHARMACY_SORTS);
+        List<?> readOnlyDTOS = selected == null
+                ? pharmacyService.getPharmaciesByCriteriaPaginated(criteria, page, size, order)
+                : pharmacyService.getPharmacyFieldsByCriteria(criteria, selected, page, size, order);
 
         long totalItems =
                 pharmacyService.getPharmaciesCountByCriteria(criteria);
@@ -174,6 +218,7 @@ public class PharmacyRestController {
     }
     @GET
     @Path("/balance/{pharmacyId}")
+    @RateLimited(capacity = 20, periodSeconds = 60)
     @Produces(MediaType.APPLICATION_JSON)
     public Response getBalanceList(@PathParam("pharmacyId") Long pharmacyId,
                                    @QueryParam("sort") @DefaultValue("") String sortBy) throws EntityNotFoundException{
@@ -186,4 +231,34 @@ public class PharmacyRestController {
                 .build();
     }
 
+    //Server-Sent Events με τις κινησεις του φαρμακειου, βλ. PharmacyEventHub
+    @GET
+    @Path("/{pharmacyId}/events")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void streamEvents(@PathParam("pharmacyId") Long pharmacyId,
+                             @Context SseEventSink eventSink,
+                             @Context Sse sse) throws EntityNotFoundException {
+
+        // A stream that would never send anything, retrying does not help
+        if (!PharmacyEventHub.isEnabled()) {
+            throw new ServiceUnavailableException(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity(ErrorResponseCache.body("PharmacyEventsDisabled", "Event streaming is disabled"))
+                    .type(MediaType.APPLICATION_JSON)
+                    .build());
+        }
+
+        pharmacyService.getPharmacyById(pharmacyId);
+
+        // The sink is still untouched, so the client gets a plain 503 and
+        // reconnects after Retry-After
+        if (!PharmacyEventHub.subscribe(pharmacyId, eventSink, sse)) {
+            throw new ServiceUnavailableException(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity(ErrorResponseCache.body("PharmacyEventsUnavailable",
+                            "Too many event subscribers, retry in " + EVENTS_RETRY_AFTER_SECONDS + " seconds"))
+                    .type(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.RETRY_AFTER, EVENTS_RETRY_AFTER_SECONDS)
+                    .build());
+        }
+    }
+
 }
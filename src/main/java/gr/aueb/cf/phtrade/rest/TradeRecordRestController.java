@@ -1,6 +1,10 @@
 package gr.aueb.cf.phtrade.rest;
 
+import gr.aueb.cf.phtrade.core.enums.RoleType;
 import gr.aueb.cf.phtrade.core.exceptions.*;
+import gr.aueb.cf.phtrade.core.idempotency.IdempotencyKeys;
+import gr.aueb.cf.phtrade.core.ratelimit.RateLimited;
+import gr.aueb.cf.phtrade.dao.SortOrder;
 import gr.aueb.cf.phtrade.dto.*;
 import gr.aueb.cf.phtrade.mapper.Mapper;
 import gr.aueb.cf.phtrade.service.IPharmacyService;
@@ -12,9 +16,12 @@ import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
 import jakarta.ws.rs.core.UriInfo;
 
 import java.net.URI;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +29,12 @@ import java.util.Map;
 @Path("/records")
 public class TradeRecordRestController {
 
+    private static final int MAX_CHANGES = 1000;
+    private static final int MAX_IDS = 1000;
+    private static final int MAX_PAGE_SIZE = 100;
+    // Rows up to the end of a page, each shard, archive and segment reads that many
+    private static final int MAX_PAGE_DEPTH = 10_000;
+
     private final ITradeRecordService recordService;
 
     @Inject
@@ -34,8 +47,9 @@ public class TradeRecordRestController {
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
     public Response addTradeRecord(TradeRecordInsertDTO insertDTO,
-                                   @Context UriInfo uriInfo) throws EntityInvalidArgumentException, EntityAlreadyExistsException,
-            EntityNotFoundException, AppServerException, EntityNotAuthorizedException {
+                                   @HeaderParam(IdempotencyKeys.HEADER) String idempotencyKey,
+                                   @Context SecurityContext securityContext,
+                                   @Context UriInfo uriInfo) throws EntityGenericException {
 
         List<String> errors = ValidatorUtil.validateDTO(insertDTO);
 
@@ -44,13 +58,34 @@ public class TradeRecordRestController {
                     String.join("\n", errors));
         }
 
-        TradeRecordReadOnlyDTO readOnlyDTO = recordService.create(insertDTO);
+        if (idempotencyKey == null) {
+            TradeRecordReadOnlyDTO readOnlyDTO = recordService.create(insertDTO);
+
+            URI newResourceUri = uriInfo.getAbsolutePathBuilder()
+                    .path(String.valueOf(readOnlyDTO.id()))
+                    .build();
+
+            return Response.created(newResourceUri).entity(readOnlyDTO).build();
+        }
+
+        // Retries of a client with the same key get the response of the first
+        // request, the record is created once
+        String scope = securityContext.getUserPrincipal() == null
+                ? null : securityContext.getUserPrincipal().getName();
+        IdempotencyKeys.Outcome outcome = IdempotencyKeys.execute(scope, idempotencyKey, insertDTO,
+                () -> recordService.create(insertDTO));
 
         URI newResourceUri = uriInfo.getAbsolutePathBuilder()
-                .path(String.valueOf(readOnlyDTO.id()))
+                .path(String.valueOf(outcome.resourceId()))
                 .build();
 
-        return Response.created(newResourceUri).entity(readOnlyDTO).build();
+        Response.ResponseBuilder response = Response.created(newResourceUri)
+                .entity(outcome.response())
+                .type(MediaType.APPLICATION_JSON);
+        if (outcome.replayed()) {
+            response.header(IdempotencyKeys.REPLAYED_HEADER, "true");
+        }
+        return response.build();
     }
 
     @PUT
@@ -95,6 +130,19 @@ public class TradeRecordRestController {
                 .build();
     }
 
+    /**
+     * The records of a comma separated list of ids, e.g. {@code ?ids=4,8,15},
+     * in the order given, with {@code null} and an entry in {@code missing}
+     * for each id not found. Replaces a {@code GET /records/{id}} per id.
+     */
+    @GET
+    @Path("")
+    @Produces(MediaType.APPLICATION_JSON)
+    public MultiGetResult<TradeRecordReadOnlyDTO> getTradeRecords(@QueryParam("ids") String ids)
+            throws EntityInvalidArgumentException {
+        return recordService.getByIds(ValidatorUtil.validateIds(ids, MAX_IDS));
+    }
+
     @GET
     @Path("/{recordId}")
     @Produces(MediaType.APPLICATION_JSON)
@@ -107,6 +155,36 @@ public class TradeRecordRestController {
                 .build();
     }
 
+    /**
+     * The full trade history of a pharmacy for audits, archived and exported
+     * records included. Admins only. {@code from} and {@code to} are ISO date
+     * times, e.g. 2022-01-01T00:00, and may be left out.
+     */
+    @GET
+    @Path("/audit")
+    @RateLimited(capacity = 10, periodSeconds = 60)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getAuditTrades(@QueryParam("pharmacyId") Long pharmacyId,
+                                   @QueryParam("from") String from,
+                                   @QueryParam("to") String to,
+                                   @Context SecurityContext securityContext)
+            throws EntityNotAuthorizedException, EntityInvalidArgumentException, EntityNotFoundException {
+        if (securityContext.getUserPrincipal() == null
+                || !securityContext.isUserInRole(RoleType.ADMIN.name())) {
+            throw new EntityNotAuthorizedException("User", "Admin role is required");
+        }
+        if (pharmacyId == null) {
+            throw new EntityInvalidArgumentException("Pharmacy", "pharmacyId is required");
+        }
+
+        List<TradeRecordReadOnlyDTO> readOnlyDTOS =
+                recordService.getTradesForAudit(pharmacyId, parseDate(from), parseDate(to));
+
+        return Response.status(Response.Status.OK)
+                .entity(readOnlyDTOS)
+                .build();
+    }
+
     public Response getFiltered(@QueryParam("description") @DefaultValue("") String description){
         TradeRecordFiltersDTO filtersDTO =
                 new TradeRecordFiltersDTO(description);
@@ -123,10 +201,13 @@ public class TradeRecordRestController {
 
     @GET
     @Path("/paginated")
+    @RateLimited(capacity = 60, periodSeconds = 60)
     @Produces(MediaType.APPLICATION_JSON)
-    public PaginatedResult<TradeRecordReadOnlyDTO> getFilteredPaginated (@QueryParam("description") @DefaultValue("") String description,
+    public PaginatedResult<?> getFilteredPaginated (@QueryParam("description") @DefaultValue("") String description,
                                                                       @QueryParam("page")@DefaultValue("0") Integer page,
-                                                                      @QueryParam("size")@DefaultValue("10") Integer size)
+                                                                      @QueryParam("size")@DefaultValue("10") Integer size,
+                                                                      @QueryParam("fields") String fields,
+                                                                      @QueryParam("sort") String sort)
             throws EntityInvalidArgumentException {
 
         TradeRecordFiltersDTO filtersDTO =
@@ -134,15 +215,17 @@ public class TradeRecordRestController {
         Map<String, Object> criteria =
                 Mapper.mapRecordFiltersToCriteria(filtersDTO);
 
-        if(page < 0) throw new EntityInvalidArgumentException(
-                "PageInvalidNumber","Invalid page number");
-        if(size <= 0) throw new EntityInvalidArgumentException(
-                "SizeInvalidNumber", "Invalid size number"
-        );
+        ValidatorUtil.validatePage(page, size, MAX_PAGE_SIZE, MAX_PAGE_DEPTH);
 
-        List<TradeRecordReadOnlyDTO> readOnlyDTOS =
-                recordService.getTradeRecordsByCriteriaPaginated(criteria,
-                        page, size);
+        // e.g. ?fields=id,amount,receiverName,transactionDate for a grid: only
+        // those columns are selected and serialised
+        List<String> selected = ValidatorUtil.validateFields(fields, Mapper.TRADE_RECORD_FIELDS);
+        // e.g. ?sort=-transactionDate,id, only on indexed columns so the
+        // database reads the page in order
+        List<SortOrder> order = ValidatorUtil.validateSort(sort, Mapper.TRADE_RECORD_SORTS);
+        List<?> readOnlyDTOS = selected == null
+                ? recordService.getTradeRecordsByCriteriaPaginated(criteria, page, size, order)
+                : recordService.getTradeRecordFieldsByCriteria(criteria, selected, page, size, order);
 
         long totalItems =
                 recordService.getTradeRecordsCountByCriteria(criteria);
@@ -158,4 +241,34 @@ public class TradeRecordRestController {
         );
 
     }
+
+    /**
+     * The records created, updated or deleted since the token of the last
+     * sync, for clients that keep a local copy. Without {@code since} every
+     * record is listed; the returned {@code token} is the {@code since} of the
+     * next call. {@code deleted} may hold ids of records the client never had.
+     */
+    @GET
+    @Path("/changes")
+    @Produces(MediaType.APPLICATION_JSON)
+    public ChangeSetDTO<TradeRecordReadOnlyDTO> getChanges(@QueryParam("since") String since,
+                                                           @QueryParam("pharmacyId") Long pharmacyId,
+                                                           @QueryParam("limit") @DefaultValue("500") Integer limit)
+            throws EntityInvalidArgumentException {
+        if (limit <= 0 || limit > MAX_CHANGES) throw new EntityInvalidArgumentException(
+                "LimitInvalidNumber", "Limit must be between 1 and " + MAX_CHANGES);
+
+        return recordService.getTradeRecordChanges(since, pharmacyId, limit);
+    }
+
+    private static LocalDateTime parseDate(String value) throws EntityInvalidArgumentException {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new EntityInvalidArgumentException("Date", "Invalid date " + value);
+        }
+    }
 }
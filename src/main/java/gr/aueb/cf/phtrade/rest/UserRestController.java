@@ -1,6 +1,7 @@
 package gr.aueb.cf.phtrade.rest;
 
 import gr.aueb.cf.phtrade.core.exceptions.*;
+import gr.aueb.cf.phtrade.dao.SortOrder;
 import gr.aueb.cf.phtrade.dto.*;
 import gr.aueb.cf.phtrade.mapper.Mapper;
 import gr.aueb.cf.phtrade.service.IUserService;
@@ -20,6 +21,9 @@ import java.util.Map;
 @ApplicationScoped
 @Path("/users")
 public class UserRestController {
+
+    private static final int MAX_IDS = 1000;
+
     private final IUserService userService;
 
     @Inject
@@ -98,6 +102,15 @@ public class UserRestController {
                 .build();
     }
 
+    //Πολλοι χρηστες με μια κληση: ?ids=1,2,3, με τη σειρα των ids
+    @GET
+    @Path("")
+    @Produces(MediaType.APPLICATION_JSON)
+    public MultiGetResult<UserReadOnlyDTO> getUsers(@QueryParam("ids") String ids)
+            throws EntityInvalidArgumentException {
+        return userService.getUsersByIds(ValidatorUtil.validateIds(ids, MAX_IDS));
+    }
+
     @GET
     @Path("/{userId}")
     @Produces(MediaType.APPLICATION_JSON)
@@ -118,14 +131,18 @@ public class UserRestController {
     @Path("/filtered")
     @Produces(MediaType.APPLICATION_JSON)
     public Response getFiltered(@QueryParam("username") @DefaultValue("") String username,
-                                @QueryParam("email")@DefaultValue("") String email){
+                                @QueryParam("email")@DefaultValue("") String email,
+                                @QueryParam("fields") String fields) throws EntityInvalidArgumentException {
 
         UserFiltersDTO filtersDTO = new UserFiltersDTO(username, email);
         Map<String, Object> criteria =
                 Mapper.mapUserFiltersToCriteria(filtersDTO);
 
-        List<UserReadOnlyDTO> readOnlyDTOS =
-                userService.getUsersByCriteria(criteria);
+        //?fields=id,username: μονο αυτα τα πεδια, και στο select και στο JSON
+        List<String> selected = ValidatorUtil.validateFields(fields, Mapper.USER_FIELDS);
+        List<?> readOnlyDTOS = selected == null
+                ? userService.getUsersByCriteria(criteria)
+                : userService.getUserFieldsByCriteria(criteria, selected, null, null, List.of());
         return Response.status(Response.Status.OK)
                 .entity(readOnlyDTOS)
                 .build();
@@ -134,10 +151,12 @@ public class UserRestController {
     @GET
     @Path("/paginated")
     @Produces(MediaType.APPLICATION_JSON)
-    public PaginatedResult<UserReadOnlyDTO> getFilteredPaginated (@QueryParam("username") @DefaultValue("") String username,
+    public PaginatedResult<?> getFilteredPaginated (@QueryParam("username") @DefaultValue("") String username,
                                                                       @QueryParam("email")@DefaultValue("") String email,
                                                                       @QueryParam("page")@DefaultValue("0") Integer page,
-                                                                      @QueryParam("size")@DefaultValue("10") Integer size)
+                                                                      @QueryParam("size")@DefaultValue("10") Integer size,
+                                                                      @QueryParam("fields") String fields,
+                                                                      @QueryParam("sort") String sort)
             throws EntityInvalidArgumentException{
 
         UserFiltersDTO filtersDTO = new UserFiltersDTO(username, email);
@@ -151,8 +170,12 @@ public class UserRestController {
                 "SizeInvalidNumber", "Invalid size number"
         );
 
-        List<UserReadOnlyDTO> readOnlyDTOS =
-                userService.getUsersByCriteriaPaginated(criteria, page, size);
+        List<String> selected = ValidatorUtil.validateFields(fields, Mapper.USER_FIELDS);
+        //?sort=-username,id: η ταξινομηση γινεται στη βαση, μονο σε πεδια με index
+        List<SortOrder> order = ValidatorUtil.validateSort(sort, Mapper.USER_SORTS);
+        List<?> readOnlyDTOS = selected == null
+                ? userService.getUsersByCriteriaPaginated(criteria, page, size, order)
+                : userService.getUserFieldsByCriteria(criteria, selected, page, size, order);
 
         long totalItems =
                 userService.getUsersCountByCriteria(criteria);
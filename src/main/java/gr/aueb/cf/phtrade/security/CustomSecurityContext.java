@@ -1,14 +1,15 @@
 package gr.aueb.cf.phtrade.security;
 
 import gr.aueb.cf.phtrade.model.User;
-import jakarta.enterprise.context.RequestScoped;
 import jakarta.ws.rs.core.SecurityContext;
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 
 import java.security.Principal;
 
-@RequestScoped
+// Not a CDI bean: on a managed async thread CDI would inject an empty
+// instance for @Context SecurityContext instead of the one set by
+// JwtAuthenticationFilter
 @NoArgsConstructor
 @AllArgsConstructor
 public class CustomSecurityContext implements SecurityContext {
@@ -1,5 +1,6 @@
 package gr.aueb.cf.phtrade.security;
 
+import gr.aueb.cf.phtrade.core.jfr.JwtParseEvent;
 import gr.aueb.cf.phtrade.model.User;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
@@ -63,12 +64,20 @@ public class JwtService {
     }
 
     private Claims extractAllClaims(String token) {
-        return Jwts
-                .parserBuilder()
-                .setSigningKey(getSignInKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        JwtParseEvent event = new JwtParseEvent();
+        event.begin();
+        try {
+            Claims claims = Jwts
+                    .parserBuilder()
+                    .setSigningKey(getSignInKey())
+                    .build()
+                    .parseClaimsJws(token)
+                    .getBody();
+            event.valid = true;
+            return claims;
+        } finally {
+            event.commit();
+        }
     }
 
     /**
@@ -1,5 +1,6 @@
 package gr.aueb.cf.phtrade.security;
 
+import gr.aueb.cf.phtrade.core.jfr.PasswordCheckEvent;
 import org.mindrot.jbcrypt.BCrypt;
 
 public class SecUtil {
@@ -10,11 +11,22 @@ public class SecUtil {
 
     public static String hashPassword(String inputPasswd) {
         int workload = 12;
+        PasswordCheckEvent event = new PasswordCheckEvent();
+        event.begin();
         String salt = BCrypt.gensalt(workload);
-        return BCrypt.hashpw(inputPasswd, salt);
+        String hashed = BCrypt.hashpw(inputPasswd, salt);
+        event.operation = "hash";
+        event.commit();
+        return hashed;
     }
 
     public static boolean checkPassword(String inputPasswd, String storedHashedPasswd) {
-        return BCrypt.checkpw(inputPasswd, storedHashedPasswd);
+        PasswordCheckEvent event = new PasswordCheckEvent();
+        event.begin();
+        boolean matched = BCrypt.checkpw(inputPasswd, storedHashedPasswd);
+        event.operation = "check";
+        event.matched = matched;
+        event.commit();
+        return matched;
     }
 }
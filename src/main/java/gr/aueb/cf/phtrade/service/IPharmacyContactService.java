@@ -2,7 +2,10 @@ package gr.aueb.cf.phtrade.service;
 
 import gr.aueb.cf.phtrade.core.exceptions.AppServerException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityAlreadyExistsException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotFoundException;
+import gr.aueb.cf.phtrade.dao.SortOrder;
+import gr.aueb.cf.phtrade.dto.ChangeSetDTO;
 import gr.aueb.cf.phtrade.dto.ContactInsertDTO;
 import gr.aueb.cf.phtrade.dto.ContactReadOnlyDTO;
 import gr.aueb.cf.phtrade.dto.ContactUpdateDTO;
@@ -19,6 +22,9 @@ public interface IPharmacyContactService {
     boolean contactExists(Long userId, Long pharmacyId) throws AppServerException;
     List<ContactReadOnlyDTO> getContactsByCriteria(Map<String,Object> criteria);
     List<ContactReadOnlyDTO> getContactsByCriteriaPaginated(Map<String,
-            Object> criteria, Integer page, Integer size);
+            Object> criteria, Integer page, Integer size, List<SortOrder> sort);
     long getContactsCountByCriteria(Map<String, Object> criteria);
+    List<Map<String, Object>> getContactFieldsByCriteria(Map<String, Object> criteria, List<String> fields,
+                                                         Integer page, Integer size, List<SortOrder> sort);
+    ChangeSetDTO<ContactReadOnlyDTO> getContactChanges(String since, int limit) throws EntityInvalidArgumentException;
 }
@@ -2,9 +2,13 @@ package gr.aueb.cf.phtrade.service;
 
 import gr.aueb.cf.phtrade.core.exceptions.AppServerException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityAlreadyExistsException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotAuthorizedException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotFoundException;
+import gr.aueb.cf.phtrade.dao.SortOrder;
 import gr.aueb.cf.phtrade.dto.BalanceDTO;
+import gr.aueb.cf.phtrade.dto.ChangeSetDTO;
+import gr.aueb.cf.phtrade.dto.MultiGetResult;
 import gr.aueb.cf.phtrade.dto.PharmacyInsertDTO;
 import gr.aueb.cf.phtrade.dto.PharmacyReadOnlyDTO;
 import gr.aueb.cf.phtrade.dto.PharmacyUpdateDTO;
@@ -21,13 +25,17 @@ public interface IPharmacyService {
     void deletePharmacy(Long id, Long deleterUserId) throws EntityNotFoundException;
     boolean nameExists(String name) throws AppServerException;
     PharmacyReadOnlyDTO getPharmacyById(Long id) throws EntityNotFoundException;
+    MultiGetResult<PharmacyReadOnlyDTO> getPharmaciesByIds(List<Long> ids);
     List<PharmacyReadOnlyDTO> getPharmaciesByCriteria(Map<String,Object> criteria);
     List<PharmacyReadOnlyDTO> getPharmaciesByCriteriaPaginated(Map<String,
-            Object> criteria, Integer page, Integer size);
+            Object> criteria, Integer page, Integer size, List<SortOrder> sort);
     long getPharmaciesCountByCriteria(Map<String, Object> criteria);
+    List<Map<String, Object>> getPharmacyFieldsByCriteria(Map<String, Object> criteria, List<String> fields,
+                                                          Integer page, Integer size, List<SortOrder> sort);
     PharmacyReadOnlyDTO getPharmacyByName(String name) throws EntityNotFoundException;
     List<PharmacyReadOnlyDTO> searchPharmaciesByName(String name) throws AppServerException;
     List<PharmacyReadOnlyDTO> searchPharmaciesByUser(String username) throws AppServerException;
     List<PharmacyReadOnlyDTO> getAllPharmacies() throws AppServerException;
     List<BalanceDTO> getBalanceList(Long pharmacyId, String sortBy) throws EntityNotFoundException;
+    ChangeSetDTO<PharmacyReadOnlyDTO> getPharmacyChanges(String since, int limit) throws EntityInvalidArgumentException;
 }
@@ -1,8 +1,12 @@
 package gr.aueb.cf.phtrade.service;
 
 import gr.aueb.cf.phtrade.core.exceptions.AppServerException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotAuthorizedException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotFoundException;
+import gr.aueb.cf.phtrade.dao.SortOrder;
+import gr.aueb.cf.phtrade.dto.ChangeSetDTO;
+import gr.aueb.cf.phtrade.dto.MultiGetResult;
 import gr.aueb.cf.phtrade.dto.TradeRecordInsertDTO;
 import gr.aueb.cf.phtrade.dto.TradeRecordReadOnlyDTO;
 import gr.aueb.cf.phtrade.dto.TradeRecordUpdateDTO;
@@ -19,6 +23,8 @@ public interface ITradeRecordService {
     void delete(Long id, Long deleterUserId) throws EntityNotFoundException, EntityNotAuthorizedException;
     TradeRecordReadOnlyDTO getById(Long id) throws EntityNotFoundException;
 
+    MultiGetResult<TradeRecordReadOnlyDTO> getByIds(List<Long> ids);
+
     List<TradeRecordReadOnlyDTO> getAll() throws AppServerException;
     List<TradeRecordReadOnlyDTO> getRecentTradesForPharmacy(Long pharmacyId,
                                                             int limit) throws EntityNotFoundException;
@@ -31,9 +37,31 @@ public interface ITradeRecordService {
     List<TradeRecordReadOnlyDTO> getRecentTradesBetweenPharmacies(Long pharmacy1Id,
                                              Long pharmacy2Id, int limit) throws EntityNotFoundException;
 
+    /**
+     * Every trade of a pharmacy, as giver or receiver, newest first, including
+     * the archived and exported history. {@code from} and {@code to} may be null.
+     */
+    List<TradeRecordReadOnlyDTO> getTradesForAudit(Long pharmacyId, LocalDateTime from,
+                                                   LocalDateTime to) throws EntityNotFoundException;
+
     List<TradeRecordReadOnlyDTO> getTradeRecordsByCriteria(Map<String,
                 Object> criteria);
     List<TradeRecordReadOnlyDTO> getTradeRecordsByCriteriaPaginated(Map<String, Object> criteria,
-                                                                    Integer page, Integer size);
+                                                                    Integer page, Integer size,
+                                                                    List<SortOrder> sort);
     long getTradeRecordsCountByCriteria(Map<String, Object> criteria);
+
+    /**
+     * Only the given fields of the matching records, see {@code Mapper.TRADE_RECORD_FIELDS}.
+     * Without page and size every match is returned.
+     */
+    List<Map<String, Object>> getTradeRecordFieldsByCriteria(Map<String, Object> criteria, List<String> fields,
+                                                             Integer page, Integer size, List<SortOrder> sort);
+
+    /**
+     * The records created, updated or deleted after the change token
+     * {@code since}, optionally only those of one pharmacy.
+     */
+    ChangeSetDTO<TradeRecordReadOnlyDTO> getTradeRecordChanges(String since, Long pharmacyId,
+                                                              int limit) throws EntityInvalidArgumentException;
 }
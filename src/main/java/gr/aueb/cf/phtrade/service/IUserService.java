@@ -1,6 +1,7 @@
 package gr.aueb.cf.phtrade.service;
 
 import gr.aueb.cf.phtrade.core.exceptions.*;
+import gr.aueb.cf.phtrade.dao.SortOrder;
 import gr.aueb.cf.phtrade.dto.*;
 
 import java.util.List;
@@ -12,6 +13,7 @@ public interface IUserService {
     UserReadOnlyDTO updateUser(UserUpdateDTO dto) throws EntityNotFoundException, EntityAlreadyExistsException, AppServerException;;
     void deleteUser(Long userIdToDelete, Long loggedInUserId) throws EntityNotAuthorizedException, EntityNotFoundException;
     UserReadOnlyDTO getUserById(Long id) throws EntityNotFoundException;
+    MultiGetResult<UserReadOnlyDTO> getUsersByIds(List<Long> ids);
     List<UserReadOnlyDTO> getAllUsers();
     UserReadOnlyDTO getUserByUsername(String username) throws EntityNotFoundException;
     List<PharmacyReadOnlyDTO> getUserPharmacies(Long userId) throws EntityNotFoundException;
@@ -22,8 +24,10 @@ public interface IUserService {
     List<UserReadOnlyDTO> getUsersByCriteria(Map<String,
             Object> criteria);
     List<UserReadOnlyDTO> getUsersByCriteriaPaginated
-            (Map<String, Object> criteria, Integer page, Integer size);
+            (Map<String, Object> criteria, Integer page, Integer size, List<SortOrder> sort);
     long getUsersCountByCriteria(Map<String, Object> criteria);
+    List<Map<String, Object>> getUserFieldsByCriteria(Map<String, Object> criteria, List<String> fields,
+                                                      Integer page, Integer size, List<SortOrder> sort);
 
 
 
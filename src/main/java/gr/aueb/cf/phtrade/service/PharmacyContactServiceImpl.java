@@ -1,11 +1,17 @@
 package gr.aueb.cf.phtrade.service;
 
+import gr.aueb.cf.phtrade.core.changes.ChangeFeed;
+import gr.aueb.cf.phtrade.core.enums.ChangeType;
 import gr.aueb.cf.phtrade.core.exceptions.AppServerException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityAlreadyExistsException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotFoundException;
+import gr.aueb.cf.phtrade.core.outbox.Outbox;
+import gr.aueb.cf.phtrade.dao.SortOrder;
 import gr.aueb.cf.phtrade.dao.IPharmacyContactDAO;
 import gr.aueb.cf.phtrade.dao.IPharmacyDAO;
 import gr.aueb.cf.phtrade.dao.IUserDAO;
+import gr.aueb.cf.phtrade.dto.ChangeSetDTO;
 import gr.aueb.cf.phtrade.dto.ContactInsertDTO;
 import gr.aueb.cf.phtrade.dto.ContactReadOnlyDTO;
 import gr.aueb.cf.phtrade.dto.ContactUpdateDTO;
@@ -73,6 +79,8 @@ public class PharmacyContactServiceImpl implements IPharmacyContactService {
                     .map(Mapper::mapToPharmacyContactReadOnlyDTO)
                     .orElseThrow(() -> new AppServerException("Contact",
                             "Failed to create Contact"));
+            Outbox.publish(Outbox.CONTACT, contactDTO.id(), ChangeType.CREATED, null, contactDTO);
+            ChangeFeed.changed(PharmacyContact.class, contactDTO.id());
 
             JPAHelper.commitTransaction();
 
@@ -97,11 +105,14 @@ public class PharmacyContactServiceImpl implements IPharmacyContactService {
             PharmacyContact existingContact = contactDAO.getById(dto.id())
                     .orElseThrow(() -> new EntityNotFoundException("Contact", "Contact with id " + dto.id() + " not found"));
 
+            ContactReadOnlyDTO before = Mapper.mapToPharmacyContactReadOnlyDTO(existingContact);
             PharmacyContact updatedContact = Mapper.mapPharmacyContactUpdateToModel(dto, existingContact);
             ContactReadOnlyDTO contactDTO = contactDAO.update(updatedContact)
                     .map(Mapper::mapToPharmacyContactReadOnlyDTO)
                     .orElseThrow(() -> new AppServerException("Contact",
                             "Failed to update Contact"));
+            Outbox.publish(Outbox.CONTACT, dto.id(), ChangeType.UPDATED, before, contactDTO);
+            ChangeFeed.changed(PharmacyContact.class, dto.id());
 
             JPAHelper.commitTransaction();
             LOGGER.info("Contact {} updated", dto.id());
@@ -124,6 +135,7 @@ public class PharmacyContactServiceImpl implements IPharmacyContactService {
 
             PharmacyContact contact = contactDAO.getById(contactId)
                     .orElseThrow(() -> new EntityNotFoundException("Contact", "Contact with id " + contactId + " not found"));
+            ContactReadOnlyDTO before = Mapper.mapToPharmacyContactReadOnlyDTO(contact);
 
             // Handle bidirectional relationships
             if (contact.getPharmacy() != null) {
@@ -134,6 +146,8 @@ public class PharmacyContactServiceImpl implements IPharmacyContactService {
             }
 
             contactDAO.delete(contactId);
+            Outbox.publish(Outbox.CONTACT, contactId, ChangeType.DELETED, before, null);
+            ChangeFeed.deleted(PharmacyContact.class, contactId);
             JPAHelper.commitTransaction();
             LOGGER.info("Contact {} deleted", contactId);
 
@@ -199,12 +213,14 @@ public class PharmacyContactServiceImpl implements IPharmacyContactService {
     }
 
     @Override
-    public List<ContactReadOnlyDTO> getContactsByCriteriaPaginated(Map<String, Object> criteria, Integer page, Integer size) {
+    public List<ContactReadOnlyDTO> getContactsByCriteriaPaginated(Map<String, Object> criteria,
+                                                                   Integer page, Integer size,
+                                                                   List<SortOrder> sort) {
         try{
             JPAHelper.beginTransaction();
             List<ContactReadOnlyDTO> readOnlyDTOS =
                     contactDAO.getByCriteriaPaginated(PharmacyContact.class,
-                            criteria, page, size)
+                            criteria, page, size, sort)
                             .stream()
                             .map(Mapper::mapToPharmacyContactReadOnlyDTO)
                             .collect(Collectors.toList());
@@ -216,6 +232,23 @@ public class PharmacyContactServiceImpl implements IPharmacyContactService {
         }
     }
 
+    @Override
+    public List<Map<String, Object>> getContactFieldsByCriteria(Map<String, Object> criteria, List<String> fields,
+                                                                Integer page, Integer size, List<SortOrder> sort) {
+        try {
+            JPAHelper.beginTransaction();
+            List<Map<String, Object>> rows = contactDAO.getFieldsByCriteriaPaginated(criteria,
+                    Mapper.attributesOf(Mapper.CONTACT_FIELDS, fields), page, size, sort);
+            List<Map<String, Object>> values = rows.stream()
+                    .map(row -> Mapper.mapToFields(row, Mapper.CONTACT_FIELDS, fields))
+                    .collect(Collectors.toList());
+            JPAHelper.commitTransaction();
+            return values;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
     @Override
     public long getContactsCountByCriteria(Map<String, Object> criteria) {
         try{
@@ -227,4 +260,25 @@ public class PharmacyContactServiceImpl implements IPharmacyContactService {
             JPAHelper.closeEntityManager();
         }
     }
+
+    @Override
+    public ChangeSetDTO<ContactReadOnlyDTO> getContactChanges(String since, int limit)
+            throws EntityInvalidArgumentException {
+        try {
+            JPAHelper.beginTransaction();
+            long sequence = ChangeFeed.parseToken(since, 1)[0];
+            ChangeFeed.Page<PharmacyContact> page = ChangeFeed.page(JPAHelper.getEntityManager(),
+                    PharmacyContact.class, sequence, limit, contactDAO.getChangedSince(sequence, limit + 1));
+            List<ContactReadOnlyDTO> readOnlyDTOS = Mapper.pharmacyContactsToReadOnlyDTOs(page.changed());
+            JPAHelper.commitTransaction();
+            return new ChangeSetDTO<>(readOnlyDTOS, page.deleted(),
+                    ChangeFeed.formatToken(new long[]{page.last()}), page.more());
+        } catch (EntityInvalidArgumentException e) {
+            JPAHelper.rollbackTransaction();
+            LOGGER.error("Error fetching contact changes since {}", since, e);
+            throw e;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
 }
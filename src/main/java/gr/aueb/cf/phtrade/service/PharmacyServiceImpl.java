@@ -1,9 +1,14 @@
 package gr.aueb.cf.phtrade.service;
 
+import gr.aueb.cf.phtrade.core.changes.ChangeFeed;
+import gr.aueb.cf.phtrade.core.enums.ChangeType;
 import gr.aueb.cf.phtrade.core.exceptions.AppServerException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityAlreadyExistsException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotAuthorizedException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotFoundException;
+import gr.aueb.cf.phtrade.core.outbox.Outbox;
+import gr.aueb.cf.phtrade.dao.SortOrder;
 import gr.aueb.cf.phtrade.dao.IPharmacyContactDAO;
 import gr.aueb.cf.phtrade.dao.IPharmacyDAO;
 import gr.aueb.cf.phtrade.dao.ITradeRecordDAO;
@@ -12,6 +17,7 @@ import gr.aueb.cf.phtrade.dto.*;
 import gr.aueb.cf.phtrade.mapper.Mapper;
 import gr.aueb.cf.phtrade.model.Pharmacy;
 import gr.aueb.cf.phtrade.model.PharmacyContact;
+import gr.aueb.cf.phtrade.model.TradeRecord;
 import gr.aueb.cf.phtrade.model.User;
 import gr.aueb.cf.phtrade.service.util.JPAHelper;
 import jakarta.enterprise.context.ApplicationScoped;
@@ -62,6 +68,8 @@ public class PharmacyServiceImpl implements IPharmacyService{
             PharmacyReadOnlyDTO pharmacyDTO = pharmacyDAO.insert(pharmacy)
                     .map(Mapper::mapToPharmacyReadOnlyDTO)
                     .orElseThrow(() -> new AppServerException("Pharmacy", "Failed to create pharmacy"));
+            Outbox.publish(Outbox.PHARMACY, pharmacyDTO.id(), ChangeType.CREATED, null, pharmacyDTO);
+            ChangeFeed.changed(Pharmacy.class, pharmacyDTO.id());
 
             JPAHelper.commitTransaction();
             LOGGER.info("Pharmacy created with ID: {}", pharmacyDTO.id());
@@ -100,9 +108,12 @@ public class PharmacyServiceImpl implements IPharmacyService{
             }
 
             // Update pharmacy
+            PharmacyReadOnlyDTO before = Mapper.mapToPharmacyReadOnlyDTO(existingPharmacy);
             Pharmacy updatedPharmacy = Mapper.mapPharmacyUpdateToModel(dto, existingPharmacy);
             PharmacyReadOnlyDTO readOnlyDTO=
                     pharmacyDAO.update(updatedPharmacy).map(Mapper::mapToPharmacyReadOnlyDTO).orElseThrow(() -> new AppServerException("Pharmacy", "Failed to update pharmacy"));
+            Outbox.publish(Outbox.PHARMACY, dto.id(), ChangeType.UPDATED, before, readOnlyDTO);
+            ChangeFeed.changed(Pharmacy.class, dto.id());
 
            JPAHelper.commitTransaction();
             LOGGER.info("Pharmacy {} updated by user {}", dto.id(),
@@ -126,6 +137,7 @@ public class PharmacyServiceImpl implements IPharmacyService{
 
             Pharmacy pharmacy = pharmacyDAO.getById(id)
                     .orElseThrow(() -> new EntityNotFoundException("Pharmacy", id + " not found"));
+            PharmacyReadOnlyDTO before = Mapper.mapToPharmacyReadOnlyDTO(pharmacy);
 
             // Remove pharmacy from user
             if(pharmacy.getUser()!= null) {
@@ -133,18 +145,29 @@ public class PharmacyServiceImpl implements IPharmacyService{
             }
             // Remove all contacts first
             if (pharmacy.getContactReferences() != null) {
-                new ArrayList<>(pharmacy.getContactReferences()).forEach(pharmacy::removeContactReference);
+                new ArrayList<>(pharmacy.getContactReferences()).forEach(contact -> {
+                    pharmacy.removeContactReference(contact);
+                    ChangeFeed.changed(PharmacyContact.class, contact.getId());
+                });
             }
 
             if(pharmacy.getRecordsGiver() != null){
-                new ArrayList<>(pharmacy.getRecordsGiver()).forEach(record -> record.setGiver(null));
+                new ArrayList<>(pharmacy.getRecordsGiver()).forEach(record -> {
+                    record.setGiver(null);
+                    ChangeFeed.changed(TradeRecord.class, record.getId());
+                });
             }
 
             if(pharmacy.getRecordsReceiver() != null){
-                new ArrayList<>(pharmacy.getRecordsReceiver()).forEach(record -> record.setReceiver(null));
+                new ArrayList<>(pharmacy.getRecordsReceiver()).forEach(record -> {
+                    record.setReceiver(null);
+                    ChangeFeed.changed(TradeRecord.class, record.getId());
+                });
             }
 
             pharmacyDAO.delete(id);
+            Outbox.publish(Outbox.PHARMACY, id, ChangeType.DELETED, before, null);
+            ChangeFeed.deleted(Pharmacy.class, id);
             JPAHelper.commitTransaction();
             LOGGER.info("Pharmacy {} deleted by user {}", id, deleterUserId);
 
@@ -192,6 +215,31 @@ public class PharmacyServiceImpl implements IPharmacyService{
         }
     }
 
+    @Override
+    public MultiGetResult<PharmacyReadOnlyDTO> getPharmaciesByIds(List<Long> ids) {
+        try {
+            JPAHelper.beginTransaction();
+            List<Optional<Pharmacy>> pharmacies = pharmacyDAO.getByIds(ids);
+
+            // The owners are loaded together, not one by one while mapping
+            List<Long> userIds = pharmacies.stream()
+                    .flatMap(Optional::stream)
+                    .map(Pharmacy::getUser)
+                    .filter(Objects::nonNull)
+                    .map(User::getId)
+                    .distinct()
+                    .collect(Collectors.toList());
+            userDAO.getByIds(userIds);
+
+            MultiGetResult<PharmacyReadOnlyDTO> result =
+                    Mapper.mapToMultiGetResult(ids, pharmacies, Mapper::mapToPharmacyReadOnlyDTO);
+            JPAHelper.commitTransaction();
+            return result;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
     @Override
     public List<PharmacyReadOnlyDTO> getPharmaciesByCriteria(Map<String,
             Object> criteria) {
@@ -211,12 +259,14 @@ public class PharmacyServiceImpl implements IPharmacyService{
     }
 
     @Override
-    public List<PharmacyReadOnlyDTO> getPharmaciesByCriteriaPaginated(Map<String, Object> criteria, Integer page, Integer size){
+    public List<PharmacyReadOnlyDTO> getPharmaciesByCriteriaPaginated(Map<String, Object> criteria,
+                                                                      Integer page, Integer size,
+                                                                      List<SortOrder> sort){
         try{
             JPAHelper.beginTransaction();
             List<PharmacyReadOnlyDTO> readOnlyDTOS =
                     pharmacyDAO.getByCriteriaPaginated(Pharmacy.class,
-                            criteria, page, size)
+                            criteria, page, size, sort)
                             .stream()
                             .map(Mapper::mapToPharmacyReadOnlyDTO)
                             .collect(Collectors.toList());
@@ -227,6 +277,23 @@ public class PharmacyServiceImpl implements IPharmacyService{
         }
     }
 
+    @Override
+    public List<Map<String, Object>> getPharmacyFieldsByCriteria(Map<String, Object> criteria, List<String> fields,
+                                                                 Integer page, Integer size, List<SortOrder> sort) {
+        try {
+            JPAHelper.beginTransaction();
+            List<Map<String, Object>> rows = pharmacyDAO.getFieldsByCriteriaPaginated(criteria,
+                    Mapper.attributesOf(Mapper.PHARMACY_FIELDS, fields), page, size, sort);
+            List<Map<String, Object>> values = rows.stream()
+                    .map(row -> Mapper.mapToFields(row, Mapper.PHARMACY_FIELDS, fields))
+                    .collect(Collectors.toList());
+            JPAHelper.commitTransaction();
+            return values;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
     @Override
     public long getPharmaciesCountByCriteria(Map<String, Object> criteria){
         try{
@@ -385,4 +452,25 @@ public class PharmacyServiceImpl implements IPharmacyService{
                 .sorted(comparator)
                 .collect(Collectors.toList());
     }
+
+    @Override
+    public ChangeSetDTO<PharmacyReadOnlyDTO> getPharmacyChanges(String since, int limit)
+            throws EntityInvalidArgumentException {
+        try {
+            JPAHelper.beginTransaction();
+            long sequence = ChangeFeed.parseToken(since, 1)[0];
+            ChangeFeed.Page<Pharmacy> page = ChangeFeed.page(JPAHelper.getEntityManager(), Pharmacy.class,
+                    sequence, limit, pharmacyDAO.getChangedSince(sequence, limit + 1));
+            List<PharmacyReadOnlyDTO> readOnlyDTOS = Mapper.pharmaciesToReadOnlyDTOs(page.changed());
+            JPAHelper.commitTransaction();
+            return new ChangeSetDTO<>(readOnlyDTOS, page.deleted(),
+                    ChangeFeed.formatToken(new long[]{page.last()}), page.more());
+        } catch (EntityInvalidArgumentException e) {
+            JPAHelper.rollbackTransaction();
+            LOGGER.error("Error fetching pharmacy changes since {}", since, e);
+            throw e;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
 }
@@ -1,15 +1,24 @@
 package gr.aueb.cf.phtrade.service;
 
+import gr.aueb.cf.phtrade.core.changes.ChangeFeed;
+import gr.aueb.cf.phtrade.core.enums.ChangeType;
 import gr.aueb.cf.phtrade.core.exceptions.AppServerException;
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotAuthorizedException;
 import gr.aueb.cf.phtrade.core.exceptions.EntityNotFoundException;
+import gr.aueb.cf.phtrade.core.idempotency.IdempotencyKeys;
+import gr.aueb.cf.phtrade.core.outbox.Outbox;
 import gr.aueb.cf.phtrade.dao.IPharmacyDAO;
 import gr.aueb.cf.phtrade.dao.ITradeRecordDAO;
 import gr.aueb.cf.phtrade.dao.IUserDAO;
+import gr.aueb.cf.phtrade.dao.SortOrder;
+import gr.aueb.cf.phtrade.dto.ChangeSetDTO;
+import gr.aueb.cf.phtrade.dto.MultiGetResult;
 import gr.aueb.cf.phtrade.dto.TradeRecordInsertDTO;
 import gr.aueb.cf.phtrade.dto.TradeRecordReadOnlyDTO;
 import gr.aueb.cf.phtrade.dto.TradeRecordUpdateDTO;
 import gr.aueb.cf.phtrade.mapper.Mapper;
+import gr.aueb.cf.phtrade.model.IdentifiableEntity;
 import gr.aueb.cf.phtrade.model.Pharmacy;
 import gr.aueb.cf.phtrade.model.TradeRecord;
 import gr.aueb.cf.phtrade.model.User;
@@ -21,15 +30,21 @@ import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @ApplicationScoped
 public class TradeRecordServiceImpl implements ITradeRecordService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TradeRecordServiceImpl.class);
+    private static final List<SortOrder> NEWEST_FIRST =
+            List.of(SortOrder.desc("transactionDate"), SortOrder.desc("id"));
     private final ITradeRecordDAO tradeRecordDAO;
     private final IPharmacyDAO pharmacyDAO;
     private final IUserDAO userDAO;
@@ -87,6 +102,10 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
                             .map(Mapper::mapToTradeRecordReadOnlyDTO)
                             .orElseThrow
                             (()-> new AppServerException("TradeRecord", "Failed to create Trade Record"));
+            Outbox.publish(Outbox.TRADE_RECORD, recordDTO.id(), ChangeType.CREATED, null, recordDTO);
+            ChangeFeed.changed(TradeRecord.class, recordDTO.id());
+            // Commits with the record when the request has an Idempotency-Key
+            IdempotencyKeys.completed(recordDTO.id(), recordDTO);
 
             JPAHelper.commitTransaction();
             LOGGER.info("TradeRecord with description={}, amount ={} was " +
@@ -131,6 +150,7 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
                         "update records");
             }
 
+            TradeRecordReadOnlyDTO before = Mapper.mapToTradeRecordReadOnlyDTO(existingRecord);
             TradeRecord updatedRecord =
                     Mapper.mapTradeRecordUpdateToModel(dto, existingRecord);
 
@@ -138,6 +158,8 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
                     .map(Mapper::mapToTradeRecordReadOnlyDTO)
                     .orElseThrow(()-> new AppServerException("TradeRecord",
                             "Failed to update Trade Record"));
+            Outbox.publish(Outbox.TRADE_RECORD, dto.id(), ChangeType.UPDATED, before, recordReadOnlyDTO);
+            ChangeFeed.changed(TradeRecord.class, dto.id());
 
             JPAHelper.commitTransaction();
             LOGGER.info("TradeRecord with id={} " +
@@ -177,6 +199,8 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
                         "or receiver can delete records");
             }
 
+            TradeRecordReadOnlyDTO before = Mapper.mapToTradeRecordReadOnlyDTO(record);
+
             // Two-phase deletion logic
             if (isGiverUser) {
                 record.setDeletedByGiver(true);
@@ -188,9 +212,14 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
             if (record.isDeletedByGiver() && record.isDeletedByReceiver()) {
                 // Actually delete the record
                 tradeRecordDAO.delete(id);
+                Outbox.publish(Outbox.TRADE_RECORD, id, ChangeType.DELETED, before, null);
+                ChangeFeed.deleted(TradeRecord.class, id);
             } else {
                 // Just update the deletion flags
                 tradeRecordDAO.update(record);
+                Outbox.publish(Outbox.TRADE_RECORD, id, ChangeType.UPDATED, before,
+                        Mapper.mapToTradeRecordReadOnlyDTO(record));
+                ChangeFeed.changed(TradeRecord.class, id);
             }
 
             JPAHelper.commitTransaction();
@@ -228,6 +257,36 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
         }
     }
 
+    @Override
+    public MultiGetResult<TradeRecordReadOnlyDTO> getByIds(List<Long> ids) {
+        try {
+            JPAHelper.beginTransaction();
+            List<Optional<TradeRecord>> records = tradeRecordDAO.getByIds(ids);
+
+            // The pharmacies and users of the records are loaded together,
+            // not one query per reference while mapping
+            Set<Long> pharmacyIds = new HashSet<>();
+            Set<Long> userIds = new HashSet<>();
+            for (Optional<TradeRecord> record : records) {
+                record.ifPresent(r -> {
+                    addId(pharmacyIds, r.getGiver());
+                    addId(pharmacyIds, r.getReceiver());
+                    addId(userIds, r.getRecorder());
+                    addId(userIds, r.getLastModifiedBy());
+                });
+            }
+            pharmacyDAO.getByIds(new ArrayList<>(pharmacyIds));
+            userDAO.getByIds(new ArrayList<>(userIds));
+
+            MultiGetResult<TradeRecordReadOnlyDTO> result =
+                    Mapper.mapToMultiGetResult(ids, records, Mapper::mapToTradeRecordReadOnlyDTO);
+            JPAHelper.commitTransaction();
+            return result;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
     @Override
     public List<TradeRecordReadOnlyDTO> getAll() throws AppServerException{
         try{
@@ -257,20 +316,34 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
                     .orElseThrow(() -> new EntityNotFoundException("Pharmacy",
                             "Pharmacy with id " + pharmacyId + " was not found"));
 
-            // Create criteria map for pagination
-            Map<String, Object> criteria = new HashMap<>();
-            criteria.put("giver.id", pharmacyId);
-            criteria.put("receiver.id", pharmacyId);
+            // The newest trades of each side, criteria are AND-ed so the
+            // pharmacy as giver and as receiver are two queries
+            List<TradeRecord> asGiver = tradeRecordDAO.getByCriteriaPaginated(
+                    TradeRecord.class,
+                    Map.of("giver.id", pharmacyId),
+                    0,
+                    limit,
+                    NEWEST_FIRST
+            );
 
-            // Get records where pharmacy is either giver or receiver, ordered by transaction date
-            List<TradeRecord> tradeRecords = tradeRecordDAO.getByCriteriaPaginated(
+            List<TradeRecord> asReceiver = tradeRecordDAO.getByCriteriaPaginated(
                     TradeRecord.class,
-                    criteria,
-                    0, // page
-                    limit
+                    Map.of("receiver.id", pharmacyId),
+                    0,
+                    limit,
+                    NEWEST_FIRST
             );
 
-            tradeRecords.sort((r1, r2) -> r2.getTransactionDate().compareTo(r1.getTransactionDate()));
+            // Combine the two and keep the newest, a trade with itself is in both
+            Map<Long, TradeRecord> byId = new HashMap<>();
+            asGiver.forEach(record -> byId.put(record.getId(), record));
+            asReceiver.forEach(record -> byId.putIfAbsent(record.getId(), record));
+            List<TradeRecord> tradeRecords = byId.values().stream()
+                    .sorted(Comparator.comparing(TradeRecord::getTransactionDate)
+                            .thenComparing(TradeRecord::getId)
+                            .reversed())
+                    .limit(limit)
+                    .collect(Collectors.toList());
 
             JPAHelper.commitTransaction();
             return Mapper.tradeRecordsToReadOnlyDTOs(tradeRecords);
@@ -345,6 +418,46 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
 
     }
 
+    @Override
+    public List<TradeRecordReadOnlyDTO> getTradesForAudit(Long pharmacyId, LocalDateTime from,
+                                                          LocalDateTime to) throws EntityNotFoundException {
+
+        try {
+            JPAHelper.beginTransaction();
+
+            pharmacyDAO.getById(pharmacyId)
+                    .orElseThrow(() -> new EntityNotFoundException("Pharmacy",
+                            "Pharmacy with id " + pharmacyId + " was not found"));
+
+            Map<String, Object> range = new HashMap<>();
+            if (from != null) range.put("from", from);
+            if (to != null) range.put("to", to);
+
+            List<TradeRecord> allRecords = new ArrayList<>();
+            for (String side : List.of("giver.id", "receiver.id")) {
+                Map<String, Object> criteria = new HashMap<>();
+                criteria.put(side, pharmacyId);
+                if (!range.isEmpty()) criteria.put("transactionDate", range);
+                allRecords.addAll(tradeRecordDAO.getByCriteria(TradeRecord.class, criteria));
+            }
+
+            // Newest first, the id keeps trades of the same instant in order
+            allRecords.sort(Comparator.comparing(TradeRecord::getTransactionDate)
+                    .thenComparing(TradeRecord::getId)
+                    .reversed());
+
+            JPAHelper.commitTransaction();
+            return Mapper.tradeRecordsToReadOnlyDTOs(allRecords);
+
+        } catch (EntityNotFoundException e) {
+            JPAHelper.rollbackTransaction();
+            LOGGER.error("Error fetching audit trades for pharmacy with id={}", pharmacyId, e);
+            throw e;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
     @Override
     public Double calculateBalanceBetweenPharmacies(Long pharmacy1Id, Long pharmacy2Id) throws EntityNotFoundException{
 
@@ -445,22 +558,24 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
                     .orElseThrow(() -> new EntityNotFoundException("Pharmacy",
                             "Pharmacy with id " + pharmacy2Id + " was not found"));
 
-            // Get trades in both directions
+            // Get the newest trades of each direction
             List<TradeRecord> trades1 = tradeRecordDAO.getByCriteriaPaginated(
                     TradeRecord.class,
                     Map.of("giver.id", pharmacy1Id, "receiver.id", pharmacy2Id),
                     0,
-                    limit
+                    limit,
+                    NEWEST_FIRST
             );
 
             List<TradeRecord> trades2 = tradeRecordDAO.getByCriteriaPaginated(
                     TradeRecord.class,
                     Map.of("giver.id", pharmacy2Id, "receiver.id", pharmacy1Id),
                     0,
-                    limit
+                    limit,
+                    NEWEST_FIRST
             );
 
-            // Combine and sort by date
+            // Combine the two and keep the newest
             List<TradeRecord> allTrades = new ArrayList<>();
             allTrades.addAll(trades1);
             allTrades.addAll(trades2);
@@ -503,12 +618,14 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
     }
 
     @Override
-    public List<TradeRecordReadOnlyDTO> getTradeRecordsByCriteriaPaginated(Map<String, Object> criteria, Integer page, Integer size) {
+    public List<TradeRecordReadOnlyDTO> getTradeRecordsByCriteriaPaginated(Map<String, Object> criteria,
+                                                                           Integer page, Integer size,
+                                                                           List<SortOrder> sort) {
         try{
             JPAHelper.beginTransaction();
             List<TradeRecordReadOnlyDTO> readOnlyDTOS =
                     tradeRecordDAO.getByCriteriaPaginated(TradeRecord.class,
-                            criteria, page, size)
+                            criteria, page, size, sort)
                             .stream()
                             .map(Mapper::mapToTradeRecordReadOnlyDTO)
                             .collect(Collectors.toList());
@@ -519,6 +636,38 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
         }
     }
 
+    @Override
+    public List<Map<String, Object>> getTradeRecordFieldsByCriteria(Map<String, Object> criteria, List<String> fields,
+                                                                    Integer page, Integer size, List<SortOrder> sort) {
+        try {
+            JPAHelper.beginTransaction();
+            List<Map<String, Object>> rows = tradeRecordDAO.getFieldsByCriteriaPaginated(criteria,
+                    Mapper.attributesOf(Mapper.TRADE_RECORD_FIELDS, fields), page, size, sort);
+
+            // Records of a shard cannot join the pharmacies and users, their
+            // names are loaded by id from the main database
+            Map<Long, String> pharmacyNames = new HashMap<>();
+            Set<Long> pharmacyIds = referencedIds(rows, fields, "giverName", "giver.id", "receiverName", "receiver.id");
+            for (Optional<Pharmacy> pharmacy : pharmacyDAO.getByIds(new ArrayList<>(pharmacyIds))) {
+                pharmacy.ifPresent(p -> pharmacyNames.put(p.getId(), p.getName()));
+            }
+            Map<Long, String> usernames = new HashMap<>();
+            Set<Long> userIds = referencedIds(rows, fields, "recorderUsername", "recorder.id",
+                    "lastModifiedByUsername", "lastModifiedBy.id");
+            for (Optional<User> user : userDAO.getByIds(new ArrayList<>(userIds))) {
+                user.ifPresent(u -> usernames.put(u.getId(), u.getUsername()));
+            }
+
+            List<Map<String, Object>> values = rows.stream()
+                    .map(row -> Mapper.mapToTradeRecordFields(row, fields, pharmacyNames, usernames))
+                    .collect(Collectors.toList());
+            JPAHelper.commitTransaction();
+            return values;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
     @Override
     public long getTradeRecordsCountByCriteria(Map<String, Object> criteria) {
         try{
@@ -530,4 +679,62 @@ public class TradeRecordServiceImpl implements ITradeRecordService {
             JPAHelper.closeEntityManager();
         }
     }
+
+    @Override
+    public ChangeSetDTO<TradeRecordReadOnlyDTO> getTradeRecordChanges(String since, Long pharmacyId, int limit)
+            throws EntityInvalidArgumentException {
+        try {
+            JPAHelper.beginTransaction();
+
+            // One sequence per database, each read up to the limit
+            long[] sequences = ChangeFeed.parseToken(since, tradeRecordDAO.getDatabaseCount());
+            List<TradeRecord> changed = new ArrayList<>();
+            List<Long> deleted = new ArrayList<>();
+            boolean hasMore = false;
+            for (int database = 0; database < sequences.length; database++) {
+                ChangeFeed.Page<TradeRecord> page = ChangeFeed.page(JPAHelper.getShardEntityManager(database),
+                        TradeRecord.class, sequences[database], limit,
+                        tradeRecordDAO.getChangedSince(database, sequences[database], pharmacyId, limit + 1));
+                changed.addAll(page.changed());
+                deleted.addAll(page.deleted());
+                sequences[database] = page.last();
+                hasMore |= page.more();
+            }
+            List<TradeRecordReadOnlyDTO> readOnlyDTOS = Mapper.tradeRecordsToReadOnlyDTOs(changed);
+
+            JPAHelper.commitTransaction();
+            return new ChangeSetDTO<>(readOnlyDTOS, deleted, ChangeFeed.formatToken(sequences), hasMore);
+        } catch (EntityInvalidArgumentException e) {
+            JPAHelper.rollbackTransaction();
+            LOGGER.error("Error fetching trade record changes since {}", since, e);
+            throw e;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    private static void addId(Set<Long> ids, IdentifiableEntity entity) {
+        if (entity != null) {
+            ids.add(entity.getId());
+        }
+    }
+
+    // The ids in the given attributes of the rows, for the name fields requested.
+    // fieldAttributes pairs a name field with the attribute holding its id
+    private static Set<Long> referencedIds(List<Map<String, Object>> rows, List<String> fields,
+                                           String... fieldAttributes) {
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < fieldAttributes.length; i += 2) {
+            if (!fields.contains(fieldAttributes[i])) {
+                continue;
+            }
+            for (Map<String, Object> row : rows) {
+                Long id = (Long) row.get(fieldAttributes[i + 1]);
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
 }
@@ -1,11 +1,14 @@
 package gr.aueb.cf.phtrade.service;
 
+import gr.aueb.cf.phtrade.core.changes.ChangeFeed;
 import gr.aueb.cf.phtrade.core.exceptions.*;
+import gr.aueb.cf.phtrade.dao.SortOrder;
 import gr.aueb.cf.phtrade.dao.IUserDAO;
 import gr.aueb.cf.phtrade.dto.*;
 import gr.aueb.cf.phtrade.mapper.Mapper;
 import gr.aueb.cf.phtrade.model.Pharmacy;
 import gr.aueb.cf.phtrade.model.PharmacyContact;
+import gr.aueb.cf.phtrade.model.TradeRecord;
 import gr.aueb.cf.phtrade.model.User;
 import gr.aueb.cf.phtrade.service.util.JPAHelper;
 import jakarta.enterprise.context.ApplicationScoped;
@@ -118,12 +121,18 @@ public class UserServiceImpl implements IUserService{
             // Handle related entities before deletion
             // 1. Remove all pharmacy associations
             if (userToDelete.getPharmacies() != null) {
-                new ArrayList<>(userToDelete.getPharmacies()).forEach(userToDelete::removePharmacy);
+                new ArrayList<>(userToDelete.getPharmacies()).forEach(pharmacy -> {
+                    userToDelete.removePharmacy(pharmacy);
+                    ChangeFeed.changed(Pharmacy.class, pharmacy.getId());
+                });
             }
 
             // 2. Remove all contact associations
             if (userToDelete.getContacts() != null) {
-                new ArrayList<>(userToDelete.getContacts()).forEach(userToDelete::removeContact);
+                new ArrayList<>(userToDelete.getContacts()).forEach(contact -> {
+                    userToDelete.removeContact(contact);
+                    ChangeFeed.changed(PharmacyContact.class, contact.getId());
+                });
             }
 
             // 3. Handle trade records where user is recorder
@@ -131,6 +140,7 @@ public class UserServiceImpl implements IUserService{
                 // we shouldn't delete trade records, just nullify the recorder
                 new ArrayList<>(userToDelete.getRecordsRecorder()).forEach(record -> {
                     record.setRecorder(null);
+                    ChangeFeed.changed(TradeRecord.class, record.getId());
                 });
             }
 
@@ -164,6 +174,19 @@ public class UserServiceImpl implements IUserService{
         }
     }
 
+    @Override
+    public MultiGetResult<UserReadOnlyDTO> getUsersByIds(List<Long> ids) {
+        try {
+            JPAHelper.beginTransaction();
+            MultiGetResult<UserReadOnlyDTO> result =
+                    Mapper.mapToMultiGetResult(ids, userDAO.getByIds(ids), Mapper::mapToUserReadOnlyDTO);
+            JPAHelper.commitTransaction();
+            return result;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
     @Override
     public List<UserReadOnlyDTO> getAllUsers() {
         try {
@@ -312,12 +335,12 @@ public class UserServiceImpl implements IUserService{
 
     @Override
     public List<UserReadOnlyDTO> getUsersByCriteriaPaginated
-            (Map<String, Object> criteria, Integer page, Integer size){
+            (Map<String, Object> criteria, Integer page, Integer size, List<SortOrder> sort){
         try{
             JPAHelper.beginTransaction();
             List<UserReadOnlyDTO> readOnlyDTOS =
                     userDAO.getByCriteriaPaginated(User.class,
-                                    criteria, page, size)
+                                    criteria, page, size, sort)
                             .stream()
                             .map(Mapper::mapToUserReadOnlyDTO)
                             .collect(Collectors.toList());
@@ -328,6 +351,23 @@ public class UserServiceImpl implements IUserService{
         }
     }
 
+    @Override
+    public List<Map<String, Object>> getUserFieldsByCriteria(Map<String, Object> criteria, List<String> fields,
+                                                             Integer page, Integer size, List<SortOrder> sort) {
+        try {
+            JPAHelper.beginTransaction();
+            List<Map<String, Object>> rows = userDAO.getFieldsByCriteriaPaginated(criteria,
+                    Mapper.attributesOf(Mapper.USER_FIELDS, fields), page, size, sort);
+            List<Map<String, Object>> values = rows.stream()
+                    .map(row -> Mapper.mapToFields(row, Mapper.USER_FIELDS, fields))
+                    .collect(Collectors.toList());
+            JPAHelper.commitTransaction();
+            return values;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
     @Override
     public long getUsersCountByCriteria(Map<String, Object> criteria){
         try{
@@ -1,51 +1,319 @@
 package gr.aueb.cf.phtrade.service.util;
 
+import gr.aueb.cf.phtrade.core.changes.ChangeFeed;
+import gr.aueb.cf.phtrade.core.jfr.TransactionEvent;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.Persistence;
+import jakarta.persistence.PersistenceException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class JPAHelper {
-    private static EntityManagerFactory emf;
-    private static final ThreadLocal<EntityManager> threadLocal = new ThreadLocal<>();
+    private static final String POOL_SIZE_PROPERTY = "hibernate.hikari.maximumPoolSize";
+    private static final String SHARD_SCHEMA_SCRIPT = "META-INF/sql/trade-shard.sql";
+    private static final long PERMIT_TIMEOUT_MILLIS =
+            Long.getLong("phtrade.db.permitTimeoutMillis", 30_000L);
+
+    private static volatile EntityManagerFactory emf;
+    private static volatile EntityManagerFactory[] shardEmfs;
+    private static volatile Semaphore dbPermits;
+    private static volatile Map<String, Object> propertyOverrides = Collections.emptyMap();
+
+    // Bound only for the span of a unit of work and removed in closeEntityManager(),
+    // so nothing outlives the request on pooled or virtual threads.
+    private static final ThreadLocal<PersistenceContext> context = new ThreadLocal<>();
 
     private JPAHelper() {
 
     }
 
     public static EntityManagerFactory getEntityManagerFactory() {
-        if (emf == null || !emf.isOpen()) {
-            emf = Persistence.createEntityManagerFactory("phtrade7rest");
+        EntityManagerFactory factory = emf;
+        if (factory == null || !factory.isOpen()) {
+            synchronized (JPAHelper.class) {
+                if (emf == null || !emf.isOpen()) {
+                    emf = Persistence.createEntityManagerFactory("phtrade7rest", propertyOverrides);
+                }
+                factory = emf;
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * The factory of a trade record shard. Shards share the mappings and the
+     * pool settings of persistence.xml but only get the trade_records table,
+     * without foreign keys: the pharmacies and users are on another database.
+     */
+    public static EntityManagerFactory getShardEntityManagerFactory(int shard) {
+        EntityManagerFactory[] factories = shardEmfs;
+        if (factories == null || !factories[shard].isOpen()) {
+            synchronized (JPAHelper.class) {
+                if (shardEmfs == null || !shardEmfs[shard].isOpen()) {
+                    EntityManagerFactory[] created = new EntityManagerFactory[ShardRouter.getShardCount()];
+                    for (int i = 0; i < created.length; i++) {
+                        created[i] = Persistence.createEntityManagerFactory("phtrade7rest", shardProperties(i));
+                    }
+                    shardEmfs = created;
+                }
+                factories = shardEmfs;
+            }
+        }
+        return factories[shard];
+    }
+
+    /**
+     * The factories of the databases holding trade records: the shards, or the
+     * main database when sharding is off.
+     */
+    public static List<EntityManagerFactory> getTradeRecordEntityManagerFactories() {
+        if (!ShardRouter.isEnabled()) {
+            return List.of(getEntityManagerFactory());
+        }
+        List<EntityManagerFactory> factories = new ArrayList<>();
+        for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+            factories.add(getShardEntityManagerFactory(shard));
+        }
+        return factories;
+    }
+
+    /**
+     * Replaces properties of persistence.xml, e.g. the JDBC url of an in-memory
+     * database for benchmarks. Must be called before the factory is created.
+     */
+    public static synchronized void setPropertyOverrides(Map<String, ?> overrides) {
+        if ((emf != null && emf.isOpen()) || shardEmfs != null) {
+            throw new IllegalStateException("EntityManagerFactory is already created");
         }
-        return emf;
+        propertyOverrides = Collections.unmodifiableMap(new HashMap<>(overrides));
+        dbPermits = null;
     }
 
     public static EntityManager getEntityManager() {
-        EntityManager em = threadLocal.get();
+        PersistenceContext ctx = currentContext();
+        EntityManager em = ctx.getEntityManager();
         if (em == null || !em.isOpen())  {
             em = getEntityManagerFactory().createEntityManager();
-            threadLocal.set(em);
+            ctx.setEntityManager(em);
+        }
+        return em;
+    }
+
+    /**
+     * The entity manager of a trade record shard, joined to the transaction of
+     * the unit of work if there is one. Without sharding it is the entity
+     * manager of {@link #getEntityManager()}.
+     */
+    public static EntityManager getShardEntityManager(int shard) {
+        if (!ShardRouter.isEnabled()) {
+            return getEntityManager();
+        }
+        PersistenceContext ctx = currentContext();
+        EntityManager em = ctx.getShardEntityManager(shard);
+        if (em == null || !em.isOpen()) {
+            em = getShardEntityManagerFactory(shard).createEntityManager();
+            ctx.setShardEntityManager(shard, em);
+            EntityManager global = ctx.getEntityManager();
+            if (global != null && global.isOpen() && global.getTransaction().isActive()) {
+                em.getTransaction().begin();
+            }
         }
         return em;
     }
 
+    /**
+     * Whether a unit of work is bound to the current thread. Nothing should be
+     * bound between requests, see {@code JwtAuthenticationFilter}.
+     */
+    public static boolean isBound() {
+        return context.get() != null;
+    }
+
     public static void closeEntityManager() {
-        getEntityManager().close();
-        threadLocal.remove();
+        PersistenceContext ctx = context.get();
+        if (ctx == null) {
+            return;
+        }
+        try {
+            for (EntityManager shardEm : ctx.getShardEntityManagers()) {
+                if (shardEm != null && shardEm.isOpen()) {
+                    shardEm.close();
+                }
+            }
+            EntityManager em = ctx.getEntityManager();
+            if (em != null && em.isOpen()) {
+                em.close();
+            }
+        } finally {
+            ChangeFeed.discard();
+            ShardCommitLog.discard();
+            endTransactionEvent(ctx, "closed");
+            if (ctx.isPermitHeld()) {
+                getDbPermits().release();
+            }
+            context.remove();
+        }
     }
 
     public static void beginTransaction() {
+        TransactionEvent event = new TransactionEvent();
+        event.begin();
+        long waitStart = System.nanoTime();
+        acquirePermit();
+        event.permitWait = System.nanoTime() - waitStart;
+        currentContext().setTransactionEvent(event);
         getEntityManager().getTransaction().begin();
     }
 
+    /**
+     * Commits the shards first and the main database last. There is no two-phase
+     * commit: when a commit fails, the transactions not committed yet are rolled
+     * back, but shards committed before it keep their changes. The shards are
+     * the source of truth for trade records, the main database writes that go
+     * with them are logged on the shards and replayed by {@link ShardCommitLog}
+     * after a {@link PartialCommitException}. The change sequences of the unit
+     * of work are taken right before (see {@link ChangeFeed}).
+     */
     public static void commitTransaction() {
-        getEntityManager().getTransaction().commit();
+        PersistenceContext ctx = currentContext();
+        String logged = null;
+        boolean shardCommitted = false;
+        try {
+            logged = ShardCommitLog.write(ChangeFeed.stamp());
+            for (EntityManager shardEm : ctx.getShardEntityManagers()) {
+                if (shardEm != null && shardEm.isOpen() && shardEm.getTransaction().isActive()) {
+                    shardEm.getTransaction().commit();
+                    shardCommitted = true;
+                }
+            }
+        } catch (RuntimeException e) {
+            rollbackShards(ctx);
+            getEntityManager().getTransaction().rollback();
+            throw shardCommitted && logged != null ? new PartialCommitException(logged, e) : e;
+        }
+        try {
+            getEntityManager().getTransaction().commit();
+        } catch (RuntimeException e) {
+            throw logged != null ? new PartialCommitException(logged, e) : e;
+        }
+        endTransactionEvent(ctx, "commit");
     }
 
     public static void rollbackTransaction() {
-        getEntityManager().getTransaction().rollback();
+        try {
+            rollbackShards(currentContext());
+            getEntityManager().getTransaction().rollback();
+        } finally {
+            endTransactionEvent(currentContext(), "rollback");
+        }
+    }
+
+    public static synchronized void closeEMF() {
+        if (shardEmfs != null) {
+            for (EntityManagerFactory shardEmf : shardEmfs) {
+                if (shardEmf.isOpen()) {
+                    shardEmf.close();
+                }
+            }
+            shardEmfs = null;
+        }
+        if (emf != null && emf.isOpen()) {
+            emf.close();
+        }
+    }
+
+    private static void rollbackShards(PersistenceContext ctx) {
+        for (EntityManager shardEm : ctx.getShardEntityManagers()) {
+            if (shardEm != null && shardEm.isOpen() && shardEm.getTransaction().isActive()) {
+                shardEm.getTransaction().rollback();
+            }
+        }
+    }
+
+    private static Map<String, Object> shardProperties(int shard) {
+        ShardRouter.ShardSettings settings = ShardRouter.settings(shard);
+        Map<String, Object> properties = new HashMap<>(propertyOverrides);
+        properties.put("hibernate.hikari.dataSource.url", settings.url());
+        if (settings.user() != null) {
+            properties.put("hibernate.hikari.dataSource.user", settings.user());
+        }
+        if (settings.password() != null) {
+            properties.put("hibernate.hikari.dataSource.password", settings.password());
+        }
+        if (settings.connectionInitSql() != null) {
+            properties.put("hibernate.hikari.connectionInitSql", settings.connectionInitSql());
+        }
+        properties.put("hibernate.hikari.poolName", "phtrade-shard-" + shard);
+        // hbm2ddl would create all tables with foreign keys to the empty
+        // pharmacies and users tables of the shard
+        properties.put("hibernate.hbm2ddl.auto", "none");
+        properties.put("jakarta.persistence.schema-generation.database.action", "create");
+        properties.put("jakarta.persistence.schema-generation.create-source", "script");
+        properties.put("jakarta.persistence.schema-generation.create-script-source", SHARD_SCHEMA_SCRIPT);
+        properties.put("hibernate.hbm2ddl.import_files_sql_extractor",
+                "org.hibernate.tool.schema.internal.script.MultiLineSqlScriptExtractor");
+        return properties;
+    }
+
+    // A unit of work closed without commit or rollback is reported as "closed"
+    private static void endTransactionEvent(PersistenceContext ctx, String outcome) {
+        TransactionEvent event = ctx.getTransactionEvent();
+        if (event == null) {
+            return;
+        }
+        ctx.setTransactionEvent(null);
+        event.outcome = outcome;
+        event.commit();
+    }
+
+    private static PersistenceContext currentContext() {
+        PersistenceContext ctx = context.get();
+        if (ctx == null) {
+            ctx = new PersistenceContext();
+            context.set(ctx);
+        }
+        return ctx;
+    }
+
+    /**
+     * Limits the units of work that run against the database at the same time
+     * to the size of the connection pool. With virtual threads thousands of
+     * requests can be in flight, they wait here instead of inside Hikari.
+     */
+    private static void acquirePermit() {
+        PersistenceContext ctx = currentContext();
+        if (ctx.isPermitHeld()) {
+            return;
+        }
+        try {
+            if (!getDbPermits().tryAcquire(PERMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new PersistenceException("Timed out waiting for database access");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted while waiting for database access", e);
+        }
+        ctx.setPermitHeld(true);
     }
 
-    public static void closeEMF() {
-        emf.close();
+    private static Semaphore getDbPermits() {
+        Semaphore permits = dbPermits;
+        if (permits == null) {
+            synchronized (JPAHelper.class) {
+                if (dbPermits == null) {
+                    Object poolSize = getEntityManagerFactory().getProperties().get(POOL_SIZE_PROPERTY);
+                    dbPermits = new Semaphore(poolSize != null ? Integer.parseInt(poolSize.toString()) : 10, true);
+                }
+                permits = dbPermits;
+            }
+        }
+        return permits;
     }
 }
@@ -0,0 +1,17 @@
+package gr.aueb.cf.phtrade.service.util;
+
+import jakarta.persistence.PersistenceException;
+
+/**
+ * The shards of a unit of work committed but the main database did not. The
+ * trade records are stored and {@link ShardCommitLog} replays the main
+ * database writes that go with them, so the caller must not undo them, e.g.
+ * an idempotency key keeps its claim.
+ */
+public class PartialCommitException extends PersistenceException {
+
+    public PartialCommitException(String commitId, Throwable cause) {
+        super("Unit of work " + commitId + " committed on the shards only, the main database writes are replayed",
+                cause);
+    }
+}
@@ -0,0 +1,59 @@
+package gr.aueb.cf.phtrade.service.util;
+
+import gr.aueb.cf.phtrade.core.jfr.TransactionEvent;
+import jakarta.persistence.EntityManager;
+
+/**
+ * State of one unit of work: the entity manager, the entity managers of the
+ * trade record shards it touched and whether the unit of work holds one of
+ * the database access permits.
+ * It is bound to the executing thread by {@link JPAHelper} only between
+ * the first database access and {@link JPAHelper#closeEntityManager()}.
+ */
+public class PersistenceContext {
+
+    private EntityManager entityManager;
+    private EntityManager[] shardEntityManagers;
+    private boolean permitHeld;
+    private TransactionEvent transactionEvent;
+
+    EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    void setEntityManager(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    EntityManager getShardEntityManager(int shard) {
+        return shardEntityManagers == null ? null : shardEntityManagers[shard];
+    }
+
+    void setShardEntityManager(int shard, EntityManager entityManager) {
+        if (shardEntityManagers == null) {
+            shardEntityManagers = new EntityManager[ShardRouter.getShardCount()];
+        }
+        shardEntityManagers[shard] = entityManager;
+    }
+
+    // Empty until a shard is used
+    EntityManager[] getShardEntityManagers() {
+        return shardEntityManagers == null ? new EntityManager[0] : shardEntityManagers;
+    }
+
+    boolean isPermitHeld() {
+        return permitHeld;
+    }
+
+    void setPermitHeld(boolean permitHeld) {
+        this.permitHeld = permitHeld;
+    }
+
+    TransactionEvent getTransactionEvent() {
+        return transactionEvent;
+    }
+
+    void setTransactionEvent(TransactionEvent transactionEvent) {
+        this.transactionEvent = transactionEvent;
+    }
+}
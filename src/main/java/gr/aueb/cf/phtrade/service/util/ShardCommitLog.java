@@ -0,0 +1,273 @@
+package gr.aueb.cf.phtrade.service.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gr.aueb.cf.phtrade.config.JacksonConfig;
+import gr.aueb.cf.phtrade.core.enums.ChangeType;
+import gr.aueb.cf.phtrade.model.IdempotencyKey;
+import gr.aueb.cf.phtrade.model.OutboxEvent;
+import gr.aueb.cf.phtrade.model.ShardCommit;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings the main database up to the shards after a failed commit. The shards
+ * are the source of truth for trade records: a unit of work commits them
+ * first and the main database last, without two-phase commit, so the main
+ * database writes that belong to the records, their outbox events and the
+ * idempotency response, could be lost after the records committed.
+ * <p>
+ * Those writes are registered here during the unit of work.
+ * {@link JPAHelper#commitTransaction()} stores them in a {@code shard_commits}
+ * row on each shard with changes and writes a row with the same id, without
+ * the writes, on the main database. Every
+ * {@code phtrade.shards.commitLogSweepSeconds} the shard rows older than
+ * {@code phtrade.shards.commitLogGraceSeconds} are read: a row missing on the
+ * main database means its commit failed and the writes are replayed there,
+ * then the shard rows are deleted. Keep the two below
+ * {@code phtrade.idempotency.claimTimeoutMillis}, so a response is back before
+ * the key can be taken over. The main database rows are kept for a day, a
+ * shard unreachable for longer gets its writes replayed twice.
+ */
+public final class ShardCommitLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardCommitLog.class);
+
+    private static final long GRACE_SECONDS =
+            Math.max(1, Long.getLong("phtrade.shards.commitLogGraceSeconds", 30L));
+    private static final long SWEEP_SECONDS =
+            Math.max(1, Long.getLong("phtrade.shards.commitLogSweepSeconds", 10L));
+    private static final long RETENTION_HOURS = 24;
+    private static final int BATCH_SIZE = 500;
+
+    private static final ObjectMapper MAPPER = new JacksonConfig().getContext(ObjectMapper.class);
+
+    // Main database writes of the unit of work running on this thread
+    private static final ThreadLocal<Writes> PENDING = new ThreadLocal<>();
+
+    private static ScheduledExecutorService sweeper;
+
+    private ShardCommitLog() {
+
+    }
+
+    /**
+     * Registers an outbox event persisted on the main database.
+     */
+    public static void outboxEvent(OutboxEvent event) {
+        if (!ShardRouter.isEnabled()) {
+            return;
+        }
+        pending().events().add(new Event(event.getUuid(), event.getAggregateType(), event.getAggregateId(),
+                event.getChangeType(), event.getPayload()));
+    }
+
+    /**
+     * Registers the response stored in an idempotency key on the main
+     * database, the key as it is after the update.
+     */
+    public static void idempotencyResponse(IdempotencyKey key) {
+        if (!ShardRouter.isEnabled()) {
+            return;
+        }
+        pending().responses().add(new Response(key.getScopedKey(), key.getClaimToken(), key.getRequestHash(),
+                key.getResourceId(), key.getResponse(), key.getCreatedAt(), key.getExpiresAt()));
+    }
+
+    /**
+     * Stores the registered writes on the given shards and marks them on the
+     * main database, in the transactions of the unit of work. Called by
+     * {@link JPAHelper#commitTransaction()} right before the shards commit.
+     *
+     * @return the id of the rows, null when nothing was stored
+     */
+    static String write(Set<Integer> shards) {
+        Writes writes = PENDING.get();
+        PENDING.remove();
+        if (writes == null || shards.isEmpty()) {
+            return null;
+        }
+        String json;
+        try {
+            json = MAPPER.writeValueAsString(writes);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Main database writes cannot be logged on the shards", e);
+        }
+        String id = UUID.randomUUID().toString();
+        LocalDateTime now = LocalDateTime.now();
+        for (int shard : shards) {
+            JPAHelper.getShardEntityManager(shard).persist(new ShardCommit(id, now, json));
+        }
+        JPAHelper.getEntityManager().persist(new ShardCommit(id, now, null));
+        return id;
+    }
+
+    /**
+     * Forgets the writes of a unit of work that ends without commit.
+     */
+    static void discard() {
+        PENDING.remove();
+    }
+
+    public static synchronized void start() {
+        if (!ShardRouter.isEnabled() || sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "phtrade-shard-commits");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(ShardCommitLog::sweep, SWEEP_SECONDS, SWEEP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
+    static void sweep() {
+        for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+            try {
+                sweep(shard);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Commit log of shard {} not swept, retrying in {} s", shard, SWEEP_SECONDS, e);
+            }
+        }
+        try {
+            JPAHelper.beginTransaction();
+            JPAHelper.getEntityManager()
+                    .createQuery("delete from ShardCommit c where c.createdAt < :before")
+                    .setParameter("before", LocalDateTime.now().minusHours(RETENTION_HOURS))
+                    .executeUpdate();
+            JPAHelper.commitTransaction();
+        } catch (RuntimeException e) {
+            rollback();
+            LOGGER.warn("Old shard commits not deleted from the main database", e);
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    // The replay commits before the shard rows are deleted, a sweep that
+    // stops in between finds the main rows the next time
+    private static void sweep(int shard) {
+        List<ShardCommit> rows;
+        int replayed = 0;
+        try {
+            JPAHelper.beginTransaction();
+            rows = JPAHelper.getShardEntityManager(shard)
+                    .createQuery("select c from ShardCommit c where c.createdAt < :before order by c.createdAt",
+                            ShardCommit.class)
+                    .setParameter("before", LocalDateTime.now().minusSeconds(GRACE_SECONDS))
+                    .setMaxResults(BATCH_SIZE)
+                    .getResultList();
+            EntityManager em = JPAHelper.getEntityManager();
+            for (ShardCommit row : rows) {
+                if (em.find(ShardCommit.class, row.getId()) == null) {
+                    replay(em, row);
+                    replayed++;
+                }
+            }
+            JPAHelper.commitTransaction();
+        } catch (RuntimeException e) {
+            rollback();
+            throw e;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+        if (replayed > 0) {
+            LOGGER.warn("Replayed the main database writes of {} units of work committed only on shard {}",
+                    replayed, shard);
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            JPAHelper.beginTransaction();
+            JPAHelper.getShardEntityManager(shard)
+                    .createQuery("delete from ShardCommit c where c.id in :ids")
+                    .setParameter("ids", rows.stream().map(ShardCommit::getId).toList())
+                    .executeUpdate();
+            JPAHelper.commitTransaction();
+        } catch (RuntimeException e) {
+            rollback();
+            throw e;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    // The main database row is written with the writes, a second sweep of the
+    // same row fails on its id
+    private static void replay(EntityManager em, ShardCommit row) {
+        Writes writes;
+        try {
+            writes = MAPPER.readValue(row.getWrites(), Writes.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Shard commit " + row.getId() + " cannot be read", e);
+        }
+        for (Event logged : writes.events()) {
+            OutboxEvent event = OutboxEvent.builder()
+                    .aggregateType(logged.aggregateType())
+                    .aggregateId(logged.aggregateId())
+                    .changeType(logged.changeType())
+                    .payload(logged.payload())
+                    .build();
+            event.setUuid(logged.uuid());
+            em.persist(event);
+        }
+        for (Response logged : writes.responses()) {
+            IdempotencyKey key = em.find(IdempotencyKey.class, logged.scopedKey(), LockModeType.PESSIMISTIC_WRITE);
+            if (key == null) {
+                em.persist(new IdempotencyKey(logged.scopedKey(), logged.claimToken(), logged.requestHash(),
+                        logged.resourceId(), logged.response(), logged.createdAt(), logged.expiresAt()));
+            } else if (key.getResponse() == null && key.getClaimToken().equals(logged.claimToken())) {
+                key.setResourceId(logged.resourceId());
+                key.setResponse(logged.response());
+            } else {
+                LOGGER.warn("Idempotency key {} was taken over before its response was replayed",
+                        logged.scopedKey());
+            }
+        }
+        em.persist(new ShardCommit(row.getId(), row.getCreatedAt(), null));
+    }
+
+    private static void rollback() {
+        if (JPAHelper.getEntityManager().getTransaction().isActive()) {
+            JPAHelper.rollbackTransaction();
+        }
+    }
+
+    private static Writes pending() {
+        Writes writes = PENDING.get();
+        if (writes == null) {
+            writes = new Writes(new ArrayList<>(), new ArrayList<>());
+            PENDING.set(writes);
+        }
+        return writes;
+    }
+
+    record Writes(List<Event> events, List<Response> responses) {
+    }
+
+    record Event(String uuid, String aggregateType, Long aggregateId, ChangeType changeType, String payload) {
+    }
+
+    record Response(String scopedKey, String claimToken, String requestHash, Long resourceId, String response,
+                    LocalDateTime createdAt, LocalDateTime expiresAt) {
+    }
+}
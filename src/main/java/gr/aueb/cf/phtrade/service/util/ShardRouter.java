@@ -0,0 +1,97 @@
+package gr.aueb.cf.phtrade.service.util;
+
+import java.util.Map;
+import java.util.OptionalInt;
+
+/**
+ * Decides which database holds a trade record. Records are placed by the
+ * pharmacy pair, so everything two pharmacies traded with each other, in both
+ * directions, lives on one shard. Users, pharmacies and contacts stay on the
+ * database of persistence.xml.
+ * <p>
+ * Sharding is off unless {@code -Dphtrade.shards.count} is greater than 1;
+ * each shard {@code i} then needs {@code -Dphtrade.shards.<i>.url}.
+ */
+public final class ShardRouter {
+
+    private static final int SHARD_COUNT = Math.max(1, Integer.getInteger("phtrade.shards.count", 1));
+
+    private ShardRouter() {
+
+    }
+
+    public static boolean isEnabled() {
+        return SHARD_COUNT > 1;
+    }
+
+    public static int getShardCount() {
+        return SHARD_COUNT;
+    }
+
+    /**
+     * The shard of all trades between two pharmacies, whichever way they went.
+     */
+    public static int shardForPair(long pharmacy1Id, long pharmacy2Id) {
+        long low = Math.min(pharmacy1Id, pharmacy2Id);
+        long high = Math.max(pharmacy1Id, pharmacy2Id);
+        return (int) Math.floorMod(mix(low * 0x9E3779B97F4A7C15L + high), (long) SHARD_COUNT);
+    }
+
+    /**
+     * The shard a trade record id was generated on. Shard {@code i} hands out
+     * the ids {@code i + 1}, {@code i + 1 + count}, ... (see {@link ShardSettings}).
+     */
+    public static int shardForId(long id) {
+        return (int) Math.floorMod(id - 1, (long) SHARD_COUNT);
+    }
+
+    /**
+     * The single shard that can match the criteria of a DAO query, if there is
+     * one: both pharmacies of the pair or the record id are fixed.
+     */
+    public static OptionalInt shardForCriteria(Map<String, Object> criteria) {
+        Object id = criteria.get("id");
+        if (id instanceof Number) {
+            return OptionalInt.of(shardForId(((Number) id).longValue()));
+        }
+        Object giverId = criteria.get("giver.id");
+        Object receiverId = criteria.get("receiver.id");
+        if (giverId instanceof Number && receiverId instanceof Number) {
+            return OptionalInt.of(shardForPair(((Number) giverId).longValue(), ((Number) receiverId).longValue()));
+        }
+        return OptionalInt.empty();
+    }
+
+    public static ShardSettings settings(int shard) {
+        if (shard < 0 || shard >= SHARD_COUNT) {
+            throw new IllegalArgumentException("No shard " + shard + " in " + SHARD_COUNT + " shards");
+        }
+        String prefix = "phtrade.shards." + shard + ".";
+        String url = System.getProperty(prefix + "url");
+        if (url == null || url.isBlank()) {
+            throw new IllegalStateException("-D" + prefix + "url is not set");
+        }
+        // Interleaved auto increments keep ids unique across shards and let
+        // shardForId() find a record from its id alone
+        String initSql = System.getProperty(prefix + "connectionInitSql",
+                "SET SESSION auto_increment_increment=" + SHARD_COUNT
+                        + ", auto_increment_offset=" + (shard + 1));
+        return new ShardSettings(url, System.getProperty(prefix + "user"),
+                System.getProperty(prefix + "password"), initSql.isBlank() ? null : initSql);
+    }
+
+    // splitmix64 finalizer: consecutive ids spread evenly over the shards
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Connection settings of one shard. {@code user} and {@code password} fall back
+     * to persistence.xml when unset; an empty {@code connectionInitSql} turns
+     * the id interleaving off, for databases that are set up with it already.
+     */
+    public record ShardSettings(String url, String user, String password, String connectionInitSql) {
+    }
+}
@@ -1,5 +1,8 @@
 package gr.aueb.cf.phtrade.validator;
 
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
+import gr.aueb.cf.phtrade.core.timing.RequestTimings;
+import gr.aueb.cf.phtrade.dao.SortOrder;
 import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Validation;
 import jakarta.validation.Validator;
@@ -7,7 +10,10 @@ import jakarta.validation.ValidatorFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -29,9 +35,112 @@ public class ValidatorUtil {
     }
 
     public static <T> List<String> validateDTO(T dto) {
-        Set<ConstraintViolation<T>> violations = validator.validate(dto);
-        return violations.stream()
-                .map(ConstraintViolation::getMessage)
+        long start = RequestTimings.start();
+        try {
+            Set<ConstraintViolation<T>> violations = validator.validate(dto);
+            return violations.stream()
+                    .map(ConstraintViolation::getMessage)
+                    .collect(Collectors.toList());
+        } finally {
+            RequestTimings.stop(RequestTimings.Phase.VALIDATION, start);
+        }
+    }
+
+    /**
+     * Parses a comma separated list of ids, e.g. the {@code ids} query
+     * parameter of a multi-get, keeping their order.
+     */
+    public static List<Long> validateIds(String ids, int maxIds) throws EntityInvalidArgumentException {
+        if (ids == null || ids.isBlank()) {
+            throw new EntityInvalidArgumentException("Ids", "At least one id is required");
+        }
+        String[] parts = ids.split(",");
+        if (parts.length > maxIds) {
+            throw new EntityInvalidArgumentException("Ids", "At most " + maxIds + " ids are allowed");
+        }
+        List<Long> parsed = new ArrayList<>(parts.length);
+        for (String part : parts) {
+            try {
+                parsed.add(Long.parseLong(part.trim()));
+            } catch (NumberFormatException e) {
+                throw new EntityInvalidArgumentException("Ids", "Invalid id " + part);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Checks the {@code page} and {@code size} of a list. A page ending after
+     * {@code maxDepth} rows is rejected too: lists merged from several tables
+     * read every row before the page from each of them.
+     */
+    public static void validatePage(int page, int size, int maxSize, int maxDepth)
+            throws EntityInvalidArgumentException {
+        if (page < 0) {
+            throw new EntityInvalidArgumentException("PageInvalidNumber", "Invalid page number");
+        }
+        if (size <= 0 || size > maxSize) {
+            throw new EntityInvalidArgumentException("SizeInvalidNumber",
+                    "Size must be between 1 and " + maxSize);
+        }
+        // long arithmetic, a large page cannot overflow
+        if (((long) page + 1) * size > maxDepth) {
+            throw new EntityInvalidArgumentException("PageInvalidNumber",
+                    "Pages end within the first " + maxDepth + " records, narrow the filter instead");
+        }
+    }
+
+    /**
+     * Parses the {@code fields} query parameter, a comma separated list of
+     * fields of the catalogue (see {@code Mapper.TRADE_RECORD_FIELDS}). The
+     * fields are returned in the order of the catalogue, null when the
+     * parameter is missing, so the whole DTO is returned.
+     */
+    public static List<String> validateFields(String fields, Map<String, String> catalogue)
+            throws EntityInvalidArgumentException {
+        if (fields == null || fields.isBlank()) {
+            return null;
+        }
+        Set<String> requested = new HashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!catalogue.containsKey(name)) {
+                throw new EntityInvalidArgumentException("Fields", "Unknown field " + name
+                        + ", expected one of " + String.join(",", catalogue.keySet()));
+            }
+            requested.add(name);
+        }
+        return catalogue.keySet().stream()
+                .filter(requested::contains)
                 .collect(Collectors.toList());
     }
+
+    /**
+     * Parses the {@code sort} query parameter, a comma separated list of
+     * fields of the catalogue (see {@code Mapper.TRADE_RECORD_SORTS}), each
+     * descending when prefixed with "-", e.g. {@code -transactionDate,id}.
+     * Empty when the parameter is missing, so the default order is used.
+     */
+    public static List<SortOrder> validateSort(String sort, Map<String, String> catalogue)
+            throws EntityInvalidArgumentException {
+        List<SortOrder> order = new ArrayList<>();
+        if (sort == null || sort.isBlank()) {
+            return order;
+        }
+        Set<String> seen = new HashSet<>();
+        for (String field : sort.split(",")) {
+            String name = field.trim();
+            boolean ascending = !name.startsWith("-");
+            name = ascending ? name : name.substring(1);
+            if (!catalogue.containsKey(name)) {
+                throw new EntityInvalidArgumentException("Sort", "Cannot sort by " + name
+                        + ", expected one of " + String.join(",", catalogue.keySet()));
+            }
+            if (!seen.add(name)) {
+                throw new EntityInvalidArgumentException("Sort", "Sort field " + name + " is repeated");
+            }
+            order.add(new SortOrder(catalogue.get(name), ascending));
+        }
+        return order;
+    }
 }
@@ -0,0 +1,48 @@
+-- Schema of a trade record shard, run when the shard's EntityManagerFactory is
+-- created (see JPAHelper). The columns match TradeRecord; the pharmacy and user
+-- ids point to the main database, so there are no foreign keys.
+CREATE TABLE IF NOT EXISTS trade_records (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    amount FLOAT(53) NOT NULL,
+    created_at DATETIME(6) NOT NULL,
+    deleted_by_giver BIT NOT NULL,
+    deleted_by_receiver BIT NOT NULL,
+    description VARCHAR(255) NOT NULL,
+    transaction_date DATETIME(6) NOT NULL,
+    updated_at DATETIME(6),
+    uuid VARCHAR(36) NOT NULL,
+    giver_id BIGINT,
+    last_modified_by BIGINT,
+    receiver_id BIGINT,
+    recorder_id BIGINT,
+    change_seq BIGINT,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_trade_records_uuid (uuid),
+    KEY idx_trade_records_pair (giver_id, receiver_id),
+    KEY idx_trade_records_receiver (receiver_id, giver_id),
+    KEY idx_trade_records_date (transaction_date),
+    KEY idx_trade_records_change_seq (change_seq)
+);
+-- Change feed of the shard's records (see ChangeFeed)
+CREATE TABLE IF NOT EXISTS change_sequences (
+    name VARCHAR(64) NOT NULL,
+    last_value BIGINT NOT NULL,
+    PRIMARY KEY (name)
+);
+CREATE TABLE IF NOT EXISTS change_tombstones (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    change_seq BIGINT NOT NULL,
+    deleted_at DATETIME(6) NOT NULL,
+    entity_id BIGINT NOT NULL,
+    entity_type VARCHAR(64) NOT NULL,
+    PRIMARY KEY (id),
+    KEY idx_change_tombstones_seq (entity_type, change_seq)
+);
+-- Main database writes of the units of work that changed the shard (see ShardCommitLog)
+CREATE TABLE IF NOT EXISTS shard_commits (
+    id VARCHAR(36) NOT NULL,
+    created_at DATETIME(6) NOT NULL,
+    writes LONGTEXT,
+    PRIMARY KEY (id),
+    KEY idx_shard_commits_created (created_at)
+);
@@ -0,0 +1,42 @@
+package gr.aueb.cf.phtrade.perf;
+
+import gr.aueb.cf.phtrade.core.ratelimit.ClientAddressListener;
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+
+/**
+ * The Jersey application on an embedded Jetty, mapped to {@code /api/*} like
+ * the deployed war. Resources and providers are found by package scanning.
+ */
+public class EmbeddedServer {
+
+    private final Server server;
+
+    public EmbeddedServer(int port) {
+        ResourceConfig resourceConfig = new ResourceConfig().packages(true, "gr.aueb.cf.phtrade");
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        // Registered by @WebListener scanning in the war
+        context.addEventListener(new ClientAddressListener());
+        context.addServlet(new ServletHolder(new ServletContainer(resourceConfig)), "/api/*");
+
+        server = new Server(port);
+        server.setHandler(context);
+    }
+
+    public void start() throws Exception {
+        server.start();
+    }
+
+    public int getPort() {
+        return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    public void stop() throws Exception {
+        server.stop();
+    }
+}
@@ -0,0 +1,79 @@
+package gr.aueb.cf.phtrade.perf;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of a harness run, given as {@code key=value} arguments.
+ *
+ * @param rate          arrivals per second, independent of how fast responses come back
+ * @param duration      measured seconds
+ * @param warmup        seconds of traffic before measuring starts
+ * @param concurrency   requests in flight at most; arrivals beyond it queue and the wait counts as latency
+ * @param pharmacies    seeded pharmacies, each with its own user
+ * @param trades        seeded trade records
+ * @param mix           operation weights, e.g. {@code login:5,create:15,balance:30,paginated:50}
+ * @param seed          random seed of data and traffic
+ * @param report        JSON report file, not written when empty
+ */
+public record HarnessConfig(
+        int rate,
+        int duration,
+        int warmup,
+        int concurrency,
+        int pharmacies,
+        int trades,
+        Map<Operation, Integer> mix,
+        long seed,
+        String report
+) {
+
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "rate", "100",
+            "duration", "60",
+            "warmup", "10",
+            "concurrency", "64",
+            "pharmacies", "50",
+            "trades", "5000",
+            "mix", "login:5,create:15,balance:30,paginated:50",
+            "seed", "42",
+            "report", "");
+
+    public static HarnessConfig parse(String[] args) {
+        Map<String, String> values = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            // Maven passes perf.args as a single argument
+            for (String pair : arg.trim().split("\\s+")) {
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                int eq = pair.indexOf('=');
+                if (eq < 0 || !DEFAULTS.containsKey(pair.substring(0, eq))) {
+                    throw new IllegalArgumentException("Unknown argument " + pair + ", expected one of "
+                            + DEFAULTS.keySet());
+                }
+                values.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+        return new HarnessConfig(
+                Integer.parseInt(values.get("rate")),
+                Integer.parseInt(values.get("duration")),
+                Integer.parseInt(values.get("warmup")),
+                Integer.parseInt(values.get("concurrency")),
+                Integer.parseInt(values.get("pharmacies")),
+                Integer.parseInt(values.get("trades")),
+                parseMix(values.get("mix")),
+                Long.parseLong(values.get("seed")),
+                values.get("report"));
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            weights.put(Operation.fromKey(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,54 @@
+package gr.aueb.cf.phtrade.perf;
+
+import java.util.Arrays;
+
+/**
+ * Every latency of one operation, kept exactly so the tail percentiles are not
+ * an artifact of bucketing. A 10 minute run at 1000 req/s is under 5 MB.
+ */
+public class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private int errors;
+
+    public synchronized void record(long nanos, boolean error) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+        if (error) {
+            errors++;
+        }
+    }
+
+    public synchronized Summary summarize(double seconds) {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return new Summary(count, errors, count / seconds,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                sorted.length == 0 ? 0 : toMillis(sorted[sorted.length - 1]));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return toMillis(sorted[Math.max(0, index)]);
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    public record Summary(
+            int count,
+            int errors,
+            double throughput,
+            double p50Millis,
+            double p99Millis,
+            double p999Millis,
+            double maxMillis
+    ) {}
+}
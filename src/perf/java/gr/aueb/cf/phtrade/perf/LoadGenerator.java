@@ -0,0 +1,123 @@
+package gr.aueb.cf.phtrade.perf;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop traffic: requests are scheduled at a fixed arrival rate whether or
+ * not earlier ones have finished. Latency is measured from the scheduled start,
+ * so time spent queued behind slow requests counts (no coordinated omission).
+ */
+public class LoadGenerator {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private final HarnessConfig config;
+    private final String baseUri;
+    private final List<PerfDatabase.SeededUser> users;
+    private final Map<String, String> tokens;
+    private final HttpClient client;
+    private final Map<Operation, LatencyRecorder> recorders = new EnumMap<>(Operation.class);
+    private final Operation[] schedule;
+    private final AtomicLong tradeCounter = new AtomicLong();
+
+    public LoadGenerator(HarnessConfig config, String baseUri, List<PerfDatabase.SeededUser> users,
+                         Map<String, String> tokens, HttpClient client) {
+        this.config = config;
+        this.baseUri = baseUri;
+        this.users = users;
+        this.tokens = tokens;
+        this.client = client;
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new LatencyRecorder());
+        }
+        // One slot per unit of weight, so picking an operation is a single random index
+        schedule = config.mix().entrySet().stream()
+                .flatMap(e -> Collections.nCopies(e.getValue(), e.getKey()).stream())
+                .toArray(Operation[]::new);
+    }
+
+    public Map<Operation, LatencyRecorder> run() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(config.concurrency());
+        Random random = new Random(config.seed());
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.rate();
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(config.warmup());
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(config.duration());
+
+        for (long i = 0; ; i++) {
+            long intended = start + i * intervalNanos;
+            if (intended >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = schedule[random.nextInt(schedule.length)];
+            PerfDatabase.SeededUser user = users.get(random.nextInt(users.size()));
+            long partner = user.partnerPharmacyIds().get(random.nextInt(user.partnerPharmacyIds().size()));
+            int page = random.nextInt(10);
+            boolean measured = intended >= measureFrom;
+            workers.execute(() -> {
+                boolean error;
+                try {
+                    HttpResponse<String> response = client.send(request(operation, user, partner, page),
+                            HttpResponse.BodyHandlers.ofString());
+                    error = response.statusCode() >= 400;
+                } catch (Exception e) {
+                    error = true;
+                }
+                if (measured) {
+                    recorders.get(operation).record(System.nanoTime() - intended, error);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(5, TimeUnit.MINUTES);
+        return recorders;
+    }
+
+    private HttpRequest request(Operation operation, PerfDatabase.SeededUser user, long partner, int page) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().timeout(Duration.ofSeconds(30));
+        switch (operation) {
+            case LOGIN -> builder.uri(URI.create(baseUri + "/api/auth/login"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"" + user.username()
+                            + "\",\"password\":\"" + PerfDatabase.PASSWORD + "\"}"));
+            case CREATE_TRADE -> builder.uri(URI.create(baseUri + "/api/records"))
+                    .header("Content-Type", "application/json")
+                    .header("Authorization", "Bearer " + tokens.get(user.username()))
+                    .POST(HttpRequest.BodyPublishers.ofString("{"
+                            + "\"description\":\"Load trade " + tradeCounter.incrementAndGet() + "\","
+                            + "\"amount\":" + (1 + page * 7.5) + ","
+                            + "\"transactionDate\":\"" + LocalDateTime.now().minusHours(1).format(DATE_FORMAT) + "\","
+                            + "\"giverPharmacyId\":" + user.pharmacyId() + ","
+                            + "\"receiverPharmacyId\":" + partner + ","
+                            + "\"recorderUserId\":" + user.userId() + "}"));
+            case BALANCE_LIST -> builder.uri(URI.create(baseUri + "/api/pharmacies/balance/" + user.pharmacyId()))
+                    .header("Authorization", "Bearer " + tokens.get(user.username()))
+                    .GET();
+            case PAGINATED_RECORDS -> builder.uri(URI.create(baseUri + "/api/records/paginated?page=" + page
+                            + "&size=20"))
+                    .header("Authorization", "Bearer " + tokens.get(user.username()))
+                    .GET();
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,113 @@
+package gr.aueb.cf.phtrade.perf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Boots the application on an embedded server against a seeded in-memory
+ * database and drives a mixed workload at it. For example:
+ * <pre>
+ * mvn -Pperf verify -Dperf.args="rate=300 duration=120 concurrency=128 pharmacies=200 trades=50000"
+ * </pre>
+ * Prints throughput and p50/p99/p99.9 per endpoint, and writes them as JSON
+ * when {@code report} is set.
+ */
+public class LoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        HarnessConfig config = HarnessConfig.parse(args);
+        // Every request comes from localhost, per-IP limits would throttle the run itself
+        System.setProperty("phtrade.ratelimit.enabled", "false");
+
+        PerfDatabase.configure();
+        System.out.printf("Seeding %d pharmacies and %d trades%n", config.pharmacies(), config.trades());
+        List<PerfDatabase.SeededUser> users = PerfDatabase.seed(config.pharmacies(), config.trades(), config.seed());
+
+        EmbeddedServer server = new EmbeddedServer(0);
+        server.start();
+        String baseUri = "http://localhost:" + server.getPort();
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        try {
+            awaitReady(client, baseUri);
+            Map<String, String> tokens = login(client, baseUri, users);
+
+            System.out.printf("Driving %d req/s for %ds after %ds warm-up, %d in flight at most%n",
+                    config.rate(), config.duration(), config.warmup(), config.concurrency());
+            Map<Operation, LatencyRecorder> results =
+                    new LoadGenerator(config, baseUri, users, tokens, client).run();
+            report(config, results);
+        } finally {
+            server.stop();
+            JPAHelper.closeEMF();
+        }
+    }
+
+    private static void awaitReady(HttpClient client, String baseUri) throws Exception {
+        HttpRequest ready = HttpRequest.newBuilder(URI.create(baseUri + "/api/health/ready")).GET().build();
+        for (int attempt = 0; attempt < 120; attempt++) {
+            if (client.send(ready, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                return;
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Application did not become ready");
+    }
+
+    private static Map<String, String> login(HttpClient client, String baseUri,
+                                             List<PerfDatabase.SeededUser> users) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, String> tokens = new HashMap<>();
+        for (PerfDatabase.SeededUser user : users) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUri + "/api/auth/login"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"" + user.username()
+                            + "\",\"password\":\"" + PerfDatabase.PASSWORD + "\"}"))
+                    .build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Login of " + user.username() + " failed: " + response.body());
+            }
+            tokens.put(user.username(), objectMapper.readTree(response.body()).get("token").asText());
+        }
+        return tokens;
+    }
+
+    private static void report(HarnessConfig config, Map<Operation, LatencyRecorder> results) throws Exception {
+        Map<String, LatencyRecorder.Summary> summaries = new LinkedHashMap<>();
+        System.out.printf("%n%-34s %8s %7s %9s %9s %9s %9s %9s%n",
+                "endpoint", "count", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Map.Entry<Operation, LatencyRecorder> entry : results.entrySet()) {
+            LatencyRecorder.Summary summary = entry.getValue().summarize(config.duration());
+            if (summary.count() == 0) {
+                continue;
+            }
+            summaries.put(entry.getKey().getEndpoint(), summary);
+            System.out.printf("%-34s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n",
+                    entry.getKey().getEndpoint(), summary.count(), summary.errors(), summary.throughput(),
+                    summary.p50Millis(), summary.p99Millis(), summary.p999Millis(), summary.maxMillis());
+        }
+        if (!config.report().isEmpty()) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("config", config);
+            report.put("results", summaries);
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                    .writeValue(new File(config.report()), report);
+            System.out.println("Report written to " + config.report());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package gr.aueb.cf.phtrade.perf;
+
+/**
+ * The requests of the traffic mix.
+ */
+public enum Operation {
+    LOGIN("login", "POST /api/auth/login"),
+    CREATE_TRADE("create", "POST /api/records"),
+    BALANCE_LIST("balance", "GET /api/pharmacies/balance/{id}"),
+    PAGINATED_RECORDS("paginated", "GET /api/records/paginated");
+
+    private final String key;
+    private final String endpoint;
+
+    Operation(String key, String endpoint) {
+        this.key = key;
+        this.endpoint = endpoint;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public static Operation fromKey(String key) {
+        for (Operation operation : values()) {
+            if (operation.key.equals(key)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation " + key);
+    }
+}
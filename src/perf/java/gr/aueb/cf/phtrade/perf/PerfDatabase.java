@@ -0,0 +1,120 @@
+package gr.aueb.cf.phtrade.perf;
+
+import gr.aueb.cf.phtrade.core.enums.RoleType;
+import gr.aueb.cf.phtrade.model.Pharmacy;
+import gr.aueb.cf.phtrade.model.PharmacyContact;
+import gr.aueb.cf.phtrade.model.TradeRecord;
+import gr.aueb.cf.phtrade.model.User;
+import gr.aueb.cf.phtrade.security.SecUtil;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import jakarta.persistence.EntityManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * In-memory H2 in MySQL mode, seeded through JPA before the server starts.
+ * A few hub pharmacies have every other pharmacy as a contact, the rest
+ * only the hubs and a couple of neighbours.
+ */
+public class PerfDatabase {
+
+    public static final String PASSWORD = "loadtest";
+
+    public static void configure() {
+        JPAHelper.setPropertyOverrides(Map.of(
+                "hibernate.hikari.dataSourceClassName", "org.h2.jdbcx.JdbcDataSource",
+                "hibernate.hikari.dataSource.url",
+                "jdbc:h2:mem:phtrade;MODE=MySQL;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE",
+                "hibernate.hikari.dataSource.user", "sa",
+                "hibernate.hikari.dataSource.password", "",
+                "hibernate.hbm2ddl.auto", "create-drop"));
+    }
+
+    public static List<SeededUser> seed(int pharmacies, int trades, long seed) {
+        Random random = new Random(seed);
+        String passwordHash = SecUtil.hashPassword(PASSWORD);
+        int hubs = Math.max(1, pharmacies / 20);
+        List<User> users = new ArrayList<>();
+        List<Pharmacy> pharmacyList = new ArrayList<>();
+        List<List<Long>> partners = new ArrayList<>();
+
+        try {
+            JPAHelper.beginTransaction();
+            EntityManager em = JPAHelper.getEntityManager();
+
+            for (int i = 0; i < pharmacies; i++) {
+                User user = User.builder()
+                        .username("user" + i)
+                        .password(passwordHash)
+                        .email("user" + i + "@phtrade.gr")
+                        .roleType(RoleType.PHARMACY_USER)
+                        .build();
+                em.persist(user);
+                Pharmacy pharmacy = Pharmacy.builder().name("Pharmacy " + i).user(user).build();
+                em.persist(pharmacy);
+                users.add(user);
+                pharmacyList.add(pharmacy);
+                partners.add(new ArrayList<>());
+            }
+
+            for (int i = 0; i < pharmacies; i++) {
+                for (int j = 0; j < pharmacies; j++) {
+                    boolean hubLink = i < hubs || j < hubs;
+                    boolean neighbour = Math.abs(i - j) <= 2;
+                    if (i != j && (hubLink || neighbour)) {
+                        em.persist(PharmacyContact.builder()
+                                .user(users.get(i))
+                                .pharmacy(pharmacyList.get(j))
+                                .contactName("Contact " + j)
+                                .build());
+                        partners.get(i).add(pharmacyList.get(j).getId());
+                    }
+                }
+            }
+            em.flush();
+            em.clear();
+
+            for (int t = 0; t < trades; t++) {
+                // Most trades go through a hub
+                int giver = random.nextInt(10) < 6 ? random.nextInt(hubs) : random.nextInt(pharmacies);
+                List<Long> giverPartners = partners.get(giver);
+                Long receiverId = giverPartners.get(random.nextInt(giverPartners.size()));
+                User recorder = em.getReference(User.class, users.get(giver).getId());
+                em.persist(TradeRecord.builder()
+                        .description("Seed trade " + t)
+                        .amount(1 + random.nextInt(50_000) / 100.0)
+                        .giver(em.getReference(Pharmacy.class, pharmacyList.get(giver).getId()))
+                        .receiver(em.getReference(Pharmacy.class, receiverId))
+                        .recorder(recorder)
+                        .lastModifiedBy(recorder)
+                        .transactionDate(LocalDateTime.now().minusMinutes(random.nextInt(525_600)))
+                        .build());
+                if (t % 500 == 499) {
+                    em.flush();
+                    em.clear();
+                }
+            }
+            JPAHelper.commitTransaction();
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+
+        List<SeededUser> seeded = new ArrayList<>();
+        for (int i = 0; i < pharmacies; i++) {
+            seeded.add(new SeededUser(users.get(i).getUsername(), users.get(i).getId(),
+                    pharmacyList.get(i).getId(), List.copyOf(partners.get(i))));
+        }
+        return seeded;
+    }
+
+    public record SeededUser(
+            String username,
+            Long userId,
+            Long pharmacyId,
+            List<Long> partnerPharmacyIds
+    ) {}
+}
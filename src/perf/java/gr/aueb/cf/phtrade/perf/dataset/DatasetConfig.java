@@ -0,0 +1,85 @@
+package gr.aueb.cf.phtrade.perf.dataset;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings of a generator run, given as {@code key=value} arguments.
+ *
+ * @param url          JDBC url of the target database, the tables must be empty
+ * @param user         database user
+ * @param password     database password
+ * @param createSchema create the tables from the entity mappings first
+ * @param pharmacies   pharmacies, each with its own user
+ * @param trades       trade records
+ * @param hubShare     fraction of pharmacies that are hubs
+ * @param hubPartners  partners of the busiest hub, the other hubs follow a power law below it
+ * @param tailPartners partners of a long-tail pharmacy
+ * @param seed         same seed and sizes give the same rows
+ * @param endDate      latest transaction date, trades spread over the two years before it
+ * @param batchSize    rows per JDBC batch
+ * @param threads      parallel trade writers
+ */
+public record DatasetConfig(
+        String url,
+        String user,
+        String password,
+        boolean createSchema,
+        int pharmacies,
+        long trades,
+        double hubShare,
+        int hubPartners,
+        int tailPartners,
+        long seed,
+        LocalDateTime endDate,
+        int batchSize,
+        int threads
+) {
+
+    private static final Map<String, String> DEFAULTS = Map.ofEntries(
+            Map.entry("url", "jdbc:mysql://localhost:3306/phtrade7rest?serverTimezone=UTC&rewriteBatchedStatements=true"),
+            Map.entry("user", "user7pro"),
+            Map.entry("password", "12345"),
+            Map.entry("createSchema", "false"),
+            Map.entry("pharmacies", "1000"),
+            Map.entry("trades", "1000000"),
+            Map.entry("hubShare", "0.01"),
+            Map.entry("hubPartners", "400"),
+            Map.entry("tailPartners", "4"),
+            Map.entry("seed", "42"),
+            Map.entry("endDate", "2026-01-01T00:00:00"),
+            Map.entry("batchSize", "5000"),
+            Map.entry("threads", "4"));
+
+    public static DatasetConfig parse(String[] args) {
+        Map<String, String> values = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            for (String pair : arg.trim().split("\\s+")) {
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                int eq = pair.indexOf('=');
+                if (eq < 0 || !DEFAULTS.containsKey(pair.substring(0, eq))) {
+                    throw new IllegalArgumentException("Unknown argument " + pair + ", expected one of "
+                            + DEFAULTS.keySet());
+                }
+                values.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+        return new DatasetConfig(
+                values.get("url"),
+                values.get("user"),
+                values.get("password"),
+                Boolean.parseBoolean(values.get("createSchema")),
+                Integer.parseInt(values.get("pharmacies")),
+                Long.parseLong(values.get("trades")),
+                Double.parseDouble(values.get("hubShare")),
+                Integer.parseInt(values.get("hubPartners")),
+                Integer.parseInt(values.get("tailPartners")),
+                Long.parseLong(values.get("seed")),
+                LocalDateTime.parse(values.get("endDate")),
+                Integer.parseInt(values.get("batchSize")),
+                Integer.parseInt(values.get("threads")));
+    }
+}
@@ -0,0 +1,254 @@
+package gr.aueb.cf.phtrade.perf.dataset;
+
+import gr.aueb.cf.phtrade.security.SecUtil;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills an empty database with users, pharmacies, contacts and trade records
+ * through JDBC batches, bypassing the services. Rows depend only on the seed and
+ * the sizes: trades are generated in fixed chunks, each with its own random
+ * derived from the seed, so the thread count does not change the output.
+ * <pre>
+ * mvn -Pperf test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=gr.aueb.cf.phtrade.perf.dataset.DatasetGenerator \
+ *     -Dexec.args="pharmacies=10000 trades=50000000 threads=8"
+ * </pre>
+ * Every user's password is {@value #PASSWORD}; user0 is an admin.
+ */
+public class DatasetGenerator {
+
+    public static final String PASSWORD = "password";
+
+    private static final int CHUNK_SIZE = 1_000_000;
+    private static final long TWO_YEARS_MINUTES = 2L * 365 * 24 * 60;
+    private static final String[] PRODUCTS = {
+            "Depon 500mg", "Augmentin 1g", "Ponstan 500mg", "Zantac 150mg", "Lexotanil 3mg",
+            "Aspirin 100mg", "Nurofen 400mg", "Xanax 0.5mg", "Voltaren gel", "Amoxil 500mg"
+    };
+
+    private final DatasetConfig config;
+    private final TradeGraph graph;
+    private final AtomicLong written = new AtomicLong();
+
+    public DatasetGenerator(DatasetConfig config) {
+        this.config = config;
+        this.graph = new TradeGraph(config);
+    }
+
+    public static void main(String[] args) throws Exception {
+        DatasetConfig config = DatasetConfig.parse(args);
+        if (config.createSchema()) {
+            createSchema(config);
+        }
+        new DatasetGenerator(config).generate();
+    }
+
+    public void generate() throws Exception {
+        long started = System.nanoTime();
+        try (Connection connection = connect()) {
+            requireEmpty(connection);
+            insertUsersAndPharmacies(connection);
+            insertContacts(connection);
+        }
+        System.out.printf("%d pharmacies, %d trades to write%n", graph.size(), config.trades());
+
+        ExecutorService writers = Executors.newFixedThreadPool(config.threads());
+        List<Future<?>> chunks = new ArrayList<>();
+        for (long from = 0; from < config.trades(); from += CHUNK_SIZE) {
+            long chunkFrom = from;
+            long chunkTo = Math.min(config.trades(), from + CHUNK_SIZE);
+            chunks.add(writers.submit(() -> {
+                insertTrades(chunkFrom, chunkTo);
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> chunk : chunks) {
+                chunk.get();
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+        System.out.printf("Done in %ds%n", (System.nanoTime() - started) / 1_000_000_000L);
+    }
+
+    private void insertUsersAndPharmacies(Connection connection) throws SQLException {
+        SplittableRandom random = new SplittableRandom(config.seed() ^ 0x5EED_05E5L);
+        String passwordHash = SecUtil.hashPassword(PASSWORD);
+        Timestamp createdAt = Timestamp.valueOf(config.endDate().minusYears(2));
+        try (PreparedStatement users = connection.prepareStatement(
+                "INSERT INTO users (id, username, password, email, role, created_at, updated_at, uuid) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement pharmacies = connection.prepareStatement(
+                     "INSERT INTO pharmacies (id, name, user_id, created_at, updated_at, uuid) "
+                             + "VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < graph.size(); i++) {
+                long id = i + 1L;
+                users.setLong(1, id);
+                users.setString(2, "user" + i);
+                users.setString(3, passwordHash);
+                users.setString(4, "user" + i + "@phtrade.gr");
+                users.setString(5, i == 0 ? "ADMIN" : "PHARMACY_USER");
+                users.setTimestamp(6, createdAt);
+                users.setTimestamp(7, createdAt);
+                users.setString(8, uuid(random));
+                users.addBatch();
+
+                pharmacies.setLong(1, id);
+                pharmacies.setString(2, "Pharmacy " + i);
+                pharmacies.setLong(3, id);
+                pharmacies.setTimestamp(4, createdAt);
+                pharmacies.setTimestamp(5, createdAt);
+                pharmacies.setString(6, uuid(random));
+                pharmacies.addBatch();
+
+                if (i % config.batchSize() == config.batchSize() - 1) {
+                    users.executeBatch();
+                    pharmacies.executeBatch();
+                    connection.commit();
+                }
+            }
+            users.executeBatch();
+            pharmacies.executeBatch();
+            connection.commit();
+        }
+    }
+
+    // Each pharmacy's user has a contact for every partner pharmacy
+    private void insertContacts(Connection connection) throws SQLException {
+        SplittableRandom random = new SplittableRandom(config.seed() ^ 0xC0_47AC_75L);
+        Timestamp createdAt = Timestamp.valueOf(config.endDate().minusYears(2));
+        long id = 1;
+        try (PreparedStatement contacts = connection.prepareStatement(
+                "INSERT INTO pharmacy_contacts (id, user_id, pharmacy_id, contactName, created_at, updated_at, uuid) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < graph.size(); i++) {
+                for (int partner : graph.partnersOf(i)) {
+                    contacts.setLong(1, id);
+                    contacts.setLong(2, i + 1L);
+                    contacts.setLong(3, partner + 1L);
+                    contacts.setString(4, "Pharmacy " + partner);
+                    contacts.setTimestamp(5, createdAt);
+                    contacts.setTimestamp(6, createdAt);
+                    contacts.setString(7, uuid(random));
+                    contacts.addBatch();
+                    if (id++ % config.batchSize() == 0) {
+                        contacts.executeBatch();
+                        connection.commit();
+                    }
+                }
+            }
+            contacts.executeBatch();
+            connection.commit();
+        }
+    }
+
+    private void insertTrades(long from, long to) throws SQLException {
+        SplittableRandom random = new SplittableRandom(config.seed() * 31 + from / CHUNK_SIZE);
+        try (Connection connection = connect();
+             PreparedStatement trades = connection.prepareStatement(
+                     "INSERT INTO trade_records (id, description, amount, giver_id, receiver_id, recorder_id, "
+                             + "last_modified_by, deleted_by_giver, deleted_by_receiver, transaction_date, "
+                             + "created_at, updated_at, uuid) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (long t = from; t < to; t++) {
+                int pharmacy = graph.pickActive(random);
+                int[] partners = graph.partnersOf(pharmacy);
+                int partner = partners[random.nextInt(partners.length)];
+                boolean gives = random.nextBoolean();
+                long giverId = (gives ? pharmacy : partner) + 1L;
+                long receiverId = (gives ? partner : pharmacy) + 1L;
+                // Mostly recorded by the giver
+                long recorderId = random.nextInt(5) > 0 ? giverId : receiverId;
+                Timestamp date = Timestamp.valueOf(config.endDate()
+                        .minusMinutes(random.nextLong(TWO_YEARS_MINUTES)));
+
+                trades.setLong(1, t + 1);
+                trades.setString(2, PRODUCTS[random.nextInt(PRODUCTS.length)] + " x" + (1 + random.nextInt(20)));
+                // Many small amounts, a few large ones
+                trades.setDouble(3, Math.round(Math.exp(random.nextDouble(0, Math.log(20_000))) * 100) / 100.0);
+                trades.setLong(4, giverId);
+                trades.setLong(5, receiverId);
+                trades.setLong(6, recorderId);
+                trades.setLong(7, recorderId);
+                trades.setBoolean(8, false);
+                trades.setBoolean(9, false);
+                trades.setTimestamp(10, date);
+                trades.setTimestamp(11, date);
+                trades.setTimestamp(12, date);
+                trades.setString(13, uuid(random));
+                trades.addBatch();
+
+                if ((t - from) % config.batchSize() == config.batchSize() - 1) {
+                    trades.executeBatch();
+                    connection.commit();
+                    report(config.batchSize());
+                }
+            }
+            trades.executeBatch();
+            connection.commit();
+            report((int) ((to - from) % config.batchSize()));
+        }
+    }
+
+    private void report(int rows) {
+        long before = written.getAndAdd(rows);
+        long step = Math.max(1, config.trades() / 20);
+        if ((before + rows) / step != before / step) {
+            System.out.printf("%d / %d trades%n", before + rows, config.trades());
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        Connection connection = DriverManager.getConnection(config.url(), config.user(), config.password());
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    private static void requireEmpty(Connection connection) throws SQLException {
+        for (String table : new String[] {"users", "pharmacies", "pharmacy_contacts", "trade_records"}) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+                rs.next();
+                if (rs.getLong(1) > 0) {
+                    throw new IllegalStateException("Table " + table + " is not empty");
+                }
+            }
+        }
+    }
+
+    private static void createSchema(DatasetConfig config) {
+        JPAHelper.setPropertyOverrides(Map.of(
+                "hibernate.hikari.dataSource.url", config.url(),
+                "hibernate.hikari.dataSource.user", config.user(),
+                "hibernate.hikari.dataSource.password", config.password(),
+                "hibernate.hikari.minimumIdle", "1",
+                "hibernate.hbm2ddl.auto", "update"));
+        JPAHelper.getEntityManagerFactory();
+        JPAHelper.closeEMF();
+    }
+
+    // Random (version 4) UUID drawn from the seeded random
+    private static String uuid(SplittableRandom random) {
+        long msb = (random.nextLong() & 0xFFFFFFFFFFFF0FFFL) | 0x0000000000004000L;
+        long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb).toString();
+    }
+}
@@ -0,0 +1,78 @@
+package gr.aueb.cf.phtrade.perf.dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Who trades with whom. Hubs get partner counts that fall off as a power law
+ * from {@code hubPartners}; long-tail pharmacies get a handful of partners,
+ * mostly hubs. A pharmacy's trade volume follows its partner count, so hubs
+ * show up in most trades. Pharmacies are indexed from 0, the database id is index + 1.
+ */
+public class TradeGraph {
+
+    private final int[][] partners;
+    private final long[] cumulativeActivity;
+
+    public TradeGraph(DatasetConfig config) {
+        int n = config.pharmacies();
+        int hubs = Math.max(1, (int) Math.round(n * config.hubShare()));
+        SplittableRandom random = new SplittableRandom(config.seed());
+
+        List<Set<Integer>> links = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            links.add(new LinkedHashSet<>());
+        }
+        for (int hub = 0; hub < hubs; hub++) {
+            int degree = Math.min(n - 1, Math.max(config.tailPartners(),
+                    (int) (config.hubPartners() / Math.sqrt(hub + 1))));
+            while (links.get(hub).size() < degree) {
+                link(links, hub, random.nextInt(n));
+            }
+        }
+        for (int i = hubs; i < n; i++) {
+            int degree = Math.min(n - 1, 1 + random.nextInt(config.tailPartners()));
+            while (links.get(i).size() < degree) {
+                // Three out of four tail partners are hubs
+                link(links, i, random.nextInt(4) > 0 ? random.nextInt(hubs) : random.nextInt(n));
+            }
+        }
+
+        partners = new int[n][];
+        cumulativeActivity = new long[n];
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            partners[i] = links.get(i).stream().mapToInt(Integer::intValue).toArray();
+            total += partners[i].length;
+            cumulativeActivity[i] = total;
+        }
+    }
+
+    public int size() {
+        return partners.length;
+    }
+
+    public int[] partnersOf(int pharmacy) {
+        return partners[pharmacy];
+    }
+
+    /**
+     * A pharmacy picked with probability proportional to its partner count.
+     */
+    public int pickActive(SplittableRandom random) {
+        long ticket = random.nextLong(cumulativeActivity[cumulativeActivity.length - 1]);
+        int index = Arrays.binarySearch(cumulativeActivity, ticket + 1);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static void link(List<Set<Integer>> links, int a, int b) {
+        if (a != b) {
+            links.get(a).add(b);
+            links.get(b).add(a);
+        }
+    }
+}
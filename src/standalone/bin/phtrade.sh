@@ -0,0 +1,43 @@
+#!/bin/sh
+# Launches the standalone jar with its AppCDS archive.
+#
+#   phtrade.sh [java options...]          run the server
+#   phtrade.sh --train [java options...]  (re)create the archive with this JVM
+#
+# The archive (phtrade-rest-standalone.jsa next to the jar) holds the parsed and
+# verified classes of a training start. The JVM maps it instead of loading
+# those classes from the jar, and replicas on the same host share the mapping.
+# An archive only works with the JDK build that created it and with the jar at
+# the same path, unchanged. Otherwise the JVM starts without it, so run --train
+# on the image that ships the JVM, after the jar is in its final place.
+#
+# PHTRADE_JAR overrides the jar location, JAVA_OPTS is passed to the JVM.
+
+set -e
+
+JAR="${PHTRADE_JAR:-$(dirname "$0")/phtrade-rest-standalone.jar}"
+# The archive records the class path it was created with, so the jar is
+# always passed by the same absolute path
+JAR="$(cd "$(dirname "$JAR")" && pwd -P)/$(basename "$JAR")"
+JSA="${JAR%.jar}.jsa"
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+
+if [ ! -f "$JAR" ]; then
+    echo "phtrade.sh: $JAR not found, build it with mvn -Pstandalone package" >&2
+    exit 1
+fi
+
+if [ "$1" = "--train" ]; then
+    shift
+    rm -f "$JSA"
+    # Port 0 so a running instance does not get in the way. cds=error hides
+    # the warnings about classes that cannot be archived.
+    exec "$JAVA" -XX:ArchiveClassesAtExit="$JSA" -Xlog:cds=error \
+        -Dphtrade.standalone.training=true -Dphtrade.http.port=0 \
+        $JAVA_OPTS "$@" -jar "$JAR"
+fi
+
+if [ -f "$JSA" ]; then
+    set -- -XX:SharedArchiveFile="$JSA" "$@"
+fi
+exec "$JAVA" $JAVA_OPTS "$@" -jar "$JAR"
@@ -0,0 +1,33 @@
+package gr.aueb.cf.phtrade.standalone;
+
+/**
+ * Connector and thread pool settings of the standalone server, read from
+ * {@code phtrade.http.*} system properties.
+ *
+ * @param acceptors   threads blocked in accept(); one is enough unless the
+ *                    connection rate is very high
+ * @param selectors   NIO selector threads, each owns a share of the open connections
+ * @param minThreads  worker threads kept alive while idle
+ * @param maxThreads  upper bound of the worker pool, acceptors and selectors included
+ * @param maxQueued   requests waiting for a worker before new ones are rejected
+ */
+public record ServerSettings(String host, int port, int acceptors, int selectors,
+                             int minThreads, int maxThreads, int maxQueued,
+                             int acceptQueueSize, long idleTimeoutMillis,
+                             long stopTimeoutMillis) {
+
+    public static ServerSettings fromSystemProperties() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new ServerSettings(
+                System.getProperty("phtrade.http.host", "0.0.0.0"),
+                Integer.getInteger("phtrade.http.port", 8080),
+                Integer.getInteger("phtrade.http.acceptors", 1),
+                Integer.getInteger("phtrade.http.selectors", Math.max(1, cores / 2)),
+                Integer.getInteger("phtrade.http.minThreads", 16),
+                Integer.getInteger("phtrade.http.maxThreads", 200),
+                Integer.getInteger("phtrade.http.maxQueued", 1024),
+                Integer.getInteger("phtrade.http.acceptQueueSize", 1024),
+                Long.getLong("phtrade.http.idleTimeoutMillis", 30_000L),
+                Long.getLong("phtrade.http.stopTimeoutMillis", 15_000L));
+    }
+}
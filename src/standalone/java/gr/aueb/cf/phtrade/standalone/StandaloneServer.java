@@ -0,0 +1,141 @@
+package gr.aueb.cf.phtrade.standalone;
+
+import gr.aueb.cf.phtrade.PharmApp;
+import gr.aueb.cf.phtrade.core.lifecycle.ReadinessState;
+import gr.aueb.cf.phtrade.core.ratelimit.ClientAddressListener;
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.GracefulHandler;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs {@link PharmApp} on an embedded Jetty without an application server.
+ * Resources and providers are found by package scanning and CDI is provided
+ * by Weld SE through jersey-cdi2-se, exactly as in the deployed war.
+ * <p>
+ * Built by {@code mvn -Pstandalone package} into
+ * {@code target/phtrade-rest-standalone.jar}.
+ */
+public class StandaloneServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StandaloneServer.class);
+    private static final long READY_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Server server;
+
+    public StandaloneServer(ServerSettings settings) {
+        // A bounded queue makes Jetty reject work it cannot get to instead of
+        // letting the backlog, and the latency, grow without limit
+        QueuedThreadPool threadPool = new QueuedThreadPool(settings.maxThreads(), settings.minThreads(),
+                (int) settings.idleTimeoutMillis(),
+                new BlockingArrayQueue<>(settings.minThreads(), settings.minThreads(), settings.maxQueued()));
+        threadPool.setName("phtrade-http");
+        server = new Server(threadPool);
+
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.setSendServerVersion(false);
+        httpConfig.setSendXPoweredBy(false);
+
+        ServerConnector connector = new ServerConnector(server, settings.acceptors(), settings.selectors(),
+                new HttpConnectionFactory(httpConfig));
+        connector.setHost(settings.host());
+        connector.setPort(settings.port());
+        connector.setAcceptQueueSize(settings.acceptQueueSize());
+        connector.setIdleTimeout(settings.idleTimeoutMillis());
+        server.addConnector(connector);
+
+        ResourceConfig resourceConfig = new ResourceConfig().packages(true, PharmApp.class.getPackageName());
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        // Registered by @WebListener scanning in the war
+        context.addEventListener(new ClientAddressListener());
+        context.addServlet(new ServletHolder(new ServletContainer(resourceConfig)), "/api/*");
+
+        // In-flight requests finish on shutdown, new ones get a 503
+        server.setHandler(new GracefulHandler(context));
+        server.setStopTimeout(settings.stopTimeoutMillis());
+        server.setStopAtShutdown(true);
+    }
+
+    public void start() throws Exception {
+        server.start();
+    }
+
+    public void stop() throws Exception {
+        server.stop();
+    }
+
+    public void join() throws InterruptedException {
+        server.join();
+    }
+
+    public int getPort() {
+        return ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    /**
+     * Starts the server. With {@code -Dphtrade.standalone.exitWhenReady=true} it
+     * waits for the bootstrap to report ready, logs the startup time and stops,
+     * which is how startup is measured in CI. {@code -Dphtrade.standalone.training=true}
+     * also sends a few requests through the whole stack before stopping, so
+     * the JVM has loaded the classes of a real request when it dumps the CDS
+     * archive (see {@code bin/phtrade.sh}).
+     */
+    public static void main(String[] args) throws Exception {
+        ServerSettings settings = ServerSettings.fromSystemProperties();
+        StandaloneServer standalone = new StandaloneServer(settings);
+        standalone.start();
+        LOGGER.info("Listening on {}:{} ({} acceptors, {} selectors, {}-{} workers), {} ms after JVM start",
+                settings.host(), standalone.getPort(), settings.acceptors(), settings.selectors(),
+                settings.minThreads(), settings.maxThreads(), uptimeMillis());
+
+        boolean training = Boolean.getBoolean("phtrade.standalone.training");
+        if (!training && !Boolean.getBoolean("phtrade.standalone.exitWhenReady")) {
+            standalone.join();
+            return;
+        }
+        boolean ready = awaitBootstrap();
+        if (ready) {
+            LOGGER.info("Ready {} ms after JVM start", uptimeMillis());
+        } else {
+            LOGGER.error("Not ready {} ms after JVM start", uptimeMillis());
+        }
+        // A training run without a database still loads most of the classes,
+        // so it does not fail the build
+        if (training) {
+            new TrainingRun(standalone.getPort()).run();
+        }
+        try {
+            standalone.stop();
+        } catch (TimeoutException e) {
+            LOGGER.warn("Requests still running after {} ms, stopped anyway", settings.stopTimeoutMillis());
+        }
+        System.exit(ready || training ? 0 : 1);
+    }
+
+    private static boolean awaitBootstrap() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT_MILLIS;
+        while (!ReadinessState.isReady() && !ReadinessState.hasFailed()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        return ReadinessState.isReady();
+    }
+
+    private static long uptimeMillis() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
@@ -0,0 +1,74 @@
+package gr.aueb.cf.phtrade.standalone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Requests sent to the local instance before a CDS dump. Together they go
+ * through routing, the filters, JSON (de)serialization, validation and the
+ * exception mappers. The responses do not matter, only the classes they load.
+ */
+class TrainingRun {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrainingRun.class);
+    private static final int ROUNDS = 2;
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(TIMEOUT)
+            .build();
+    private final String baseUrl;
+
+    TrainingRun(int port) {
+        this.baseUrl = "http://localhost:" + port + "/api";
+    }
+
+    void run() {
+        List<HttpRequest> requests = List.of(
+                get("/health/live"),
+                get("/health/ready"),
+                get("/metrics"),
+                post("/auth/login", "{\"username\":\"training\",\"password\":\"training\"}"),
+                post("/auth/login", "{}"),
+                get("/records/paginated?page=0&size=10"));
+
+        int sent = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (HttpRequest request : requests) {
+                try {
+                    client.send(request, HttpResponse.BodyHandlers.discarding());
+                    sent++;
+                } catch (IOException e) {
+                    LOGGER.warn("Training request {} failed: {}", request.uri(), e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        LOGGER.info("Training run sent {} requests", sent);
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(TIMEOUT)
+                .GET()
+                .build();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+}
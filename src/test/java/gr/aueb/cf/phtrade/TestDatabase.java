@@ -0,0 +1,89 @@
+package gr.aueb.cf.phtrade;
+
+import gr.aueb.cf.phtrade.core.enums.RoleType;
+import gr.aueb.cf.phtrade.model.Pharmacy;
+import gr.aueb.cf.phtrade.model.User;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import gr.aueb.cf.phtrade.service.util.ShardRouter;
+import jakarta.persistence.EntityManager;
+
+import java.util.Map;
+
+/**
+ * In-memory H2 in MySQL mode for the tests: the main database and the trade
+ * record shards set up by surefire ({@code phtrade.shards.count}). Shard
+ * {@code i} hands out the ids {@code i + 1}, {@code i + 1 + count}, ... like
+ * the interleaved auto increments of MySQL, so records are found from their id.
+ * The databases live as long as the JVM, each test creates its own pharmacies.
+ */
+public final class TestDatabase {
+
+    private static boolean configured;
+
+    private TestDatabase() {
+
+    }
+
+    public static synchronized void configure() {
+        if (configured) {
+            return;
+        }
+        for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+            String prefix = "phtrade.shards." + shard + ".";
+            System.setProperty(prefix + "url", url("phtrade-shard" + shard));
+            System.setProperty(prefix + "user", "sa");
+            System.setProperty(prefix + "password", "");
+            System.setProperty(prefix + "connectionInitSql", "");
+        }
+        JPAHelper.setPropertyOverrides(Map.of(
+                "hibernate.hikari.dataSourceClassName", "org.h2.jdbcx.JdbcDataSource",
+                "hibernate.hikari.dataSource.url", url("phtrade"),
+                "hibernate.hikari.dataSource.user", "sa",
+                "hibernate.hikari.dataSource.password", "",
+                "hibernate.hikari.minimumIdle", "1",
+                "hibernate.hbm2ddl.auto", "create-drop"));
+        if (ShardRouter.isEnabled()) {
+            for (int shard = 0; shard < ShardRouter.getShardCount(); shard++) {
+                EntityManager em = JPAHelper.getShardEntityManagerFactory(shard).createEntityManager();
+                try {
+                    em.getTransaction().begin();
+                    em.createNativeQuery("ALTER TABLE trade_records ALTER COLUMN id RESTART WITH " + (shard + 1))
+                            .executeUpdate();
+                    em.createNativeQuery("ALTER TABLE trade_records ALTER COLUMN id SET INCREMENT BY "
+                            + ShardRouter.getShardCount()).executeUpdate();
+                    em.getTransaction().commit();
+                } finally {
+                    em.close();
+                }
+            }
+        }
+        configured = true;
+    }
+
+    /**
+     * A pharmacy with its owner, committed on the main database.
+     */
+    public static Pharmacy pharmacy(String name) {
+        try {
+            JPAHelper.beginTransaction();
+            EntityManager em = JPAHelper.getEntityManager();
+            User user = User.builder()
+                    .username(name)
+                    .password("secret")
+                    .email(name + "@phtrade.gr")
+                    .roleType(RoleType.PHARMACY_USER)
+                    .build();
+            em.persist(user);
+            Pharmacy pharmacy = Pharmacy.builder().name(name).user(user).build();
+            em.persist(pharmacy);
+            JPAHelper.commitTransaction();
+            return pharmacy;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    private static String url(String database) {
+        return "jdbc:h2:mem:" + database + ";MODE=MySQL;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE";
+    }
+}
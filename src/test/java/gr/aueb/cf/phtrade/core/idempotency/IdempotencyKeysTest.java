@@ -0,0 +1,133 @@
+package gr.aueb.cf.phtrade.core.idempotency;
+
+import gr.aueb.cf.phtrade.TestDatabase;
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
+import gr.aueb.cf.phtrade.model.IdempotencyKey;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotencyKeysTest {
+
+    private static final Map<String, Object> BODY = Map.of("description", "aspirin", "amount", 12.5);
+
+    @BeforeAll
+    static void configure() {
+        TestDatabase.configure();
+    }
+
+    @Test
+    void retryReplaysTheFirstResponse() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        IdempotencyKeys.Call call = () -> store(40L + runs.incrementAndGet());
+
+        IdempotencyKeys.Outcome first = IdempotencyKeys.execute("alice", "replay", BODY, call);
+        IdempotencyKeys.Outcome retry = IdempotencyKeys.execute("alice", "replay", BODY, call);
+
+        assertEquals(1, runs.get());
+        assertFalse(first.replayed());
+        assertTrue(retry.replayed());
+        assertEquals(first.resourceId(), retry.resourceId());
+        assertEquals(first.response(), retry.response());
+    }
+
+    @Test
+    void keyReusedWithAnotherBodyIsRejected() throws Exception {
+        IdempotencyKeys.execute("alice", "mismatch", BODY, () -> store(50L));
+
+        assertThrows(EntityInvalidArgumentException.class, () -> IdempotencyKeys.execute("alice", "mismatch",
+                Map.of("description", "aspirin", "amount", 13.0), () -> store(51L)));
+    }
+
+    // Keys of different callers never match
+    @Test
+    void sameKeyOfAnotherCallerRuns() throws Exception {
+        IdempotencyKeys.execute("alice", "scoped", BODY, () -> store(60L));
+        IdempotencyKeys.Outcome other = IdempotencyKeys.execute("bob", "scoped", BODY, () -> store(61L));
+
+        assertFalse(other.replayed());
+        assertEquals(61L, other.resourceId());
+    }
+
+    @Test
+    void keyWithoutCallerIsRejected() {
+        AtomicInteger runs = new AtomicInteger();
+        IdempotencyKeys.Call call = () -> store(70L + runs.incrementAndGet());
+
+        assertThrows(EntityInvalidArgumentException.class,
+                () -> IdempotencyKeys.execute(null, "anonymous", BODY, call));
+        assertThrows(EntityInvalidArgumentException.class,
+                () -> IdempotencyKeys.execute(" ", "anonymous", BODY, call));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void failedRequestReleasesTheKey() throws Exception {
+        assertThrows(EntityInvalidArgumentException.class, () -> IdempotencyKeys.execute("alice", "failed", BODY,
+                () -> {
+                    throw new EntityInvalidArgumentException("TradeRecord", "Invalid amount");
+                }));
+        IdempotencyKeys.Outcome retry = IdempotencyKeys.execute("alice", "failed", BODY, () -> store(80L));
+
+        assertFalse(retry.replayed());
+        assertEquals(80L, retry.resourceId());
+    }
+
+    // The claim taken over by another request keeps its token and no response
+    @Test
+    void requestWhoseClaimWasTakenOverCannotStoreItsResponse() {
+        assertThrows(IllegalStateException.class, () -> IdempotencyKeys.execute("alice", "taken", BODY, () -> {
+            changeToken("alice:taken", "another-request");
+            store(90L);
+        }));
+
+        IdempotencyKey key = find("alice:taken");
+        assertEquals("another-request", key.getClaimToken());
+        assertNull(key.getResponse());
+    }
+
+    // What a service does in the unit of work that creates the resource
+    private static void store(Long id) {
+        try {
+            JPAHelper.beginTransaction();
+            IdempotencyKeys.completed(id, Map.of("id", id));
+            JPAHelper.commitTransaction();
+        } catch (RuntimeException e) {
+            JPAHelper.rollbackTransaction();
+            throw e;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    private static void changeToken(String scopedKey, String token) {
+        try {
+            JPAHelper.beginTransaction();
+            JPAHelper.getEntityManager()
+                    .createQuery("update IdempotencyKey k set k.claimToken = :token where k.scopedKey = :key")
+                    .setParameter("token", token)
+                    .setParameter("key", scopedKey)
+                    .executeUpdate();
+            JPAHelper.commitTransaction();
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    private static IdempotencyKey find(String scopedKey) {
+        try {
+            return JPAHelper.getEntityManager().find(IdempotencyKey.class, scopedKey);
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package gr.aueb.cf.phtrade.core.segments;
+
+import gr.aueb.cf.phtrade.TestDatabase;
+import gr.aueb.cf.phtrade.dao.TradeRecordDAOImpl;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TradeSegmentsTest {
+
+    // Pharmacies that only trade in the segments, no test creates them
+    private static final long GIVER = 900;
+    private static final long RECEIVER = 901;
+
+    private static final LocalDateTime FIRST = LocalDateTime.of(2001, 3, 1, 0, 0);
+    private static final LocalDateTime LAST = LocalDateTime.of(2001, 3, 31, 12, 0);
+
+    @BeforeAll
+    static void writeSegments() throws IOException {
+        TestDatabase.configure();
+        Path directory = TradeSegments.directory();
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + TradeSegments.EXTENSION)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        // Two exports of the same month, sequence 10 is newer than 2
+        TradeSegmentWriter.write(directory.resolve("trades-200103-main-2" + TradeSegments.EXTENSION),
+                List.of(row(1, FIRST), row(3, FIRST.plusDays(10))));
+        TradeSegmentWriter.write(directory.resolve("trades-200103-main-10" + TradeSegments.EXTENSION),
+                List.of(row(7, LAST), row(5, FIRST.plusDays(20))));
+        TradeSegments.refresh();
+    }
+
+    @Test
+    void openRangeReachesTheSegments() {
+        assertTrue(TradeSegments.holdRecordsIn(null, null));
+    }
+
+    @Test
+    void rangeOverlappingASegmentReachesIt() {
+        assertTrue(TradeSegments.holdRecordsIn(FIRST.plusDays(5), null));
+        assertTrue(TradeSegments.holdRecordsIn(null, FIRST.plusDays(5)));
+        assertTrue(TradeSegments.holdRecordsIn(FIRST.minusYears(1), LAST.plusYears(1)));
+        assertTrue(TradeSegments.holdRecordsIn(FIRST.plusDays(2), FIRST.plusDays(3)));
+    }
+
+    // Both ends are included
+    @Test
+    void rangeTouchingASegmentReachesIt() {
+        assertTrue(TradeSegments.holdRecordsIn(null, FIRST));
+        assertTrue(TradeSegments.holdRecordsIn(LAST, null));
+    }
+
+    @Test
+    void rangeMissingTheSegmentsSkipsThem() {
+        assertFalse(TradeSegments.holdRecordsIn(LAST.plusSeconds(1), null));
+        assertFalse(TradeSegments.holdRecordsIn(null, FIRST.minusSeconds(1)));
+        assertFalse(TradeSegments.holdRecordsIn(FIRST.minusYears(1), FIRST.minusDays(1)));
+    }
+
+    @Test
+    void exportedIdsAreTheNewestSegmentSorted() {
+        assertArrayEquals(new long[] {5, 7}, TradeSegments.exportedIds("trades-200103-main-"));
+        assertArrayEquals(new long[0], TradeSegments.exportedIds("trades-200104-main-"));
+    }
+
+    // A range ending after the segments but open at the start still reaches them
+    @Test
+    void countIncludesTheSegmentsOnlyForRangesReachingThem() {
+        assertEquals(4, count(Map.of("giver.id", GIVER)));
+        assertEquals(4, count(Map.of("giver.id", GIVER, "transactionDate", range(null, LocalDateTime.now()))));
+        assertEquals(2, count(Map.of("giver.id", GIVER, "transactionDate", range(null, FIRST.plusDays(10)))));
+        assertEquals(0, count(Map.of("giver.id", GIVER, "transactionDate", range(LAST.plusDays(1), null))));
+    }
+
+    private static long count(Map<String, Object> criteria) {
+        try {
+            JPAHelper.beginTransaction();
+            long count = new TradeRecordDAOImpl().getCountByCriteria(criteria);
+            JPAHelper.commitTransaction();
+            return count;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    private static Map<String, Object> range(LocalDateTime from, LocalDateTime to) {
+        Map<String, Object> range = new HashMap<>();
+        if (from != null) {
+            range.put("from", from);
+        }
+        if (to != null) {
+            range.put("to", to);
+        }
+        return range;
+    }
+
+    private static TradeSegmentRow row(long id, LocalDateTime date) {
+        return new TradeSegmentRow(id, "segment " + id, 10.0, GIVER, RECEIVER, null, null, false, false,
+                date, date, date, UUID.randomUUID().toString());
+    }
+}
@@ -0,0 +1,167 @@
+package gr.aueb.cf.phtrade.dao;
+
+import gr.aueb.cf.phtrade.TestDatabase;
+import gr.aueb.cf.phtrade.model.Pharmacy;
+import gr.aueb.cf.phtrade.model.TradeRecord;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import gr.aueb.cf.phtrade.service.util.ShardRouter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TradeRecordDAOImplTest {
+
+    private static final List<SortOrder> NEWEST_FIRST =
+            List.of(SortOrder.desc("transactionDate"), SortOrder.desc("id"));
+    private static final List<SortOrder> OLDEST_FIRST =
+            List.of(SortOrder.asc("transactionDate"), SortOrder.asc("id"));
+
+    private static final LocalDateTime CUTOFF = LocalDateTime.of(2024, 6, 1, 0, 0);
+
+    private static final TradeRecordDAOImpl dao = new TradeRecordDAOImpl();
+    private static Pharmacy giver;
+    private static final List<TradeRecord> records = new ArrayList<>();
+
+    // One giver trading with several pharmacies, so its records are on every shard
+    @BeforeAll
+    static void seed() {
+        TestDatabase.configure();
+        giver = TestDatabase.pharmacy("paging-giver");
+        List<Pharmacy> receivers = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            receivers.add(TestDatabase.pharmacy("paging-receiver-" + i));
+        }
+        inTransaction(() -> {
+            for (int i = 0; i < 12; i++) {
+                Pharmacy receiver = receivers.get(i % receivers.size());
+                TradeRecord record = TradeRecord.builder()
+                        .description("paging " + i)
+                        .amount(10.0 + i)
+                        .giver(giver)
+                        .receiver(receiver)
+                        .recorder(giver.getUser())
+                        .lastModifiedBy(giver.getUser())
+                        // Two records per day, the id breaks the tie
+                        .transactionDate(LocalDateTime.of(2025, 3, 1, 12, 0).plusDays(i / 2))
+                        .build();
+                records.add(dao.insert(record).orElseThrow());
+            }
+            return null;
+        });
+    }
+
+    @Test
+    void recordsAreSpreadOverTheShards() {
+        Set<Integer> shards = new HashSet<>();
+        for (TradeRecord record : records) {
+            shards.add(ShardRouter.shardForId(record.getId()));
+        }
+        assertEquals(ShardRouter.getShardCount(), shards.size());
+    }
+
+    @Test
+    void pagesMergedFromTheShardsFollowEachOther() {
+        List<Long> expected = ids(sorted(Comparator.comparing(TradeRecord::getTransactionDate)
+                .thenComparing(TradeRecord::getId)
+                .reversed()));
+        List<Long> paged = new ArrayList<>();
+        for (int page = 0; page < 3; page++) {
+            paged.addAll(ids(page(page, 5, NEWEST_FIRST)));
+        }
+        assertEquals(expected, paged);
+        assertTrue(page(3, 5, NEWEST_FIRST).isEmpty());
+    }
+
+    @Test
+    void pageInAscendingOrder() {
+        List<Long> expected = ids(sorted(Comparator.comparing(TradeRecord::getTransactionDate)
+                .thenComparing(TradeRecord::getId)));
+        assertEquals(expected.subList(4, 8), ids(page(1, 4, OLDEST_FIRST)));
+    }
+
+    @Test
+    void fieldsPageIsMergedLikeRecords() {
+        List<Long> expected = ids(page(1, 5, NEWEST_FIRST));
+        List<Map<String, Object>> fields = inTransaction(() -> dao.getFieldsByCriteriaPaginated(
+                Map.of("giver.id", giver.getId()), List.of("id"), 1, 5, NEWEST_FIRST));
+        assertEquals(expected, fields.stream().map(values -> (Long) values.get("id")).collect(Collectors.toList()));
+    }
+
+    // Each shard reads (page + 1) * size rows, which must not wrap around
+    @Test
+    void pageDepthBeyondIntIsRejected() {
+        assertThrows(ArithmeticException.class, () -> page(Integer.MAX_VALUE, 2, NEWEST_FIRST));
+    }
+
+    @Test
+    void rangeStartingBeforeTheCutoffReadsTheArchive() {
+        assertTrue(TradeRecordDAOImpl.reachesBefore(range(CUTOFF.minusDays(1), CUTOFF.plusDays(30)), CUTOFF));
+        assertTrue(TradeRecordDAOImpl.reachesBefore(Map.of("transactionDate", CUTOFF.minusSeconds(1)), CUTOFF));
+    }
+
+    @Test
+    void rangeStartingAtOrAfterTheCutoffSkipsTheArchive() {
+        assertFalse(TradeRecordDAOImpl.reachesBefore(range(CUTOFF, null), CUTOFF));
+        assertFalse(TradeRecordDAOImpl.reachesBefore(range(CUTOFF.plusDays(1), CUTOFF.plusDays(2)), CUTOFF));
+        assertFalse(TradeRecordDAOImpl.reachesBefore(Map.of("transactionDate", CUTOFF), CUTOFF));
+    }
+
+    // An open start reaches the oldest records, wherever the range ends
+    @Test
+    void rangeWithoutStartReadsTheArchive() {
+        assertTrue(TradeRecordDAOImpl.reachesBefore(Map.of(), CUTOFF));
+        assertTrue(TradeRecordDAOImpl.reachesBefore(range(null, CUTOFF.plusYears(1)), CUTOFF));
+    }
+
+    private static Map<String, Object> range(LocalDateTime from, LocalDateTime to) {
+        Map<String, Object> range = new HashMap<>();
+        if (from != null) {
+            range.put("from", from);
+        }
+        if (to != null) {
+            range.put("to", to);
+        }
+        return Map.of("transactionDate", range);
+    }
+
+    private static List<TradeRecord> page(int page, int size, List<SortOrder> order) {
+        return inTransaction(() -> dao.getByCriteriaPaginated(TradeRecord.class,
+                Map.of("giver.id", giver.getId()), page, size, order));
+    }
+
+    private static List<TradeRecord> sorted(Comparator<TradeRecord> order) {
+        List<TradeRecord> sorted = new ArrayList<>(records);
+        sorted.sort(order);
+        return sorted;
+    }
+
+    private static List<Long> ids(List<TradeRecord> records) {
+        return records.stream().map(TradeRecord::getId).collect(Collectors.toList());
+    }
+
+    private static <T> T inTransaction(Supplier<T> work) {
+        try {
+            JPAHelper.beginTransaction();
+            T result = work.get();
+            JPAHelper.commitTransaction();
+            return result;
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+}
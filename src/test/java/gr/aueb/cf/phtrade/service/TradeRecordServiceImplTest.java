@@ -0,0 +1,89 @@
+package gr.aueb.cf.phtrade.service;
+
+import gr.aueb.cf.phtrade.TestDatabase;
+import gr.aueb.cf.phtrade.core.exceptions.EntityNotFoundException;
+import gr.aueb.cf.phtrade.dao.PharmacyDAOImpl;
+import gr.aueb.cf.phtrade.dao.TradeRecordDAOImpl;
+import gr.aueb.cf.phtrade.dao.UserDAOImpl;
+import gr.aueb.cf.phtrade.dto.TradeRecordReadOnlyDTO;
+import gr.aueb.cf.phtrade.model.Pharmacy;
+import gr.aueb.cf.phtrade.model.TradeRecord;
+import gr.aueb.cf.phtrade.service.util.JPAHelper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TradeRecordServiceImplTest {
+
+    private static final TradeRecordDAOImpl tradeRecordDAO = new TradeRecordDAOImpl();
+    private static final TradeRecordServiceImpl service =
+            new TradeRecordServiceImpl(tradeRecordDAO, new PharmacyDAOImpl(), new UserDAOImpl());
+
+    private static Pharmacy pharmacy;
+    private static final List<Long> ids = new ArrayList<>();
+
+    // The pharmacy gives and receives on alternate days, newest last
+    @BeforeAll
+    static void seed() {
+        TestDatabase.configure();
+        pharmacy = TestDatabase.pharmacy("recent-pharmacy");
+        Pharmacy supplier = TestDatabase.pharmacy("recent-supplier");
+        Pharmacy customer = TestDatabase.pharmacy("recent-customer");
+        try {
+            JPAHelper.beginTransaction();
+            ids.add(insert(supplier, pharmacy, 1));
+            ids.add(insert(supplier, pharmacy, 2));
+            ids.add(insert(pharmacy, customer, 3));
+            ids.add(insert(supplier, pharmacy, 4));
+            ids.add(insert(pharmacy, customer, 5));
+            ids.add(insert(customer, pharmacy, 6));
+            JPAHelper.commitTransaction();
+        } finally {
+            JPAHelper.closeEntityManager();
+        }
+    }
+
+    @Test
+    void recentTradesIncludeBothSides() throws Exception {
+        assertEquals(List.of(ids.get(5), ids.get(4), ids.get(3), ids.get(2)), recentIds(4));
+    }
+
+    @Test
+    void recentTradesAreAllTradesWhenFewer() throws Exception {
+        List<Long> newestFirst = new ArrayList<>(ids);
+        Collections.reverse(newestFirst);
+        assertEquals(newestFirst, recentIds(10));
+    }
+
+    @Test
+    void recentTradesOfUnknownPharmacyAreNotFound() {
+        assertThrows(EntityNotFoundException.class, () -> service.getRecentTradesForPharmacy(-1L, 5));
+    }
+
+    private static List<Long> recentIds(int limit) throws EntityNotFoundException {
+        return service.getRecentTradesForPharmacy(pharmacy.getId(), limit).stream()
+                .map(TradeRecordReadOnlyDTO::id)
+                .collect(Collectors.toList());
+    }
+
+    private static Long insert(Pharmacy giver, Pharmacy receiver, int day) {
+        TradeRecord record = TradeRecord.builder()
+                .description("recent " + day)
+                .amount(5.0 * day)
+                .giver(giver)
+                .receiver(receiver)
+                .recorder(giver.getUser())
+                .lastModifiedBy(giver.getUser())
+                .transactionDate(LocalDateTime.of(2025, 5, day, 9, 0))
+                .build();
+        return tradeRecordDAO.insert(record).orElseThrow().getId();
+    }
+}
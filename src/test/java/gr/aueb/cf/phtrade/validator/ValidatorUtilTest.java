@@ -0,0 +1,92 @@
+package gr.aueb.cf.phtrade.validator;
+
+import gr.aueb.cf.phtrade.core.exceptions.EntityInvalidArgumentException;
+import gr.aueb.cf.phtrade.dao.SortOrder;
+import gr.aueb.cf.phtrade.mapper.Mapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ValidatorUtilTest {
+
+    @Test
+    void pageWithinTheLimitsIsAccepted() {
+        assertDoesNotThrow(() -> ValidatorUtil.validatePage(0, 100, 100, 10_000));
+        assertDoesNotThrow(() -> ValidatorUtil.validatePage(99, 100, 100, 10_000));
+    }
+
+    @Test
+    void negativePageIsRejected() {
+        assertThrows(EntityInvalidArgumentException.class, () -> ValidatorUtil.validatePage(-1, 10, 100, 10_000));
+    }
+
+    @Test
+    void sizeOutOfRangeIsRejected() {
+        assertThrows(EntityInvalidArgumentException.class, () -> ValidatorUtil.validatePage(0, 0, 100, 10_000));
+        assertThrows(EntityInvalidArgumentException.class, () -> ValidatorUtil.validatePage(0, 101, 100, 10_000));
+    }
+
+    @Test
+    void pageEndingPastTheDepthIsRejected() {
+        assertThrows(EntityInvalidArgumentException.class, () -> ValidatorUtil.validatePage(100, 100, 100, 10_000));
+    }
+
+    // (page + 1) * size is above Integer.MAX_VALUE here, it must not wrap to a small number
+    @Test
+    void pageThatWouldOverflowIsRejected() {
+        assertThrows(EntityInvalidArgumentException.class,
+                () -> ValidatorUtil.validatePage(Integer.MAX_VALUE, 100, 100, 10_000));
+    }
+
+    @Test
+    void missingFieldsSelectTheWholeDto() throws Exception {
+        assertNull(ValidatorUtil.validateFields(null, Mapper.TRADE_RECORD_FIELDS));
+        assertNull(ValidatorUtil.validateFields(" ", Mapper.TRADE_RECORD_FIELDS));
+    }
+
+    // Fields come back once each, in the order of the DTO
+    @Test
+    void fieldsFollowTheDtoOrder() throws Exception {
+        assertEquals(List.of("id", "giverName", "transactionDate"),
+                ValidatorUtil.validateFields("transactionDate, giverName,id,id", Mapper.TRADE_RECORD_FIELDS));
+    }
+
+    @Test
+    void unknownFieldIsRejected() {
+        assertThrows(EntityInvalidArgumentException.class,
+                () -> ValidatorUtil.validateFields("id,giver", Mapper.TRADE_RECORD_FIELDS));
+    }
+
+    @Test
+    void missingSortKeepsTheDefaultOrder() throws Exception {
+        assertTrue(ValidatorUtil.validateSort(null, Mapper.TRADE_RECORD_SORTS).isEmpty());
+        assertTrue(ValidatorUtil.validateSort("", Mapper.TRADE_RECORD_SORTS).isEmpty());
+    }
+
+    @Test
+    void sortFieldsKeepTheirOrderAndDirection() throws Exception {
+        assertEquals(List.of(SortOrder.desc("transactionDate"), SortOrder.asc("id")),
+                ValidatorUtil.validateSort("-transactionDate, id", Mapper.TRADE_RECORD_SORTS));
+    }
+
+    // amount is a field of the DTO but has no index to read it in order
+    @Test
+    void fieldThatCannotBeSortedIsRejected() {
+        assertThrows(EntityInvalidArgumentException.class,
+                () -> ValidatorUtil.validateSort("amount", Mapper.TRADE_RECORD_SORTS));
+        assertThrows(EntityInvalidArgumentException.class,
+                () -> ValidatorUtil.validateSort("+id", Mapper.TRADE_RECORD_SORTS));
+    }
+
+    @Test
+    void repeatedSortFieldIsRejected() {
+        assertThrows(EntityInvalidArgumentException.class,
+                () -> ValidatorUtil.validateSort("id,-id", Mapper.TRADE_RECORD_SORTS));
+    }
+}